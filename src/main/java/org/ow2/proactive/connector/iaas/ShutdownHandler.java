@@ -47,9 +47,11 @@ public class ShutdownHandler {
             try {
                 if (infrastructure.isToBeRemovedOnShutdown()) {
                     infrastructureService.deleteInfrastructureWithCreatedInstances(infrastructure);
-                } else {
+                } else if (!infrastructureService.isRegistryPersistent()) {
                     infrastructureService.deleteInfrastructure(infrastructure);
                 }
+                // otherwise kept in the persistent registry, along with the cloud resources it owns, to be restored
+                // at the next start, the provider clients being closed with their cache
             } catch (Exception e) {
                 log.error("Shutdown ERROR when trying to delete infrastructure : " + infrastructure, e);
             }
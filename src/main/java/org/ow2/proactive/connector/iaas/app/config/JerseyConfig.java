@@ -47,5 +47,10 @@ public class JerseyConfig extends ResourceConfig {
         register(RegionRest.class);
         register(NodeCandidateRest.class);
         register(HardwareRest.class);
+        register(JobRest.class);
+        register(AdminRest.class);
+        register(RequestDeadlineFilter.class);
+        register(OperationRest.class);
+        register(OperationIdFilter.class);
     }
 }
@@ -25,19 +25,32 @@
  */
 package org.ow2.proactive.connector.iaas.cache;
 
-import java.util.Map;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import jersey.repackaged.com.google.common.collect.ImmutableMap;
 import lombok.Getter;
 
 
+/**
+ * Copy-on-write registry of the infrastructures: each modification publishes a new immutable map, built in a single
+ * copy of the previous one, so that readers never lock. When the {@link InfrastructureRegistryStore} is enabled, each
+ * modification is journaled before being published and the registry is restored from it at startup.
+ */
 @Component
 public class InfrastructureCache {
 
+    @Autowired
+    private InfrastructureRegistryStore registryStore;
+
     @Getter
     private volatile ImmutableMap<String, Infrastructure> supportedInfrastructures;
 
@@ -45,23 +58,51 @@ public class InfrastructureCache {
         this.supportedInfrastructures = ImmutableMap.of();
     }
 
-    public synchronized void registerInfrastructure(Infrastructure infrastructure) {
-        Map<String, Infrastructure> tempInfrastructures = cloneSupportedInfrastructures();
+    @PostConstruct
+    public synchronized void restore() {
+        if (isPersistent()) {
+            supportedInfrastructures = ImmutableMap.copyOf(registryStore.load());
+        }
+    }
 
-        tempInfrastructures.put(infrastructure.getId(), infrastructure);
-        supportedInfrastructures = ImmutableMap.copyOf(tempInfrastructures);
+    public boolean isPersistent() {
+        return registryStore != null && registryStore.isEnabled();
     }
 
-    public synchronized void deleteInfrastructure(Infrastructure infrastructure) {
-        Map<String, Infrastructure> tempInfrastructures = cloneSupportedInfrastructures();
+    public void registerInfrastructure(Infrastructure infrastructure) {
+        registerInfrastructures(Collections.singletonList(infrastructure));
+    }
+
+    /**
+     * Register several infrastructures at once, readers seeing either none or all of them.
+     * @param infrastructures The infrastructures to be registered, replacing the ones having the same id
+     */
+    public synchronized void registerInfrastructures(Collection<Infrastructure> infrastructures) {
+        Set<String> registeredIds = infrastructures.stream().map(Infrastructure::getId).collect(Collectors.toSet());
+        ImmutableMap.Builder<String, Infrastructure> builder = copySupportedInfrastructuresExcept(registeredIds);
+        infrastructures.forEach(infrastructure -> builder.put(infrastructure.getId(), infrastructure));
+        ImmutableMap<String, Infrastructure> newInfrastructures = builder.build();
+        if (isPersistent()) {
+            registryStore.recordRegistrations(infrastructures, newInfrastructures);
+        }
+        supportedInfrastructures = newInfrastructures;
+    }
 
-        tempInfrastructures.remove(infrastructure.getId());
-        supportedInfrastructures = ImmutableMap.copyOf(tempInfrastructures);
+    public synchronized void deleteInfrastructure(Infrastructure infrastructure) {
+        ImmutableMap<String, Infrastructure> newInfrastructures = copySupportedInfrastructuresExcept(Collections.singleton(infrastructure.getId())).build();
+        if (isPersistent()) {
+            registryStore.recordDeletion(infrastructure.getId(), newInfrastructures);
+        }
+        supportedInfrastructures = newInfrastructures;
     }
 
-    private Map<String, Infrastructure> cloneSupportedInfrastructures() {
-        return supportedInfrastructures.entrySet()
-                                       .stream()
-                                       .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private ImmutableMap.Builder<String, Infrastructure> copySupportedInfrastructuresExcept(Set<String> excludedIds) {
+        ImmutableMap.Builder<String, Infrastructure> builder = ImmutableMap.builder();
+        supportedInfrastructures.forEach((id, infrastructure) -> {
+            if (!excludedIds.contains(id)) {
+                builder.put(id, infrastructure);
+            }
+        });
+        return builder;
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Durable copy of the infrastructure registry, kept in connector-iaas.registry.directory so that the registered
+ * infrastructures survive a restart of the connector. Each change is appended to a journal, which is compacted into
+ * a snapshot of the whole registry once it holds connector-iaas.registry.compaction-threshold records. The
+ * credentials are encrypted at rest.
+ */
+@Component
+@Log4j2
+public class InfrastructureRegistryStore {
+
+    static final String JOURNAL_NAME = "infrastructures";
+
+    static final String SNAPSHOT_FILE = JOURNAL_NAME + ".snapshot";
+
+    static final String JOURNAL_FILE = JOURNAL_NAME + ".journal";
+
+    static final String KEY_FILE = "registry.key";
+
+    private static final String REGISTER = "REGISTER";
+
+    private static final String DELETE = "DELETE";
+
+    @Value("${connector-iaas.registry.directory:}")
+    private String registryDirectory;
+
+    @Value("${connector-iaas.registry.encryption-key:}")
+    private String encryptionKey;
+
+    @Value("${connector-iaas.registry.compaction-threshold:1000}")
+    private int compactionThreshold;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private RegistrySecretCipher secretCipher;
+
+    private JsonJournal journal;
+
+    public boolean isEnabled() {
+        return registryDirectory != null && !registryDirectory.trim().isEmpty();
+    }
+
+    /**
+     * Restore the registry from the last snapshot and the journal written since, then compact them into a new
+     * snapshot.
+     * @return The registered infrastructures per id
+     */
+    public synchronized Map<String, Infrastructure> load() {
+        try {
+            Path directory = Files.createDirectories(Paths.get(registryDirectory.trim()));
+            secretCipher = RegistrySecretCipher.fromConfiguredKeyOrFile(encryptionKey, directory.resolve(KEY_FILE));
+            journal = new JsonJournal(directory, JOURNAL_NAME, compactionThreshold);
+
+            Map<String, Infrastructure> registry = new LinkedHashMap<>();
+            for (JsonNode record : journal.load()) {
+                apply(record, registry);
+            }
+            journal.compact(toRegistrations(registry.values()));
+            log.info("Restored " + registry.size() + " infrastructures from " + directory);
+            return registry;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load the infrastructure registry from " + registryDirectory, e);
+        }
+    }
+
+    /**
+     * Record the registration of infrastructures before it is published.
+     * @param infrastructures The infrastructures being registered
+     * @param registry The whole registry once they are registered, written as a snapshot if the journal is full
+     */
+    public synchronized void recordRegistrations(Collection<Infrastructure> infrastructures,
+            Map<String, Infrastructure> registry) {
+        append(toRegistrations(infrastructures), registry);
+    }
+
+    /**
+     * Record the deletion of an infrastructure before it is published.
+     * @param infrastructureId The id of the infrastructure being deleted
+     * @param registry The whole registry once it is deleted, written as a snapshot if the journal is full
+     */
+    public synchronized void recordDeletion(String infrastructureId, Map<String, Infrastructure> registry) {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("operation", DELETE);
+        record.put("id", infrastructureId);
+        append(Collections.singletonList(record), registry);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void append(List<ObjectNode> records, Map<String, Infrastructure> registry) {
+        if (journal == null) {
+            throw new IllegalStateException("The infrastructure registry is not loaded");
+        }
+        try {
+            journal.append(records, () -> toRegistrations(registry.values()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to the infrastructure registry journal", e);
+        }
+    }
+
+    private void apply(JsonNode record, Map<String, Infrastructure> registry) throws IOException {
+        if (DELETE.equals(record.path("operation").asText())) {
+            registry.remove(record.path("id").asText());
+        } else {
+            Infrastructure infrastructure = fromRegistration(record);
+            registry.put(infrastructure.getId(), infrastructure);
+        }
+    }
+
+    private List<ObjectNode> toRegistrations(Collection<Infrastructure> infrastructures) {
+        return infrastructures.stream().map(this::toRegistration).collect(Collectors.toList());
+    }
+
+    private ObjectNode toRegistration(Infrastructure infrastructure) {
+        ObjectNode infrastructureNode = mapper.valueToTree(infrastructure);
+        infrastructureNode.remove("credentials");
+        infrastructureNode.remove("readiness");
+
+        ObjectNode record = mapper.createObjectNode();
+        record.put("operation", REGISTER);
+        record.set("infrastructure", infrastructureNode);
+        Optional.ofNullable(infrastructure.getCredentials())
+                .map(credentials -> mapper.valueToTree(credentials).toString())
+                .ifPresent(credentials -> record.put("credentials", secretCipher.encrypt(credentials)));
+        return record;
+    }
+
+    private Infrastructure fromRegistration(JsonNode record) throws IOException {
+        ObjectNode infrastructureNode = (ObjectNode) record.get("infrastructure");
+        if (record.hasNonNull("credentials")) {
+            infrastructureNode.set("credentials",
+                                   mapper.readTree(secretCipher.decrypt(record.get("credentials").asText())));
+        }
+        return mapper.treeToValue(infrastructureNode, Infrastructure.class);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.ow2.proactive.connector.iaas.model.Instance;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * Immutable snapshot of the instances of an infrastructure, as returned by the cloud provider at a given time.
+ * Instances are indexed by id and by tag so that single-instance and tag-scoped lookups do not scan the fleet.
+ */
+@ToString(of = { "instances", "timestamp" })
+public class InstanceInventory {
+
+    @Getter
+    private final Set<Instance> instances;
+
+    @Getter
+    private final long timestamp;
+
+    private final Map<String, Instance> instancesById;
+
+    private final ImmutableSetMultimap<String, Instance> instancesByTag;
+
+    public InstanceInventory(Set<Instance> instances, long timestamp) {
+        this.instances = ImmutableSet.copyOf(instances);
+        this.timestamp = timestamp;
+        this.instancesById = this.instances.stream()
+                                           .filter(instance -> instance.getId() != null)
+                                           .collect(ImmutableMap.toImmutableMap(Instance::getId,
+                                                                                Function.identity(),
+                                                                                (first, second) -> first));
+        this.instancesByTag = this.instances.stream()
+                                            .filter(instance -> instance.getTag() != null)
+                                            .collect(ImmutableSetMultimap.toImmutableSetMultimap(Instance::getTag,
+                                                                                                 Function.identity()));
+    }
+
+    public Optional<Instance> getInstanceById(String instanceId) {
+        return Optional.ofNullable(instancesById.get(instanceId));
+    }
+
+    public Set<Instance> getInstancesByTag(String instanceTag) {
+        return instancesByTag.get(instanceTag);
+    }
+
+    public boolean isOlderThan(long maxAgeMillis) {
+        return System.currentTimeMillis() - timestamp >= maxAgeMillis;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.cloud.CloudManager;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * In-memory inventory of the instances of each infrastructure.
+ *
+ * Snapshots are refreshed in the background for every infrastructure that has been queried at least once, so that
+ * cached reads never wait for the cloud provider. When a snapshot is older than the refresh interval (for instance
+ * because the provider is slow or failing), it is still served and a refresh is triggered
+ * (stale-while-revalidate). Concurrent loads of the same snapshot are coalesced into a single provider call.
+ */
+@Component
+@Log4j2
+public class InstanceInventoryCache {
+
+    @Autowired
+    private CloudManager cloudManager;
+
+    @Value("${connector-iaas.inventory.refresh-interval:30000}")
+    private long refreshInterval;
+
+    @Value("${connector-iaas.inventory.refresh-threads:4}")
+    private int refreshThreads;
+
+    @Value("${connector-iaas.inventory.default-consistency:cached}")
+    private String defaultConsistency;
+
+    @Value("${connector-iaas.inventory.unknown-instance-ttl:10000}")
+    private long unknownInstanceTtl;
+
+    private final Map<String, Infrastructure> trackedInfrastructures = new ConcurrentHashMap<>();
+
+    private final Map<String, InstanceInventory> allInstancesPerInfrastructure = new ConcurrentHashMap<>();
+
+    private final Map<String, InstanceInventory> createdInstancesPerInfrastructure = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<InstanceInventory>> pendingAllInstancesLoads = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<InstanceInventory>> pendingCreatedInstancesLoads = new ConcurrentHashMap<>();
+
+    /**
+     * Instance ids recently looked up without success, with the time until which they are known to be absent.
+     */
+    private final Map<String, Map<String, Long>> unknownInstanceIdsPerInfrastructure = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService refreshScheduler;
+
+    private ExecutorService refreshExecutor;
+
+    @PostConstruct
+    public void start() {
+        refreshExecutor = Executors.newFixedThreadPool(Math.max(1, refreshThreads),
+                                                       new ThreadFactoryBuilder().setNameFormat("inventory-refresh-%d")
+                                                                                 .setDaemon(true)
+                                                                                 .build());
+        if (isEnabled()) {
+            refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("inventory-scheduler")
+                                                                                                    .setDaemon(true)
+                                                                                                    .build());
+            refreshScheduler.scheduleWithFixedDelay(this::refreshTrackedInfrastructures,
+                                                    refreshInterval,
+                                                    refreshInterval,
+                                                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Optional.ofNullable(refreshScheduler).ifPresent(ExecutorService::shutdownNow);
+        Optional.ofNullable(refreshExecutor).ifPresent(ExecutorService::shutdownNow);
+    }
+
+    public Set<Instance> getAllInstances(Infrastructure infrastructure, InventoryConsistency consistency) {
+        return getInventory(infrastructure, true, consistency).getInstances();
+    }
+
+    public Set<Instance> getCreatedInstances(Infrastructure infrastructure, InventoryConsistency consistency) {
+        return getInventory(infrastructure, false, consistency).getInstances();
+    }
+
+    /**
+     * Looks an instance up by id in the inventory snapshot. An id missing from the snapshot triggers a single
+     * reload from the provider (the instance may have been created since the snapshot was taken), after which the
+     * id is remembered as unknown for a short time so that repeated lookups do not list the fleet again.
+     */
+    public Optional<Instance> getInstanceById(Infrastructure infrastructure, String instanceId) {
+        InstanceInventory inventory = getInventory(infrastructure, true, null);
+        Optional<Instance> instance = inventory.getInstanceById(instanceId);
+        if (instance.isPresent() || !isEnabled() || resolve(null) == InventoryConsistency.FRESH ||
+            isKnownAsUnknown(infrastructure.getId(), instanceId)) {
+            return instance;
+        }
+
+        instance = getInventory(infrastructure, true, InventoryConsistency.FRESH).getInstanceById(instanceId);
+        if (!instance.isPresent()) {
+            unknownInstanceIdsPerInfrastructure.computeIfAbsent(infrastructure.getId(),
+                                                                id -> new ConcurrentHashMap<>())
+                                               .put(instanceId, System.currentTimeMillis() + unknownInstanceTtl);
+        }
+        return instance;
+    }
+
+    public Set<Instance> getInstancesByTag(Infrastructure infrastructure, String instanceTag) {
+        return getInventory(infrastructure, true, null).getInstancesByTag(instanceTag);
+    }
+
+    /**
+     * Loads the inventory snapshot of the given infrastructure in the background, so that it is ready for the first
+     * request, typically after the connector restarted.
+     */
+    public void preload(Infrastructure infrastructure) {
+        if (isEnabled()) {
+            trackedInfrastructures.put(infrastructure.getId(), infrastructure);
+            refreshInBackground(infrastructure, true);
+        }
+    }
+
+    /**
+     * Drops the snapshots of the given infrastructure after instances have been created or deleted, so that the
+     * next read reflects the change.
+     */
+    public void invalidate(String infrastructureId) {
+        allInstancesPerInfrastructure.remove(infrastructureId);
+        createdInstancesPerInfrastructure.remove(infrastructureId);
+        pendingAllInstancesLoads.remove(infrastructureId);
+        pendingCreatedInstancesLoads.remove(infrastructureId);
+        unknownInstanceIdsPerInfrastructure.remove(infrastructureId);
+    }
+
+    /**
+     * Stops tracking the given infrastructure, typically when it is deleted or registered again.
+     */
+    public void remove(String infrastructureId) {
+        trackedInfrastructures.remove(infrastructureId);
+        invalidate(infrastructureId);
+    }
+
+    private InstanceInventory getInventory(Infrastructure infrastructure, boolean allInstances,
+            InventoryConsistency consistency) {
+        if (!isEnabled()) {
+            return new InstanceInventory(listInstances(infrastructure, allInstances), System.currentTimeMillis());
+        }
+
+        trackedInfrastructures.put(infrastructure.getId(), infrastructure);
+        InstanceInventory snapshot = snapshots(allInstances).get(infrastructure.getId());
+
+        if (resolve(consistency) == InventoryConsistency.FRESH) {
+            return loadOrFallback(infrastructure, allInstances, snapshot);
+        } else if (snapshot == null) {
+            return load(infrastructure, allInstances);
+        }
+
+        if (snapshot.isOlderThan(refreshInterval)) {
+            refreshInBackground(infrastructure, allInstances);
+        }
+        return snapshot;
+    }
+
+    private InstanceInventory loadOrFallback(Infrastructure infrastructure, boolean allInstances,
+            InstanceInventory snapshot) {
+        try {
+            return load(infrastructure, allInstances);
+        } catch (RuntimeException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            log.warn("Unable to list instances of infrastructure " + infrastructure.getId() +
+                     ", serving the inventory snapshot taken at " + snapshot.getTimestamp(), e);
+            return snapshot;
+        }
+    }
+
+    private InstanceInventory load(Infrastructure infrastructure, boolean allInstances) {
+        Map<String, CompletableFuture<InstanceInventory>> pendingLoads = pendingLoads(allInstances);
+        CompletableFuture<InstanceInventory> newLoad = new CompletableFuture<>();
+        CompletableFuture<InstanceInventory> pendingLoad = pendingLoads.putIfAbsent(infrastructure.getId(), newLoad);
+
+        if (pendingLoad != null) {
+            try {
+                return pendingLoad.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            InstanceInventory inventory = new InstanceInventory(listInstances(infrastructure, allInstances),
+                                                                System.currentTimeMillis());
+            // the snapshot is only published if the load has not been invalidated in the meantime
+            pendingLoads.computeIfPresent(infrastructure.getId(), (id, load) -> {
+                if (load == newLoad) {
+                    snapshots(allInstances).put(id, inventory);
+                    return null;
+                }
+                return load;
+            });
+            newLoad.complete(inventory);
+            return inventory;
+        } catch (RuntimeException e) {
+            pendingLoads.remove(infrastructure.getId(), newLoad);
+            newLoad.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private boolean isKnownAsUnknown(String infrastructureId, String instanceId) {
+        Map<String, Long> unknownInstanceIds = unknownInstanceIdsPerInfrastructure.get(infrastructureId);
+        if (unknownInstanceIds == null) {
+            return false;
+        }
+        Long expiration = unknownInstanceIds.get(instanceId);
+        if (expiration != null && expiration <= System.currentTimeMillis()) {
+            unknownInstanceIds.remove(instanceId, expiration);
+            return false;
+        }
+        return expiration != null;
+    }
+
+    private void refreshInBackground(Infrastructure infrastructure, boolean allInstances) {
+        if (pendingLoads(allInstances).containsKey(infrastructure.getId())) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(infrastructure, allInstances);
+                } catch (RuntimeException e) {
+                    log.warn("Background refresh of the instances of infrastructure " + infrastructure.getId() +
+                             " failed: " + e.getMessage());
+                }
+            });
+        } catch (RuntimeException e) {
+            log.debug("Background refresh of infrastructure " + infrastructure.getId() + " not scheduled", e);
+        }
+    }
+
+    private void refreshTrackedInfrastructures() {
+        long now = System.currentTimeMillis();
+        unknownInstanceIdsPerInfrastructure.values()
+                                           .forEach(unknownInstanceIds -> unknownInstanceIds.values()
+                                                                                            .removeIf(expiration -> expiration <= now));
+        trackedInfrastructures.values().forEach(infrastructure -> {
+            if (allInstancesPerInfrastructure.containsKey(infrastructure.getId())) {
+                refreshInBackground(infrastructure, true);
+            }
+            if (createdInstancesPerInfrastructure.containsKey(infrastructure.getId())) {
+                refreshInBackground(infrastructure, false);
+            }
+        });
+    }
+
+    private Set<Instance> listInstances(Infrastructure infrastructure, boolean allInstances) {
+        return allInstances ? cloudManager.getAllInfrastructureInstances(infrastructure)
+                            : cloudManager.getCreatedInfrastructureInstances(infrastructure);
+    }
+
+    private InventoryConsistency resolve(InventoryConsistency consistency) {
+        return Optional.ofNullable(consistency).orElseGet(() -> InventoryConsistency.fromValue(defaultConsistency));
+    }
+
+    private boolean isEnabled() {
+        return refreshInterval > 0;
+    }
+
+    private Map<String, InstanceInventory> snapshots(boolean allInstances) {
+        return allInstances ? allInstancesPerInfrastructure : createdInstancesPerInfrastructure;
+    }
+
+    private Map<String, CompletableFuture<InstanceInventory>> pendingLoads(boolean allInstances) {
+        return allInstances ? pendingAllInstancesLoads : pendingCreatedInstancesLoads;
+    }
+}
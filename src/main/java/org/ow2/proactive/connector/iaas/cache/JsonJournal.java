@@ -0,0 +1,162 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Append-only journal of JSON records, one per line, next to a snapshot of the state it leads to. Once the journal
+ * holds compactionThreshold records, the state is written to a new snapshot that atomically replaces the previous
+ * one and the journal is emptied. Replaying the journal over the new snapshot is harmless if the connector stops in
+ * between, since each record carries the whole state of what it changes.
+ */
+@Log4j2
+class JsonJournal implements Closeable {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path snapshotFile;
+
+    private final Path journalFile;
+
+    private final int compactionThreshold;
+
+    private FileChannel journal;
+
+    private int journalRecords;
+
+    JsonJournal(Path directory, String name, int compactionThreshold) {
+        this.snapshotFile = directory.resolve(name + ".snapshot");
+        this.journalFile = directory.resolve(name + ".journal");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Read the records of the snapshot followed by the ones journaled since, and open the journal for appending.
+     * A record truncated by a crash at the end of the journal is ignored.
+     */
+    List<JsonNode> load() throws IOException {
+        List<JsonNode> records = new ArrayList<>();
+        if (Files.exists(snapshotFile)) {
+            mapper.readTree(snapshotFile.toFile()).forEach(records::add);
+        }
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        records.add(mapper.readTree(line));
+                    } catch (IOException e) {
+                        log.warn("Ignoring the unreadable record " + line + " of journal " + journalFile, e);
+                    }
+                }
+            }
+        }
+        journal = FileChannel.open(journalFile,
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        return records;
+    }
+
+    /**
+     * Durably append records to the journal, compacting it if it is full.
+     * @param records The records to be appended
+     * @param state Supplies the records of the whole state once the appended records are applied
+     */
+    void append(Collection<? extends JsonNode> records, Supplier<Collection<? extends JsonNode>> state)
+            throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("The journal " + journalFile + " is not loaded");
+        }
+        StringBuilder lines = new StringBuilder();
+        records.forEach(record -> lines.append(record.toString()).append('\n'));
+        write(journal, lines.toString().getBytes(StandardCharsets.UTF_8));
+        journal.force(false);
+        journalRecords += records.size();
+        if (compactionThreshold > 0 && journalRecords >= compactionThreshold) {
+            compact(state.get());
+        }
+    }
+
+    /**
+     * Write the whole state to a new snapshot, atomically replacing the previous one, then empty the journal.
+     */
+    void compact(Collection<? extends JsonNode> state) throws IOException {
+        Path temporarySnapshot = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temporarySnapshot,
+                                                     StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(snapshot, mapper.writeValueAsBytes(state));
+            snapshot.force(true);
+        }
+        Files.move(temporarySnapshot,
+                   snapshotFile,
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        journal.truncate(0);
+        journal.force(true);
+        journalRecords = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void write(FileChannel channel, byte[] content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.util.Objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.experimental.Wither;
+
+
+/**
+ * A cloud resource created by the connector on behalf of an infrastructure, and optionally of one of its instances,
+ * which has to be deleted with its owner.
+ */
+@EqualsAndHashCode
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString(exclude = { "secret" })
+@Wither
+@Builder
+public class OwnedResource {
+
+    private String infrastructureId;
+
+    /**
+     * The owning instance, null for the resources shared by all the instances of the infrastructure.
+     */
+    private String instanceId;
+
+    private OwnedResourceType type;
+
+    private String region;
+
+    private String name;
+
+    /**
+     * The provider id of the resource when it differs from its name and is known.
+     */
+    private String id;
+
+    /**
+     * Secret material of the resource, such as the private key of a key pair, encrypted when persisted.
+     */
+    private String secret;
+
+    /**
+     * @return Whether both resources designate the same cloud resource, regardless of their owner
+     */
+    public boolean isSameResourceAs(OwnedResource other) {
+        return infrastructureId.equals(other.infrastructureId) && type == other.type &&
+               Objects.equals(region, other.region) && Objects.equals(name, other.name);
+    }
+}
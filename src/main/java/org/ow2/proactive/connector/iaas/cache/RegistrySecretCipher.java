@@ -0,0 +1,126 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * Encrypts the secrets written by the {@link InfrastructureRegistryStore} with AES-GCM. Each value is stored as the
+ * base64 encoding of its random IV followed by its cipher text.
+ */
+class RegistrySecretCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int KEY_LENGTH = 32;
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH = 128;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final SecretKey key;
+
+    RegistrySecretCipher(byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("The registry encryption key must be " + KEY_LENGTH +
+                                               " bytes long, got " + key.length);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Build a cipher from the configured base64 key or, if none is configured, from the key stored in the given
+     * file, generating it (readable by its owner only) on first use.
+     */
+    static RegistrySecretCipher fromConfiguredKeyOrFile(String configuredKey, Path keyFile) throws IOException {
+        if (configuredKey != null && !configuredKey.trim().isEmpty()) {
+            return new RegistrySecretCipher(Base64.getDecoder().decode(configuredKey.trim()));
+        }
+        if (!Files.exists(keyFile)) {
+            byte[] key = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+            createOwnerOnlyFile(keyFile);
+            Files.write(keyFile, Base64.getEncoder().encode(key));
+        }
+        return new RegistrySecretCipher(Base64.getDecoder().decode(new String(Files.readAllBytes(keyFile),
+                                                                              StandardCharsets.US_ASCII).trim()));
+    }
+
+    private static void createOwnerOnlyFile(Path file) throws IOException {
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, the file gets the permissions of its directory
+            Files.createFile(file);
+        }
+    }
+
+    String encrypt(String secret) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            secureRandom.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] cipherText = cipher.doFinal(secret.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder()
+                         .encodeToString(ByteBuffer.allocate(iv.length + cipherText.length)
+                                                   .put(iv)
+                                                   .put(cipherText)
+                                                   .array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to encrypt a registry secret", e);
+        }
+    }
+
+    String decrypt(String encryptedSecret) {
+        try {
+            byte[] content = Base64.getDecoder().decode(encryptedSecret);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, content, 0, IV_LENGTH));
+            return new String(cipher.doFinal(content, IV_LENGTH, content.length - IV_LENGTH),
+                              StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to decrypt a registry secret, was the encryption key changed?",
+                                            e);
+        }
+    }
+}
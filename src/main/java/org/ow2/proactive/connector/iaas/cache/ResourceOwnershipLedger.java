@@ -0,0 +1,261 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Records which infrastructure, and which instance, owns each cloud resource auto-created by the connector (key
+ * pairs, security groups, public IPs...), so that the resources are deleted by id along with their owner instead of
+ * being looked up by name. When connector-iaas.resource-ledger.directory (by default the registry directory) is set,
+ * the ledger is journaled there, the secrets it holds being encrypted, so that the resources created before a
+ * restart are still cleaned up.
+ */
+@Component
+@Log4j2
+public class ResourceOwnershipLedger {
+
+    static final String JOURNAL_NAME = "owned-resources";
+
+    private static final String RECORD = "RECORD";
+
+    private static final String RELEASE = "RELEASE";
+
+    @Value("${connector-iaas.resource-ledger.directory:${connector-iaas.registry.directory:}}")
+    private String ledgerDirectory;
+
+    @Value("${connector-iaas.registry.encryption-key:}")
+    private String encryptionKey;
+
+    @Value("${connector-iaas.registry.compaction-threshold:1000}")
+    private int compactionThreshold;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Set<OwnedResource>> resourcesPerInfrastructure = new ConcurrentHashMap<>();
+
+    private RegistrySecretCipher secretCipher;
+
+    private JsonJournal journal;
+
+    public boolean isPersistent() {
+        return ledgerDirectory != null && !ledgerDirectory.trim().isEmpty();
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        if (!isPersistent()) {
+            return;
+        }
+        try {
+            Path directory = Files.createDirectories(Paths.get(ledgerDirectory.trim()));
+            secretCipher = RegistrySecretCipher.fromConfiguredKeyOrFile(encryptionKey,
+                                                                        directory.resolve(InfrastructureRegistryStore.KEY_FILE));
+            journal = new JsonJournal(directory, JOURNAL_NAME, compactionThreshold);
+            for (JsonNode record : journal.load()) {
+                OwnedResource resource = fromJson(record.get("resource"));
+                if (RELEASE.equals(record.path("operation").asText())) {
+                    forget(resource);
+                } else {
+                    remember(resource);
+                }
+            }
+            journal.compact(toRecords(RECORD, getAllResources()));
+            log.info("Restored " + getAllResources().size() + " owned cloud resources from " + directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load the resource ownership ledger from " + ledgerDirectory, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public synchronized void record(OwnedResource resource) {
+        remember(resource);
+        try {
+            append(RECORD, Collections.singleton(resource));
+        } catch (RuntimeException e) {
+            forget(resource);
+            throw e;
+        }
+    }
+
+    public Set<OwnedResource> getResources(String infrastructureId) {
+        return Collections.unmodifiableSet(new HashSet<>(resourcesPerInfrastructure.getOrDefault(infrastructureId,
+                                                                                                 Collections.emptySet())));
+    }
+
+    public Set<OwnedResource> getInstanceResources(String infrastructureId, String instanceId) {
+        return getResources(infrastructureId).stream()
+                                             .filter(resource -> instanceId.equals(resource.getInstanceId()))
+                                             .collect(Collectors.toSet());
+    }
+
+    /**
+     * Find a resource of the given type owned by the infrastructure itself in a region.
+     */
+    public Optional<OwnedResource> findInfrastructureResource(String infrastructureId, OwnedResourceType type,
+            String region) {
+        return getResources(infrastructureId).stream()
+                                             .filter(resource -> resource.getInstanceId() == null)
+                                             .filter(resource -> resource.getType() == type)
+                                             .filter(resource -> region.equals(resource.getRegion()))
+                                             .findAny();
+    }
+
+    public synchronized void release(Collection<OwnedResource> resources) {
+        if (resources.isEmpty()) {
+            return;
+        }
+        resources.forEach(this::forget);
+        try {
+            append(RELEASE, resources);
+        } catch (RuntimeException e) {
+            resources.forEach(this::remember);
+            throw e;
+        }
+    }
+
+    /**
+     * Forget the resources owned by an instance.
+     * @return The released resources that no other instance still owns, which can be deleted
+     */
+    public synchronized Set<OwnedResource> releaseInstance(String infrastructureId, String instanceId) {
+        Set<OwnedResource> instanceResources = getInstanceResources(infrastructureId, instanceId);
+        release(instanceResources);
+        Set<OwnedResource> remainingResources = getResources(infrastructureId);
+        return instanceResources.stream()
+                                .filter(resource -> remainingResources.stream().noneMatch(resource::isSameResourceAs))
+                                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Forget all the resources owned by an infrastructure and its instances.
+     * @return The released resources, which can be deleted
+     */
+    public synchronized Set<OwnedResource> releaseInfrastructure(String infrastructureId) {
+        Set<OwnedResource> infrastructureResources = getResources(infrastructureId);
+        release(infrastructureResources);
+        resourcesPerInfrastructure.remove(infrastructureId);
+        return infrastructureResources;
+    }
+
+    /**
+     * Give a resource that is already owned to another instance, the previous owners no longer holding it.
+     * @return Whether the resource was owned
+     */
+    public synchronized boolean transfer(OwnedResource resource, String instanceId) {
+        Set<OwnedResource> previousOwners = getResources(resource.getInfrastructureId()).stream()
+                                                                                        .filter(resource::isSameResourceAs)
+                                                                                        .collect(Collectors.toSet());
+        if (previousOwners.isEmpty()) {
+            return false;
+        }
+        release(previousOwners);
+        record(previousOwners.iterator().next().withInstanceId(instanceId));
+        return true;
+    }
+
+    private void remember(OwnedResource resource) {
+        resourcesPerInfrastructure.computeIfAbsent(resource.getInfrastructureId(), id -> ConcurrentHashMap.newKeySet())
+                                  .add(resource);
+    }
+
+    private void forget(OwnedResource resource) {
+        Optional.ofNullable(resourcesPerInfrastructure.get(resource.getInfrastructureId()))
+                .ifPresent(resources -> resources.remove(resource));
+    }
+
+    private Set<OwnedResource> getAllResources() {
+        return resourcesPerInfrastructure.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+    }
+
+    /**
+     * Journal a change already applied to the ledger, which is written as a whole if the journal gets compacted.
+     */
+    private void append(String operation, Collection<OwnedResource> resources) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(toRecords(operation, resources), () -> toRecords(RECORD, getAllResources()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to the resource ownership ledger", e);
+        }
+    }
+
+    private List<ObjectNode> toRecords(String operation, Collection<OwnedResource> resources) {
+        return resources.stream().map(resource -> {
+            ObjectNode record = mapper.createObjectNode();
+            record.put("operation", operation);
+            record.set("resource", toJson(resource));
+            return record;
+        }).collect(Collectors.toList());
+    }
+
+    private ObjectNode toJson(OwnedResource resource) {
+        return mapper.valueToTree(Optional.ofNullable(resource.getSecret())
+                                          .map(secret -> resource.withSecret(secretCipher.encrypt(secret)))
+                                          .orElse(resource));
+    }
+
+    private OwnedResource fromJson(JsonNode resourceNode) throws IOException {
+        OwnedResource resource = mapper.treeToValue(resourceNode, OwnedResource.class);
+        return Optional.ofNullable(resource.getSecret())
+                       .map(secret -> resource.withSecret(secretCipher.decrypt(secret)))
+                       .orElse(resource);
+    }
+}
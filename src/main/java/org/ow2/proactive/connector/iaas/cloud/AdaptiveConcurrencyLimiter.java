@@ -0,0 +1,278 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Adapts the number of provider calls allowed in flight for each infrastructure and {@link ApiFamily} to how the
+ * provider copes with them, following an additive increase, multiplicative decrease scheme.
+ *
+ * The limit grows by one call each time a full window of calls completes with a latency below
+ * connector-iaas.adaptive-limit.latency-tolerance times the baseline latency, the baseline being a moving average of
+ * the latencies observed. It is multiplied by connector-iaas.adaptive-limit.backoff-ratio when a call is throttled,
+ * times out, or answers slower than tolerated, at most once per window: the calls started before the last decrease were
+ * sent while the limit was higher, so their failures do not decrease it again. The limit stays between
+ * connector-iaas.adaptive-limit.min and connector-iaas.adaptive-limit.max. A call over the current limit waits, without
+ * holding a thread, for a call in flight to give its place back.
+ *
+ * Since each limit compares the latencies of its own calls, the creations of instances, whose latency is mostly the
+ * time the nodes take to start, have their own {@link ApiFamily} and are measured per instance created.
+ */
+@Component
+@Log4j2
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Weight of each new latency in the baseline, small so that a spike does not become the new normal.
+     */
+    private static final double BASELINE_SMOOTHING = 0.05;
+
+    @Value("${connector-iaas.adaptive-limit.initial:10}")
+    private int initialLimit;
+
+    @Value("${connector-iaas.adaptive-limit.min:1}")
+    private int minLimit;
+
+    @Value("${connector-iaas.adaptive-limit.max:100}")
+    private int maxLimit;
+
+    @Value("${connector-iaas.adaptive-limit.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    @Value("${connector-iaas.adaptive-limit.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    private final Map<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @return the limit of the calls in flight of the infrastructure for the given API family
+     */
+    public AdaptiveLimit getLimit(Infrastructure infrastructure, ApiFamily apiFamily) {
+        String key = infrastructure.getId() + "/" + apiFamily.name().toLowerCase();
+        return limits.computeIfAbsent(key, k -> new AdaptiveLimit(k, getMinLimit(), getMaxLimit()));
+    }
+
+    public void removeInfrastructure(String infrastructureId) {
+        limits.keySet().removeIf(key -> key.startsWith(infrastructureId + "/"));
+    }
+
+    public Map<String, AdaptiveLimitStatistics> getStatistics() {
+        return limits.entrySet()
+                     .stream()
+                     .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getStatistics()));
+    }
+
+    private int getMinLimit() {
+        return Math.max(1, minLimit);
+    }
+
+    private int getMaxLimit() {
+        return Math.max(getMinLimit(), maxLimit);
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        return Throwables.getCausalChain(error)
+                         .stream()
+                         .anyMatch(cause -> cause instanceof TimeoutException ||
+                                            cause instanceof SocketTimeoutException);
+    }
+
+    public class AdaptiveLimit {
+
+        private final String key;
+
+        private final int min;
+
+        private final int max;
+
+        private double limit;
+
+        private int inFlightCalls;
+
+        /**
+         * The calls waiting for a place, in their order of arrival.
+         */
+        private final Queue<Runnable> waitingCalls = new ArrayDeque<>();
+
+        /**
+         * Zero until the first latency is observed.
+         */
+        private double baselineLatency;
+
+        private long queuedCalls;
+
+        private long decreases;
+
+        /**
+         * The {@link System#nanoTime()} of the last decrease, meaningful once {@link #decreases} is positive.
+         */
+        private long lastDecreaseNanos;
+
+        private AdaptiveLimit(String key, int min, int max) {
+            this.key = key;
+            this.min = min;
+            this.max = max;
+            this.limit = Math.min(max, Math.max(min, initialLimit));
+        }
+
+        /**
+         * Take a place among the calls in flight if one is free and no call is waiting for one. The place is to be
+         * given back with {@link #onSuccess(long, long)}, {@link #onFailure(long, Throwable)} or {@link #release()}.
+         * @return whether the place was taken
+         */
+        public synchronized boolean tryAcquire() {
+            if (!waitingCalls.isEmpty() || inFlightCalls >= (int) limit) {
+                return false;
+            }
+            inFlightCalls++;
+            return true;
+        }
+
+        /**
+         * Take a place among the calls in flight, then run the given task on the thread giving the place up, or at
+         * once when a place is free. The task is responsible for giving the place back.
+         */
+        public void acquire(Runnable onAcquired) {
+            synchronized (this) {
+                if (!tryAcquire()) {
+                    waitingCalls.add(onAcquired);
+                    queuedCalls++;
+                    return;
+                }
+            }
+            onAcquired.run();
+        }
+
+        /**
+         * Give back the place of a call started at the given {@link System#nanoTime()} that completed normally after
+         * the given time in nanoseconds.
+         */
+        public void onSuccess(long startNanos, long latencyNanos) {
+            synchronized (this) {
+                inFlightCalls--;
+                updateLimit(startNanos, latencyNanos);
+            }
+            runWaitingCalls();
+        }
+
+        private void updateLimit(long startNanos, long latencyNanos) {
+            double latency = latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+            if (baselineLatency > 0 && latency > baselineLatency * latencyTolerance) {
+                decrease(startNanos,
+                         "latency of " + Math.round(latency) + " ms over the baseline of " +
+                                     Math.round(baselineLatency) + " ms");
+            } else {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            baselineLatency = baselineLatency > 0 ? baselineLatency + BASELINE_SMOOTHING * (latency - baselineLatency)
+                                                  : latency;
+        }
+
+        /**
+         * Give back the place of a call started at the given {@link System#nanoTime()} that failed, the limit being
+         * decreased when the provider throttled the call or did not answer in time.
+         */
+        public void onFailure(long startNanos, Throwable error) {
+            synchronized (this) {
+                inFlightCalls--;
+                if (ProviderThrottling.isThrottling(error)) {
+                    decrease(startNanos, "throttled");
+                } else if (isTimeout(error)) {
+                    decrease(startNanos, "timed out");
+                }
+            }
+            runWaitingCalls();
+        }
+
+        /**
+         * Give back the place of a call that did not reach the provider.
+         */
+        public void release() {
+            synchronized (this) {
+                inFlightCalls--;
+            }
+            runWaitingCalls();
+        }
+
+        /**
+         * Hand the places given back over to the waiting calls, outside of the lock since they start running.
+         */
+        private void runWaitingCalls() {
+            while (true) {
+                Runnable waitingCall;
+                synchronized (this) {
+                    if (waitingCalls.isEmpty() || inFlightCalls >= (int) limit) {
+                        return;
+                    }
+                    waitingCall = waitingCalls.poll();
+                    inFlightCalls++;
+                }
+                waitingCall.run();
+            }
+        }
+
+        private void decrease(long startNanos, String reason) {
+            if (decreases > 0 && startNanos - lastDecreaseNanos < 0) {
+                // sent under the limit the last decrease already lowered
+                return;
+            }
+            double decreased = Math.max(min, limit * backoffRatio);
+            if ((int) decreased < (int) limit) {
+                log.info("Lowering the concurrency limit of " + key + " from " + (int) limit + " to " +
+                         (int) decreased + ": " + reason);
+            }
+            limit = decreased;
+            decreases++;
+            lastDecreaseNanos = System.nanoTime();
+        }
+
+        private synchronized AdaptiveLimitStatistics getStatistics() {
+            return new AdaptiveLimitStatistics((int) limit,
+                                               inFlightCalls,
+                                               waitingCalls.size(),
+                                               baselineLatency,
+                                               queuedCalls,
+                                               decreases);
+        }
+    }
+}
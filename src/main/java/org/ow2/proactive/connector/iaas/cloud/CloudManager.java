@@ -28,98 +28,427 @@ package org.ow2.proactive.connector.iaas.cloud;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.cloud.provider.AsyncCloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.BlockingCloudProviderAdapter;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
 
+/**
+ * Dispatches the operations to the cloud provider of each infrastructure. The instance creations and the script
+ * executions are registered as {@link InFlightOperations}, the instances created by a cancelled creation being
+ * deleted in the background.
+ */
 @Service
+@Log4j2
 public class CloudManager {
 
     private Map<String, CloudProvider> cloudProviderPerType;
 
+    /**
+     * The non-blocking view of each provider, the providers that are only blocking being run on the provider
+     * bulkheads so that the request threads are not held while the infrastructures answer.
+     */
+    private Map<String, AsyncCloudProvider> asyncCloudProviderPerType;
+
+    @Value("${connector-iaas.cloud-provider.threads:64}")
+    private int cloudProviderThreads;
+
+    /**
+     * Number of provider calls that may wait for a free cloud provider thread, any further call being rejected
+     * rather than queued without limit.
+     */
+    @Value("${connector-iaas.cloud-provider.queue-size:1000}")
+    private int cloudProviderQueueSize;
+
+    private ExecutorService cloudProviderExecutor;
+
+    @Autowired
+    private ProviderBulkheads providerBulkheads;
+
+    @Autowired
+    private InFlightOperations inFlightOperations;
+
     @Autowired
     public CloudManager(List<CloudProvider> cloudProviders) {
         cloudProviderPerType = cloudProviders.stream()
                                              .collect(Collectors.toMap(CloudProvider::getType, Function.identity()));
     }
 
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(1, cloudProviderThreads);
+        cloudProviderExecutor = new ThreadPoolExecutor(threads,
+                                                       threads,
+                                                       0L,
+                                                       TimeUnit.MILLISECONDS,
+                                                       new LinkedBlockingQueue<>(Math.max(1, cloudProviderQueueSize)),
+                                                       new ThreadFactoryBuilder().setNameFormat("cloud-provider-%d")
+                                                                                 .setDaemon(true)
+                                                                                 .build());
+        asyncCloudProviderPerType = cloudProviderPerType.values()
+                                                        .stream()
+                                                        .collect(Collectors.toMap(CloudProvider::getType,
+                                                                                  this::toAsyncCloudProvider));
+    }
+
+    @PreDestroy
+    public void stop() {
+        Optional.ofNullable(cloudProviderExecutor).ifPresent(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * The thread pool running the operations combining several provider calls, rejecting new tasks with a
+     * {@link java.util.concurrent.RejectedExecutionException} once its queue is full. The provider calls themselves
+     * run on the {@link ProviderBulkheads}.
+     */
+    public ExecutorService getCloudProviderExecutor() {
+        return cloudProviderExecutor;
+    }
+
+    private AsyncCloudProvider toAsyncCloudProvider(CloudProvider cloudProvider) {
+        if (cloudProvider instanceof AsyncCloudProvider) {
+            return (AsyncCloudProvider) cloudProvider;
+        }
+        return new BlockingCloudProviderAdapter(cloudProvider, providerBulkheads);
+    }
+
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
-        return cloudProviderPerType.get(infrastructure.getType()).createInstance(infrastructure, instance);
+        Set<Instance> createdInstances = ConcurrentHashMap.newKeySet();
+        return inFlightOperations.call(infrastructure,
+                                       OperationType.INSTANCE_CREATION,
+                                       describeInstanceCreation(instance),
+                                       () -> trackCreatedInstances(createdInstances,
+                                                                   () -> providerBulkheads.call(infrastructure,
+                                                                                                ApiFamily.CREATE,
+                                                                                                ProviderRateLimiter.getRegion(infrastructure,
+                                                                                                                              instance),
+                                                                                                ProviderRateLimiter.getPermits(instance),
+                                                                                                () -> getCloudProvider(infrastructure).createInstance(infrastructure,
+                                                                                                                                                      instance))),
+                                       () -> deleteCreatedInstancesInBackground(infrastructure, createdInstances));
+    }
+
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        Set<Instance> createdInstances = ConcurrentHashMap.newKeySet();
+        Consumer<Instance> trackingListener = createdInstance -> {
+            createdInstances.add(createdInstance);
+            instanceCreatedListener.accept(createdInstance);
+        };
+        return inFlightOperations.call(infrastructure,
+                                       OperationType.INSTANCE_CREATION,
+                                       describeInstanceCreation(instance),
+                                       () -> trackCreatedInstances(createdInstances,
+                                                                   () -> providerBulkheads.call(infrastructure,
+                                                                                                ApiFamily.CREATE,
+                                                                                                ProviderRateLimiter.getRegion(infrastructure,
+                                                                                                                              instance),
+                                                                                                ProviderRateLimiter.getPermits(instance),
+                                                                                                () -> getCloudProvider(infrastructure).createInstance(infrastructure,
+                                                                                                                                                      instance,
+                                                                                                                                                      trackingListener))),
+                                       () -> deleteCreatedInstancesInBackground(infrastructure, createdInstances));
     }
 
     public void deleteInstance(Infrastructure infrastructure, String instanceId) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteInstance(infrastructure, instanceId);
+        providerBulkheads.run(infrastructure,
+                              ApiFamily.MUTATE,
+                              () -> getCloudProvider(infrastructure).deleteInstance(infrastructure, instanceId));
     }
 
+    /**
+     * Not run on the provider bulkheads: releasing the resources of an infrastructure must not be rejected, and
+     * happens as well while the connector shuts down.
+     */
     public void deleteInfrastructure(Infrastructure infrastructure) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteInfrastructure(infrastructure);
+        getCloudProvider(infrastructure).deleteInfrastructure(infrastructure);
+        providerBulkheads.removeInfrastructure(infrastructure.getId());
+    }
+
+    public void warmUpInfrastructure(Infrastructure infrastructure) {
+        getCloudProvider(infrastructure).warmUpInfrastructure(infrastructure);
     }
 
     public Set<Instance> getAllInfrastructureInstances(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllInfrastructureInstances(infrastructure);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.DESCRIBE,
+                                      () -> getCloudProvider(infrastructure).getAllInfrastructureInstances(infrastructure));
     }
 
     public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getCreatedInfrastructureInstances(infrastructure);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.DESCRIBE,
+                                      () -> getCloudProvider(infrastructure).getCreatedInfrastructureInstances(infrastructure));
     }
 
     public List<ScriptResult> executeScriptOnInstanceId(Infrastructure infrastructure, String instanceId,
             InstanceScript instanceScript) {
-        return cloudProviderPerType.get(infrastructure.getType()).executeScriptOnInstanceId(infrastructure,
-                                                                                            instanceId,
-                                                                                            instanceScript);
+        return inFlightOperations.call(infrastructure,
+                                       OperationType.SCRIPT_EXECUTION,
+                                       "Script execution on instance " + instanceId,
+                                       () -> providerBulkheads.call(infrastructure,
+                                                                    ApiFamily.SCRIPT,
+                                                                    () -> getCloudProvider(infrastructure).executeScriptOnInstanceId(infrastructure,
+                                                                                                                                     instanceId,
+                                                                                                                                     instanceScript)));
     }
 
     public Set<String> getAllRegionsOnInfrastructure(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).listAvailableRegions(infrastructure);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.DESCRIBE,
+                                      () -> getCloudProvider(infrastructure).listAvailableRegions(infrastructure));
     }
 
     public List<ScriptResult> executeScriptOnInstanceTag(Infrastructure infrastructure, String instanceTag,
             InstanceScript instanceScript) {
-        return cloudProviderPerType.get(infrastructure.getType())
-                                   .executeScriptOnInstanceTag(infrastructure, instanceTag, instanceScript);
+        return inFlightOperations.call(infrastructure,
+                                       OperationType.SCRIPT_EXECUTION,
+                                       "Script execution on instances tagged " + instanceTag,
+                                       () -> providerBulkheads.call(infrastructure,
+                                                                    ApiFamily.SCRIPT,
+                                                                    () -> getCloudProvider(infrastructure).executeScriptOnInstanceTag(infrastructure,
+                                                                                                                                      instanceTag,
+                                                                                                                                      instanceScript)));
     }
 
     public Set<Hardware> getAllHardwares(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllHardwares(infrastructure);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.DESCRIBE,
+                                      () -> getCloudProvider(infrastructure).getAllHardwares(infrastructure));
     }
 
     public Set<Image> getAllImages(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllImages(infrastructure);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.DESCRIBE,
+                                      () -> getCloudProvider(infrastructure).getAllImages(infrastructure));
     }
 
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
-        return cloudProviderPerType.get(infrastructure.getType()).addToInstancePublicIp(infrastructure,
-                                                                                        instanceId,
-                                                                                        optionalDesiredIp);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.MUTATE,
+                                      () -> getCloudProvider(infrastructure).addToInstancePublicIp(infrastructure,
+                                                                                                   instanceId,
+                                                                                                   optionalDesiredIp));
     }
 
     public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
-        cloudProviderPerType.get(infrastructure.getType()).removeInstancePublicIp(infrastructure,
-                                                                                  instanceId,
-                                                                                  optionalDesiredIp);
+        providerBulkheads.run(infrastructure,
+                              ApiFamily.MUTATE,
+                              () -> getCloudProvider(infrastructure).removeInstancePublicIp(infrastructure,
+                                                                                            instanceId,
+                                                                                            optionalDesiredIp));
     }
 
     public SimpleImmutableEntry<String, String> createKeyPair(Infrastructure infrastructure, Instance instance) {
-        return cloudProviderPerType.get(infrastructure.getType()).createKeyPair(infrastructure, instance);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.MUTATE,
+                                      ProviderRateLimiter.getRegion(infrastructure, instance),
+                                      1,
+                                      () -> getCloudProvider(infrastructure).createKeyPair(infrastructure, instance));
     }
 
     public void deleteKeyPair(Infrastructure infrastructure, String keyPairName, String region) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteKeyPair(infrastructure, keyPairName, region);
+        providerBulkheads.run(infrastructure,
+                              ApiFamily.MUTATE,
+                              () -> getCloudProvider(infrastructure).deleteKeyPair(infrastructure,
+                                                                                   keyPairName,
+                                                                                   region));
     }
 
     public PagedNodeCandidates getNodeCandidate(Infrastructure infrastructure, String region, String imageReq,
             String token) {
-        return cloudProviderPerType.get(infrastructure.getType()).getNodeCandidate(infrastructure,
-                                                                                   region,
-                                                                                   imageReq,
-                                                                                   token);
+        return providerBulkheads.call(infrastructure,
+                                      ApiFamily.PRICING,
+                                      () -> getCloudProvider(infrastructure).getNodeCandidate(infrastructure,
+                                                                                              region,
+                                                                                              imageReq,
+                                                                                              token));
+    }
+
+    private CloudProvider getCloudProvider(Infrastructure infrastructure) {
+        return cloudProviderPerType.get(infrastructure.getType());
+    }
+
+    private String describeInstanceCreation(Instance instance) {
+        return "Creation of " + Optional.ofNullable(instance.getNumber()).orElse("1") + " instances tagged " +
+               instance.getTag();
+    }
+
+    /**
+     * Record the instances returned by the creation, including those of a partial creation, as the creations
+     * interrupted by a cancellation report the instances created until then.
+     */
+    private Set<Instance> trackCreatedInstances(Set<Instance> createdInstances, Supplier<Set<Instance>> creation) {
+        try {
+            Set<Instance> instances = creation.get();
+            createdInstances.addAll(instances);
+            return instances;
+        } catch (PartialInstanceCreationException e) {
+            createdInstances.addAll(e.getResult().getInstances());
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Set<Instance>> trackCreatedInstancesAsync(Set<Instance> createdInstances,
+            CompletableFuture<Set<Instance>> creation) {
+        return creation.whenComplete((instances, error) -> {
+            if (instances != null) {
+                createdInstances.addAll(instances);
+            } else {
+                Throwables.getCausalChain(error)
+                          .stream()
+                          .filter(PartialInstanceCreationException.class::isInstance)
+                          .findFirst()
+                          .ifPresent(e -> createdInstances.addAll(((PartialInstanceCreationException) e).getResult()
+                                                                                                         .getInstances()));
+            }
+        });
+    }
+
+    /**
+     * Delete the instances of a cancelled creation on the cloud provider thread pool, outside of the cancelled
+     * operation and of the deadline of its request.
+     */
+    private void deleteCreatedInstancesInBackground(Infrastructure infrastructure, Set<Instance> createdInstances) {
+        createdInstances.forEach(createdInstance -> cloudProviderExecutor.execute(() -> {
+            try {
+                deleteInstance(infrastructure, createdInstance.getId());
+                log.info("Deleted instance " + createdInstance.getId() + " of a cancelled creation on infrastructure " +
+                         infrastructure.getId());
+            } catch (RuntimeException e) {
+                log.error("Unable to delete instance " + createdInstance.getId() +
+                          " of a cancelled creation on infrastructure " + infrastructure.getId(), e);
+            }
+        }));
+    }
+
+    public CompletableFuture<Set<Instance>> createInstanceAsync(Infrastructure infrastructure, Instance instance) {
+        return createInstanceAsync(infrastructure, instance, createdInstance -> {
+        });
+    }
+
+    public CompletableFuture<Set<Instance>> createInstanceAsync(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        Set<Instance> createdInstances = ConcurrentHashMap.newKeySet();
+        Consumer<Instance> trackingListener = createdInstance -> {
+            createdInstances.add(createdInstance);
+            instanceCreatedListener.accept(createdInstance);
+        };
+        return inFlightOperations.callAsync(infrastructure,
+                                            OperationType.INSTANCE_CREATION,
+                                            describeInstanceCreation(instance),
+                                            () -> trackCreatedInstancesAsync(createdInstances,
+                                                                             asyncCloudProviderPerType.get(infrastructure.getType())
+                                                                                                      .createInstanceAsync(infrastructure,
+                                                                                                                           instance,
+                                                                                                                           trackingListener)),
+                                            () -> deleteCreatedInstancesInBackground(infrastructure, createdInstances));
+    }
+
+    public CompletableFuture<Void> deleteInstanceAsync(Infrastructure infrastructure, String instanceId) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).deleteInstanceAsync(infrastructure, instanceId);
+    }
+
+    public CompletableFuture<Set<Instance>> getAllInfrastructureInstancesAsync(Infrastructure infrastructure) {
+        return asyncCloudProviderPerType.get(infrastructure.getType())
+                                        .getAllInfrastructureInstancesAsync(infrastructure);
+    }
+
+    public CompletableFuture<Set<Instance>> getCreatedInfrastructureInstancesAsync(Infrastructure infrastructure) {
+        return asyncCloudProviderPerType.get(infrastructure.getType())
+                                        .getCreatedInfrastructureInstancesAsync(infrastructure);
+    }
+
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceIdAsync(Infrastructure infrastructure,
+            String instanceId, InstanceScript instanceScript) {
+        return inFlightOperations.callAsync(infrastructure,
+                                            OperationType.SCRIPT_EXECUTION,
+                                            "Script execution on instance " + instanceId,
+                                            () -> asyncCloudProviderPerType.get(infrastructure.getType())
+                                                                           .executeScriptOnInstanceIdAsync(infrastructure,
+                                                                                                           instanceId,
+                                                                                                           instanceScript));
+    }
+
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceTagAsync(Infrastructure infrastructure,
+            String instanceTag, InstanceScript instanceScript) {
+        return inFlightOperations.callAsync(infrastructure,
+                                            OperationType.SCRIPT_EXECUTION,
+                                            "Script execution on instances tagged " + instanceTag,
+                                            () -> asyncCloudProviderPerType.get(infrastructure.getType())
+                                                                           .executeScriptOnInstanceTagAsync(infrastructure,
+                                                                                                            instanceTag,
+                                                                                                            instanceScript));
+    }
+
+    public CompletableFuture<Set<String>> getAllRegionsOnInfrastructureAsync(Infrastructure infrastructure) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).listAvailableRegionsAsync(infrastructure);
+    }
+
+    public CompletableFuture<Set<Hardware>> getAllHardwaresAsync(Infrastructure infrastructure) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).getAllHardwaresAsync(infrastructure);
+    }
+
+    public CompletableFuture<Set<Image>> getAllImagesAsync(Infrastructure infrastructure) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).getAllImagesAsync(infrastructure);
+    }
+
+    public CompletableFuture<String> addToInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String optionalDesiredIp) {
+        return asyncCloudProviderPerType.get(infrastructure.getType())
+                                        .addToInstancePublicIpAsync(infrastructure, instanceId, optionalDesiredIp);
+    }
+
+    public CompletableFuture<Void> removeInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String optionalDesiredIp) {
+        return asyncCloudProviderPerType.get(infrastructure.getType())
+                                        .removeInstancePublicIpAsync(infrastructure, instanceId, optionalDesiredIp);
+    }
+
+    public CompletableFuture<SimpleImmutableEntry<String, String>> createKeyPairAsync(Infrastructure infrastructure,
+            Instance instance) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).createKeyPairAsync(infrastructure, instance);
+    }
+
+    public CompletableFuture<Void> deleteKeyPairAsync(Infrastructure infrastructure, String keyPairName,
+            String region) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).deleteKeyPairAsync(infrastructure,
+                                                                                          keyPairName,
+                                                                                          region);
+    }
+
+    public CompletableFuture<PagedNodeCandidates> getNodeCandidateAsync(Infrastructure infrastructure, String region,
+            String imageReq, String token) {
+        return asyncCloudProviderPerType.get(infrastructure.getType()).getNodeCandidateAsync(infrastructure,
+                                                                                             region,
+                                                                                             imageReq,
+                                                                                             token);
     }
 
 }
@@ -0,0 +1,158 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.model.OperationType;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+
+/**
+ * An operation running on the cloud providers which its client may cancel while it is in flight, see
+ * {@link InFlightOperations}.
+ *
+ * The operation is bound to the thread that starts it, and must be carried explicitly with {@link #propagate(Supplier)}
+ * to the tasks that perform it on other threads. Cancelling the operation interrupts these threads, the providers
+ * reacting to the interruption by cancelling what they started on the infrastructure and by reporting the instances
+ * already created.
+ */
+@Getter
+public class InFlightOperation {
+
+    private static final ThreadLocal<InFlightOperation> CURRENT = new ThreadLocal<>();
+
+    private final String id;
+
+    private final String infrastructureId;
+
+    private final OperationType type;
+
+    private final String description;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile boolean cancelled;
+
+    @Getter(AccessLevel.NONE)
+    private final Set<Thread> workingThreads = new HashSet<>();
+
+    InFlightOperation(String id, String infrastructureId, OperationType type, String description) {
+        this.id = id;
+        this.infrastructureId = infrastructureId;
+        this.type = type;
+        this.description = description;
+    }
+
+    public static Optional<InFlightOperation> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * @throws OperationCancelledException when the operation of the current thread has been cancelled
+     */
+    public static void check(String operation) {
+        InFlightOperation inFlightOperation = CURRENT.get();
+        if (inFlightOperation != null && inFlightOperation.cancelled) {
+            throw new OperationCancelledException(operation + " abandoned, operation " + inFlightOperation.id +
+                                                  " has been cancelled");
+        }
+    }
+
+    /**
+     * @return the task running within the operation of the current thread, on whichever thread it runs, and
+     *         interrupted when the operation is cancelled
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        InFlightOperation operation = CURRENT.get();
+        if (operation == null) {
+            return task;
+        }
+        return () -> operation.callWithin(() -> {
+            operation.addWorkingThread(Thread.currentThread());
+            try {
+                return task.get();
+            } finally {
+                operation.removeWorkingThread(Thread.currentThread());
+            }
+        });
+    }
+
+    /**
+     * Run the task within the operation on the current thread, without interrupting it when the operation is
+     * cancelled: the thread starting the operation waits for its working threads to give up.
+     */
+    <T> T callWithin(Supplier<T> task) {
+        InFlightOperation previousOperation = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.get();
+        } finally {
+            if (previousOperation == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previousOperation);
+            }
+        }
+    }
+
+    /**
+     * @return true if the operation was cancelled by this call, false if it already was
+     */
+    synchronized boolean cancel() {
+        if (cancelled) {
+            return false;
+        }
+        cancelled = true;
+        workingThreads.forEach(Thread::interrupt);
+        return true;
+    }
+
+    Operation toOperation() {
+        return new Operation(id, infrastructureId, type, description, startTime, cancelled);
+    }
+
+    private synchronized void addWorkingThread(Thread thread) {
+        workingThreads.add(thread);
+    }
+
+    /**
+     * Done under the lock of the operation so that a pooled thread leaving a cancelled operation does not carry
+     * its interruption to the next task it runs.
+     */
+    private synchronized void removeWorkingThread(Thread thread) {
+        workingThreads.remove(thread);
+        if (cancelled) {
+            Thread.interrupted();
+        }
+    }
+}
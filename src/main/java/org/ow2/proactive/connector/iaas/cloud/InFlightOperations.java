@@ -0,0 +1,186 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.model.OperationType;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * The table of the operations in flight on the cloud providers, through which their clients may cancel them.
+ *
+ * Each operation is registered under the id requested for it on the thread starting it, usually given by the client
+ * in the X-Operation-Id header of its request, or under a generated id. Cancelling an operation interrupts the
+ * provider calls made for it (see {@link InFlightOperation}). Once these calls have given up, the compensation of the
+ * operation releases what was already created and the operation fails with an {@link OperationCancelledException}.
+ */
+@Component
+@Log4j2
+public class InFlightOperations {
+
+    private static final ThreadLocal<String> REQUESTED_OPERATION_ID = new ThreadLocal<>();
+
+    private final Map<String, InFlightOperation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Set the id of the next operation started by the current thread.
+     * @param operationId the requested id, null to let the operation generate its own
+     */
+    public static void setRequestedOperationId(String operationId) {
+        if (operationId == null) {
+            REQUESTED_OPERATION_ID.remove();
+        } else {
+            REQUESTED_OPERATION_ID.set(operationId);
+        }
+    }
+
+    /**
+     * @return the id of the next operation started by the current thread, empty if it is to generate its own
+     */
+    public static Optional<String> getRequestedOperationId() {
+        return Optional.ofNullable(REQUESTED_OPERATION_ID.get());
+    }
+
+    public <T> T call(Infrastructure infrastructure, OperationType type, String description, Supplier<T> call) {
+        return call(infrastructure, type, description, call, () -> {
+        });
+    }
+
+    /**
+     * Run the call as an operation which may be cancelled while in flight.
+     * @param compensation run once the call has given up when the operation is cancelled
+     * @throws IllegalArgumentException when the requested operation id is already in use
+     * @throws OperationCancelledException when the operation is cancelled before the call completes
+     */
+    public <T> T call(Infrastructure infrastructure, OperationType type, String description, Supplier<T> call,
+            Runnable compensation) {
+        InFlightOperation operation = register(infrastructure, type, description);
+        T result;
+        try {
+            result = operation.callWithin(call);
+        } catch (RuntimeException e) {
+            throw operation.isCancelled() ? compensate(operation, compensation, e) : e;
+        } finally {
+            operations.remove(operation.getId());
+        }
+        if (operation.isCancelled()) {
+            throw compensate(operation, compensation, null);
+        }
+        return result;
+    }
+
+    public <T> CompletableFuture<T> callAsync(Infrastructure infrastructure, OperationType type, String description,
+            Supplier<CompletableFuture<T>> call) {
+        return callAsync(infrastructure, type, description, call, () -> {
+        });
+    }
+
+    /**
+     * Start the asynchronous call as an operation which may be cancelled while in flight, the returned future
+     * completing with an {@link OperationCancelledException} when the operation is cancelled.
+     * @param compensation run once the call has given up when the operation is cancelled
+     * @throws IllegalArgumentException when the requested operation id is already in use
+     */
+    public <T> CompletableFuture<T> callAsync(Infrastructure infrastructure, OperationType type, String description,
+            Supplier<CompletableFuture<T>> call, Runnable compensation) {
+        InFlightOperation operation = register(infrastructure, type, description);
+        CompletableFuture<T> future;
+        try {
+            future = operation.callWithin(call);
+        } catch (RuntimeException e) {
+            operations.remove(operation.getId());
+            throw operation.isCancelled() ? compensate(operation, compensation, e) : e;
+        }
+        CompletableFuture<T> operationFuture = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            operations.remove(operation.getId());
+            if (operation.isCancelled()) {
+                operationFuture.completeExceptionally(compensate(operation, compensation, error));
+            } else if (error != null) {
+                operationFuture.completeExceptionally(error);
+            } else {
+                operationFuture.complete(result);
+            }
+        });
+        return operationFuture;
+    }
+
+    /**
+     * Cancel the operation, which completes once its provider calls have given up.
+     * @return the cancelled operation, empty if no operation with this id is in flight
+     */
+    public Optional<Operation> cancel(String operationId) {
+        return Optional.ofNullable(operations.get(operationId)).map(operation -> {
+            if (operation.cancel()) {
+                log.info("Cancelled operation " + operationId + ": " + operation.getDescription());
+            }
+            return operation.toOperation();
+        });
+    }
+
+    public Optional<Operation> getOperation(String operationId) {
+        return Optional.ofNullable(operations.get(operationId)).map(InFlightOperation::toOperation);
+    }
+
+    public Set<Operation> getOperations() {
+        return operations.values().stream().map(InFlightOperation::toOperation).collect(Collectors.toSet());
+    }
+
+    private InFlightOperation register(Infrastructure infrastructure, OperationType type, String description) {
+        String operationId = Optional.ofNullable(REQUESTED_OPERATION_ID.get())
+                                     .orElseGet(() -> UUID.randomUUID().toString());
+        REQUESTED_OPERATION_ID.remove();
+        InFlightOperation operation = new InFlightOperation(operationId, infrastructure.getId(), type, description);
+        if (operations.putIfAbsent(operationId, operation) != null) {
+            throw new IllegalArgumentException("operation id " + operationId + " is already in use");
+        }
+        return operation;
+    }
+
+    private OperationCancelledException compensate(InFlightOperation operation, Runnable compensation,
+            Throwable cause) {
+        try {
+            compensation.run();
+        } catch (RuntimeException e) {
+            log.error("Unable to release what cancelled operation " + operation.getId() + " created", e);
+        }
+        return new OperationCancelledException("Operation " + operation.getId() + " has been cancelled: " +
+                                               operation.getDescription(), cause);
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Isolates the calls made to the cloud providers so that a slow or unavailable cloud cannot starve the requests
+ * made to the other ones.
+ *
+ * Each provider type runs its calls on its own thread pool of connector-iaas.bulkhead.provider-type.threads threads,
+ * with at most connector-iaas.bulkhead.provider-type.queue-size calls waiting for a thread. The script executions,
+ * which may hold a thread for minutes, run on a separate pool of connector-iaas.bulkhead.provider-type.script-threads
+ * threads per provider type, so that they cannot starve the other calls. Within a provider type, each infrastructure
+ * may have at most connector-iaas.bulkhead.infrastructure.max-calls calls running or waiting, so that one degraded
+ * endpoint cannot fill the pool of its provider type either. A call over either budget is rejected at once with a
+ * {@link RejectedExecutionException} and counted in the statistics, as is a call to an infrastructure whose circuit
+ * breaker is open (see {@link ProviderCircuitBreakers}). A call first reserves its tokens in the
+ * {@link ProviderRateLimiter}, then waits for a place among the calls allowed in flight by the
+ * {@link AdaptiveConcurrencyLimiter}, which measures how the provider answers, and is handed over to the thread pool
+ * only then, so that no thread of the pool sleeps waiting. The calls carry the {@link RequestDeadline} of the thread
+ * submitting them: a call still waiting for a thread when the deadline expires is abandoned without reaching the
+ * provider. They carry as well the {@link InFlightOperation} of the submitting thread, so that cancelling the operation
+ * interrupts them.
+ */
+@Component
+@Log4j2
+public class ProviderBulkheads {
+
+    @Value("${connector-iaas.bulkhead.provider-type.threads:16}")
+    private int providerTypeThreads;
+
+    @Value("${connector-iaas.bulkhead.provider-type.script-threads:8}")
+    private int providerTypeScriptThreads;
+
+    @Value("${connector-iaas.bulkhead.provider-type.queue-size:200}")
+    private int providerTypeQueueSize;
+
+    @Value("${connector-iaas.bulkhead.infrastructure.max-calls:32}")
+    private int infrastructureMaxCalls;
+
+    @Autowired
+    private ProviderRateLimiter providerRateLimiter;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+    @Autowired
+    private ProviderCircuitBreakers providerCircuitBreakers;
+
+    private final Map<String, ProviderTypeBulkhead> bulkheadPerProviderType = new ConcurrentHashMap<>();
+
+    private final Map<String, InfrastructureBulkhead> bulkheadPerInfrastructure = new ConcurrentHashMap<>();
+
+    /**
+     * Hands the calls over to their thread pool once their rate limit tokens are available.
+     */
+    private final ScheduledExecutorService rateLimitScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("provider-rate-limit-%d")
+                                                                                                                                    .setDaemon(true)
+                                                                                                                                    .build());
+
+    @PreDestroy
+    public void stop() {
+        rateLimitScheduler.shutdownNow();
+        bulkheadPerProviderType.values().forEach(bulkhead -> bulkhead.executor.shutdownNow());
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Infrastructure infrastructure, ApiFamily apiFamily,
+            Supplier<T> call) {
+        return supplyAsync(infrastructure, apiFamily, null, 1, call);
+    }
+
+    /**
+     * Run the call on the thread pool of the provider type of the infrastructure, once the rate limit tokens of the
+     * call are available.
+     * @param region the region the call is made in, null for the region of the infrastructure
+     * @param permits the number of rate limit tokens of the call, one per instance it creates
+     * @throws RejectedExecutionException when the budget of the infrastructure or of its provider type is exhausted,
+     *         when the circuit breaker of the infrastructure is open, or when the rate limit tokens of the call are
+     *         not available in time
+     */
+    public <T> CompletableFuture<T> supplyAsync(Infrastructure infrastructure, ApiFamily apiFamily, String region,
+            int permits, Supplier<T> call) {
+        ProviderCircuitBreakers.CircuitBreaker circuitBreaker = providerCircuitBreakers.acquire(infrastructure);
+        int maxCalls = Math.max(1, infrastructureMaxCalls);
+        InfrastructureBulkhead infrastructureBulkhead = bulkheadPerInfrastructure.computeIfAbsent(infrastructure.getId(),
+                                                                                                  id -> new InfrastructureBulkhead(maxCalls));
+        if (!infrastructureBulkhead.permits.tryAcquire()) {
+            circuitBreaker.release();
+            infrastructureBulkhead.rejectedCalls.incrementAndGet();
+            throw rejected("infrastructure " + infrastructure.getId() + " already has " +
+                           infrastructureBulkhead.maxCalls + " calls in flight");
+        }
+        Runnable release = () -> {
+            circuitBreaker.release();
+            infrastructureBulkhead.permits.release();
+        };
+        long delay;
+        try {
+            delay = providerRateLimiter.reserve(infrastructure, apiFamily, region, permits);
+        } catch (RejectedExecutionException e) {
+            release.run();
+            throw e;
+        }
+        AdaptiveConcurrencyLimiter.AdaptiveLimit adaptiveLimit = adaptiveConcurrencyLimiter.getLimit(infrastructure,
+                                                                                                     apiFamily);
+        // the script executions mostly reach the instances over SSH, their failures tell nothing about the cloud API
+        Function<Supplier<T>, T> circuitBreakerCall;
+        if (apiFamily == ApiFamily.SCRIPT) {
+            circuitBreakerCall = circuitBreaker::callUnrecorded;
+        } else {
+            circuitBreakerCall = circuitBreaker::call;
+        }
+        Supplier<T> providerCall = InFlightOperation.propagate(RequestDeadline.propagate(() -> {
+            try {
+                return circuitBreakerCall.apply(() -> {
+                    try {
+                        RequestDeadline.check("Provider call to infrastructure " + infrastructure.getId());
+                        InFlightOperation.check("Provider call to infrastructure " + infrastructure.getId());
+                    } catch (RuntimeException e) {
+                        adaptiveLimit.release();
+                        throw e;
+                    }
+                    return providerRateLimiter.call(infrastructure,
+                                                    apiFamily,
+                                                    region,
+                                                    () -> callWithinAdaptiveLimit(adaptiveLimit, permits, call));
+                });
+            } finally {
+                infrastructureBulkhead.permits.release();
+            }
+        }));
+        if (delay == 0 && adaptiveLimit.tryAcquire()) {
+            try {
+                return submit(infrastructure, apiFamily, providerCall, release);
+            } catch (RejectedExecutionException e) {
+                adaptiveLimit.release();
+                throw e;
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable startOnceAcquired = () -> adaptiveLimit.acquire(() -> {
+            if (future.isDone()) {
+                // abandoned by its caller while waiting
+                adaptiveLimit.release();
+                release.run();
+                return;
+            }
+            try {
+                submit(infrastructure, apiFamily, providerCall, release).whenComplete((result, error) -> {
+                    if (error == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(error);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                adaptiveLimit.release();
+                future.completeExceptionally(new CompletionException(e));
+            }
+        });
+        if (delay == 0) {
+            startOnceAcquired.run();
+        } else {
+            rateLimitScheduler.schedule(startOnceAcquired, delay, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * The script executions of a provider type have their own pool, named after the provider type and "/script".
+     */
+    private <T> CompletableFuture<T> submit(Infrastructure infrastructure, ApiFamily apiFamily,
+            Supplier<T> providerCall, Runnable release) {
+        boolean script = apiFamily == ApiFamily.SCRIPT;
+        String bulkheadKey = script ? infrastructure.getType() + "/script" : infrastructure.getType();
+        int threads = script ? providerTypeScriptThreads : providerTypeThreads;
+        ProviderTypeBulkhead providerTypeBulkhead = bulkheadPerProviderType.computeIfAbsent(bulkheadKey,
+                                                                                            key -> newProviderTypeBulkhead(key,
+                                                                                                                           threads));
+        try {
+            return CompletableFuture.supplyAsync(providerCall, providerTypeBulkhead.executor);
+        } catch (RejectedExecutionException e) {
+            release.run();
+            providerTypeBulkhead.rejectedCalls.incrementAndGet();
+            throw rejected("provider type " + bulkheadKey + " already has " +
+                           providerTypeBulkhead.maxInFlightCalls + " calls in flight");
+        }
+    }
+
+    public CompletableFuture<Void> runAsync(Infrastructure infrastructure, ApiFamily apiFamily, Runnable call) {
+        return supplyAsync(infrastructure, apiFamily, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the call on the thread pool of the provider type of the infrastructure and wait for its result, the
+     * exceptions thrown by the call being rethrown as is.
+     * @throws RejectedExecutionException when the budget of the infrastructure or of its provider type is exhausted
+     * @throws DeadlineExceededException when the request deadline expires before the call completes
+     */
+    public <T> T call(Infrastructure infrastructure, ApiFamily apiFamily, Supplier<T> call) {
+        return call(infrastructure, apiFamily, null, 1, call);
+    }
+
+    /**
+     * @see #call(Infrastructure, ApiFamily, Supplier)
+     * @see #supplyAsync(Infrastructure, ApiFamily, String, int, Supplier)
+     */
+    public <T> T call(Infrastructure infrastructure, ApiFamily apiFamily, String region, int permits,
+            Supplier<T> call) {
+        try {
+            return RequestDeadline.join(supplyAsync(infrastructure, apiFamily, region, permits, call),
+                                        "Provider call to infrastructure " + infrastructure.getId());
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    public void run(Infrastructure infrastructure, ApiFamily apiFamily, Runnable call) {
+        call(infrastructure, apiFamily, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public void removeInfrastructure(String infrastructureId) {
+        bulkheadPerInfrastructure.remove(infrastructureId);
+        adaptiveConcurrencyLimiter.removeInfrastructure(infrastructureId);
+        providerCircuitBreakers.removeInfrastructure(infrastructureId);
+    }
+
+    public Map<String, ProviderBulkheadStatistics> getProviderTypeStatistics() {
+        return bulkheadPerProviderType.entrySet()
+                                      .stream()
+                                      .collect(Collectors.toMap(Map.Entry::getKey,
+                                                                entry -> entry.getValue().getStatistics()));
+    }
+
+    public Map<String, ProviderBulkheadStatistics> getInfrastructureStatistics() {
+        return bulkheadPerInfrastructure.entrySet()
+                                        .stream()
+                                        .collect(Collectors.toMap(Map.Entry::getKey,
+                                                                  entry -> entry.getValue().getStatistics()));
+    }
+
+    /**
+     * The latency of a creation is measured per instance created, so that large creations are not taken for a slow
+     * provider.
+     */
+    private <T> T callWithinAdaptiveLimit(AdaptiveConcurrencyLimiter.AdaptiveLimit adaptiveLimit, int permits,
+            Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            adaptiveLimit.onSuccess(start, (System.nanoTime() - start) / Math.max(1, permits));
+            return result;
+        } catch (RuntimeException e) {
+            adaptiveLimit.onFailure(start, e);
+            throw e;
+        }
+    }
+
+    private ProviderTypeBulkhead newProviderTypeBulkhead(String bulkheadKey, int poolThreads) {
+        int threads = Math.max(1, poolThreads);
+        int queueSize = Math.max(1, providerTypeQueueSize);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                                                             threads,
+                                                             0L,
+                                                             TimeUnit.MILLISECONDS,
+                                                             new LinkedBlockingQueue<>(queueSize),
+                                                             new ThreadFactoryBuilder().setNameFormat(bulkheadKey.replace('/',
+                                                                                                                          '-') +
+                                                                                                      "-provider-%d")
+                                                                                       .setDaemon(true)
+                                                                                       .build());
+        return new ProviderTypeBulkhead(executor, threads + queueSize);
+    }
+
+    private RejectedExecutionException rejected(String reason) {
+        log.warn("Rejecting provider call: " + reason);
+        return new RejectedExecutionException("Too many calls in flight: " + reason);
+    }
+
+    private static class ProviderTypeBulkhead {
+
+        private final ThreadPoolExecutor executor;
+
+        private final int maxInFlightCalls;
+
+        private final AtomicLong rejectedCalls = new AtomicLong();
+
+        private ProviderTypeBulkhead(ThreadPoolExecutor executor, int maxInFlightCalls) {
+            this.executor = executor;
+            this.maxInFlightCalls = maxInFlightCalls;
+        }
+
+        private ProviderBulkheadStatistics getStatistics() {
+            return new ProviderBulkheadStatistics(executor.getActiveCount() + executor.getQueue().size(),
+                                                  maxInFlightCalls,
+                                                  rejectedCalls.get());
+        }
+    }
+
+    private static class InfrastructureBulkhead {
+
+        private final Semaphore permits;
+
+        private final int maxCalls;
+
+        private final AtomicLong rejectedCalls = new AtomicLong();
+
+        private InfrastructureBulkhead(int maxCalls) {
+            this.permits = new Semaphore(maxCalls);
+            this.maxCalls = maxCalls;
+        }
+
+        private ProviderBulkheadStatistics getStatistics() {
+            return new ProviderBulkheadStatistics(maxCalls - permits.availablePermits(),
+                                                  maxCalls,
+                                                  rejectedCalls.get());
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.ssh.SshException;
+import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.rest.RestException;
+
+import lombok.extern.log4j.Log4j2;
+import net.schmizz.sshj.common.SSHException;
+
+
+/**
+ * Stops sending calls to an infrastructure whose endpoint is down, so that the requests fail at once instead of
+ * holding a thread until the provider timeouts expire.
+ *
+ * The circuit breaker of an infrastructure opens after connector-iaas.circuit-breaker.failure-threshold consecutive
+ * calls failed because the provider could not be reached, timed out or answered with a server error. While open, the
+ * calls are rejected with a {@link RejectedExecutionException}. After connector-iaas.circuit-breaker.open-duration
+ * milliseconds it is half-open: a single trial call is let through, closing the circuit breaker when it succeeds and
+ * opening it again when it fails. The half-open circuit breakers are also probed in the background every
+ * connector-iaas.circuit-breaker.health-probe-period milliseconds with {@link CloudProvider#checkHealth}, so that an
+ * infrastructure which recovered is usable again without waiting for a request to try it.
+ *
+ * Only the failures of the calls to the cloud API are counted: the script executions, which mostly reach the instances
+ * over SSH, and the SSH failures of the other calls, such as those of an instance not up yet, leave the circuit
+ * breaker as is. The probes are rate limited
+ * as describe calls by the {@link ProviderRateLimiter}.
+ */
+@Component
+@Log4j2
+public class ProviderCircuitBreakers {
+
+    private static final int SERVER_ERROR = 500;
+
+    @Value("${connector-iaas.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${connector-iaas.circuit-breaker.open-duration:30000}")
+    private long openDuration;
+
+    @Value("${connector-iaas.circuit-breaker.health-probe-period:10000}")
+    private long healthProbePeriod;
+
+    @Value("${connector-iaas.circuit-breaker.health-probe-threads:2}")
+    private int healthProbeThreads;
+
+    @Autowired
+    private List<CloudProvider> cloudProviders;
+
+    @Autowired
+    private ProviderRateLimiter providerRateLimiter;
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService healthProbeScheduler;
+
+    private ExecutorService healthProbeExecutor;
+
+    @PostConstruct
+    public void start() {
+        if (healthProbePeriod > 0) {
+            healthProbeExecutor = Executors.newFixedThreadPool(Math.max(1, healthProbeThreads),
+                                                               new ThreadFactoryBuilder().setNameFormat("health-probe-%d")
+                                                                                         .setDaemon(true)
+                                                                                         .build());
+            healthProbeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("health-probe-scheduler")
+                                                                                                        .setDaemon(true)
+                                                                                                        .build());
+            healthProbeScheduler.scheduleWithFixedDelay(this::probeOpenCircuitBreakers,
+                                                        healthProbePeriod,
+                                                        healthProbePeriod,
+                                                        TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Optional.ofNullable(healthProbeScheduler).ifPresent(ExecutorService::shutdownNow);
+        Optional.ofNullable(healthProbeExecutor).ifPresent(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * @return the circuit breaker of the infrastructure, once it let the call through
+     * @throws RejectedExecutionException when the circuit breaker of the infrastructure is open
+     */
+    public CircuitBreaker acquire(Infrastructure infrastructure) {
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(infrastructure.getId(),
+                                                                        id -> new CircuitBreaker(infrastructure));
+        circuitBreaker.acquire(infrastructure);
+        return circuitBreaker;
+    }
+
+    public void removeInfrastructure(String infrastructureId) {
+        circuitBreakers.remove(infrastructureId);
+    }
+
+    public Map<String, CircuitBreakerStatistics> getStatistics() {
+        return circuitBreakers.entrySet()
+                              .stream()
+                              .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getStatistics()));
+    }
+
+    /**
+     * @return whether the error shows that the provider is unavailable rather than that the call was wrong: network
+     *         errors, timeouts and HTTP 5xx answers. Throttling is left to the {@link ProviderRateLimiter}, and the
+     *         SSH failures tell about the instances rather than the cloud API.
+     */
+    static boolean isUnavailability(Throwable error) {
+        List<Throwable> causes = Throwables.getCausalChain(error);
+        return !ProviderThrottling.isThrottling(error) &&
+               causes.stream().noneMatch(ProviderCircuitBreakers::isSshFailure) &&
+               causes.stream().anyMatch(ProviderCircuitBreakers::isUnavailabilityCause);
+    }
+
+    private static boolean isSshFailure(Throwable cause) {
+        return cause instanceof SshException || cause instanceof SSHException;
+    }
+
+    private static boolean isUnavailabilityCause(Throwable cause) {
+        if (cause instanceof IOException || cause instanceof TimeoutException) {
+            return true;
+        } else if (cause instanceof HttpResponseException) {
+            return Optional.ofNullable(((HttpResponseException) cause).getResponse())
+                           .map(response -> response.getStatusCode() >= SERVER_ERROR)
+                           .orElse(false);
+        } else if (cause instanceof RestException) {
+            return Optional.ofNullable(((RestException) cause).response())
+                           .map(response -> response.code() >= SERVER_ERROR)
+                           .orElse(false);
+        }
+        return false;
+    }
+
+    void probeOpenCircuitBreakers() {
+        circuitBreakers.values().stream().filter(CircuitBreaker::tryStartProbe).forEach(circuitBreaker -> {
+            try {
+                healthProbeExecutor.execute(() -> probe(circuitBreaker));
+            } catch (RejectedExecutionException e) {
+                circuitBreaker.release();
+            }
+        });
+    }
+
+    private void probe(CircuitBreaker circuitBreaker) {
+        Infrastructure infrastructure = circuitBreaker.infrastructure;
+        Optional<CloudProvider> cloudProvider = cloudProviders.stream()
+                                                              .filter(provider -> provider.getType()
+                                                                                          .equals(infrastructure.getType()))
+                                                              .findAny();
+        if (!cloudProvider.isPresent()) {
+            circuitBreaker.release();
+            return;
+        }
+        try {
+            // the probe spends the same quota as the describe calls of the requests
+            Thread.sleep(providerRateLimiter.reserve(infrastructure, ApiFamily.DESCRIBE, null, 1));
+        } catch (RejectedExecutionException e) {
+            log.debug("Health probe of infrastructure " + infrastructure.getId() + " postponed", e);
+            circuitBreaker.release();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            circuitBreaker.release();
+            return;
+        }
+        try {
+            circuitBreaker.call(() -> providerRateLimiter.call(infrastructure, ApiFamily.DESCRIBE, null, () -> {
+                cloudProvider.get().checkHealth(infrastructure);
+                return null;
+            }));
+        } catch (RuntimeException e) {
+            log.debug("Health probe of infrastructure " + infrastructure.getId() + " failed", e);
+        }
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public class CircuitBreaker {
+
+        private Infrastructure infrastructure;
+
+        private State state = State.CLOSED;
+
+        private boolean trialInFlight;
+
+        private int consecutiveFailures;
+
+        private long openedAt;
+
+        private long openings;
+
+        private long rejectedCalls;
+
+        private CircuitBreaker(Infrastructure infrastructure) {
+            this.infrastructure = infrastructure;
+        }
+
+        /**
+         * Run the call, recording whether the provider answered. The errors thrown by the call are rethrown as is.
+         */
+        public <T> T call(Supplier<T> call) {
+            try {
+                T result = call.get();
+                onSuccess();
+                return result;
+            } catch (RejectedExecutionException | DeadlineExceededException | OperationCancelledException e) {
+                // the call did not reach the provider, or was abandoned
+                release();
+                throw e;
+            } catch (RuntimeException e) {
+                if (InFlightOperation.current().map(InFlightOperation::isCancelled).orElse(false)) {
+                    // the call was interrupted by the cancellation of its operation
+                    release();
+                } else if (isUnavailability(e)) {
+                    onFailure(e);
+                } else {
+                    onSuccess();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Run a call which does not tell whether the cloud API is available, such as a script execution, without
+         * recording its outcome.
+         */
+        public <T> T callUnrecorded(Supplier<T> call) {
+            try {
+                return call.get();
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Give back the permission of a call which did not reach the provider.
+         */
+        public synchronized void release() {
+            trialInFlight = false;
+        }
+
+        private synchronized void acquire(Infrastructure infrastructure) {
+            this.infrastructure = infrastructure;
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+                state = State.HALF_OPEN;
+            }
+            if (state == State.CLOSED) {
+                return;
+            } else if (state == State.HALF_OPEN && !trialInFlight) {
+                trialInFlight = true;
+                return;
+            }
+            rejectedCalls++;
+            throw new RejectedExecutionException("Infrastructure " + infrastructure.getId() +
+                                                 " is unavailable: its circuit breaker opened after " +
+                                                 consecutiveFailures + " consecutive failures");
+        }
+
+        private synchronized boolean tryStartProbe() {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN && !trialInFlight) {
+                trialInFlight = true;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void onSuccess() {
+            if (state != State.CLOSED) {
+                log.info("Infrastructure " + infrastructure.getId() + " answers again, closing its circuit breaker");
+            }
+            state = State.CLOSED;
+            trialInFlight = false;
+            consecutiveFailures = 0;
+        }
+
+        private synchronized void onFailure(Throwable error) {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN ||
+                (state == State.CLOSED && consecutiveFailures >= Math.max(1, failureThreshold))) {
+                if (state == State.CLOSED) {
+                    log.warn("Infrastructure " + infrastructure.getId() + " failed " + consecutiveFailures +
+                             " consecutive calls, opening its circuit breaker: " + error.getMessage());
+                }
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                openings++;
+            }
+        }
+
+        private synchronized CircuitBreakerStatistics getStatistics() {
+            return new CircuitBreakerStatistics(state.name(), consecutiveFailures, openedAt, openings, rejectedCalls);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureCredentials;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.Options;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Spaces out the calls made to the cloud providers so that large scale-outs stay under the API rate limits instead
+ * of being throttled and retried. The calls go through a token bucket per cloud account, region and
+ * {@link ApiFamily}, since this is how the providers account for the requests. A call reserves its tokens before it
+ * is run, one per instance it creates, and is rejected when it would have to wait for more than
+ * connector-iaas.rate-limit.max-wait milliseconds; the caller waits for the reservation without holding a thread
+ * (see {@link ProviderBulkheads}). As with any token bucket, a call reserving many tokens starts at once and the
+ * following calls wait for the tokens it spent.
+ *
+ * When a provider throttles a call anyway, the bucket is paused for the delay given by the Retry-After header of the
+ * answer, or connector-iaas.rate-limit.default-retry-after milliseconds when there is none, so that the next calls
+ * wait rather than spend the quota on throttled requests. The throttled call itself is not retried here, since a
+ * creation may have started part of its instances: the HTTP requests are retried by the provider clients, such as
+ * jclouds with connector-iaas.aws.jclouds.max-retries.
+ */
+@Component
+@Log4j2
+public class ProviderRateLimiter {
+
+    @Value("${connector-iaas.rate-limit.describe.permits-per-second:20}")
+    private double describePermitsPerSecond;
+
+    @Value("${connector-iaas.rate-limit.create.permits-per-second:5}")
+    private double createPermitsPerSecond;
+
+    @Value("${connector-iaas.rate-limit.mutate.permits-per-second:5}")
+    private double mutatePermitsPerSecond;
+
+    @Value("${connector-iaas.rate-limit.script.permits-per-second:5}")
+    private double scriptPermitsPerSecond;
+
+    @Value("${connector-iaas.rate-limit.pricing.permits-per-second:2}")
+    private double pricingPermitsPerSecond;
+
+    @Value("${connector-iaas.rate-limit.max-wait:60000}")
+    private long maxWait;
+
+    @Value("${connector-iaas.rate-limit.default-retry-after:5000}")
+    private long defaultRetryAfter;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Reserve the tokens of a call in the bucket of the account, region and API family of the infrastructure.
+     * @param region the region the call is made in, null for the region of the infrastructure
+     * @param permits the number of tokens of the call
+     * @return the time in milliseconds to wait before making the call
+     * @throws RejectedExecutionException when the call would wait for more than connector-iaas.rate-limit.max-wait,
+     *         or past the request deadline
+     */
+    public long reserve(Infrastructure infrastructure, ApiFamily apiFamily, String region, int permits) {
+        String key = getBucketKey(infrastructure, apiFamily, region);
+        // no point in waiting past the deadline of the request the call is made for
+        return getBucket(key, apiFamily).reserve(key, permits, RequestDeadline.getRemainingTime(maxWait));
+    }
+
+    /**
+     * Make a call whose tokens are reserved, pausing its bucket when the provider throttles it.
+     */
+    public <T> T call(Infrastructure infrastructure, ApiFamily apiFamily, String region, Supplier<T> call) {
+        String key = getBucketKey(infrastructure, apiFamily, region);
+        Bucket bucket = getBucket(key, apiFamily);
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            if (ProviderThrottling.isThrottling(e)) {
+                long retryAfter = ProviderThrottling.getRetryAfter(e).orElse(defaultRetryAfter);
+                bucket.pause(retryAfter);
+                log.warn("Call to " + key + " throttled by the provider, pausing its calls for " + retryAfter +
+                         " ms");
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, ProviderRateLimiterStatistics> getStatistics() {
+        return buckets.entrySet()
+                      .stream()
+                      .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getStatistics()));
+    }
+
+    /**
+     * @return the region an instance is created in: the region of its infrastructure, of its options, or the one
+     *         prefixing its image as on AWS EC2 (region/image-id), null when none is known
+     */
+    public static String getRegion(Infrastructure infrastructure, Instance instance) {
+        return Optional.ofNullable(infrastructure.getRegion())
+                       .orElseGet(() -> Optional.ofNullable(instance.getOptions())
+                                                .map(Options::getRegion)
+                                                .orElseGet(() -> Optional.ofNullable(instance.getImage())
+                                                                         .filter(image -> image.contains("/"))
+                                                                         .map(image -> image.substring(0,
+                                                                                                       image.indexOf('/')))
+                                                                         .orElse(null)));
+    }
+
+    /**
+     * @return the number of tokens of the creation of an instance, one per node created
+     */
+    public static int getPermits(Instance instance) {
+        try {
+            return Math.max(1, Integer.parseInt(instance.getNumber()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private Bucket getBucket(String key, ApiFamily apiFamily) {
+        return buckets.computeIfAbsent(key, k -> new Bucket(getPermitsPerSecond(apiFamily)));
+    }
+
+    private double getPermitsPerSecond(ApiFamily apiFamily) {
+        switch (apiFamily) {
+            case CREATE:
+                return createPermitsPerSecond;
+            case MUTATE:
+                return mutatePermitsPerSecond;
+            case SCRIPT:
+                return scriptPermitsPerSecond;
+            case PRICING:
+                return pricingPermitsPerSecond;
+            default:
+                return describePermitsPerSecond;
+        }
+    }
+
+    /**
+     * The account is identified by a digest of its credentials, the key being visible in the statistics.
+     */
+    private String getBucketKey(Infrastructure infrastructure, ApiFamily apiFamily, String region) {
+        Optional<InfrastructureCredentials> credentials = Optional.ofNullable(infrastructure.getCredentials());
+        Hasher hasher = Hashing.sha256().newHasher();
+        Stream.of(infrastructure.getEndpoint(),
+                  credentials.map(InfrastructureCredentials::getUsername).orElse(null),
+                  credentials.map(InfrastructureCredentials::getDomain).orElse(null),
+                  credentials.map(InfrastructureCredentials::getSubscriptionId).orElse(null))
+              .forEach(field -> hasher.putString(String.valueOf(field), StandardCharsets.UTF_8).putChar('\0'));
+        return infrastructure.getType() + "/" + hasher.hash().toString().substring(0, 12) + "/" +
+               Optional.ofNullable(region).orElseGet(() -> Optional.ofNullable(infrastructure.getRegion())
+                                                                   .orElse("default")) +
+               "/" +
+               apiFamily.name().toLowerCase();
+    }
+
+    private class Bucket {
+
+        /**
+         * 0 when the rate of the API family is not limited.
+         */
+        private final double permitsPerSecond;
+
+        /**
+         * The time in milliseconds from which the next call may be made.
+         */
+        private double nextFreeTime;
+
+        private volatile long pausedUntil;
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong throttledCalls = new AtomicLong();
+
+        private final AtomicLong rejectedCalls = new AtomicLong();
+
+        private final AtomicLong totalWaitTime = new AtomicLong();
+
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+        private Bucket(double permitsPerSecond) {
+            this.permitsPerSecond = Math.max(0, permitsPerSecond);
+        }
+
+        private synchronized long reserve(String key, int permits, long allowedWait) {
+            long now = System.currentTimeMillis();
+            double start = Math.max(now, Math.max(nextFreeTime, pausedUntil));
+            long waitTime = (long) Math.ceil(start - now);
+            if (waitTime > allowedWait) {
+                throw reject(key,
+                             pausedUntil > now ? "paused for " + (pausedUntil - now) + " ms"
+                                               : "no token available within " + allowedWait + " ms");
+            }
+            if (permitsPerSecond > 0) {
+                nextFreeTime = start + permits * 1000 / permitsPerSecond;
+            }
+            calls.incrementAndGet();
+            totalWaitTime.addAndGet(waitTime);
+            maxWaitTime.accumulateAndGet(waitTime, Math::max);
+            return waitTime;
+        }
+
+        private void pause(long retryAfter) {
+            throttledCalls.incrementAndGet();
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfter);
+        }
+
+        private RejectedExecutionException reject(String key, String reason) {
+            rejectedCalls.incrementAndGet();
+            log.warn("Rejecting call to " + key + ": " + reason);
+            return new RejectedExecutionException("Rate limit of " + key + " exceeded: " + reason);
+        }
+
+        private ProviderRateLimiterStatistics getStatistics() {
+            return new ProviderRateLimiterStatistics(permitsPerSecond,
+                                                     calls.get(),
+                                                     throttledCalls.get(),
+                                                     rejectedCalls.get(),
+                                                     totalWaitTime.get(),
+                                                     maxWaitTime.get());
+        }
+    }
+}
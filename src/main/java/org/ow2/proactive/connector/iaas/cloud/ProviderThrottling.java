@@ -0,0 +1,123 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+import org.jclouds.aws.AWSResponseException;
+import org.jclouds.http.HttpResponseException;
+
+import com.google.common.base.Throwables;
+import com.microsoft.rest.RestException;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+
+/**
+ * Recognizes the errors by which the cloud providers tell that a call was throttled: AWS RequestLimitExceeded and
+ * Throttling error codes, HTTP 429 answers of Azure ARM and OpenStack, and 413 answers of the Nova rate limits.
+ */
+public final class ProviderThrottling {
+
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+    private ProviderThrottling() {
+    }
+
+    public static boolean isThrottling(Throwable error) {
+        return Throwables.getCausalChain(error).stream().anyMatch(ProviderThrottling::isThrottlingCause);
+    }
+
+    /**
+     * @return the delay in milliseconds the provider asked to wait before the next call, when it is a throttling
+     *         error holding a Retry-After header
+     */
+    public static Optional<Long> getRetryAfter(Throwable error) {
+        return Throwables.getCausalChain(error)
+                         .stream()
+                         .filter(ProviderThrottling::isThrottlingCause)
+                         .map(ProviderThrottling::getRetryAfterHeader)
+                         .filter(Optional::isPresent)
+                         .map(Optional::get)
+                         .findFirst()
+                         .flatMap(ProviderThrottling::parseRetryAfter);
+    }
+
+    private static boolean isThrottlingCause(Throwable cause) {
+        if (cause instanceof AWSResponseException) {
+            String code = Optional.ofNullable(((AWSResponseException) cause).getError())
+                                  .map(error -> error.getCode())
+                                  .orElse("");
+            return code.equals("RequestLimitExceeded") || code.equals("Throttling");
+        } else if (cause instanceof HttpResponseException) {
+            return Optional.ofNullable(((HttpResponseException) cause).getResponse())
+                           .map(response -> response.getStatusCode() == TOO_MANY_REQUESTS ||
+                                            response.getStatusCode() == REQUEST_ENTITY_TOO_LARGE)
+                           .orElse(false);
+        } else if (cause instanceof RestException) {
+            return Optional.ofNullable(((RestException) cause).response())
+                           .map(response -> response.code() == TOO_MANY_REQUESTS)
+                           .orElse(false);
+        } else if (cause instanceof SdkServiceException) {
+            return ((SdkServiceException) cause).isThrottlingException();
+        }
+        return false;
+    }
+
+    private static Optional<String> getRetryAfterHeader(Throwable cause) {
+        if (cause instanceof HttpResponseException) {
+            return Optional.ofNullable(((HttpResponseException) cause).getResponse())
+                           .map(response -> response.getFirstHeaderOrNull(RETRY_AFTER));
+        } else if (cause instanceof RestException) {
+            return Optional.ofNullable(((RestException) cause).response())
+                           .map(response -> response.headers().get(RETRY_AFTER));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The Retry-After header holds either a number of seconds or an HTTP date.
+     */
+    private static Optional<Long> parseRetryAfter(String retryAfter) {
+        try {
+            return Optional.of(Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Optional.of(Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis()));
+            } catch (DateTimeParseException unparsable) {
+                return Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+
+/**
+ * The time by which the client of the current request gives up on it, so that the provider calls made for the
+ * request are abandoned once nobody waits for their result anymore.
+ *
+ * The deadline is bound to the request thread when the request is received, and must be carried explicitly with
+ * {@link #propagate(Supplier)} to the tasks that serve the request on other threads. A thread without deadline waits
+ * for as long as the timeouts of the connector allow.
+ */
+public final class RequestDeadline {
+
+    private static final ThreadLocal<Long> EXPIRATION = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Bind a deadline to the current thread.
+     * @param expiration the time in milliseconds at which the deadline expires, null to remove the deadline
+     */
+    public static void set(Long expiration) {
+        if (expiration == null) {
+            EXPIRATION.remove();
+        } else {
+            EXPIRATION.set(expiration);
+        }
+    }
+
+    public static Optional<Long> getExpiration() {
+        return Optional.ofNullable(EXPIRATION.get());
+    }
+
+    /**
+     * @return the time in milliseconds left before the deadline of the current thread expires, if it has one
+     */
+    public static Optional<Long> getRemainingTime() {
+        return getExpiration().map(expiration -> Math.max(0, expiration - System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the given timeout in milliseconds, shortened to the time left before the deadline of the current thread
+     */
+    public static long getRemainingTime(long timeout) {
+        return getRemainingTime().map(remainingTime -> Math.min(remainingTime, timeout)).orElse(timeout);
+    }
+
+    /**
+     * @throws DeadlineExceededException when the deadline of the current thread has expired
+     */
+    public static void check(String operation) {
+        if (getRemainingTime().map(remainingTime -> remainingTime == 0).orElse(false)) {
+            throw new DeadlineExceededException(operation + " abandoned, the request deadline has expired");
+        }
+    }
+
+    /**
+     * @return the task running with the deadline of the current thread, on whichever thread it runs
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        Long expiration = EXPIRATION.get();
+        return () -> {
+            Long previousExpiration = EXPIRATION.get();
+            set(expiration);
+            try {
+                return task.get();
+            } finally {
+                set(previousExpiration);
+            }
+        };
+    }
+
+    /**
+     * Wait for the future until the deadline of the current thread, cancelling it when the deadline expires first.
+     * @throws CompletionException when the future completed exceptionally
+     * @throws DeadlineExceededException when the deadline expired first
+     */
+    public static <T> T join(CompletableFuture<T> future, String operation) {
+        Optional<Long> remainingTime = getRemainingTime();
+        if (!remainingTime.isPresent()) {
+            return future.join();
+        }
+        try {
+            return future.get(remainingTime.get(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new DeadlineExceededException(operation + " did not complete before the request deadline");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Wait for the next task of the completion service to complete, until the deadline of the current thread.
+     * @return the completed task, or null when the deadline expired first
+     */
+    public static <T> Future<T> poll(CompletionService<T> completionService) throws InterruptedException {
+        Optional<Long> remainingTime = getRemainingTime();
+        return remainingTime.isPresent() ? completionService.poll(remainingTime.get(), TimeUnit.MILLISECONDS)
+                                         : completionService.take();
+    }
+}
@@ -25,10 +25,8 @@
  */
 package org.ow2.proactive.connector.iaas.cloud;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import org.ow2.proactive.connector.iaas.model.Options;
 import org.ow2.proactive.connector.iaas.model.Tag;
@@ -36,6 +34,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+
 import lombok.Getter;
 
 
@@ -48,12 +51,17 @@ public class TagManager {
 
     private static final String DEFAULT_INFRASTRUCTURE_ID_TAG_KEY = "proactive-infrastructure-id";
 
+    private static final int MAX_CACHED_INFRASTRUCTURES = 1000;
+
     @Getter
     private final Tag connectorIaasTag;
 
     @Getter
     private final Tag infrastructureIdTag;
 
+    // the mandatory tags of each infrastructure, computed once and shared by all its instance creations
+    private final LoadingCache<String, Map<String, String>> mandatoryTagsPerInfrastructure;
+
     @Autowired
     public TagManager(@Value("${connector-iaas-tag.key}") String connectorIaasTagKey,
             @Value("${connector-iaas-tag.value}") String connectorIaasTagValue,
@@ -67,25 +75,33 @@ public class TagManager {
                                  .key(Optional.ofNullable(infrastructureIdTagKey)
                                               .orElse(DEFAULT_INFRASTRUCTURE_ID_TAG_KEY))
                                  .build();
+        mandatoryTagsPerInfrastructure = CacheBuilder.newBuilder()
+                                                     .maximumSize(MAX_CACHED_INFRASTRUCTURES)
+                                                     .build(CacheLoader.from(infrastructureId -> ImmutableMap.of(connectorIaasTag.getKey(),
+                                                                                                                 connectorIaasTag.getValue(),
+                                                                                                                 infrastructureIdTag.getKey(),
+                                                                                                                 infrastructureId)));
     }
 
     /**
-     * Collect tags and ensure that mandatory tags key connector-iaas and infrastructure-id are not duplicated
+     * Collect tags and ensure that mandatory tags key connector-iaas and infrastructure-id are not overridden by the
+     * instance's tags
      *
      * @param instanceOptions   instance's options that may contain tags
-     * @return  the list of all tags
+     * @return  the immutable map of all tags values per key
      */
-    public List<Tag> retrieveAllTags(String infrastructureId, Options instanceOptions) {
-        infrastructureIdTag.setValue(infrastructureId);
-        List<Tag> tags = new ArrayList<>();
-        tags.add(connectorIaasTag);
-        tags.add(infrastructureIdTag);
-        Optional.ofNullable(instanceOptions).map(Options::getTags).ifPresent(optionalTags -> {
-            tags.addAll(optionalTags.stream()
-                                    .filter(optionalTag -> !optionalTag.getKey().equals(connectorIaasTag.getKey()))
-                                    .filter(optionalTag -> !optionalTag.getKey().equals(infrastructureIdTag.getKey()))
-                                    .collect(Collectors.toList()));
-        });
-        return tags;
+    public Map<String, String> retrieveAllTags(String infrastructureId, Options instanceOptions) {
+        Map<String, String> mandatoryTags = mandatoryTagsPerInfrastructure.getUnchecked(String.valueOf(infrastructureId));
+        return Optional.ofNullable(instanceOptions)
+                       .map(Options::getTags)
+                       .filter(optionalTags -> !optionalTags.isEmpty())
+                       .<Map<String, String>> map(optionalTags -> {
+                           ImmutableMap.Builder<String, String> tags = ImmutableMap.builder();
+                           optionalTags.forEach(optionalTag -> tags.put(optionalTag.getKey(),
+                                                                        optionalTag.getValue()));
+                           // the mandatory tags come last to take precedence over the instance's ones
+                           return tags.putAll(mandatoryTags).buildKeepingLast();
+                       })
+                       .orElse(mandatoryTags);
     }
 }
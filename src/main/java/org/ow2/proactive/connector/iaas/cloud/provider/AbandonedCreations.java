@@ -0,0 +1,92 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Release what the instance creations abandoned on the cancellation of their operation create. A creation already
+ * sent to the cloud keeps running on its side, so the instances it creates would be left running without anybody
+ * reporting them: the creations not started yet are cancelled, and the others are waited for in the background so
+ * that their instances are released as soon as they exist.
+ */
+@Log4j2
+public final class AbandonedCreations {
+
+    private static final ExecutorService RELEASE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("release-abandoned-creation-%d")
+                                                                                                                  .setDaemon(true)
+                                                                                                                  .build());
+
+    private AbandonedCreations() {
+    }
+
+    public static <T> void release(Collection<? extends Future<T>> creations, Consumer<T> release) {
+        release(creations, release, failure -> {
+        });
+    }
+
+    /**
+     * @param release called with the result of each abandoned creation once it completes
+     * @param releaseFailed called with the failure of each abandoned creation, which may have created part of
+     *        its instances
+     */
+    public static <T> void release(Collection<? extends Future<T>> creations, Consumer<T> release,
+            Consumer<Throwable> releaseFailed) {
+        creations.stream()
+                 .filter(creation -> !creation.cancel(false))
+                 .forEach(creation -> RELEASE_EXECUTOR.execute(() -> releaseOnceCompleted(creation,
+                                                                                          release,
+                                                                                          releaseFailed)));
+    }
+
+    private static <T> void releaseOnceCompleted(Future<T> creation, Consumer<T> release,
+            Consumer<Throwable> releaseFailed) {
+        try {
+            T result;
+            try {
+                result = creation.get();
+            } catch (ExecutionException e) {
+                releaseFailed.accept(e.getCause());
+                return;
+            }
+            release.accept(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Unable to release the instances of an abandoned creation", e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.ow2.proactive.connector.iaas.model.*;
+
+
+/**
+ * Non-blocking counterpart of {@link CloudProvider}: each operation returns as soon as it is sent and completes its
+ * future once the infrastructure answers. A provider implementing this interface next to {@link CloudProvider} is
+ * called through it by the {@link org.ow2.proactive.connector.iaas.cloud.CloudManager}, the other providers being
+ * run on a thread pool by a {@link BlockingCloudProviderAdapter}.
+ */
+public interface AsyncCloudProvider {
+
+    /**
+     * Indicate the type of infrastructure managed by the connector.
+     * @return A string stating which infrastructure type is managed by the connector
+     */
+    public String getType();
+
+    /**
+     * @see CloudProvider#listAvailableRegions(Infrastructure)
+     */
+    public CompletableFuture<Set<String>> listAvailableRegionsAsync(Infrastructure infrastructure);
+
+    /**
+     * @see CloudProvider#createInstance(Infrastructure, Instance, Consumer)
+     */
+    public CompletableFuture<Set<Instance>> createInstanceAsync(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener);
+
+    /**
+     * @see CloudProvider#deleteInstance(Infrastructure, String)
+     */
+    public CompletableFuture<Void> deleteInstanceAsync(Infrastructure infrastructure, String instanceId);
+
+    /**
+     * @see CloudProvider#getAllInfrastructureInstances(Infrastructure)
+     */
+    public CompletableFuture<Set<Instance>> getAllInfrastructureInstancesAsync(Infrastructure infrastructure);
+
+    /**
+     * @see CloudProvider#getCreatedInfrastructureInstances(Infrastructure)
+     */
+    public CompletableFuture<Set<Instance>> getCreatedInfrastructureInstancesAsync(Infrastructure infrastructure);
+
+    /**
+     * @see CloudProvider#executeScriptOnInstanceId(Infrastructure, String, InstanceScript)
+     */
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceIdAsync(Infrastructure infrastructure,
+            String instanceId, InstanceScript instanceScript);
+
+    /**
+     * @see CloudProvider#executeScriptOnInstanceTag(Infrastructure, String, InstanceScript)
+     */
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceTagAsync(Infrastructure infrastructure,
+            String instanceTag, InstanceScript instanceScript);
+
+    /**
+     * @see CloudProvider#getAllImages(Infrastructure)
+     */
+    public CompletableFuture<Set<Image>> getAllImagesAsync(Infrastructure infrastructure);
+
+    /**
+     * @see CloudProvider#getAllHardwares(Infrastructure)
+     */
+    public CompletableFuture<Set<Hardware>> getAllHardwaresAsync(Infrastructure infrastructure);
+
+    /**
+     * @see CloudProvider#addToInstancePublicIp(Infrastructure, String, String)
+     */
+    public CompletableFuture<String> addToInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String desiredIp);
+
+    /**
+     * @see CloudProvider#removeInstancePublicIp(Infrastructure, String, String)
+     */
+    public CompletableFuture<Void> removeInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String desiredIp);
+
+    /**
+     * @see CloudProvider#createKeyPair(Infrastructure, Instance)
+     */
+    public CompletableFuture<SimpleImmutableEntry<String, String>> createKeyPairAsync(Infrastructure infrastructure,
+            Instance instance);
+
+    /**
+     * @see CloudProvider#deleteKeyPair(Infrastructure, String, String)
+     */
+    public CompletableFuture<Void> deleteKeyPairAsync(Infrastructure infrastructure, String keyPairName,
+            String region);
+
+    /**
+     * @see CloudProvider#getNodeCandidate(Infrastructure, String, String, String)
+     */
+    public CompletableFuture<PagedNodeCandidates> getNodeCandidateAsync(Infrastructure infra, String region,
+            String imageReq, String token);
+}
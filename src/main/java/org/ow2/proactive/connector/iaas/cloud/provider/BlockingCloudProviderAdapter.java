@@ -0,0 +1,179 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.ow2.proactive.connector.iaas.cloud.ApiFamily;
+import org.ow2.proactive.connector.iaas.cloud.ProviderBulkheads;
+import org.ow2.proactive.connector.iaas.cloud.ProviderRateLimiter;
+import org.ow2.proactive.connector.iaas.model.*;
+
+
+/**
+ * Exposes a provider that is only blocking as an {@link AsyncCloudProvider}, each call being run on the bulkhead of
+ * its infrastructure instead of the calling thread.
+ */
+public class BlockingCloudProviderAdapter implements AsyncCloudProvider {
+
+    private final CloudProvider cloudProvider;
+
+    private final ProviderBulkheads providerBulkheads;
+
+    public BlockingCloudProviderAdapter(CloudProvider cloudProvider, ProviderBulkheads providerBulkheads) {
+        this.cloudProvider = cloudProvider;
+        this.providerBulkheads = providerBulkheads;
+    }
+
+    @Override
+    public String getType() {
+        return cloudProvider.getType();
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> listAvailableRegionsAsync(Infrastructure infrastructure) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.DESCRIBE,
+                                             () -> cloudProvider.listAvailableRegions(infrastructure));
+    }
+
+    @Override
+    public CompletableFuture<Set<Instance>> createInstanceAsync(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.CREATE,
+                                             ProviderRateLimiter.getRegion(infrastructure, instance),
+                                             ProviderRateLimiter.getPermits(instance),
+                                             () -> cloudProvider.createInstance(infrastructure,
+                                                                                instance,
+                                                                                instanceCreatedListener));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteInstanceAsync(Infrastructure infrastructure, String instanceId) {
+        return providerBulkheads.runAsync(infrastructure,
+                                          ApiFamily.MUTATE,
+                                          () -> cloudProvider.deleteInstance(infrastructure, instanceId));
+    }
+
+    @Override
+    public CompletableFuture<Set<Instance>> getAllInfrastructureInstancesAsync(Infrastructure infrastructure) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.DESCRIBE,
+                                             () -> cloudProvider.getAllInfrastructureInstances(infrastructure));
+    }
+
+    @Override
+    public CompletableFuture<Set<Instance>> getCreatedInfrastructureInstancesAsync(Infrastructure infrastructure) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.DESCRIBE,
+                                             () -> cloudProvider.getCreatedInfrastructureInstances(infrastructure));
+    }
+
+    @Override
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceIdAsync(Infrastructure infrastructure,
+            String instanceId, InstanceScript instanceScript) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.SCRIPT,
+                                             () -> cloudProvider.executeScriptOnInstanceId(infrastructure,
+                                                                                           instanceId,
+                                                                                           instanceScript));
+    }
+
+    @Override
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceTagAsync(Infrastructure infrastructure,
+            String instanceTag, InstanceScript instanceScript) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.SCRIPT,
+                                             () -> cloudProvider.executeScriptOnInstanceTag(infrastructure,
+                                                                                            instanceTag,
+                                                                                            instanceScript));
+    }
+
+    @Override
+    public CompletableFuture<Set<Image>> getAllImagesAsync(Infrastructure infrastructure) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.DESCRIBE,
+                                             () -> cloudProvider.getAllImages(infrastructure));
+    }
+
+    @Override
+    public CompletableFuture<Set<Hardware>> getAllHardwaresAsync(Infrastructure infrastructure) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.DESCRIBE,
+                                             () -> cloudProvider.getAllHardwares(infrastructure));
+    }
+
+    @Override
+    public CompletableFuture<String> addToInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String desiredIp) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.MUTATE,
+                                             () -> cloudProvider.addToInstancePublicIp(infrastructure,
+                                                                                       instanceId,
+                                                                                       desiredIp));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeInstancePublicIpAsync(Infrastructure infrastructure, String instanceId,
+            String desiredIp) {
+        return providerBulkheads.runAsync(infrastructure,
+                                          ApiFamily.MUTATE,
+                                          () -> cloudProvider.removeInstancePublicIp(infrastructure,
+                                                                                     instanceId,
+                                                                                     desiredIp));
+    }
+
+    @Override
+    public CompletableFuture<SimpleImmutableEntry<String, String>> createKeyPairAsync(Infrastructure infrastructure,
+            Instance instance) {
+        return providerBulkheads.supplyAsync(infrastructure,
+                                             ApiFamily.MUTATE,
+                                             ProviderRateLimiter.getRegion(infrastructure, instance),
+                                             1,
+                                             () -> cloudProvider.createKeyPair(infrastructure, instance));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteKeyPairAsync(Infrastructure infrastructure, String keyPairName,
+            String region) {
+        return providerBulkheads.runAsync(infrastructure,
+                                          ApiFamily.MUTATE,
+                                          () -> cloudProvider.deleteKeyPair(infrastructure, keyPairName, region));
+    }
+
+    @Override
+    public CompletableFuture<PagedNodeCandidates> getNodeCandidateAsync(Infrastructure infra, String region,
+            String imageReq, String token) {
+        return providerBulkheads.supplyAsync(infra,
+                                             ApiFamily.PRICING,
+                                             () -> cloudProvider.getNodeCandidate(infra, region, imageReq, token));
+    }
+}
@@ -28,6 +28,7 @@ package org.ow2.proactive.connector.iaas.cloud.provider;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.ow2.proactive.connector.iaas.model.*;
 
@@ -55,6 +56,21 @@ public interface CloudProvider {
      */
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance);
 
+    /**
+     * Create new instances on an infrastructure, notifying each instance as soon as it is available instead of once
+     * the whole group is created. Providers that cannot report instances individually notify them all at the end.
+     * @param infrastructure The infrastructure where the new instances are to be allocated to
+     * @param instance The specification of the instances to be created
+     * @param instanceCreatedListener Called with each newly created instance, possibly from another thread
+     * @return The list of the newly registered instances
+     */
+    public default Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        Set<Instance> createdInstances = createInstance(infrastructure, instance);
+        createdInstances.forEach(instanceCreatedListener);
+        return createdInstances;
+    }
+
     /**
      * Terminate an instance from an infrastructure.
      * @param infrastructure The infrastructure hosting the instance to be removed
@@ -116,6 +132,20 @@ public interface CloudProvider {
      */
     public void deleteInfrastructure(Infrastructure infrastructure);
 
+    /**
+     * Connect to an infrastructure ahead of its first request, building its client and loading the data the first
+     * requests rely on.
+     * @param infrastructure The infrastructure to be warmed up
+     */
+    public void warmUpInfrastructure(Infrastructure infrastructure);
+
+    /**
+     * Check that an infrastructure answers, with a call cheap enough to be repeated while the infrastructure is
+     * unavailable.
+     * @param infrastructure The infrastructure to be checked
+     */
+    public void checkHealth(Infrastructure infrastructure);
+
     /**
      * Associate a public IP address to an instance.
      * @param infrastructure The infrastructure hosting the instance to receive a public IP address
@@ -0,0 +1,47 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import org.ow2.proactive.connector.iaas.model.InstanceCreationResult;
+
+import lombok.Getter;
+
+
+/**
+ * Thrown when only part of the requested instances could be created. The instances that did start are part of the
+ * result so that they can be used (or cleaned up) instead of being orphaned.
+ */
+public class PartialInstanceCreationException extends RuntimeException {
+
+    @Getter
+    private final transient InstanceCreationResult result;
+
+    public PartialInstanceCreationException(InstanceCreationResult result, Throwable cause) {
+        super(result.getInstances().size() + " of " + result.getRequestedInstances() +
+              " instances were created, failures: " + result.getFailures(), cause);
+        this.result = result;
+    }
+}
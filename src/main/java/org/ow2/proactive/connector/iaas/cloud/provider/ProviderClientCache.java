@@ -0,0 +1,399 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureCredentials;
+import org.ow2.proactive.connector.iaas.model.InfrastructureScope;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Cache of the provider clients (jclouds compute services, Azure services, vSphere service instances) built for each
+ * infrastructure. The clients hold thread pools, connections and sessions, so the cache is bounded: clients idle for
+ * more than connector-iaas.client-cache.idle-timeout are evicted, and the least recently used client is evicted
+ * when more than connector-iaas.client-cache.max-size clients are cached. Removed clients are closed at once, while
+ * evicted clients are retired like replaced ones (see below) since a long operation may still be using them.
+ *
+ * Building a client (jclouds context, Azure authentication, vSphere login) takes seconds of network I/O. It runs on a
+ * dedicated executor, outside of any map lock, and the concurrent requests for the same infrastructure wait for the
+ * same build for at most connector-iaas.client-cache.build-timeout. A failed build is not cached: the next request
+ * tries again. A build that times out is interrupted and discarded as well, so that one hung endpoint does not fail
+ * every later request for its infrastructure.
+ *
+ * Each client is cached along with a fingerprint of the connection settings of its infrastructure (type, endpoints,
+ * credentials, scope, region). When an infrastructure is registered again with other settings, for instance rotated
+ * credentials, a new client is built and swapped in place of the old one, which is closed in the background after
+ * connector-iaas.client-cache.retired-client-grace-period so that the requests still using it can complete.
+ */
+@Log4j2
+public abstract class ProviderClientCache<C> {
+
+    @Value("${connector-iaas.client-cache.max-size:100}")
+    private int maxSize;
+
+    @Value("${connector-iaas.client-cache.idle-timeout:1800000}")
+    private long idleTimeout;
+
+    @Value("${connector-iaas.client-cache.eviction-interval:60000}")
+    private long evictionInterval;
+
+    @Value("${connector-iaas.client-cache.build-timeout:120000}")
+    private long buildTimeout;
+
+    @Value("${connector-iaas.client-cache.retired-client-grace-period:60000}")
+    private long retiredClientGracePeriod;
+
+    private final Map<Infrastructure, CachedClient<C>> clients = new ConcurrentHashMap<>();
+
+    private final Map<Infrastructure, PendingBuild<C>> pendingBuilds = new ConcurrentHashMap<>();
+
+    /**
+     * The clients waiting for the end of their grace period to be closed, closed at once when the cache is shut down.
+     */
+    private final Set<C> retiredClients = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService buildExecutor;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final ScheduledExecutorService maintenanceScheduler;
+
+    protected ProviderClientCache() {
+        String threadNamePrefix = getClass().getSimpleName();
+        buildExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat(threadNamePrefix +
+                                                                                               "-build-%d")
+                                                                                .setDaemon(true)
+                                                                                .build());
+        maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(threadNamePrefix +
+                                                                                                                   "-maintenance")
+                                                                                                    .setDaemon(true)
+                                                                                                    .build());
+    }
+
+    protected abstract C buildClient(Infrastructure infrastructure);
+
+    /**
+     * Release the resources held by a client that is no longer cached.
+     */
+    protected abstract void closeClient(C client);
+
+    @PostConstruct
+    public void startEviction() {
+        if (idleTimeout > 0 && evictionInterval > 0) {
+            maintenanceScheduler.scheduleWithFixedDelay(this::evictIdleClients,
+                                                        evictionInterval,
+                                                        evictionInterval,
+                                                        TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        maintenanceScheduler.shutdownNow();
+        buildExecutor.shutdownNow();
+        clients.keySet().forEach(this::removeClient);
+        retiredClients.forEach(this::closeRetiredClient);
+    }
+
+    protected C getClient(Infrastructure infrastructure) {
+        String fingerprint = getConnectionFingerprint(infrastructure);
+        CachedClient<C> cachedClient = clients.get(infrastructure);
+        if (cachedClient != null && cachedClient.getFingerprint().equals(fingerprint)) {
+            hits.incrementAndGet();
+            cachedClient.touch();
+            return cachedClient.getClient();
+        }
+        // the built clients are published under the lock of pendingBuilds, so a client that has just been built is
+        // seen here instead of being built a second time
+        PendingBuild<C> build = pendingBuilds.compute(infrastructure, (key, pendingBuild) -> {
+            if (pendingBuild != null && pendingBuild.getFingerprint().equals(fingerprint)) {
+                return pendingBuild;
+            }
+            CachedClient<C> builtClient = clients.get(key);
+            if (builtClient != null && builtClient.getFingerprint().equals(fingerprint)) {
+                return pendingBuild;
+            }
+            // a build for outdated settings is replaced, its client is closed once built
+            return startBuild(key, fingerprint);
+        });
+        if (build == null || !build.getFingerprint().equals(fingerprint)) {
+            return getClient(infrastructure);
+        }
+        return awaitBuild(infrastructure, build);
+    }
+
+    protected void removeClient(Infrastructure infrastructure) {
+        // a build in progress is discarded: its client is closed as soon as it is built
+        pendingBuilds.remove(infrastructure);
+        Optional.ofNullable(clients.remove(infrastructure)).map(CachedClient::getClient).ifPresent(this::close);
+    }
+
+    /**
+     * Start building the client of an infrastructure. Only the future is created under the map lock, the build
+     * itself runs on the build executor.
+     */
+    private PendingBuild<C> startBuild(Infrastructure infrastructure, String fingerprint) {
+        misses.incrementAndGet();
+        PendingBuild<C> build = new PendingBuild<>(fingerprint);
+        build.task = buildExecutor.submit(() -> {
+            try {
+                C client = buildClient(infrastructure);
+                if (publishBuiltClient(infrastructure, build, client)) {
+                    evictLeastRecentlyUsedClients();
+                    build.getFuture().complete(client);
+                } else {
+                    close(client);
+                    build.getFuture()
+                         .completeExceptionally(new IllegalStateException("The client of infrastructure " +
+                                                                          infrastructure.getId() +
+                                                                          " was discarded while it was built"));
+                }
+            } catch (Throwable throwable) {
+                pendingBuilds.remove(infrastructure, build);
+                build.getFuture().completeExceptionally(throwable);
+            }
+        });
+        return build;
+    }
+
+    /**
+     * Cache the built client, unless the build has been discarded in the meantime. The client it replaces, built
+     * with outdated settings, is retired.
+     */
+    private boolean publishBuiltClient(Infrastructure infrastructure, PendingBuild<C> build, C client) {
+        boolean[] published = { false };
+        AtomicReference<CachedClient<C>> replacedClient = new AtomicReference<>();
+        pendingBuilds.computeIfPresent(infrastructure, (key, pendingBuild) -> {
+            if (pendingBuild != build) {
+                return pendingBuild;
+            }
+            replacedClient.set(clients.put(key, new CachedClient<>(client, build.getFingerprint())));
+            published[0] = true;
+            return null;
+        });
+        Optional.ofNullable(replacedClient.get())
+                .ifPresent(previousClient -> retire(infrastructure, previousClient, "outdated"));
+        return published[0];
+    }
+
+    /**
+     * Close a replaced or evicted client after connector-iaas.client-cache.retired-client-grace-period, so that the
+     * requests still using it can complete.
+     */
+    private void retire(Infrastructure infrastructure, CachedClient<C> retiredClient, String reason) {
+        log.info("Closing " + reason + " client of infrastructure " + infrastructure.getId() + " in " +
+                 retiredClientGracePeriod + " ms");
+        C client = retiredClient.getClient();
+        retiredClients.add(client);
+        try {
+            maintenanceScheduler.schedule(() -> closeRetiredClient(client),
+                                          retiredClientGracePeriod,
+                                          TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            closeRetiredClient(client);
+        }
+    }
+
+    private void closeRetiredClient(C client) {
+        // only the caller that actually removes the client closes it
+        if (retiredClients.remove(client)) {
+            close(client);
+        }
+    }
+
+    /**
+     * Digest of the infrastructure fields used to connect to the provider. Unlike Infrastructure.equals, it covers
+     * the type, endpoints and credentials.
+     */
+    private String getConnectionFingerprint(Infrastructure infrastructure) {
+        Optional<InfrastructureCredentials> credentials = Optional.ofNullable(infrastructure.getCredentials());
+        Optional<InfrastructureScope> scope = Optional.ofNullable(infrastructure.getScope());
+        Hasher hasher = Hashing.sha256().newHasher();
+        Stream.of(infrastructure.getType(),
+                  infrastructure.getEndpoint(),
+                  infrastructure.getAuthenticationEndpoint(),
+                  infrastructure.getManagementEndpoint(),
+                  infrastructure.getResourceManagerEndpoint(),
+                  infrastructure.getGraphEndpoint(),
+                  infrastructure.getRegion(),
+                  infrastructure.getIdentityVersion(),
+                  scope.map(InfrastructureScope::getPrefix).orElse(null),
+                  scope.map(InfrastructureScope::getValue).orElse(null),
+                  credentials.map(InfrastructureCredentials::getUsername).orElse(null),
+                  credentials.map(InfrastructureCredentials::getPassword).orElse(null),
+                  credentials.map(InfrastructureCredentials::getDomain).orElse(null),
+                  credentials.map(InfrastructureCredentials::getSubscriptionId).orElse(null))
+              .forEach(field -> hasher.putString(String.valueOf(field), StandardCharsets.UTF_8).putChar('\0'));
+        return hasher.hash().toString();
+    }
+
+    private C awaitBuild(Infrastructure infrastructure, PendingBuild<C> build) {
+        try {
+            return buildTimeout > 0 ? build.getFuture().get(buildTimeout, TimeUnit.MILLISECONDS)
+                                    : build.getFuture().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("ERROR when building the client of infrastructure " + infrastructure.getId(),
+                                       e.getCause());
+        } catch (TimeoutException e) {
+            RuntimeException timeout = new RuntimeException("Timed out after " + buildTimeout +
+                                                            " ms while building the client of infrastructure " +
+                                                            infrastructure.getId(), e);
+            // the next request starts a fresh build, the other requests waiting for this one fail with the timeout
+            pendingBuilds.remove(infrastructure, build);
+            build.abandon(timeout);
+            throw timeout;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building the client of infrastructure " +
+                                       infrastructure.getId(), e);
+        }
+    }
+
+    /**
+     * Evict and close the clients that have not been used for more than connector-iaas.client-cache.idle-timeout.
+     */
+    public void evictIdleClients() {
+        long now = System.currentTimeMillis();
+        clients.forEach((infrastructure, cachedClient) -> {
+            if (now - cachedClient.getLastAccessTime() > idleTimeout) {
+                evict(infrastructure, cachedClient, "idle");
+            }
+        });
+    }
+
+    public ProviderClientCacheStatistics getStatistics() {
+        return new ProviderClientCacheStatistics(clients.size(), hits.get(), misses.get(), evictions.get());
+    }
+
+    private void evictLeastRecentlyUsedClients() {
+        while (maxSize > 0 && clients.size() > maxSize) {
+            clients.entrySet()
+                   .stream()
+                   .min(Comparator.comparingLong(entry -> entry.getValue().getLastAccessTime()))
+                   .ifPresent(entry -> evict(entry.getKey(), entry.getValue(), "least recently used"));
+        }
+    }
+
+    private void evict(Infrastructure infrastructure, CachedClient<C> cachedClient, String reason) {
+        // only the caller that actually removes the entry closes the client
+        if (clients.remove(infrastructure, cachedClient)) {
+            evictions.incrementAndGet();
+            log.info("Evicting " + reason + " client of infrastructure " + infrastructure.getId() + ", " +
+                     getStatistics());
+            retire(infrastructure, cachedClient, reason);
+        }
+    }
+
+    private void close(C client) {
+        try {
+            closeClient(client);
+        } catch (Exception e) {
+            log.warn("Unable to close provider client " + client, e);
+        }
+    }
+
+    private static class PendingBuild<C> {
+
+        @Getter
+        private final String fingerprint;
+
+        @Getter
+        private final CompletableFuture<C> future = new CompletableFuture<>();
+
+        private volatile Future<?> task;
+
+        PendingBuild(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Fail the build and interrupt it. A client built all the same is closed, the build being no longer pending.
+         */
+        void abandon(RuntimeException cause) {
+            future.completeExceptionally(cause);
+            Optional.ofNullable(task).ifPresent(buildTask -> buildTask.cancel(true));
+        }
+    }
+
+    private static class CachedClient<C> {
+
+        @Getter
+        private final C client;
+
+        @Getter
+        private final String fingerprint;
+
+        @Getter
+        private volatile long lastAccessTime;
+
+        CachedClient(C client, String fingerprint) {
+            this.client = client;
+            this.fingerprint = fingerprint;
+            this.lastAccessTime = System.currentTimeMillis();
+        }
+
+        void touch() {
+            lastAccessTime = System.currentTimeMillis();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -42,6 +43,8 @@ import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
 import org.ow2.proactive.connector.iaas.model.*;
@@ -94,9 +97,6 @@ public class AzureProvider implements CloudProvider {
 
     protected static final int RESOURCES_NAME_EXTRA_CHARS = 10;
 
-    // Timeout in minutes
-    protected static final int TIMEOUT_SCRIPT_EXECUTION = 5;
-
     protected static final String VIRTUAL_NETWORK_NAME_BASE = "vnet";
 
     protected static final String PUBLIC_IP_ADDRESS_NAME_BASE = "ip";
@@ -137,9 +137,9 @@ public class AzureProvider implements CloudProvider {
 
     protected static final String CLOUD_OFFERS_PAYASYOUGO = "MS-AZR-0003p";
 
-    private static Map<String, Map<String, AzureKnownCost>> knownCostPerMeterIdPerApiKey = new HashMap<>();
+    private static Map<String, Map<String, AzureKnownCost>> knownCostPerMeterIdPerApiKey = new ConcurrentHashMap<>();
 
-    private static Map<String, Map<String, String>> knownMeterIdPerArmSkuNamePerApiKey = new HashMap<>();
+    private static Map<String, Map<String, String>> knownMeterIdPerArmSkuNamePerApiKey = new ConcurrentHashMap<>();
 
     @Autowired
     protected AzureServiceCache azureServiceCache;
@@ -162,6 +162,12 @@ public class AzureProvider implements CloudProvider {
     @Value("${connector-iaas.azure.default-private-network-cidr:10.0.0.0/24}")
     protected String defaultPrivateNetworkCidr;
 
+    /**
+     * Time in seconds to wait for a script to be executed on a VM, shortened to the deadline of the request.
+     */
+    @Value("${connector-iaas.azure.script-execution-timeout:300}")
+    protected long scriptExecutionTimeout;
+
     @Override
     public Set<String> listAvailableRegions(Infrastructure infrastructure) {
         return Arrays.stream(Region.values()).map(Region::name).collect(Collectors.toSet());
@@ -472,9 +478,7 @@ public class AzureProvider implements CloudProvider {
         });
 
         // Set tags
-        return creatableVMWithSize.withTags(tagManager.retrieveAllTags(infrastructureId, instance.getOptions())
-                                                      .stream()
-                                                      .collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
+        return creatableVMWithSize.withTags(tagManager.retrieveAllTags(infrastructureId, instance.getOptions()));
     }
 
     protected VirtualMachine.DefinitionStages.WithLinuxCreateManaged configureLinuxVirtualMachine(Azure azureService,
@@ -791,20 +795,34 @@ public class AzureProvider implements CloudProvider {
                                                     .parent()
                                                     .applyAsync(null);
         try {
-            vmfuture.get(TIMEOUT_SCRIPT_EXECUTION, TimeUnit.MINUTES);
+            vmfuture.get(getScriptExecutionTimeout(), TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             log.info("An interruption occurred when updating extension to execute script on a VM.");
             Thread.currentThread().interrupt();
+            // the script execution is abandoned, the update of the VM is cancelled with it
+            vmfuture.cancel(true);
             e.printStackTrace();
         } catch (ExecutionException e) {
             log.info("An error occurred when updating extension to execute script on a VM.");
             e.printStackTrace();
         } catch (TimeoutException e) {
             log.info("Timeout reached when updating extension to execute script on a VM.");
+            checkRequestDeadline(vm);
         }
         log.debug("Execution of script has been requested.");
     }
 
+    /**
+     * @throws DeadlineExceededException when the script execution timed out because the request deadline expired
+     */
+    private void checkRequestDeadline(VirtualMachine vm) {
+        RequestDeadline.check("Execution of script on VM " + vm.name());
+    }
+
+    private long getScriptExecutionTimeout() {
+        return RequestDeadline.getRemainingTime(TimeUnit.SECONDS.toMillis(scriptExecutionTimeout));
+    }
+
     private void installNewExtension(VirtualMachine vm, String script) {
         log.info("Request Azure provider to install script extension and to execute script: " + script);
         if (vm.osType().equals(OperatingSystemTypes.LINUX)) {
@@ -818,16 +836,18 @@ public class AzureProvider implements CloudProvider {
                                                         .attach()
                                                         .applyAsync(null);
             try {
-                vmfuture.get(TIMEOUT_SCRIPT_EXECUTION, TimeUnit.MINUTES);
+                vmfuture.get(getScriptExecutionTimeout(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 log.error("An interruption occurred while installing extension and executing script to a Linux VM.");
                 Thread.currentThread().interrupt();
+                vmfuture.cancel(true);
                 e.printStackTrace();
             } catch (ExecutionException e) {
                 log.error("An error occurred when installing extension and executing script to a Linux VM.");
                 e.printStackTrace();
             } catch (TimeoutException e) {
                 log.info("Timeout reached when installing extension and executing script to a Linux VM.");
+                checkRequestDeadline(vm);
             }
 
         } else if (vm.osType().equals(OperatingSystemTypes.WINDOWS)) {
@@ -841,15 +861,17 @@ public class AzureProvider implements CloudProvider {
                                                         .attach()
                                                         .applyAsync(null);
             try {
-                vmfuture.get(TIMEOUT_SCRIPT_EXECUTION, TimeUnit.MINUTES);
+                vmfuture.get(getScriptExecutionTimeout(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 log.error("An interruption occurred while installing extension and executing script to a Windows VM.");
                 Thread.currentThread().interrupt();
+                vmfuture.cancel(true);
             } catch (ExecutionException e) {
                 log.info("An error occurred when installing extension and executing script to a Windows VM.");
                 e.printStackTrace();
             } catch (TimeoutException e) {
                 log.info("Timeout reached when installing extension and executing script to a Windows VM.");
+                checkRequestDeadline(vm);
             }
         } else {
             throw new RuntimeException(unsupportedOperatingSystemError(vm.osType().toString()));
@@ -908,7 +930,7 @@ public class AzureProvider implements CloudProvider {
                                 .virtualMachines()
                                 .sizes()
                                 .listByRegion(infrastructure.getRegion())
-                                .parallelStream()
+                                .stream()
                                 .map(vms -> Hardware.builder()
                                                     .type(vms.name())
                                                     .minCores("" + vms.numberOfCores())
@@ -923,6 +945,17 @@ public class AzureProvider implements CloudProvider {
         azureServiceCache.removeService(infrastructure);
     }
 
+    @Override
+    public void warmUpInfrastructure(Infrastructure infrastructure) {
+        // authenticates and looks up the default subscription
+        azureServiceCache.getService(infrastructure);
+    }
+
+    @Override
+    public void checkHealth(Infrastructure infrastructure) {
+        azureServiceCache.getService(infrastructure).getCurrentSubscription();
+    }
+
     @Override
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
         Azure azureService = azureServiceCache.getService(infrastructure);
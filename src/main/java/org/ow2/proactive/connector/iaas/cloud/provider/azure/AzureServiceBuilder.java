@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.InfrastructureCredentials;
@@ -49,13 +50,17 @@ import com.microsoft.rest.LogLevel;
 @Component
 public class AzureServiceBuilder {
 
-    private Map<Infrastructure, AzureTokenCredentials> generatedTokenPerInfra = new HashMap<>();
+    private final Map<Infrastructure, AzureTokenCredentials> generatedTokenPerInfra = new ConcurrentHashMap<>();
 
     // We store token, since they may be needed from the context of the infra (ex: pricing API)
     public AzureTokenCredentials getTokenfromInfra(Infrastructure infra) {
-        if (!generatedTokenPerInfra.containsKey(infra))
-            throw new RuntimeException("No stored token found for infrastructure " + infra.toString());
-        return generatedTokenPerInfra.get(infra);
+        return Optional.ofNullable(generatedTokenPerInfra.get(infra))
+                       .orElseThrow(() -> new RuntimeException("No stored token found for infrastructure " +
+                                                               infra.toString()));
+    }
+
+    public void removeTokenOfInfra(Infrastructure infra) {
+        generatedTokenPerInfra.remove(infra);
     }
 
     public Azure buildServiceFromInfrastructure(Infrastructure infrastructure) {
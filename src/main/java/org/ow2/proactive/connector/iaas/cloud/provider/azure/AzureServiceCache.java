@@ -26,15 +26,12 @@
 package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.microsoft.azure.credentials.AzureTokenCredentials;
 import com.microsoft.azure.management.Azure;
 
 
@@ -43,27 +40,21 @@ import com.microsoft.azure.management.Azure;
  * @since 07/03/17
  */
 @Component
-public class AzureServiceCache {
+public class AzureServiceCache extends ProviderClientCache<Azure> {
 
     public final String MANAGEMENT_URL = "https://management.azure.com/";
 
     @Autowired
     private AzureServiceBuilder serviceBuilder;
 
-    private Map<Infrastructure, Azure> serviceCache;
-
-    private Function<Infrastructure, Azure> buildComputeService = memoise(infrastructure -> serviceBuilder.buildServiceFromInfrastructure(infrastructure));
-
-    public AzureServiceCache() {
-        serviceCache = new ConcurrentHashMap<>();
-    }
-
     public Azure getService(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return getClient(infrastructure);
     }
 
     public String getInfrastructureToken(Infrastructure infra) {
         try {
+            // the token is stored when the service is built, which may have been evicted since
+            getService(infra);
             return serviceBuilder.getTokenfromInfra(infra).getToken(MANAGEMENT_URL);
         } catch (IOException e) {
             throw new RuntimeException("Unable to determine token for infrastructure " + infra);
@@ -71,10 +62,17 @@ public class AzureServiceCache {
     }
 
     public void removeService(Infrastructure infrastructure) {
-        serviceCache.remove(infrastructure);
+        removeClient(infrastructure);
+        serviceBuilder.removeTokenOfInfra(infrastructure);
+    }
+
+    @Override
+    protected Azure buildClient(Infrastructure infrastructure) {
+        return serviceBuilder.buildServiceFromInfrastructure(infrastructure);
     }
 
-    private Function<Infrastructure, Azure> memoise(Function<Infrastructure, Azure> fn) {
-        return (a) -> serviceCache.computeIfAbsent(a, fn);
+    @Override
+    protected void closeClient(Azure azure) {
+        // the Azure management client does not hold resources that need to be released explicitly
     }
 }
@@ -25,10 +25,8 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
 
-import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jclouds.Constants;
@@ -85,8 +83,6 @@ public class JCloudsComputeServiceBuilder {
     @Autowired
     private OpenstackUtil openstackUtil;
 
-    private Map<Infrastructure, Properties> infrastructurePropertiesMap = new ConcurrentHashMap<>();
-
     public ComputeService buildComputeServiceFromInfrastructure(Infrastructure infrastructure) {
         Iterable<Module> modules = ImmutableSet.of(new SshjSshClientModule());
 
@@ -117,16 +113,14 @@ public class JCloudsComputeServiceBuilder {
         return context.getComputeService();
     }
 
-    public Properties getDefinedProperties(Infrastructure infrastructure) {
-        return infrastructurePropertiesMap.computeIfAbsent(infrastructure, this::loadDefinedProperties);
-    }
-
     /**
-     * Sets the timeouts for the deployment.
+     * Sets the timeouts for the deployment. The properties are computed on each call rather than cached per
+     * infrastructure: Infrastructure.equals ignores the endpoints and credentials, so cached properties would outlive
+     * a re-registration of the infrastructure with other settings.
      * 
      * @return Properties object with the timeout policy.
      */
-    private Properties loadDefinedProperties(Infrastructure infrastructure) {
+    public Properties getDefinedProperties(Infrastructure infrastructure) {
         Properties properties = new Properties();
 
         properties.setProperty(Constants.PROPERTY_REQUEST_TIMEOUT, requestTimeout);
@@ -154,7 +148,7 @@ public class JCloudsComputeServiceBuilder {
             properties.setProperty(AWSEC2Constants.PROPERTY_EC2_CC_AMI_QUERY, "");
         }
 
-        log.info("Infrastructure properties: " + properties.toString());
+        log.debug("Infrastructure properties: " + properties.toString());
 
         return properties;
     }
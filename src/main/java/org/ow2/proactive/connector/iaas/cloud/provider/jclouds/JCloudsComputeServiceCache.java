@@ -25,42 +25,36 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-
 import org.jclouds.compute.ComputeService;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 
 @Component
-public class JCloudsComputeServiceCache {
+public class JCloudsComputeServiceCache extends ProviderClientCache<ComputeService> {
 
     @Autowired
     private JCloudsComputeServiceBuilder computeServiceBuilder;
 
-    private Map<Infrastructure, ComputeService> computeServiceCache;
-
-    public JCloudsComputeServiceCache() {
-        computeServiceCache = new ConcurrentHashMap<Infrastructure, ComputeService>();
-    }
-
     public ComputeService getComputeService(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return getClient(infrastructure);
     }
 
     public void removeComputeService(Infrastructure infrastructure) {
-        computeServiceCache.remove(infrastructure);
+        removeClient(infrastructure);
     }
 
-    private Function<Infrastructure, ComputeService> buildComputeService = memoise(infrastructure -> {
+    @Override
+    protected ComputeService buildClient(Infrastructure infrastructure) {
         return computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure);
-    });
+    }
 
-    private Function<Infrastructure, ComputeService> memoise(Function<Infrastructure, ComputeService> fn) {
-        return (a) -> computeServiceCache.computeIfAbsent(a, fn);
+    @Override
+    protected void closeClient(ComputeService computeService) {
+        // closing the context stops its thread pools and releases its HTTP connections
+        computeService.getContext().close();
     }
 
 }
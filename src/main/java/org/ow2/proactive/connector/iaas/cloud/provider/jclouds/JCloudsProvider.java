@@ -33,13 +33,22 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.RunNodesException;
 import org.jclouds.compute.domain.ComputeMetadata;
 import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Processor;
+import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.internal.NodeMetadataImpl;
 import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.domain.LocationScope;
@@ -47,15 +56,21 @@ import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.AbandonedCreations;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack.OpenstackUtil;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -85,11 +100,17 @@ public abstract class JCloudsProvider implements CloudProvider {
     @Value("${connector-iaas.pricing-repo}")
     private String pricingRepo;
 
+    @Value("${connector-iaas.jclouds.stream.max-parallel-creations:10}")
+    private int maxParallelCreations;
+
+    @Value("${connector-iaas.jclouds.create.missing-nodes-retries:0}")
+    private int missingNodesRetries;
+
     protected abstract RunScriptOptions getRunScriptOptionsWithCredentials(InstanceCredentials credentials);
 
     public Set<String> listAvailableRegions(Infrastructure infrastructure) {
         return getComputeServiceFromInfrastructure(infrastructure).listAssignableLocations()
-                                                                  .parallelStream()
+                                                                  .stream()
                                                                   .filter(location -> location.getScope()
                                                                                               .equals(LocationScope.REGION))
                                                                   .map(loc -> loc.getId())
@@ -220,7 +241,7 @@ public abstract class JCloudsProvider implements CloudProvider {
 
     public Set<Hardware> getHardware(Infrastructure infrastructure, Optional<String> region) {
         return getComputeServiceFromInfrastructure(infrastructure).listHardwareProfiles()
-                                                                  .parallelStream()
+                                                                  .stream()
                                                                   .filter(hw -> !region.isPresent() ||
                                                                                 hw.getLocation()
                                                                                   .getId()
@@ -247,6 +268,14 @@ public abstract class JCloudsProvider implements CloudProvider {
         log.info("Infrastructure deleted successfully: " + infrastructure.getId());
     }
 
+    @Override
+    public void warmUpInfrastructure(Infrastructure infrastructure) {
+        // jclouds memoizes the locations and hardware profiles in the compute service context
+        ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
+        computeService.listAssignableLocations();
+        computeService.listHardwareProfiles();
+    }
+
     protected final Instance createInstanceFromNode(NodeMetadataImpl nodeMetadataImpl) {
         return Instance.builder()
                        .id(nodeMetadataImpl.getId())
@@ -273,6 +302,254 @@ public abstract class JCloudsProvider implements CloudProvider {
                        .build();
     }
 
+    /**
+     * Create the nodes of a group. When jclouds reports that only part of the nodes started, the started nodes are
+     * kept and only the missing ones are requested again, up to connector-iaas.jclouds.create.missing-nodes-retries
+     * times. The nodes which jclouds allocated but failed to start are destroyed, so that they do not leak. If some
+     * nodes are still missing, a {@link PartialInstanceCreationException} holding the created instances and the
+     * per-node failures is thrown.
+     *
+     * Each attempt runs on its own thread, so that an attempt abandoned on cancellation or on expiry of the request
+     * deadline keeps being waited for and its nodes are destroyed once created.
+     */
+    protected Set<Instance> createNodesInGroup(ComputeService computeService, String group, int count,
+            Template template) {
+        Set<Instance> createdInstances = new HashSet<>();
+        List<InstanceCreationFailure> failures = new ArrayList<>();
+        Exception lastException = null;
+        int missingNodes = count;
+
+        for (int attempt = 0; missingNodes > 0 && attempt <= missingNodesRetries; attempt++) {
+            Template attemptTemplate = attempt == 0 ? template
+                                                    : computeService.templateBuilder().fromTemplate(template).build();
+            int requestedNodes = missingNodes;
+            ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("create-nodes-" +
+                                                                                                                  group +
+                                                                                                                  "-%d")
+                                                                                                   .setDaemon(true)
+                                                                                                   .build());
+            CompletionService<Set<? extends NodeMetadata>> completionService = new ExecutorCompletionService<>(executor);
+            Future<Set<? extends NodeMetadata>> creation = completionService.submit(() -> computeService.createNodesInGroup(group,
+                                                                                                                            requestedNodes,
+                                                                                                                            attemptTemplate));
+            executor.shutdown();
+            Future<Set<? extends NodeMetadata>> completedCreation;
+            try {
+                completedCreation = RequestDeadline.poll(completionService);
+            } catch (InterruptedException e) {
+                // the operation is cancelled: the nodes of the previous attempts are reported so that they can be
+                // released, and those of this attempt are destroyed once created
+                destroyNodesOfAbandonedCreations(computeService, group, Collections.singletonList(creation));
+                lastException = e;
+                failures.addAll(Collections.nCopies(missingNodes,
+                                                    new InstanceCreationFailure(null,
+                                                                                "Creation of the nodes of group " +
+                                                                                      group + " interrupted")));
+                break;
+            }
+            if (completedCreation == null) {
+                // the request deadline has expired: the nodes of this attempt are destroyed once created
+                destroyNodesOfAbandonedCreations(computeService, group, Collections.singletonList(creation));
+                lastException = new DeadlineExceededException("Creation of the nodes of group " + group +
+                                                              " abandoned, the request deadline has expired");
+                failures.addAll(Collections.nCopies(missingNodes,
+                                                    new InstanceCreationFailure(null, lastException.getMessage())));
+                break;
+            }
+            try {
+                createdInstances.addAll(createInstancesFromNodes(getNodes(creation)));
+                missingNodes = 0;
+            } catch (RunNodesException e) {
+                lastException = e;
+                log.warn("Only " + e.getSuccessfulNodes().size() + " of " + missingNodes + " nodes of group " +
+                         group + " could be created (attempt " + (attempt + 1) + ")", e);
+                createdInstances.addAll(createInstancesFromNodes(e.getSuccessfulNodes()));
+                failures.addAll(getInstanceCreationFailures(e));
+                destroyUnusedNodes(computeService, group, e.getNodeErrors().keySet());
+                missingNodes -= e.getSuccessfulNodes().size();
+            }
+        }
+
+        if (missingNodes > 0) {
+            if (createdInstances.isEmpty()) {
+                throw new RuntimeException(lastException);
+            }
+            throw new PartialInstanceCreationException(new InstanceCreationResult(count, createdInstances, failures),
+                                                       lastException);
+        } else if (!failures.isEmpty()) {
+            log.warn("Nodes of group " + group + " created after retrying, failed attempts: " + failures);
+        }
+        return createdInstances;
+    }
+
+    /**
+     * @return the nodes of a completed creation, the exceptions thrown by jclouds being rethrown as is
+     */
+    private Set<? extends NodeMetadata> getNodes(Future<Set<? extends NodeMetadata>> creation)
+            throws RunNodesException {
+        try {
+            return creation.get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), RunNodesException.class);
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create the nodes of a group one by one, with at most connector-iaas.jclouds.stream.max-parallel-creations
+     * creations in flight, so that each node is notified as soon as it is running rather than when the slowest
+     * node of the group is.
+     */
+    protected Set<Instance> createNodesInGroupAsTheyStart(ComputeService computeService, String group, int count,
+            Template template, Consumer<Instance> instanceCreatedListener) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(count, maxParallelCreations)),
+                                                                new ThreadFactoryBuilder().setNameFormat("create-node-" +
+                                                                                                         group +
+                                                                                                         "-%d")
+                                                                                          .setDaemon(true)
+                                                                                          .build());
+        try {
+            CompletionService<Set<? extends NodeMetadata>> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<Set<? extends NodeMetadata>>> pendingCreations = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                // jclouds may alter the template options while creating nodes, so each creation gets its own copy
+                Template nodeTemplate = computeService.templateBuilder().fromTemplate(template).build();
+                pendingCreations.add(completionService.submit(() -> computeService.createNodesInGroup(group,
+                                                                                                      1,
+                                                                                                      nodeTemplate)));
+            }
+
+            Set<Instance> createdInstances = new HashSet<>();
+            List<InstanceCreationFailure> failures = new ArrayList<>();
+            Throwable lastFailure = null;
+            int missingNodes = 0;
+            for (int i = 0; i < count; i++) {
+                Future<Set<? extends NodeMetadata>> creation;
+                try {
+                    creation = RequestDeadline.poll(completionService);
+                } catch (InterruptedException e) {
+                    // the operation is cancelled: the nodes already created are reported so that they can be
+                    // released, and those of the creations still in flight are destroyed once created
+                    destroyNodesOfAbandonedCreations(computeService, group, pendingCreations);
+                    lastFailure = e;
+                    failures.addAll(Collections.nCopies(count - i,
+                                                        new InstanceCreationFailure(null,
+                                                                                    "Creation of the nodes of group " +
+                                                                                          group + " interrupted")));
+                    missingNodes += count - i;
+                    break;
+                }
+                if (creation == null) {
+                    // nobody waits for the creations still in flight anymore, their nodes are destroyed once created
+                    destroyNodesOfAbandonedCreations(computeService, group, pendingCreations);
+                    lastFailure = new DeadlineExceededException("Creation of the nodes of group " + group +
+                                                                " abandoned, the request deadline has expired");
+                    failures.addAll(Collections.nCopies(count - i,
+                                                        new InstanceCreationFailure(null, lastFailure.getMessage())));
+                    missingNodes += count - i;
+                    break;
+                }
+                pendingCreations.remove(creation);
+                Set<? extends NodeMetadata> nodes;
+                try {
+                    nodes = creation.get();
+                } catch (ExecutionException e) {
+                    log.error("Error when creating a node in group " + group, e.getCause());
+                    lastFailure = e.getCause();
+                    if (e.getCause() instanceof RunNodesException) {
+                        nodes = ((RunNodesException) e.getCause()).getSuccessfulNodes();
+                        failures.addAll(getInstanceCreationFailures((RunNodesException) e.getCause()));
+                        destroyUnusedNodes(computeService,
+                                           group,
+                                           ((RunNodesException) e.getCause()).getNodeErrors().keySet());
+                    } else {
+                        nodes = Collections.emptySet();
+                        failures.add(new InstanceCreationFailure(null, e.getCause().getMessage()));
+                    }
+                    missingNodes += 1 - nodes.size();
+                }
+                createInstancesFromNodes(nodes).forEach(createdInstance -> {
+                    createdInstances.add(createdInstance);
+                    instanceCreatedListener.accept(createdInstance);
+                });
+            }
+
+            if (missingNodes > 0) {
+                if (createdInstances.isEmpty()) {
+                    throw new RuntimeException(lastFailure);
+                }
+                throw new PartialInstanceCreationException(new InstanceCreationResult(count,
+                                                                                      createdInstances,
+                                                                                      failures),
+                                                           lastFailure);
+            }
+            return createdInstances;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating the nodes of group " + group, e);
+        } finally {
+            // the creations abandoned on the cloud side are left to complete so that their nodes can be destroyed
+            executor.shutdown();
+        }
+    }
+
+    private void destroyNodesOfAbandonedCreations(ComputeService computeService, String group,
+            List<Future<Set<? extends NodeMetadata>>> creations) {
+        AbandonedCreations.release(creations,
+                                   nodes -> destroyUnusedNodes(computeService, group, nodes),
+                                   failure -> {
+                                       if (failure instanceof RunNodesException) {
+                                           destroyUnusedNodes(computeService,
+                                                              group,
+                                                              getAllocatedNodes((RunNodesException) failure));
+                                       }
+                                   });
+    }
+
+    /**
+     * Destroy the nodes of an abandoned creation, or those a creation allocated but failed to start. The nodes which
+     * cannot be destroyed are logged as leaked.
+     */
+    private void destroyUnusedNodes(ComputeService computeService, String group, Set<? extends NodeMetadata> nodes) {
+        nodes.forEach(node -> {
+            try {
+                computeService.destroyNode(node.getId());
+                log.info("Destroyed unused node " + node.getId() + " of group " + group);
+            } catch (RuntimeException e) {
+                log.error("Unable to destroy unused node " + node.getId() + " of group " + group +
+                          ", it is leaked", e);
+            }
+        });
+    }
+
+    /**
+     * The nodes allocated by a failed creation, both those that started and those that failed to.
+     */
+    private Set<NodeMetadata> getAllocatedNodes(RunNodesException runNodesException) {
+        Set<NodeMetadata> nodes = new HashSet<>(runNodesException.getSuccessfulNodes());
+        nodes.addAll(runNodesException.getNodeErrors().keySet());
+        return nodes;
+    }
+
+    private List<InstanceCreationFailure> getInstanceCreationFailures(RunNodesException runNodesException) {
+        List<InstanceCreationFailure> failures = runNodesException.getNodeErrors()
+                                                                  .entrySet()
+                                                                  .stream()
+                                                                  .map(nodeError -> new InstanceCreationFailure(nodeError.getKey()
+                                                                                                                         .getId(),
+                                                                                                                nodeError.getValue()
+                                                                                                                         .getMessage()))
+                                                                  .collect(Collectors.toList());
+        runNodesException.getExecutionErrors()
+                         .values()
+                         .forEach(executionError -> failures.add(new InstanceCreationFailure(null,
+                                                                                             executionError.getMessage())));
+        return failures;
+    }
+
     protected ComputeService getComputeServiceFromInfrastructure(Infrastructure infrastructure) {
         return jCloudsComputeServiceCache.getComputeService(infrastructure);
     }
@@ -332,7 +609,7 @@ public abstract class JCloudsProvider implements CloudProvider {
             File pricingFile = new File(this.pricingRepo + File.pathSeparator + fileTag + ".json");
             // We will use the getAllImage() API to identify which VM image are relevant.
             Set<Image> resultImages = this.getAllImages(infra)
-                                          .parallelStream()
+                                          .stream()
                                           .filter(image -> image.getLocation().equals(region))
                                           .filter(img -> img.getName().contains(imageReq))
                                           .collect(Collectors.toSet());
@@ -369,7 +646,7 @@ public abstract class JCloudsProvider implements CloudProvider {
     private Set<NodeCandidate> getFreeNodeCandidate(Infrastructure infra, String region, String imageReq,
             Set<Image> resultImages, Set<Hardware> resultHardware) {
         return resultHardware.stream()
-                             .map(hw -> resultImages.parallelStream()
+                             .map(hw -> resultImages.stream()
                                                     .map(image -> NodeCandidate.builder()
                                                                                .region(region)
                                                                                .cloud(infra.getType())
@@ -392,15 +669,15 @@ public abstract class JCloudsProvider implements CloudProvider {
         final String IMAGE_ID = "imageId";
         final String COST = "cost";
         // We constitute a list of hardwareId of the cloud region, to be seek into later on
-        List<String> listOfhardwareId = resultHardware.parallelStream()
+        List<String> listOfhardwareId = resultHardware.stream()
                                                       .map(Hardware::getType)
                                                       .collect(Collectors.toList());
         // We constitute multiple list of Image ID beacause image specification diverges on the Cloud infra provide.
-        List<String> listOfAvailableImageId = resultImages.parallelStream()
+        List<String> listOfAvailableImageId = resultImages.stream()
                                                           .map(Image::getId)
                                                           .distinct()
                                                           .collect(Collectors.toList());
-        List<String> listOfAvailableImageName = resultImages.parallelStream()
+        List<String> listOfAvailableImageName = resultImages.stream()
                                                             .map(Image::getName)
                                                             .distinct()
                                                             .filter(Objects::nonNull)
@@ -415,7 +692,7 @@ public abstract class JCloudsProvider implements CloudProvider {
             checkedPricingArray.add((JSONObject) entree);
         }
         // We determine the pricing to be analyzed in the region, based on which Hardware and image are available from user account.
-        List<JSONObject> releavantPricing = checkedPricingArray.parallelStream()
+        List<JSONObject> releavantPricing = checkedPricingArray.stream()
                                                                .filter(Objects::nonNull)
                                                                .filter(jo -> jo.has(HARDWARE_ID))
                                                                .filter(jo -> jo.has(IMAGE_ID))
@@ -426,11 +703,11 @@ public abstract class JCloudsProvider implements CloudProvider {
                                                                                                      .count() > 0)
                                                                .collect(Collectors.toList());
         // We select pricing that are match the search criteria
-        List<JSONObject> selectedPricing = releavantPricing.parallelStream()
+        List<JSONObject> selectedPricing = releavantPricing.stream()
                                                            .filter(jo -> jo.getString(IMAGE_ID).contains(imageReq))
                                                            .collect(Collectors.toList());
         // We build the nodeCandidate based on these
-        Set<NodeCandidate> result = selectedPricing.parallelStream().map(jo -> {
+        Set<NodeCandidate> result = selectedPricing.stream().map(jo -> {
             return NodeCandidate.builder()
                                 .cloud(infra.getType())
                                 .region(region)
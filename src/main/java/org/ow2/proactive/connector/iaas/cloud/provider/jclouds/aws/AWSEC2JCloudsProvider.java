@@ -27,6 +27,8 @@ package org.ow2.proactive.connector.iaas.cloud.provider.jclouds.aws;
 
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -42,7 +44,6 @@ import org.jclouds.compute.config.ComputeServiceProperties;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
-import org.jclouds.compute.domain.internal.NodeMetadataImpl;
 import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.domain.Location;
 import org.jclouds.ec2.EC2Api;
@@ -50,12 +51,16 @@ import org.jclouds.ec2.domain.KeyPair;
 import org.jclouds.ec2.domain.PublicIpInstanceIdPair;
 import org.jclouds.ec2.domain.SecurityGroup;
 import org.jclouds.ec2.domain.Subnet;
+import org.jclouds.ec2.features.AvailabilityZoneAndRegionApi;
 import org.jclouds.ec2.features.ElasticIPAddressApi;
 import org.jclouds.ec2.features.KeyPairApi;
 import org.jclouds.ec2.features.SecurityGroupApi;
 import org.jclouds.net.domain.IpPermission;
 import org.jclouds.net.domain.IpProtocol;
 import org.json.JSONObject;
+import org.ow2.proactive.connector.iaas.cache.OwnedResource;
+import org.ow2.proactive.connector.iaas.cache.OwnedResourceType;
+import org.ow2.proactive.connector.iaas.cache.ResourceOwnershipLedger;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceBuilder;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
@@ -66,7 +71,6 @@ import org.springframework.stereotype.Component;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.Sets;
 
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
@@ -88,22 +92,22 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
     private static final String CIDR_ALL = "0.0.0.0/0";
 
-    private static Map<String, String> awsPricingRegionName = null;
+    private static final Map<String, String> AWS_PRICING_REGION_NAMES = initAwsPricingRegionsMap();
 
-    /**
-     * This field stores the couple (AWS key pair name, private key) for each 
-     * AWS region in which a key pair has already been generated by the 
-     * connector-iaas. At maximum, the length of this map is the number of
-     * regions in AWS.
-     */
-    private Map<String, SimpleImmutableEntry<String, String>> generatedKeyPairsPerAwsRegion = new HashMap<>();
-
-    // Store the auto-generated security groups for each infrastructure, so that they can be removed when deleting the infrastructure.
-    public Map<String, Map<String, String>> autoGeneratedSecurityGroups = new HashMap<>();
+    // lock of the default key pair of each infrastructure and region, so that creations on different infrastructures
+    // do not wait for each other
+    private final Map<String, Object> defaultKeyPairLocks = new ConcurrentHashMap<>();
 
     @Autowired
     private TagManager tagManager;
 
+    /**
+     * Keeps the default key pair (name and private key) generated for each infrastructure in each region, the
+     * auto-generated security groups of each infrastructure and the elastic IPs allocated for each instance.
+     */
+    @Autowired
+    private ResourceOwnershipLedger resourceOwnershipLedger;
+
     @Autowired
     private JCloudsComputeServiceBuilder computeServiceBuilder;
 
@@ -112,6 +116,26 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
         ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
 
+        return createNodesInGroup(computeService,
+                                  instance.getTag(),
+                                  Integer.parseInt(instance.getNumber()),
+                                  buildTemplate(computeService, infrastructure, instance));
+    }
+
+    @Override
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+
+        ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
+
+        return createNodesInGroupAsTheyStart(computeService,
+                                             instance.getTag(),
+                                             Integer.parseInt(instance.getNumber()),
+                                             buildTemplate(computeService, infrastructure, instance),
+                                             instanceCreatedListener);
+    }
+
+    private Template buildTemplate(ComputeService computeService, Infrastructure infrastructure, Instance instance) {
         String region = getRegionFromImage(instance);
         TemplateBuilder templateBuilder = computeService.templateBuilder()
                                                         .locationId(region)
@@ -138,22 +162,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
                       Optional.ofNullable(instance.getCredentials())
                               .orElseGet(() -> createCredentialsIfNotExist(infrastructure, instance)));
 
-        Set<? extends NodeMetadata> createdNodeMetaData = Sets.newHashSet();
-
-        try {
-            createdNodeMetaData = computeService.createNodesInGroup(instance.getTag(),
-                                                                    Integer.parseInt(instance.getNumber()),
-                                                                    template);
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-
-        return createdNodeMetaData.stream()
-                                  .map(computeMetadata -> (NodeMetadataImpl) computeMetadata)
-                                  .map(this::createInstanceFromNode)
-                                  .collect(Collectors.toSet());
-
+        return template;
     }
 
     // Structure to map AWS region names to their labels used in the pricing API.
@@ -185,35 +194,53 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
     private InstanceCredentials createCredentialsIfNotExist(Infrastructure infrastructure, Instance instance) {
         String regionOfCredentials = getRegionFromImage(instance);
+        synchronized (defaultKeyPairLocks.computeIfAbsent(infrastructure.getId() + INSTANCE_ID_REGION_SEPARATOR +
+                                                          regionOfCredentials,
+                                                          key -> new Object())) {
+            return createCredentialsIfNotExist(infrastructure, instance, regionOfCredentials);
+        }
+    }
 
-        // we keep in memory a default key pair to use in each of the region
-        // where EC2 instances are deployed using default credentials
-        if (!generatedKeyPairsPerAwsRegion.containsKey(regionOfCredentials)) {
-            SimpleImmutableEntry<String, String> keyPair = createKeyPair(infrastructure, instance);
-            generatedKeyPairsPerAwsRegion.put(regionOfCredentials, keyPair);
-        } else {
-            // we have a key pair entry in memory, but we are going to check
-            // in addition whether this key exists in AWS
-            KeyPairApi keyPairApi = getKeyPairApi(infrastructure);
-            String inMemoryKeyPairName = generatedKeyPairsPerAwsRegion.get(regionOfCredentials).getKey();
-            Set<KeyPair> awsKeyPairsInRegionWithName = keyPairApi.describeKeyPairsInRegion(regionOfCredentials,
-                                                                                           inMemoryKeyPairName);
-            // if we have the key in memory but not in AWS, we need to create
-            // one in AWS and replace it in memory
-            if (awsKeyPairsInRegionWithName.stream()
-                                           .noneMatch(keyPair -> keyPair.getKeyName().equals(inMemoryKeyPairName))) {
-                SimpleImmutableEntry<String, String> keyPair = createKeyPair(infrastructure, instance);
-                generatedKeyPairsPerAwsRegion.put(regionOfCredentials, keyPair);
+    private InstanceCredentials createCredentialsIfNotExist(Infrastructure infrastructure, Instance instance,
+            String regionOfCredentials) {
+
+        // we keep a default key pair for each region where EC2 instances are deployed using default credentials,
+        // which is checked to still exist in AWS before being used
+        Optional<OwnedResource> defaultKeyPair = resourceOwnershipLedger.findInfrastructureResource(infrastructure.getId(),
+                                                                                                   OwnedResourceType.KEY_PAIR,
+                                                                                                   regionOfCredentials);
+        if (defaultKeyPair.isPresent()) {
+            String keyPairName = defaultKeyPair.get().getName();
+            Set<KeyPair> awsKeyPairsInRegionWithName = getKeyPairApi(infrastructure).describeKeyPairsInRegion(regionOfCredentials,
+                                                                                                              keyPairName);
+            if (awsKeyPairsInRegionWithName.stream().noneMatch(keyPair -> keyPair.getKeyName().equals(keyPairName))) {
+                resourceOwnershipLedger.release(Collections.singleton(defaultKeyPair.get()));
+                defaultKeyPair = Optional.empty();
             }
         }
 
-        // we are now sure that we have a key pair both in memory and in AWS
-        // for the given region: so retrieve it and use it to create default
-        // credentials
-        String keyPairName = generatedKeyPairsPerAwsRegion.get(regionOfCredentials).getKey();
+        String keyPairName = defaultKeyPair.orElseGet(() -> createDefaultKeyPair(infrastructure,
+                                                                                 instance,
+                                                                                 regionOfCredentials))
+                                           .getName();
         return new InstanceCredentials(getVmUserLogin(), null, keyPairName, null, null);
     }
 
+    private OwnedResource createDefaultKeyPair(Infrastructure infrastructure, Instance instance, String region) {
+        SimpleImmutableEntry<String, String> keyPair = Optional.ofNullable(createKeyPair(infrastructure, instance))
+                                                               .orElseThrow(() -> new IllegalStateException("Cannot create a default key pair in region " +
+                                                                                                            region));
+        OwnedResource defaultKeyPair = OwnedResource.builder()
+                                                    .infrastructureId(infrastructure.getId())
+                                                    .type(OwnedResourceType.KEY_PAIR)
+                                                    .region(region)
+                                                    .name(keyPair.getKey())
+                                                    .secret(keyPair.getValue())
+                                                    .build();
+        resourceOwnershipLedger.record(defaultKeyPair);
+        return defaultKeyPair;
+    }
+
     private void addCredential(Template template, InstanceCredentials credentials) {
         log.info("Username given for instance creation: " + credentials.getUsername());
         Optional.ofNullable(credentials.getUsername())
@@ -260,8 +287,11 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
             // Have we defined an explicit list of ports to be opened ?
             int[] ports = options.getPortsToOpen();
             String securityGroupName = getAutoGeneratedSecurityGroupName(infrastructure.getId());
-            Map<String, String> infraSg = autoGeneratedSecurityGroups.getOrDefault(infrastructure.getId(),
-                                                                                   new HashMap<>());
+            OwnedResource securityGroup = OwnedResource.builder()
+                                                       .infrastructureId(infrastructure.getId())
+                                                       .type(OwnedResourceType.SECURITY_GROUP)
+                                                       .region(region)
+                                                       .build();
             if (ports != null) {
                 securityGroupName += "-" + UUID.randomUUID();
                 String sgDescription = "Auto generated security group to authorize the ports " + Arrays.toString(ports);
@@ -288,11 +318,13 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
                 Arrays.stream(ports)
                       .forEach(port -> allowPortInSecurityGroup(port, securityGroupId, region, awsSecurityGroupApi));
                 template.getOptions().as(AWSEC2TemplateOptions.class).securityGroupIds(securityGroupId);
-                infraSg.put(securityGroupName, securityGroupId);
-            } else {
-                infraSg.put(securityGroupName, null);
+                resourceOwnershipLedger.record(securityGroup.withName(securityGroupName).withId(securityGroupId));
+            } else if (resourceOwnershipLedger.getResources(infrastructure.getId())
+                                              .stream()
+                                              .noneMatch(securityGroup.withName(securityGroupName)::isSameResourceAs)) {
+                // created by jclouds along with the nodes, its id is looked up when it is deleted
+                resourceOwnershipLedger.record(securityGroup.withName(securityGroupName));
             }
-            autoGeneratedSecurityGroups.put(infrastructure.getId(), infraSg);
         }
 
         Optional.ofNullable(options.getSubnetId())
@@ -337,10 +369,8 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         }
     }
 
-    private void addTags(Template template, List<Tag> tags) {
-        template.getOptions()
-                .as(AWSEC2TemplateOptions.class)
-                .userMetadata(tags.stream().collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
+    private void addTags(Template template, Map<String, String> tags) {
+        template.getOptions().as(AWSEC2TemplateOptions.class).userMetadata(tags);
     }
 
     private String getRegionFromNode(ComputeService computeService, NodeMetadata node) {
@@ -375,6 +405,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         // Try to assign existing IP
         if (Optional.ofNullable(optionalDesiredIp).isPresent()) {
             elasticIPAddressApi.associateAddressInRegion(region, optionalDesiredIp, id);
+            resourceOwnershipLedger.transfer(publicIp(infrastructure, region, optionalDesiredIp), instanceId);
             return optionalDesiredIp;
         }
 
@@ -395,6 +426,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
             }
             if (associated) {
                 ip = unassignedIp.getPublicIp();
+                resourceOwnershipLedger.transfer(publicIp(infrastructure, region, ip), instanceId);
                 break;
             }
         }
@@ -405,11 +437,21 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
             } catch (Exception e) {
                 throw new RuntimeException("Failed to allocate a new IP address. All IP addresses are in use.", e);
             }
+            resourceOwnershipLedger.record(publicIp(infrastructure, region, ip).withInstanceId(instanceId));
             elasticIPAddressApi.associateAddressInRegion(region, ip, id);
         }
         return ip;
     }
 
+    private OwnedResource publicIp(Infrastructure infrastructure, String region, String ip) {
+        return OwnedResource.builder()
+                            .infrastructureId(infrastructure.getId())
+                            .type(OwnedResourceType.PUBLIC_IP)
+                            .region(region)
+                            .name(ip)
+                            .build();
+    }
+
     @Override
     public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
 
@@ -455,10 +497,6 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
     @Override
     public PagedNodeCandidates getNodeCandidate(Infrastructure infra, String region, String osReq, String token) {
-        if (awsPricingRegionName == null) {
-            // If the structure is not yet initialized, I prepare it.
-            awsPricingRegionName = initAwsPricingRegionsMap();
-        }
         // Preparing the request to the API. Only two regions provide an endpoint for the pricing API. We arbitrarily set it to US-EAST-1.
         PricingClient pc = PricingClient.builder()
                                         .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(infra.getCredentials()
@@ -492,7 +530,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
     }
 
     private Set<NodeCandidate> productResponseToSet(GetProductsResponse pricesListResponse, String region) {
-        return pricesListResponse.priceList().parallelStream().map(priceResponse -> {
+        return pricesListResponse.priceList().stream().map(priceResponse -> {
             JSONObject terms = new JSONObject(priceResponse).getJSONObject("terms");
             JSONObject productAttributes = new JSONObject(priceResponse).getJSONObject("product")
                                                                         .getJSONObject("attributes");
@@ -540,7 +578,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
                                                 .filters(Filter.builder()
                                                                .field("location")
                                                                .type(FilterType.TERM_MATCH)
-                                                               .value(awsPricingRegionName.get(region))
+                                                               .value(AWS_PRICING_REGION_NAMES.get(region))
                                                                .build(),
                                                          Filter.builder()
                                                                .field("operatingSystem")
@@ -599,11 +637,11 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         try {
             JSONObject onDemand = terms.getJSONObject("OnDemand");
             OptionalDouble foundPrice = onDemand.keySet()
-                                                .parallelStream()
+                                                .stream()
                                                 .map(jo1 -> onDemand.getJSONObject(jo1))
                                                 .map(anOfferTerm -> anOfferTerm.getJSONObject("priceDimensions"))
                                                 .map(priceDimensions -> priceDimensions.keySet()
-                                                                                       .parallelStream()
+                                                                                       .stream()
                                                                                        .map(keyName -> priceDimensions.getJSONObject(keyName))
                                                                                        .map(aPriceDimension -> aPriceDimension.getJSONObject("pricePerUnit"))
                                                                                        .mapToDouble(aPricePerUnit -> aPricePerUnit.getDouble("USD"))
@@ -621,34 +659,63 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         }
     }
 
+    @Override
+    public void deleteInstance(Infrastructure infrastructure, String instanceId) {
+        super.deleteInstance(infrastructure, instanceId);
+        // release the elastic IPs allocated for the instance, the other resources belong to the infrastructure
+        Set<OwnedResource> releasedResources = resourceOwnershipLedger.releaseInstance(infrastructure.getId(),
+                                                                                       instanceId);
+        releasedResources.stream()
+                         .filter(resource -> resource.getType() == OwnedResourceType.PUBLIC_IP)
+                         .forEach(publicIp -> {
+                             try {
+                                 getComputeServiceFromInfrastructure(infrastructure).getContext()
+                                                                                    .unwrapApi(AWSEC2Api.class)
+                                                                                    .getElasticIPAddressApi()
+                                                                                    .get()
+                                                                                    .releaseAddressInRegion(publicIp.getRegion(),
+                                                                                                            publicIp.getName());
+                                 log.info("Released the elastic IP [{}] of the instance [{}]",
+                                          publicIp.getName(),
+                                          instanceId);
+                             } catch (RuntimeException e) {
+                                 log.warn("Unable to release the elastic IP " + publicIp.getName() + " of instance " +
+                                          instanceId, e);
+                             }
+                         });
+    }
+
     @Override
     public void deleteInfrastructure(Infrastructure infrastructure) {
-        // if the infrastructure has used the auto-generated security group, remove it.
-        if (autoGeneratedSecurityGroups.containsKey(infrastructure.getId())) {
-            SecurityGroupApi securityGroupApi = getSecurityGroupApi(infrastructure);
-            for (Map.Entry<String, String> securityGroupInfos : autoGeneratedSecurityGroups.get(infrastructure.getId())
-                                                                                           .entrySet()) {
-                String securityGroupId = getIdOrNameFromSecurityGroupName(infrastructure,
-                                                                          securityGroupApi,
-                                                                          securityGroupInfos);
-                securityGroupApi.deleteSecurityGroupInRegion(infrastructure.getRegion(), securityGroupId);
-                log.info(String.format("Removed the auto-generated security group [%s] for the infrastructure [%s]",
-                                       securityGroupInfos.getKey(),
-                                       infrastructure.getId()));
-            }
-        }
+        // remove the auto-generated security groups and default key pairs of the infrastructure
+        Set<OwnedResource> ownedResources = resourceOwnershipLedger.getResources(infrastructure.getId());
+        ownedResources.stream()
+                      .filter(resource -> resource.getType() == OwnedResourceType.SECURITY_GROUP)
+                      .forEach(securityGroup -> {
+                          SecurityGroupApi securityGroupApi = getSecurityGroupApi(infrastructure);
+                          securityGroupApi.deleteSecurityGroupInRegion(securityGroup.getRegion(),
+                                                                       getSecurityGroupId(securityGroupApi,
+                                                                                          securityGroup));
+                          log.info(String.format("Removed the auto-generated security group [%s] for the infrastructure [%s]",
+                                                 securityGroup.getName(),
+                                                 infrastructure.getId()));
+                      });
+        ownedResources.stream()
+                      .filter(resource -> resource.getType() == OwnedResourceType.KEY_PAIR)
+                      .forEach(keyPair -> deleteKeyPair(infrastructure, keyPair.getName(), keyPair.getRegion()));
 
         super.deleteInfrastructure(infrastructure);
-        autoGeneratedSecurityGroups.remove(infrastructure.getId());
+        resourceOwnershipLedger.releaseInfrastructure(infrastructure.getId());
+        defaultKeyPairLocks.keySet()
+                           .removeIf(key -> key.startsWith(infrastructure.getId() + INSTANCE_ID_REGION_SEPARATOR));
     }
 
-    private String getIdOrNameFromSecurityGroupName(Infrastructure infrastructure, SecurityGroupApi securityGroupApi,
-            Map.Entry<String, String> securityGroupInfos) {
-        if (securityGroupInfos.getValue() != null) {
-            return securityGroupInfos.getValue();
+    private String getSecurityGroupId(SecurityGroupApi securityGroupApi, OwnedResource securityGroup) {
+        if (securityGroup.getId() != null) {
+            return securityGroup.getId();
         }
-        String securityGroupName = securityGroupInfos.getKey();
-        Set<SecurityGroup> sgs = securityGroupApi.describeSecurityGroupsInRegionWithFilter(infrastructure.getRegion(),
+        String securityGroupName = securityGroup.getName();
+        Set<SecurityGroup> sgs = securityGroupApi.describeSecurityGroupsInRegionWithFilter(securityGroup.getRegion(),
                                                                                            ImmutableMultimap.of("group-name",
                                                                                                                 securityGroupName));
         if (sgs == null || sgs.isEmpty()) {
@@ -660,6 +727,20 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         return sgs.iterator().next().getId();
     }
 
+    @Override
+    public void checkHealth(Infrastructure infrastructure) {
+        // a single call, unlike listing the nodes which describes the instances of every region
+        AvailabilityZoneAndRegionApi api = getComputeServiceFromInfrastructure(infrastructure).getContext()
+                                                                                              .unwrapApi(EC2Api.class)
+                                                                                              .getAvailabilityZoneAndRegionApi()
+                                                                                              .get();
+        if (infrastructure.getRegion() != null) {
+            api.describeAvailabilityZonesInRegion(infrastructure.getRegion());
+        } else {
+            api.describeRegions();
+        }
+    }
+
     private KeyPairApi getKeyPairApi(Infrastructure infrastructure) {
         ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
         EC2Api ec2Api = computeService.getContext().unwrapApi(EC2Api.class);
@@ -730,7 +811,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         String subdividedRegion = getRegionFromNode(computeService, node);
         String keyPairRegion = extractRegionFromSubdividedRegion(subdividedRegion);
 
-        return buildDefaultRunScriptOptions(keyPairRegion);
+        return buildDefaultRunScriptOptions(infrastructure, keyPairRegion);
     }
 
     @Override
@@ -747,18 +828,18 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         String subdividedRegion = getRegionFromImage(taggedInstance);
         String keyPairRegion = extractRegionFromSubdividedRegion(subdividedRegion);
 
-        return buildDefaultRunScriptOptions(keyPairRegion);
+        return buildDefaultRunScriptOptions(infrastructure, keyPairRegion);
     }
 
-    private RunScriptOptions buildDefaultRunScriptOptions(String keyPairRegion) {
-        SimpleImmutableEntry<String, String> defaultKeyPairInRegion = generatedKeyPairsPerAwsRegion.get(keyPairRegion);
-        Optional.ofNullable(defaultKeyPairInRegion)
-                .ifPresent(keyPair -> log.info("Default script options: username=" + getVmUserLogin()));
-        return Optional.ofNullable(defaultKeyPairInRegion)
-                       .map(keyPair -> RunScriptOptions.Builder.runAsRoot(false)
-                                                               .overrideLoginUser(getVmUserLogin())
-                                                               .overrideLoginPrivateKey(keyPair.getValue()))
-                       .orElse(RunScriptOptions.NONE);
+    private RunScriptOptions buildDefaultRunScriptOptions(Infrastructure infrastructure, String keyPairRegion) {
+        Optional<OwnedResource> defaultKeyPairInRegion = resourceOwnershipLedger.findInfrastructureResource(infrastructure.getId(),
+                                                                                                           OwnedResourceType.KEY_PAIR,
+                                                                                                           keyPairRegion);
+        defaultKeyPairInRegion.ifPresent(keyPair -> log.info("Default script options: username=" + getVmUserLogin()));
+        return defaultKeyPairInRegion.map(keyPair -> RunScriptOptions.Builder.runAsRoot(false)
+                                                                             .overrideLoginUser(getVmUserLogin())
+                                                                             .overrideLoginPrivateKey(keyPair.getSecret()))
+                                     .orElse(RunScriptOptions.NONE);
     }
 
     private String extractRegionFromSubdividedRegion(String subdividedRegion) {
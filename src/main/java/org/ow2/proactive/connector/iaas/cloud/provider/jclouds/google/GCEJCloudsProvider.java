@@ -29,17 +29,16 @@ import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
 import org.jclouds.compute.ComputeService;
-import org.jclouds.compute.RunNodesException;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
-import org.jclouds.compute.domain.internal.NodeMetadataImpl;
 import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.googlecomputeengine.GoogleComputeEngineApi;
 import org.jclouds.googlecomputeengine.compute.options.GoogleComputeEngineTemplateOptions;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
@@ -48,7 +47,6 @@ import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
 import org.ow2.proactive.connector.iaas.model.InstanceCredentials;
 import org.ow2.proactive.connector.iaas.model.Options;
-import org.ow2.proactive.connector.iaas.model.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -70,6 +68,31 @@ public class GCEJCloudsProvider extends JCloudsProvider {
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
         ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
 
+        Set<Instance> createdInstances = createNodesInGroup(computeService,
+                                                            instance.getTag(),
+                                                            Integer.parseInt(instance.getNumber()),
+                                                            buildTemplate(computeService, infrastructure, instance));
+        log.info("Created Instances: " + createdInstances);
+        return createdInstances;
+    }
+
+    @Override
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
+
+        Set<Instance> createdInstances = createNodesInGroupAsTheyStart(computeService,
+                                                                       instance.getTag(),
+                                                                       Integer.parseInt(instance.getNumber()),
+                                                                       buildTemplate(computeService,
+                                                                                     infrastructure,
+                                                                                     instance),
+                                                                       instanceCreatedListener);
+        log.info("Created Instances: " + createdInstances);
+        return createdInstances;
+    }
+
+    private Template buildTemplate(ComputeService computeService, Infrastructure infrastructure, Instance instance) {
         TemplateBuilder templateBuilder = computeService.templateBuilder();
 
         if (Optional.ofNullable(instance.getHardware())
@@ -116,9 +139,7 @@ public class GCEJCloudsProvider extends JCloudsProvider {
                                                                         .as(GoogleComputeEngineTemplateOptions.class);
 
         // Add the tag key connector-iaas to mark the instance as a createdInstance managed by ProActive
-        gceTemplateOptions.userMetadata(tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions())
-                                                  .stream()
-                                                  .collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
+        gceTemplateOptions.userMetadata(tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions()));
 
         Optional.ofNullable(instance.getCredentials())
                 .map(InstanceCredentials::getUsername)
@@ -142,20 +163,7 @@ public class GCEJCloudsProvider extends JCloudsProvider {
 
         log.debug(String.format("template for createNodesInGroup(%s): %s", instance.getTag(), template));
 
-        try {
-            Set<Instance> createdInstances = computeService.createNodesInGroup(instance.getTag(),
-                                                                               Integer.parseInt(instance.getNumber()),
-                                                                               template)
-                                                           .stream()
-                                                           .map(computeMetadata -> (NodeMetadataImpl) computeMetadata)
-                                                           .peek(log::debug)
-                                                           .map(this::createInstanceFromNode)
-                                                           .collect(Collectors.toSet());
-            log.info("Created Instances: " + createdInstances);
-            return createdInstances;
-        } catch (RunNodesException e) {
-            throw new RuntimeException(e);
-        }
+        return template;
     }
 
     @Override
@@ -178,6 +186,15 @@ public class GCEJCloudsProvider extends JCloudsProvider {
         throw new NotImplementedException("This method is not yet implemented.");
     }
 
+    @Override
+    public void checkHealth(Infrastructure infrastructure) {
+        // a single call, unlike listing the nodes which lists the instances of every zone
+        getComputeServiceFromInfrastructure(infrastructure).getContext()
+                                                           .unwrapApi(GoogleComputeEngineApi.class)
+                                                           .project()
+                                                           .get();
+    }
+
     @Override
     protected RunScriptOptions getRunScriptOptionsWithCredentials(InstanceCredentials credentials) {
         // retrieve the passed username or read the default username from the property file
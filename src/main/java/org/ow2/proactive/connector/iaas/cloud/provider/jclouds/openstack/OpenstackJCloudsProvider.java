@@ -26,20 +26,29 @@
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.NotSupportedException;
 import javax.ws.rs.core.Response;
 
-import org.apache.commons.lang3.NotImplementedException;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.domain.LoginCredentials;
@@ -50,18 +59,31 @@ import org.jclouds.openstack.nova.v2_0.extensions.FloatingIPApi;
 import org.jclouds.openstack.nova.v2_0.extensions.SecurityGroupApi;
 import org.jclouds.openstack.nova.v2_0.features.ServerApi;
 import org.jclouds.openstack.nova.v2_0.options.CreateServerOptions;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+import org.ow2.proactive.connector.iaas.cache.OwnedResource;
+import org.ow2.proactive.connector.iaas.cache.OwnedResourceType;
+import org.ow2.proactive.connector.iaas.cache.ResourceOwnershipLedger;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.AbandonedCreations;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
 import org.ow2.proactive.connector.iaas.model.Hardware;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationFailure;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationResult;
 import org.ow2.proactive.connector.iaas.model.InstanceCredentials;
 import org.ow2.proactive.connector.iaas.model.Network;
-import org.ow2.proactive.connector.iaas.model.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 
@@ -77,13 +99,11 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
 
     private static final String SINGLE_INSTANCE = "1";
 
-    // auto generated key pair name for each instance
-    private static Map<String, String> autoCreatedKeyNamePerInstance = new HashMap<>();
-
-    // auto generated security group name for each instance
-    private static Map<String, String> autoCreatedSgPerInstance = new HashMap<>();
+    @Value("${connector-iaas.openstack.max-parallel-creations:10}")
+    private int maxParallelCreations;
 
-    private String region;
+    @Value("${connector-iaas.openstack.creation-poll-period:1000}")
+    private long creationPollPeriod;
 
     @Autowired
     private OpenstackUtil openstackUtil;
@@ -91,16 +111,30 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
     @Autowired
     private TagManager tagManager;
 
+    /**
+     * Keeps the auto-generated key pairs and security groups, owned by the infrastructure while the servers are
+     * being created, then by each created server.
+     */
+    @Autowired
+    private ResourceOwnershipLedger resourceOwnershipLedger;
+
     @Override
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
+        return createInstance(infrastructure, instance, createdInstance -> {
+        });
+    }
+
+    @Override
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
 
-        Set<Instance> createdInstances = new HashSet<>();
         try {
 
             openstackUtil.validateOpenstackInfrastructureParameters(infrastructure);
             NovaApi novaApi = buildNovaApi(infrastructure);
 
-            region = openstackUtil.getInfrastructureRegion(infrastructure);
+            // the region is resolved for each request, the provider being shared by all the infrastructures
+            String region = openstackUtil.getInfrastructureRegion(infrastructure);
             ServerApi serverApi = novaApi.getServerApi(region);
             com.google.common.base.Optional<SecurityGroupApi> securityGroupApi = novaApi.getSecurityGroupApi(region);
             if (!securityGroupApi.isPresent()) {
@@ -108,44 +142,287 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
             }
             CreateServerOptions serverOptions;
             try {
-                serverOptions = createOptions(infrastructure, instance, securityGroupApi);
+                serverOptions = createOptions(infrastructure, instance, region, securityGroupApi);
             } catch (Exception e) {
                 log.error("Exception during create instance options.", e);
                 throw e;
             }
             log.info("Openstack instance will use options: " + serverOptions.toString());
 
-            for (int i = 0; i < Integer.parseInt(instance.getNumber()); i++) {
-                Server server = createOpenstackInstance(instance, serverApi, serverOptions);
-                Instance createdInstance = this.createInstanceFromNode(server);
-                createdInstances.add(createdInstance);
-                if (isPublicKeyNameNotSet(instance)) {
-                    autoCreatedKeyNamePerInstance.put(createdInstance.getId(), serverOptions.getKeyPairName());
-                }
-                if (useAutoGeneratedSecurityGroup(instance)) {
-                    serverOptions.getSecurityGroupNames()
-                                 .stream()
-                                 .findFirst()
-                                 .ifPresent(sg -> autoCreatedSgPerInstance.put(createdInstance.getId(), sg));
-                }
-            }
+            openstackUtil.validateOpenstackInstanceParameters(instance);
+            return createOpenstackInstances(infrastructure,
+                                            instance,
+                                            region,
+                                            serverApi,
+                                            serverOptions,
+                                            instanceCreatedListener);
 
         } catch (Exception e) {
             log.error("Error when creating OpenStack instances for infrastructure " + infrastructure.getId(), e);
             throw e;
         }
 
+    }
+
+    /**
+     * Send the server creation requests with at most connector-iaas.openstack.max-parallel-creations requests in
+     * flight. The state of the servers created is fetched in rounds, a round gathering the creations completed within
+     * connector-iaas.openstack.creation-poll-period milliseconds and listing their servers at once, so that each
+     * server is notified soon after it is created without a status request per server. The auto-generated key pair
+     * and security group are shared by all the servers of the request, their ownership is given to each created
+     * server and they are released right away if no server could be created.
+     */
+    private Set<Instance> createOpenstackInstances(Infrastructure infrastructure, Instance instance, String region,
+            ServerApi serverApi, CreateServerOptions serverOptions, Consumer<Instance> instanceCreatedListener) {
+        int count = Integer.parseInt(instance.getNumber());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(count, maxParallelCreations)),
+                                                                new ThreadFactoryBuilder().setNameFormat("create-openstack-server-" +
+                                                                                                         instance.getTag() +
+                                                                                                         "-%d")
+                                                                                          .setDaemon(true)
+                                                                                          .build());
+        Set<OwnedResource> autoCreatedResources = getAutoCreatedResources(infrastructure, serverOptions);
+        Set<Instance> createdInstances = new HashSet<>();
+        List<InstanceCreationFailure> failures = new ArrayList<>();
+        Throwable lastFailure = null;
+        try {
+            CompletionService<ServerCreated> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<ServerCreated>> pendingCreations = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                pendingCreations.add(completionService.submit(() -> createServer(serverApi,
+                                                                                 instance,
+                                                                                 serverOptions)));
+            }
+            // the servers created whose state has not been fetched yet
+            Set<String> unlistedServerIds = new LinkedHashSet<>();
+            int completedCreations = 0;
+            while (completedCreations < count) {
+                List<Future<ServerCreated>> round;
+                try {
+                    round = pollCreationRound(completionService, count - completedCreations);
+                } catch (InterruptedException e) {
+                    // the operation is cancelled: the servers already notified are reported so that they can be
+                    // released, the others are deleted, as well as those of the creations still in flight once
+                    // created
+                    deleteServersOfAbandonedCreations(serverApi, instance.getTag(), pendingCreations);
+                    deleteUnlistedServers(serverApi, instance.getTag(), unlistedServerIds);
+                    lastFailure = e;
+                    failures.addAll(Collections.nCopies(count - completedCreations + unlistedServerIds.size(),
+                                                        new InstanceCreationFailure(null,
+                                                                                    "Creation of the OpenStack servers of group " +
+                                                                                          instance.getTag() +
+                                                                                          " interrupted")));
+                    unlistedServerIds.clear();
+                    break;
+                }
+                if (round.isEmpty()) {
+                    // nobody waits for the creations still in flight anymore, their servers are deleted once created
+                    deleteServersOfAbandonedCreations(serverApi, instance.getTag(), pendingCreations);
+                    deleteUnlistedServers(serverApi, instance.getTag(), unlistedServerIds);
+                    lastFailure = new DeadlineExceededException("Creation of the OpenStack servers of group " +
+                                                                instance.getTag() +
+                                                                " abandoned, the request deadline has expired");
+                    failures.addAll(Collections.nCopies(count - completedCreations + unlistedServerIds.size(),
+                                                        new InstanceCreationFailure(null, lastFailure.getMessage())));
+                    unlistedServerIds.clear();
+                    break;
+                }
+                for (Future<ServerCreated> creation : round) {
+                    pendingCreations.remove(creation);
+                    completedCreations++;
+                    try {
+                        unlistedServerIds.add(creation.get().getId());
+                    } catch (ExecutionException e) {
+                        log.error("Error when creating an OpenStack server in group " + instance.getTag(),
+                                  e.getCause());
+                        lastFailure = e.getCause();
+                        failures.add(new InstanceCreationFailure(null, e.getCause().getMessage()));
+                    }
+                }
+                Set<Server> servers = completedCreations < count ? listServers(serverApi,
+                                                                               instance.getTag(),
+                                                                               unlistedServerIds)
+                                                                 : getServers(serverApi,
+                                                                              instance.getTag(),
+                                                                              unlistedServerIds,
+                                                                              failures);
+                for (Server server : servers) {
+                    unlistedServerIds.remove(server.getId());
+                    Instance createdInstance = createInstanceFromNode(region, server);
+                    createdInstances.add(createdInstance);
+                    autoCreatedResources.forEach(resource -> resourceOwnershipLedger.record(resource.withInstanceId(createdInstance.getId())));
+                    instanceCreatedListener.accept(createdInstance);
+                }
+                if (completedCreations == count && !unlistedServerIds.isEmpty()) {
+                    lastFailure = new IllegalStateException("State of the OpenStack servers " + unlistedServerIds +
+                                                            " of group " + instance.getTag() +
+                                                            " not found once created");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating the OpenStack servers of group " +
+                                       instance.getTag(), e);
+        } finally {
+            // the creations abandoned on the cloud side are left to complete so that their servers can be deleted
+            executor.shutdown();
+        }
+
+        if (!createdInstances.isEmpty()) {
+            resourceOwnershipLedger.release(autoCreatedResources);
+        }
+
+        if (!failures.isEmpty()) {
+            if (createdInstances.isEmpty()) {
+                releaseAutoCreatedResources(infrastructure, instance, autoCreatedResources);
+                throw new RuntimeException(lastFailure);
+            }
+            throw new PartialInstanceCreationException(new InstanceCreationResult(count, createdInstances, failures),
+                                                       lastFailure);
+        }
         return createdInstances;
+    }
 
+    private ServerCreated createServer(ServerApi serverApi, Instance instance, CreateServerOptions serverOptions) {
+        ServerCreated serverCreated = serverApi.create(instance.getTag(),
+                                                       instance.getImage(),
+                                                       instance.getHardware().getType(),
+                                                       serverOptions);
+        log.info("Server instance created: " + serverCreated.toString());
+        return serverCreated;
+    }
+
+    /**
+     * Wait for the next creation to complete, then for the ones completing within the poll period.
+     * @return the creations completed, empty when the request deadline expired first
+     */
+    private List<Future<ServerCreated>> pollCreationRound(CompletionService<ServerCreated> completionService,
+            int pendingCreations) throws InterruptedException {
+        List<Future<ServerCreated>> round = new ArrayList<>();
+        Future<ServerCreated> creation = RequestDeadline.poll(completionService);
+        long roundEnd = System.currentTimeMillis() + creationPollPeriod;
+        while (creation != null) {
+            round.add(creation);
+            if (round.size() == pendingCreations) {
+                break;
+            }
+            long timeout = RequestDeadline.getRemainingTime(Math.max(0, roundEnd - System.currentTimeMillis()));
+            creation = completionService.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+        return round;
     }
 
-    private CreateServerOptions createOptions(Infrastructure infrastructure, Instance instance,
+    /**
+     * Retrieve the given servers with a single listing filtered on their name.
+     * @return the servers listed, the others being left to the next round
+     */
+    private Set<Server> listServers(ServerApi serverApi, String name, Set<String> serverIds) {
+        if (serverIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        try {
+            return serverApi.listInDetail(new PaginationOptions().queryParameters(ImmutableMultimap.of("name", name)))
+                            .toList()
+                            .stream()
+                            .filter(server -> serverIds.contains(server.getId()))
+                            .collect(Collectors.toSet());
+        } catch (RuntimeException e) {
+            log.warn("Unable to list the OpenStack servers of group " + name, e);
+            return new HashSet<>();
+        }
+    }
+
+    /**
+     * Retrieve the given servers once all the creations completed, with a last listing then one by one for the
+     * servers it does not return yet. A server whose state cannot be fetched is deleted rather than left unreported.
+     */
+    private Set<Server> getServers(ServerApi serverApi, String name, Set<String> serverIds,
+            List<InstanceCreationFailure> failures) {
+        Set<Server> servers = listServers(serverApi, name, serverIds);
+        Set<String> listedServerIds = servers.stream().map(Server::getId).collect(Collectors.toSet());
+        serverIds.stream().filter(serverId -> !listedServerIds.contains(serverId)).forEach(serverId -> {
+            try {
+                servers.add(Optional.ofNullable(serverApi.get(serverId))
+                                    .orElseThrow(() -> new IllegalStateException("Server " + serverId +
+                                                                                 " not found once created")));
+            } catch (RuntimeException e) {
+                log.error("Unable to fetch the state of server " + serverId + ", deleting it", e);
+                serverApi.delete(serverId);
+                failures.add(new InstanceCreationFailure(null, e.getMessage()));
+            }
+        });
+        return servers;
+    }
+
+    private void deleteServersOfAbandonedCreations(ServerApi serverApi, String group,
+            List<Future<ServerCreated>> creations) {
+        AbandonedCreations.release(creations, serverCreated -> {
+            serverApi.delete(serverCreated.getId());
+            log.info("Deleted server " + serverCreated.getId() + " of an abandoned creation in group " + group);
+        });
+    }
+
+    private void deleteUnlistedServers(ServerApi serverApi, String group, Set<String> serverIds) {
+        serverIds.forEach(serverId -> {
+            try {
+                serverApi.delete(serverId);
+                log.info("Deleted server " + serverId + " of an abandoned creation in group " + group);
+            } catch (RuntimeException e) {
+                log.error("Unable to delete server " + serverId + " of an abandoned creation in group " + group, e);
+            }
+        });
+    }
+
+    /**
+     * The key pair and security group generated for a creation request, owned by the infrastructure until the
+     * servers are created.
+     */
+    private Set<OwnedResource> getAutoCreatedResources(Infrastructure infrastructure,
+            CreateServerOptions serverOptions) {
+        return resourceOwnershipLedger.getResources(infrastructure.getId())
+                                      .stream()
+                                      .filter(resource -> resource.getInstanceId() == null)
+                                      .filter(resource -> (resource.getType() == OwnedResourceType.KEY_PAIR &&
+                                                           resource.getName()
+                                                                   .equals(serverOptions.getKeyPairName())) ||
+                                                          (resource.getType() == OwnedResourceType.SECURITY_GROUP &&
+                                                           serverOptions.getSecurityGroupNames()
+                                                                        .contains(resource.getName())))
+                                      .collect(Collectors.toSet());
+    }
+
+    private void releaseAutoCreatedResources(Infrastructure infrastructure, Instance instance,
+            Set<OwnedResource> autoCreatedResources) {
+        try {
+            autoCreatedResources.forEach(resource -> deleteOwnedResource(infrastructure, resource));
+            resourceOwnershipLedger.release(autoCreatedResources);
+        } catch (Exception e) {
+            log.warn("Unable to remove the auto-generated key pair and security group of group " + instance.getTag(),
+                     e);
+        }
+    }
+
+    private void deleteOwnedResource(Infrastructure infrastructure, OwnedResource resource) {
+        if (resource.getType() == OwnedResourceType.KEY_PAIR) {
+            deleteKeyPair(infrastructure, resource.getName(), resource.getRegion());
+        } else if (resource.getType() == OwnedResourceType.SECURITY_GROUP) {
+            deleteSecurityGroup(infrastructure, resource);
+        }
+    }
+
+    private CreateServerOptions createOptions(Infrastructure infrastructure, Instance instance, String region,
             com.google.common.base.Optional<SecurityGroupApi> securityGroupApiOptional) {
 
         // Acquire or generate KeyPair name
         String publicKeyName;
         if (isPublicKeyNameNotSet(instance)) {
             publicKeyName = createKeyPair(infrastructure, instance).getKey();
+            resourceOwnershipLedger.record(OwnedResource.builder()
+                                                        .infrastructureId(infrastructure.getId())
+                                                        .type(OwnedResourceType.KEY_PAIR)
+                                                        .region(region)
+                                                        .name(publicKeyName)
+                                                        .build());
             log.info("Openstack instance will use generated key-pair: " + publicKeyName);
         } else {
             publicKeyName = instance.getCredentials().getPublicKeyName();
@@ -173,6 +450,13 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
                 String sgName = "SG-" + System.currentTimeMillis();
                 SecurityGroupApi sgApi = securityGroupApiOptional.get();
                 SecurityGroup sg = sgApi.createWithDescription(sgName, "Auto-generated security group");
+                resourceOwnershipLedger.record(OwnedResource.builder()
+                                                            .infrastructureId(infrastructure.getId())
+                                                            .type(OwnedResourceType.SECURITY_GROUP)
+                                                            .region(region)
+                                                            .name(sgName)
+                                                            .id(sg.getId())
+                                                            .build());
                 for (int port : inboundPort) {
                     if (port == -1) {
                         // Port -1 means we open the host to ICMP, as spec by Amazon
@@ -206,9 +490,7 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
         }
 
         // Set tags before returning options
-        return createServerOptions.metadata(tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions())
-                                                      .stream()
-                                                      .collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
+        return createServerOptions.metadata(tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions()));
     }
 
     private boolean isPublicKeyNameNotSet(Instance instance) {
@@ -229,7 +511,8 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
 
         NovaApi novaApi = buildNovaApi(infrastructure);
-        validatePlateformOperation(novaApi);
+        String region = openstackUtil.getInfrastructureRegion(infrastructure);
+        validatePlateformOperation(novaApi, region);
 
         FloatingIPApi api = novaApi.getFloatingIPApi(region).get();
 
@@ -261,7 +544,7 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
     public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
 
         NovaApi novaApi = buildNovaApi(infrastructure);
-        FloatingIPApi api = novaApi.getFloatingIPApi(region).get();
+        FloatingIPApi api = novaApi.getFloatingIPApi(openstackUtil.getInfrastructureRegion(infrastructure)).get();
 
         // Try to retrieve a floatingIP that match with the provided IP address, otherwise get the first available
         List<FloatingIP> floatingIPs = api.list().toList();
@@ -286,7 +569,9 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
     public SimpleImmutableEntry<String, String> createKeyPair(Infrastructure infrastructure, Instance instance) {
         String keyPairName = KEY_PAIR_PREFIX + "-" + UUID.randomUUID();
         NovaApi novaApi = buildNovaApi(infrastructure);
-        KeyPair keyPair = novaApi.getKeyPairApi(region).get().create(keyPairName);
+        KeyPair keyPair = novaApi.getKeyPairApi(openstackUtil.getInfrastructureRegion(infrastructure))
+                                 .get()
+                                 .create(keyPairName);
 
         log.info("Openstack key-pair created: " + keyPair.getName() + " [" + keyPair.toString() + "]");
         return new SimpleImmutableEntry<>(keyPair.getName(), keyPair.toString());
@@ -294,34 +579,22 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
 
     @Override
     public void deleteKeyPair(Infrastructure infrastructure, String keyPairName, String region) {
-        throw new NotImplementedException("This method is not yet implemented.");
-    }
-
-    public void deleteKeyPair(Infrastructure infrastructure, String keyPairName) {
         NovaApi novaApi = buildNovaApi(infrastructure);
         novaApi.getKeyPairApi(region).get().delete(keyPairName);
         log.info("Remove the auto-generated openstack key-pair: " + keyPairName);
     }
 
-    private void validatePlateformOperation(NovaApi novaApi) {
+    public void deleteKeyPair(Infrastructure infrastructure, String keyPairName) {
+        deleteKeyPair(infrastructure, keyPairName, openstackUtil.getInfrastructureRegion(infrastructure));
+    }
+
+    private void validatePlateformOperation(NovaApi novaApi, String region) {
         if (!novaApi.getFloatingIPApi(region).isPresent()) {
             throw new NotSupportedException("Operation not supported by the targeted Openstack version");
         }
     }
 
-    private Server createOpenstackInstance(Instance instance, ServerApi serverApi, CreateServerOptions serverOptions) {
-        openstackUtil.validateOpenstackInstanceParameters(instance);
-        ServerCreated serverCreated = serverApi.create(instance.getTag(),
-                                                       instance.getImage(),
-                                                       instance.getHardware().getType(),
-                                                       serverOptions);
-
-        log.info("Server instance created: " + serverCreated.toString());
-
-        return serverApi.get(serverCreated.getId());
-    }
-
-    private final Instance createInstanceFromNode(Server server) {
+    private final Instance createInstanceFromNode(String region, Server server) {
         Instance instance = Instance.builder()
                                     .id(region + "/" + server.getId())
                                     .tag(server.getName())
@@ -349,34 +622,37 @@ public class OpenstackJCloudsProvider extends JCloudsProvider {
     @Override
     public void deleteInstance(Infrastructure infrastructure, String instanceId) {
         super.deleteInstance(infrastructure, instanceId);
-        String keyPairName = autoCreatedKeyNamePerInstance.get(instanceId);
-        if (keyPairName != null) {
-            deleteKeyPair(infrastructure, keyPairName);
-            autoCreatedKeyNamePerInstance.remove(instanceId);
-        }
-        String securityGroupName = autoCreatedSgPerInstance.get(instanceId);
-        if (securityGroupName != null) {
-            deleteSecurityGroup(infrastructure, securityGroupName);
-            autoCreatedSgPerInstance.remove(instanceId);
-        }
+        // the auto generated key pair and security group are shared by all the instances created together, they are
+        // only removed with the last of them
+        resourceOwnershipLedger.releaseInstance(infrastructure.getId(), instanceId)
+                               .forEach(resource -> deleteOwnedResource(infrastructure, resource));
     }
 
-    private void deleteSecurityGroup(Infrastructure infrastructure, String securityGroupName) {
+    private void deleteSecurityGroup(Infrastructure infrastructure, OwnedResource securityGroup) {
         NovaApi novaApi = buildNovaApi(infrastructure);
-        com.google.common.base.Optional<SecurityGroupApi> securityGroupApiOptional = novaApi.getSecurityGroupApi(region);
+        com.google.common.base.Optional<SecurityGroupApi> securityGroupApiOptional = novaApi.getSecurityGroupApi(securityGroup.getRegion());
         if (!securityGroupApiOptional.isPresent()) {
             log.warn("The support of security groups has not been found in this OpenStack instance. Therefore, the explicit configuration of security groups and the support of port opening will be disabled");
         } else {
             SecurityGroupApi sgApi = securityGroupApiOptional.get();
-            String securityGroupId = sgApi.list()
-                                          .firstMatch(sg -> sg.getName().equals(securityGroupName))
-                                          .get()
-                                          .getId();
+            String securityGroupId = Optional.ofNullable(securityGroup.getId())
+                                             .orElseGet(() -> sgApi.list()
+                                                                   .firstMatch(sg -> sg.getName()
+                                                                                       .equals(securityGroup.getName()))
+                                                                   .get()
+                                                                   .getId());
             sgApi.delete(securityGroupId);
-            log.info("Remove the auto-generated openstack security group: " + securityGroupName);
+            log.info("Remove the auto-generated openstack security group: " + securityGroup.getName());
         }
     }
 
+    @Override
+    public void checkHealth(Infrastructure infrastructure) {
+        // a single page of the flavors of the region, unlike listing the nodes which details every server
+        buildNovaApi(infrastructure).getFlavorApi(openstackUtil.getInfrastructureRegion(infrastructure))
+                                    .list(PaginationOptions.Builder.limit(1));
+    }
+
     protected NovaApi buildNovaApi(Infrastructure infrastructure) {
         ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
         return computeService.getContext().unwrapApi(NovaApi.class);
@@ -0,0 +1,52 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.util.Arrays;
+
+
+/**
+ * How VMWare instances are cloned from the source VM. FULL copies the disks of the source VM, LINKED creates child
+ * disks on top of a snapshot of the source VM, INSTANT forks the running source VM.
+ */
+public enum VMWareCloneMode {
+
+    FULL,
+    LINKED,
+    INSTANT;
+
+    public static VMWareCloneMode fromValue(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return FULL;
+        }
+        return Arrays.stream(values())
+                     .filter(cloneMode -> cloneMode.name().equalsIgnoreCase(value.trim()))
+                     .findFirst()
+                     .orElseThrow(() -> new IllegalArgumentException("Unknown clone mode '" + value +
+                                                                     "', expected one of " +
+                                                                     Arrays.toString(values()).toLowerCase()));
+    }
+}
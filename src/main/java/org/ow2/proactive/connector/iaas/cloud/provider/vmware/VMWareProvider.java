@@ -29,27 +29,47 @@ import java.rmi.RemoteException;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import javax.ws.rs.NotSupportedException;
 
 import org.apache.commons.lang3.NotImplementedException;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.AbandonedCreations;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.NamePasswordAuthentication;
 import com.vmware.vim25.OptionValue;
 import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineConfigSpec;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineRelocateDiskMoveOptions;
 import com.vmware.vim25.VirtualMachineRelocateSpec;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
@@ -59,17 +79,22 @@ import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.ResourcePool;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
+import com.vmware.vim25.mo.VirtualMachineSnapshot;
 
 import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
 
 
 @Component
+@Log4j2
 public class VMWareProvider implements CloudProvider {
 
     private static final String IMAGE_DELIMITER = "/";
 
     private static final String RANDOM_HOST = "*";
 
+    private static final String LINKED_CLONE_SNAPSHOT_NAME = "connector-iaas-linked-clone-base";
+
     @Getter
     private final String type = "vmware";
 
@@ -85,6 +110,20 @@ public class VMWareProvider implements CloudProvider {
     @Autowired
     private TagManager tagManager;
 
+    @Value("${connector-iaas.vmware.clone.max-parallel-clones:10}")
+    private int maxParallelClones;
+
+    @Value("${connector-iaas.vmware.clone.max-per-host:4}")
+    private int maxClonesPerHost;
+
+    @Value("${connector-iaas.vmware.clone.max-per-datastore:4}")
+    private int maxClonesPerDatastore;
+
+    // clone slots of each host and datastore of each vCenter, shared by all the creation requests
+    private final Map<String, Semaphore> cloneSlotsPerHost = new ConcurrentHashMap<>();
+
+    private final Map<String, Semaphore> cloneSlotsPerDatastore = new ConcurrentHashMap<>();
+
     @Override
     public Set<String> listAvailableRegions(Infrastructure infrastructure) {
         throw new NotSupportedException("Operation not supported for VMWare");
@@ -92,31 +131,219 @@ public class VMWareProvider implements CloudProvider {
 
     @Override
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
+        return createInstance(infrastructure, instance, createdInstance -> {
+        });
+    }
+
+    @Override
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
 
         String image = instance.getImage();
         Folder rootFolder = vmWareServiceInstanceCache.getServiceInstance(infrastructure).getRootFolder();
         String instanceImageId = getInstanceIdFromImage(image);
 
-        VirtualMachineRelocateSpec relocateSpecs = inferRelocateSpecsFromImageArgument(image, rootFolder);
-        Folder destinationFolder = getDestinationFolderFromImage(image, rootFolder);
+        // the VM to clone and its relocate specs are resolved once and shared by all the clones of the request
         VirtualMachine vmToClone = getVirtualMachineByNameOrUUID(instanceImageId, rootFolder);
+        VirtualMachineRelocateSpec relocateSpecs = inferRelocateSpecsFromImageArgument(image, rootFolder, vmToClone);
+        Folder destinationFolder = getDestinationFolderFromImage(image, rootFolder);
+        ManagedObjectReference cloneSnapshot = getCloneSnapshotIfLinked(instance, vmToClone, relocateSpecs);
+
+        // the tags are converted once and shared by all the clones of the request
+        OptionValue[] tags = tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions())
+                                       .entrySet()
+                                       .stream()
+                                       .map(this::createOptionValueFromTag)
+                                       .toArray(OptionValue[]::new);
+
+        int number = Integer.valueOf(instance.getNumber());
+        List<Semaphore> cloneSlots = getCloneSlots(infrastructure, vmToClone, relocateSpecs);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(number, maxParallelClones)),
+                                                                new ThreadFactoryBuilder().setNameFormat("clone-vm-" +
+                                                                                                         instance.getTag() +
+                                                                                                         "-%d")
+                                                                                          .setDaemon(true)
+                                                                                          .build());
+        try {
+            CompletionService<VirtualMachine> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<VirtualMachine>> pendingClones = new ArrayList<>();
+            for (int instanceIndexStartAt1 = 1; instanceIndexStartAt1 <= number; instanceIndexStartAt1++) {
+                String uniqueInstanceTag = createUniqueInstanceTag(instance.getTag(), instanceIndexStartAt1);
+                VirtualMachineCloneSpec vmCloneSpecs = createVirtualMachineCloneSpec(instanceIndexStartAt1,
+                                                                                     vmToClone,
+                                                                                     relocateSpecs,
+                                                                                     instance,
+                                                                                     uniqueInstanceTag,
+                                                                                     tags,
+                                                                                     cloneSnapshot);
+                pendingClones.add(completionService.submit(() -> cloneVMWithinSlots(cloneSlots,
+                                                                                    vmToClone,
+                                                                                    uniqueInstanceTag,
+                                                                                    instance,
+                                                                                    rootFolder,
+                                                                                    vmCloneSpecs,
+                                                                                    destinationFolder)));
+            }
+
+            // the clones are reported in the order they complete
+            Set<Instance> createdInstances = new HashSet<>();
+            List<InstanceCreationFailure> failures = new ArrayList<>();
+            Throwable lastFailure = null;
+            for (int i = 0; i < number; i++) {
+                Future<VirtualMachine> clone;
+                try {
+                    clone = RequestDeadline.poll(completionService);
+                } catch (InterruptedException e) {
+                    // the operation is cancelled: the VMs already cloned are reported so that they can be released,
+                    // the clones still in flight are cancelled with the executor and the VMs they cloned all the
+                    // same are destroyed
+                    AbandonedCreations.release(pendingClones, this::destroyAbandonedVM);
+                    lastFailure = e;
+                    failures.addAll(Collections.nCopies(number - i,
+                                                        new InstanceCreationFailure(null,
+                                                                                    "Cloning of VMWare instance " +
+                                                                                          instanceImageId +
+                                                                                          " interrupted")));
+                    break;
+                }
+                if (clone == null) {
+                    // the clones still in flight are cancelled with the executor, and the VMs they cloned all the
+                    // same are destroyed
+                    AbandonedCreations.release(pendingClones, this::destroyAbandonedVM);
+                    lastFailure = new DeadlineExceededException("Cloning of VMWare instance " + instanceImageId +
+                                                                " abandoned, the request deadline has expired");
+                    failures.addAll(Collections.nCopies(number - i,
+                                                        new InstanceCreationFailure(null, lastFailure.getMessage())));
+                    break;
+                }
+                pendingClones.remove(clone);
+                try {
+                    Instance createdInstance = instance.withId(clone.get().getConfig().getUuid());
+                    createdInstances.add(createdInstance);
+                    instanceCreatedListener.accept(createdInstance);
+                } catch (ExecutionException e) {
+                    log.error("Error when cloning VMWare instance " + instanceImageId, e.getCause());
+                    lastFailure = e.getCause();
+                    failures.add(new InstanceCreationFailure(null, e.getCause().getMessage()));
+                }
+            }
+
+            if (!failures.isEmpty()) {
+                if (createdInstances.isEmpty()) {
+                    throw new RuntimeException(lastFailure);
+                }
+                throw new PartialInstanceCreationException(new InstanceCreationResult(number,
+                                                                                      createdInstances,
+                                                                                      failures),
+                                                           lastFailure);
+            }
+            return createdInstances;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating VMWare instances with : " + instance, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        List<Tag> tags = tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions());
+    /**
+     * Retrieve the snapshot the clones are linked to when the instance options ask for linked (or instant) clones,
+     * and make the relocate specs create child disks on top of it. Return null for full clones.
+     */
+    private ManagedObjectReference getCloneSnapshotIfLinked(Instance instance, VirtualMachine vmToClone,
+            VirtualMachineRelocateSpec relocateSpecs) {
+        VMWareCloneMode cloneMode = VMWareCloneMode.fromValue(Optional.ofNullable(instance.getOptions())
+                                                                      .map(Options::getCloneMode)
+                                                                      .orElse(null));
+        if (cloneMode == VMWareCloneMode.FULL) {
+            return null;
+        }
+        if (cloneMode == VMWareCloneMode.INSTANT) {
+            // the vSphere API binding in use predates instant clones, linked clones are the closest alternative
+            log.warn("Instant clones are not supported by this VMWare connector, using linked clones instead");
+        }
+        relocateSpecs.setDiskMoveType(VirtualMachineRelocateDiskMoveOptions.createNewChildDiskBacking.name());
+        return getOrCreateLinkedCloneSnapshot(vmToClone);
+    }
+
+    /**
+     * Use the current snapshot of the VM to clone, or take one if it has none. Synchronized so that concurrent
+     * requests cloning the same VM do not take a snapshot each.
+     */
+    private synchronized ManagedObjectReference getOrCreateLinkedCloneSnapshot(VirtualMachine vmToClone) {
+        try {
+            VirtualMachineSnapshot currentSnapshot = vmToClone.getCurrentSnapShot();
+            if (currentSnapshot == null) {
+                log.info("Taking snapshot " + LINKED_CLONE_SNAPSHOT_NAME + " of VM " + vmToClone.getName() +
+                         " to link the clones to");
+                String result = vmToClone.createSnapshot_Task(LINKED_CLONE_SNAPSHOT_NAME,
+                                                              "Base of the linked clones created by the connector",
+                                                              false,
+                                                              false)
+                                         .waitForTask();
+                if (!Task.SUCCESS.equals(result)) {
+                    throw new RuntimeException("Unable to take a snapshot of VM " + vmToClone.getName() +
+                                               " Task result = " + result);
+                }
+                currentSnapshot = vmToClone.getCurrentSnapShot();
+            }
+            return currentSnapshot.getMOR();
+        } catch (RemoteException | InterruptedException e) {
+            throw new RuntimeException("ERROR when retrieving the snapshot of VM " + vmToClone.getName(), e);
+        }
+    }
+
+    /**
+     * Retrieve the clone slots of the destination host and datastore of the clones. When the relocate specs do not
+     * set them, the clones end up on the host and datastore of the VM to clone. The managed object references being
+     * unique within a vCenter only, the slots are keyed by the vCenter endpoint as well, or by the infrastructure id
+     * when it has no endpoint.
+     */
+    private List<Semaphore> getCloneSlots(Infrastructure infrastructure, VirtualMachine vmToClone,
+            VirtualMachineRelocateSpec relocateSpecs) {
+        String vCenter = Optional.ofNullable(infrastructure.getEndpoint())
+                                 .filter(endpoint -> !endpoint.isEmpty())
+                                 .orElse(infrastructure.getId());
+        List<Semaphore> cloneSlots = new ArrayList<>();
+        ManagedObjectReference host = Optional.ofNullable(relocateSpecs.getHost())
+                                              .orElseGet(() -> Optional.ofNullable(vmToClone.getRuntime())
+                                                                       .map(runtime -> runtime.getHost())
+                                                                       .orElse(null));
+        if (host != null && host.getVal() != null && maxClonesPerHost > 0) {
+            cloneSlots.add(cloneSlotsPerHost.computeIfAbsent(vCenter + "/" + host.getVal(),
+                                                             key -> new Semaphore(maxClonesPerHost, true)));
+        }
+        ManagedObjectReference datastore = Optional.ofNullable(relocateSpecs.getDatastore())
+                                                   .orElseGet(() -> getFirstDatastore(vmToClone));
+        if (datastore != null && datastore.getVal() != null && maxClonesPerDatastore > 0) {
+            cloneSlots.add(cloneSlotsPerDatastore.computeIfAbsent(vCenter + "/" + datastore.getVal(),
+                                                                  key -> new Semaphore(maxClonesPerDatastore, true)));
+        }
+        return cloneSlots;
+    }
+
+    private ManagedObjectReference getFirstDatastore(VirtualMachine vm) {
+        try {
+            Datastore[] datastores = vm.getDatastores();
+            return datastores != null && datastores.length > 0 ? datastores[0].getMOR() : null;
+        } catch (RemoteException e) {
+            throw new RuntimeException("Unable to retrieve the datastores of VM: " + vm.getName(), e);
+        }
+    }
 
-        return IntStream.rangeClosed(1, Integer.valueOf(instance.getNumber())).mapToObj(instanceIndexStartAt1 -> {
-            String uniqueInstanceTag = createUniqueInstanceTag(instance.getTag(), instanceIndexStartAt1);
-            return cloneVM(vmToClone,
-                           uniqueInstanceTag,
-                           instance,
-                           rootFolder,
-                           createVirtualMachineCloneSpec(instanceIndexStartAt1,
-                                                         vmToClone,
-                                                         relocateSpecs,
-                                                         instance,
-                                                         uniqueInstanceTag,
-                                                         tags),
-                           destinationFolder);
-        }).map(vm -> instance.withId(vm.getConfig().getUuid())).collect(Collectors.toSet());
+    private VirtualMachine cloneVMWithinSlots(List<Semaphore> cloneSlots, VirtualMachine vm, String newVMname,
+            Instance instance, Folder rootFolder, VirtualMachineCloneSpec vmcs, Folder vmFolder)
+            throws InterruptedException {
+        int acquiredSlots = 0;
+        try {
+            for (Semaphore cloneSlot : cloneSlots) {
+                cloneSlot.acquire();
+                acquiredSlots++;
+            }
+            return cloneVM(vm, newVMname, instance, rootFolder, vmcs, vmFolder);
+        } finally {
+            cloneSlots.subList(0, acquiredSlots).forEach(Semaphore::release);
+        }
     }
 
     /**
@@ -140,10 +367,12 @@ public class VMWareProvider implements CloudProvider {
      * @param instanceIndexStartAt1 the index to look for a MAC address
      * @param vmToClone             the intial VM to clone
      * @param instance              the instance to rely on
+     * @param cloneSnapshot         the snapshot to link the clone to, null for a full clone
      * @return a new VirtualMachineCloneSpec that may be customized with the desired MAC address' index
      */
     private VirtualMachineCloneSpec createVirtualMachineCloneSpec(int instanceIndexStartAt1, VirtualMachine vmToClone,
-            VirtualMachineRelocateSpec relocateSpecs, Instance instance, String uniqueInstanceTag, List<Tag> tags) {
+            VirtualMachineRelocateSpec relocateSpecs, Instance instance, String uniqueInstanceTag, OptionValue[] tags,
+            ManagedObjectReference cloneSnapshot) {
 
         // Create a new VirtualMachineCloneSpec based on the specified VM to clone.
         VirtualMachineCloneSpec vmCloneSpecs = generateDefaultVirtualMachineCloneSpec(instance);
@@ -152,16 +381,14 @@ public class VMWareProvider implements CloudProvider {
         vmCloneSpecs.getConfig().setName(uniqueInstanceTag);
 
         // Add the tags
-        vmCloneSpecs.getConfig()
-                    .setExtraConfig(tags.stream()
-                                        .map(this::createOptionValueFromTag)
-                                        .collect(Collectors.toList())
-                                        .stream()
-                                        .toArray(OptionValue[]::new));
+        vmCloneSpecs.getConfig().setExtraConfig(tags);
 
         // Customize it with specific location
         vmCloneSpecs.setLocation(relocateSpecs);
 
+        // Link it to the snapshot of the VM to clone, if any
+        Optional.ofNullable(cloneSnapshot).ifPresent(vmCloneSpecs::setSnapshot);
+
         // Customize it with a manual MAC address, if specified
         getMacAddressIfPresent(instanceIndexStartAt1,
                                instance).ifPresent(macAddress -> vmWareProviderMacAddressHandler.getVirtualDeviceConfigWithMacAddress(macAddress,
@@ -171,7 +398,7 @@ public class VMWareProvider implements CloudProvider {
         return vmCloneSpecs;
     }
 
-    private OptionValue createOptionValueFromTag(Tag tag) {
+    private OptionValue createOptionValueFromTag(Map.Entry<String, String> tag) {
         OptionValue optVal = new OptionValue();
         optVal.setKey(tag.getKey());
         optVal.setValue(tag.getValue());
@@ -373,6 +600,21 @@ public class VMWareProvider implements CloudProvider {
         vmWareServiceInstanceCache.removeServiceInstance(infrastructure);
     }
 
+    @Override
+    public void warmUpInfrastructure(Infrastructure infrastructure) {
+        // logs in to vCenter and retrieves its service content
+        vmWareServiceInstanceCache.getServiceInstance(infrastructure);
+    }
+
+    @Override
+    public void checkHealth(Infrastructure infrastructure) {
+        try {
+            vmWareServiceInstanceCache.getServiceInstance(infrastructure).currentTime();
+        } catch (RemoteException e) {
+            throw new RuntimeException("Unable to reach the vCenter of infrastructure: " + infrastructure.getId(), e);
+        }
+    }
+
     @Override
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
         throw new NotSupportedException("Operation not supported for VMWare");
@@ -400,24 +642,85 @@ public class VMWareProvider implements CloudProvider {
 
     private VirtualMachine cloneVM(VirtualMachine vm, String newVMname, Instance instance, Folder rootFolder,
             VirtualMachineCloneSpec vmcs, Folder vmFolder) {
+        Task task = null;
         try {
             // Clone the VM : call to VMWare API
-            Task task = vm.cloneVM_Task(vmFolder, newVMname, vmcs);
+            task = vm.cloneVM_Task(vmFolder, newVMname, vmcs);
 
             String result = task.waitForTask();
             if (!Task.SUCCESS.equals(result)) {
                 throw new RuntimeException("Unable to create VMWare instance with : " + instance + " Task result = " +
                                            result);
             }
-
-            return vmWareProviderVirtualMachineUtil.searchVirtualMachineByName(newVMname, rootFolder)
-                                                   .orElseThrow(() -> new RemoteException("Unable to find the new VM: '" +
-                                                                                          newVMname + "'"));
-        } catch (RemoteException | InterruptedException e) {
+            return getClonedVM(task, newVMname, rootFolder);
+        } catch (InterruptedException e) {
+            // the clone is abandoned, its task is cancelled so that the VM does not get created behind our back, and
+            // a VM cloned all the same is returned to be destroyed
+            Optional<VirtualMachine> clonedVM = cancelCloneTask(task, newVMname, rootFolder);
+            Thread.currentThread().interrupt();
+            return clonedVM.orElseThrow(() -> new RuntimeException("Interrupted while creating VMWare instance with : " +
+                                                                   instance, e));
+        } catch (RemoteException e) {
             throw new RuntimeException("ERROR when creating VMWare instance with : " + instance, e);
         }
     }
 
+    private VirtualMachine getClonedVM(Task task, String newVMname, Folder rootFolder) throws RemoteException {
+        Optional<VirtualMachine> clonedVM = vmWareProviderVirtualMachineUtil.getVirtualMachineFromTaskResult(task);
+        if (clonedVM.isPresent()) {
+            return clonedVM.get();
+        }
+        return vmWareProviderVirtualMachineUtil.searchVirtualMachineByName(newVMname, rootFolder)
+                                               .orElseThrow(() -> new RemoteException("Unable to find the new VM: '" +
+                                                                                      newVMname + "'"));
+    }
+
+    /**
+     * Cancel the clone task and wait for it to end.
+     * @return the cloned VM when the clone completed before it could be cancelled
+     */
+    private Optional<VirtualMachine> cancelCloneTask(Task task, String newVMname, Folder rootFolder) {
+        try {
+            task.cancelTask();
+        } catch (RemoteException e) {
+            log.warn("Unable to cancel the cloning of VM " + newVMname + ", waiting for it to complete", e);
+        }
+        try {
+            if (Task.SUCCESS.equals(task.waitForTask())) {
+                log.warn("The cloning of VM " + newVMname + " completed before it could be cancelled");
+                return Optional.of(getClonedVM(task, newVMname, rootFolder));
+            }
+            log.info("Cancelled the cloning of VM " + newVMname);
+        } catch (RemoteException e) {
+            log.error("Unable to know whether the cloning of VM " + newVMname + " was cancelled", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Destroy a VM cloned for a creation that was abandoned, which nobody else will report.
+     */
+    private void destroyAbandonedVM(VirtualMachine vm) {
+        String vmName = vm.getName();
+        try {
+            if (vm.getRuntime().getPowerState() == VirtualMachinePowerState.poweredOn) {
+                vm.powerOffVM_Task().waitForTask();
+            }
+            String result = vm.destroy_Task().waitForTask();
+            if (Task.SUCCESS.equals(result)) {
+                log.info("Destroyed VM " + vmName + " of an abandoned creation");
+            } else {
+                log.error("Unable to destroy VM " + vmName + " of an abandoned creation, task result = " + result);
+            }
+        } catch (RemoteException e) {
+            log.error("Unable to destroy VM " + vmName + " of an abandoned creation", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private VirtualMachineConfigSpec getVirtualMachineConfigSpec(Instance instance) {
         VirtualMachineConfigSpec vmconfigspec = new VirtualMachineConfigSpec();
         vmconfigspec.setMemoryMB(Long.valueOf(instance.getHardware().getMinRam()));
@@ -449,7 +752,8 @@ public class VMWareProvider implements CloudProvider {
                                                                                                                          "'")));
     }
 
-    private VirtualMachineRelocateSpec inferRelocateSpecsFromImageArgument(String image, Folder rootFolder) {
+    private VirtualMachineRelocateSpec inferRelocateSpecsFromImageArgument(String image, Folder rootFolder,
+            VirtualMachine vmToClone) {
 
         Optional<ResourcePool> destinationPool = Optional.empty();
         Optional<HostSystem> destinationHost = Optional.empty();
@@ -471,8 +775,6 @@ public class VMWareProvider implements CloudProvider {
             }
         }
 
-        VirtualMachine vmToClone = getVirtualMachineByNameOrUUID(getInstanceIdFromImage(image), rootFolder);
-
         return generateCustomRelocateSpecs(destinationPool.orElseGet(() -> {
             try {
                 return vmToClone.getResourcePool();
@@ -38,12 +38,14 @@ import java.util.stream.IntStream;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.Lists;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.InventoryNavigator;
 import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 
 import lombok.Getter;
@@ -86,6 +88,23 @@ public class VMWareProviderVirtualMachineUtil {
         }
     }
 
+    /**
+     * Retrieve the virtual machine created by a successful clone task from the task result, which avoids searching
+     * the whole inventory for it.
+     */
+    public Optional<VirtualMachine> getVirtualMachineFromTaskResult(Task task) {
+        try {
+            Object result = task.getTaskInfo().getResult();
+            if (result instanceof ManagedObjectReference) {
+                return Optional.of(new VirtualMachine(task.getServerConnection(), (ManagedObjectReference) result));
+            }
+            return Optional.empty();
+        } catch (RemoteException e) {
+            throw new RuntimeException("ERROR when retrieving the result of VMWare task: " + task.getMOR().getVal(),
+                                       e);
+        }
+    }
+
     public Set<VirtualMachine> getAllVirtualMachines(Folder rootFolder) {
         try {
             ManagedEntity[] managedEntities = new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.VM.getValue());
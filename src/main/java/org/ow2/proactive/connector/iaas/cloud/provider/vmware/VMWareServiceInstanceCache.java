@@ -25,10 +25,7 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -37,31 +34,28 @@ import com.vmware.vim25.mo.ServiceInstance;
 
 
 @Component
-public class VMWareServiceInstanceCache {
+public class VMWareServiceInstanceCache extends ProviderClientCache<ServiceInstance> {
 
     @Autowired
     private VMWareServiceInstanceBuilder ServiceInstanceBuilder;
 
-    private Map<Infrastructure, ServiceInstance> serviceInstanceCache;
-
-    public VMWareServiceInstanceCache() {
-        serviceInstanceCache = new ConcurrentHashMap<Infrastructure, ServiceInstance>();
-    }
-
     public ServiceInstance getServiceInstance(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return getClient(infrastructure);
     }
 
     public void removeServiceInstance(Infrastructure infrastructure) {
-        serviceInstanceCache.remove(infrastructure);
+        removeClient(infrastructure);
     }
 
-    private Function<Infrastructure, ServiceInstance> buildComputeService = memoise(infrastructure -> {
+    @Override
+    protected ServiceInstance buildClient(Infrastructure infrastructure) {
         return ServiceInstanceBuilder.buildServiceInstanceFromInfrastructure(infrastructure);
-    });
+    }
 
-    private Function<Infrastructure, ServiceInstance> memoise(Function<Infrastructure, ServiceInstance> fn) {
-        return (a) -> serviceInstanceCache.computeIfAbsent(a, fn);
+    @Override
+    protected void closeClient(ServiceInstance serviceInstance) {
+        // log out so that the vCenter session does not count against the session limit until it times out
+        serviceInstance.getServerConnection().logout();
     }
 
 }
@@ -30,10 +30,11 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import lombok.experimental.Wither;
 
 
 @EqualsAndHashCode(exclude = { "type", "endpoint", "credentials", "authenticationEndpoint", "managementEndpoint",
-                               "resourceManagerEndpoint", "graphEndpoint", "toBeRemovedOnShutdown" })
+                               "resourceManagerEndpoint", "graphEndpoint", "toBeRemovedOnShutdown", "readiness" })
 @Getter
 @AllArgsConstructor
 @ToString
@@ -63,4 +64,7 @@ public class Infrastructure {
     private String region;
 
     private String identityVersion;
+
+    @Wither
+    private InfrastructureReadiness readiness;
 }
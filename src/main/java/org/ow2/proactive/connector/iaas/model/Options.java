@@ -63,4 +63,7 @@ public class Options {
     private List<Tag> tags;
 
     private int[] portsToOpen;
+
+    // VMWare clone mode: full (default), linked or instant
+    private String cloneMode;
 }
@@ -0,0 +1,100 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.ow2.proactive.connector.iaas.cloud.AdaptiveConcurrencyLimiter;
+import org.ow2.proactive.connector.iaas.cloud.ProviderBulkheads;
+import org.ow2.proactive.connector.iaas.cloud.ProviderCircuitBreakers;
+import org.ow2.proactive.connector.iaas.cloud.ProviderRateLimiter;
+import org.ow2.proactive.connector.iaas.util.ErrorResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.log4j.Log4j2;
+
+
+@Path("/admin")
+@Component
+@Log4j2
+public class AdminRest {
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+    @Autowired
+    private ProviderBulkheads providerBulkheads;
+
+    @Autowired
+    private ProviderRateLimiter providerRateLimiter;
+
+    @Autowired
+    private ProviderCircuitBreakers providerCircuitBreakers;
+
+    /**
+     * The limits currently applied to the provider calls: the adaptive concurrency limits per infrastructure and API
+     * family, the bulkheads per provider type and per infrastructure, and the rate limits per cloud account.
+     */
+    @GET
+    @Path("limits")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLimits() {
+        try {
+            log.debug("Received get limits request");
+            Map<String, Object> limits = new HashMap<>();
+            limits.put("adaptiveLimits", adaptiveConcurrencyLimiter.getStatistics());
+            limits.put("providerTypeBulkheads", providerBulkheads.getProviderTypeStatistics());
+            limits.put("infrastructureBulkheads", providerBulkheads.getInfrastructureStatistics());
+            limits.put("rateLimits", providerRateLimiter.getStatistics());
+            return Response.ok(limits).build();
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While retrieving the provider limits: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The state of the circuit breaker of each infrastructure called since the connector started.
+     */
+    @GET
+    @Path("circuit-breakers")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCircuitBreakers() {
+        try {
+            log.debug("Received get circuit breakers request");
+            return Response.ok(providerCircuitBreakers.getStatistics()).build();
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While retrieving the circuit breakers: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.InFlightOperations;
+import org.ow2.proactive.connector.iaas.cloud.OperationCancelledException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
+import org.ow2.proactive.connector.iaas.util.ErrorResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Resume the suspended requests once the cloud provider operation they wait for completes, so that no request
+ * thread is held while the infrastructures answer. A request still waiting after its {@link RequestDeadline}, or after
+ * the configured timeout when there is one, is answered with 504, and a request refused because the cloud provider
+ * threads are saturated is answered with 503. A request whose operation is cancelled by its client is answered with
+ * 409.
+ *
+ * The operation of a request answered with 504 because its client's deadline expired is cancelled (see
+ * {@link InFlightOperations}), so that a creation the client gave up on releases the instances it already created. To
+ * that end, each request starts its operation under the id given by its client, or under a generated one. The
+ * operation of a request which only exceeded the configured timeout keeps running, its client not having asked for
+ * it to be rolled back.
+ */
+@Component
+@Log4j2
+public class AsyncRequestHandler {
+
+    @Value("${connector-iaas.rest.async-timeout:0}")
+    private long asyncTimeout;
+
+    @Autowired
+    private InFlightOperations inFlightOperations;
+
+    public <T> void resume(AsyncResponse asyncResponse, String description, Supplier<CompletableFuture<T>> operation,
+            Function<T, Response> toResponse, Function<Exception, Response> toErrorResponse) {
+        String operationId = InFlightOperations.getRequestedOperationId().orElseGet(() -> UUID.randomUUID()
+                                                                                              .toString());
+        InFlightOperations.setRequestedOperationId(operationId);
+        Optional<Long> remainingTime = RequestDeadline.getRemainingTime();
+        if (remainingTime.isPresent() && (asyncTimeout <= 0 || remainingTime.get() < asyncTimeout * 1000)) {
+            setTimeoutHandler(asyncResponse,
+                              Optional.of(operationId),
+                              description + " did not complete before the request deadline");
+            asyncResponse.setTimeout(Math.max(1, remainingTime.get()), TimeUnit.MILLISECONDS);
+        } else if (asyncTimeout > 0) {
+            setTimeoutHandler(asyncResponse,
+                              Optional.empty(),
+                              description + " did not complete within " + asyncTimeout + " seconds");
+            asyncResponse.setTimeout(asyncTimeout, TimeUnit.SECONDS);
+        }
+        try {
+            operation.get().whenComplete((result, error) -> {
+                if (error == null) {
+                    resumeWithResult(asyncResponse, description, result, toResponse, toErrorResponse);
+                } else {
+                    asyncResponse.resume(toErrorResponse(description, unwrap(error), toErrorResponse));
+                }
+            });
+        } catch (Exception e) {
+            asyncResponse.resume(toErrorResponse(description, e, toErrorResponse));
+        }
+    }
+
+    /**
+     * The completion of the operation of a timed out request is ignored once the request answered.
+     * @param cancelledOperationId the id of the operation to cancel on timeout, empty to let it run
+     */
+    private void setTimeoutHandler(AsyncResponse asyncResponse, Optional<String> cancelledOperationId,
+            String timeoutMessage) {
+        asyncResponse.setTimeoutHandler(timedOut -> {
+            String message = cancelledOperationId.flatMap(inFlightOperations::cancel)
+                                                 .map(cancelled -> timeoutMessage + ", operation " +
+                                                                   cancelledOperationId.get() + " has been cancelled")
+                                                 .orElse(timeoutMessage);
+            timedOut.resume(ErrorResponse.handleTimeout(message));
+        });
+    }
+
+    private <T> void resumeWithResult(AsyncResponse asyncResponse, String description, T result,
+            Function<T, Response> toResponse, Function<Exception, Response> toErrorResponse) {
+        try {
+            asyncResponse.resume(toResponse.apply(result));
+        } catch (Exception e) {
+            asyncResponse.resume(toErrorResponse(description, e, toErrorResponse));
+        }
+    }
+
+    private Response toErrorResponse(String description, Exception e,
+            Function<Exception, Response> toErrorResponse) {
+        if (e instanceof RejectedExecutionException) {
+            return ErrorResponse.handleServiceUnavailable(description +
+                                                          ": too many requests are waiting for the cloud providers",
+                                                          e);
+        } else if (e instanceof OperationCancelledException) {
+            return ErrorResponse.handleCancelled(description + ": " + e.getMessage());
+        } else if (isDeadlineExceeded(e)) {
+            return ErrorResponse.handleTimeout(description + ": " + e.getMessage());
+        }
+        return toErrorResponse.apply(e);
+    }
+
+    /**
+     * The instances created before the deadline expired are reported by the partial creation rather than as a timeout.
+     */
+    private boolean isDeadlineExceeded(Exception e) {
+        return !(e instanceof PartialInstanceCreationException) &&
+               Throwables.getCausalChain(e).stream().anyMatch(DeadlineExceededException.class::isInstance);
+    }
+
+    private Exception unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+               cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+    }
+}
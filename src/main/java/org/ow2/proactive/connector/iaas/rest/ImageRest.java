@@ -30,6 +30,8 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -49,23 +51,31 @@ public class ImageRest {
     @Autowired
     private ImageService imageService;
 
+    @Autowired
+    private AsyncRequestHandler asyncRequestHandler;
+
     @GET
     @Path("{infrastructureId}/images")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response listAllImage(@PathParam("infrastructureId") String infrastructureId) {
-        try {
-            log.info("Received get all images request for infrastructureID " + infrastructureId);
-            return Response.ok(imageService.getAllImages(infrastructureId)).build();
-        } catch (IllegalArgumentException e) {
+    public void listAllImage(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId) {
+        log.info("Received get all images request for infrastructureID " + infrastructureId);
+        asyncRequestHandler.resume(asyncResponse,
+                                   "Retrieving images for infrastructureID " + infrastructureId,
+                                   () -> imageService.getAllImagesAsync(infrastructureId),
+                                   images -> Response.ok(images).build(),
+                                   e -> handleError(infrastructureId, e));
+    }
+
+    private Response handleError(String infrastructureId, Exception e) {
+        if (e instanceof IllegalArgumentException) {
             return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
                                                        e.getMessage(), e);
-        } catch (NotFoundException e) {
+        } else if (e instanceof NotFoundException) {
             return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While retrieving images for infrastructureID " + infrastructureId +
-                                                   " :" + e.getMessage(), e);
         }
-
+        return ErrorResponse.handleServerError("While retrieving images for infrastructureID " + infrastructureId +
+                                               " :" + e.getMessage(), e);
     }
 
 }
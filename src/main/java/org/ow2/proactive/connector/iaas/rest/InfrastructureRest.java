@@ -25,6 +25,8 @@
  */
 package org.ow2.proactive.connector.iaas.rest;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import javax.ws.rs.Consumes;
@@ -75,7 +77,7 @@ public class InfrastructureRest {
     public Response getInfrastructure(@PathParam("infrastructureId") String infrastructureId) {
         try {
             log.info("Received get request for infrastructureID: " + infrastructureId);
-            return Response.ok(infrastructureService.getInfrastructure(infrastructureId)).build();
+            return Response.ok(infrastructureService.getInfrastructureWithReadiness(infrastructureId)).build();
         } catch (IllegalArgumentException e) {
             return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
                                                        e.getMessage(), e);
@@ -119,7 +121,7 @@ public class InfrastructureRest {
     @POST
     @Consumes("application/json")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response registerInfrastructure(final String infrastructureJson) {
+    public Response registerInfrastructure(@QueryParam("warmUp") Boolean warmUp, final String infrastructureJson) {
         Infrastructure infrastructure = null;
         try {
             // Validate input
@@ -136,7 +138,9 @@ public class InfrastructureRest {
             log.info("Received create infrastructure request with parameters " + infrastructure);
 
             // Call the service layer
-            Infrastructure result = infrastructureService.registerInfrastructure(infrastructure);
+            Infrastructure result = warmUp == null ? infrastructureService.registerInfrastructure(infrastructure)
+                                                   : infrastructureService.registerInfrastructure(infrastructure,
+                                                                                                  warmUp);
 
             // Return success response
             return Response.ok(result).build();
@@ -150,4 +154,33 @@ public class InfrastructureRest {
                                                    e.getMessage(), e);
         }
     }
+
+    @POST
+    @Path("/batch")
+    @Consumes("application/json")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerInfrastructures(@QueryParam("warmUp") Boolean warmUp, final String infrastructuresJson) {
+        try {
+            if (infrastructuresJson == null || infrastructuresJson.isEmpty()) {
+                String errorMessage = "Input JSON is null or empty";
+                log.error(errorMessage);
+                return Response.status(Response.Status.BAD_REQUEST)
+                               .entity(new ErrorResponse("400", errorMessage))
+                               .build();
+            }
+
+            List<Infrastructure> infrastructures = Arrays.asList(JacksonUtil.convertFromJson(infrastructuresJson,
+                                                                                             Infrastructure[].class));
+            log.info("Received create request for " + infrastructures.size() + " infrastructures");
+
+            return Response.ok(warmUp == null ? infrastructureService.registerInfrastructures(infrastructures)
+                                              : infrastructureService.registerInfrastructures(infrastructures,
+                                                                                              warmUp))
+                           .build();
+        } catch (IllegalArgumentException e) {
+            return ErrorResponse.handleIllegalArgument("While creating infrastructures: " + e.getMessage(), e);
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While creating infrastructures: " + e.getMessage(), e);
+        }
+    }
 }
@@ -25,9 +25,17 @@
  */
 package org.ow2.proactive.connector.iaas.rest;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.Consumes;
@@ -39,10 +47,21 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.ow2.proactive.connector.iaas.cache.InventoryConsistency;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.OperationCancelledException;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationJob;
+import org.ow2.proactive.connector.iaas.service.InfrastructureService;
+import org.ow2.proactive.connector.iaas.service.InstanceCreationJobService;
 import org.ow2.proactive.connector.iaas.service.InstanceService;
 import org.ow2.proactive.connector.iaas.util.ErrorResponse;
 import org.ow2.proactive.connector.iaas.util.JacksonUtil;
@@ -57,158 +76,290 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public class InstanceRest {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Returned when only part of the requested instances could be created, with the created instances and the
+     * per-node failures.
+     */
+    private static final int MULTI_STATUS = 207;
+
     @Autowired
     private InstanceService instanceService;
 
+    @Autowired
+    private InfrastructureService infrastructureService;
+
+    @Autowired
+    private InstanceCreationJobService instanceCreationJobService;
+
+    @Autowired
+    private AsyncRequestHandler asyncRequestHandler;
+
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_NDJSON })
     @Path("{infrastructureId}/instances")
-    public Response createInstance(@PathParam("infrastructureId") String infrastructureId, final String instanceJson) {
-        try {
-            Instance instance = JacksonUtil.convertFromJson(instanceJson, Instance.class);
-            log.info("Received create request for infrastructure " + infrastructureId + " with parameters " + instance);
-            return Response.ok(instanceService.createInstance(infrastructureId, instance)).build();
-        } catch (IllegalArgumentException e) {
-            return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
-                                                       e.getMessage(), e);
-        } catch (NotFoundException e) {
-            return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While creating instance for infrastructureID " + infrastructureId +
-                                                   " with parameters " + instanceJson + ": " + e.getMessage(), e);
+    public void createInstance(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("async") Boolean async,
+            @QueryParam("stream") Boolean stream, final String instanceJson) {
+        String context = "While creating instance for infrastructureID " + infrastructureId + " with parameters " +
+                         instanceJson;
+        asyncRequestHandler.resume(asyncResponse,
+                                   context,
+                                   () -> createInstanceAsync(infrastructureId, async, stream, instanceJson),
+                                   Function.identity(),
+                                   e -> handleError(infrastructureId, context, e));
+    }
+
+    /**
+     * The streaming and job based creations answer at once, the plain creation answers once all the instances are
+     * created.
+     */
+    private CompletableFuture<Response> createInstanceAsync(String infrastructureId, Boolean async, Boolean stream,
+            String instanceJson) {
+        Instance instance = JacksonUtil.convertFromJson(instanceJson, Instance.class);
+        if (Optional.ofNullable(stream).isPresent() && stream) {
+            log.info("Received streaming create request for infrastructure " + infrastructureId + " with parameters " +
+                     instance);
+            Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                    .orElseThrow(() -> new NotFoundException("infrastructure id : " + infrastructureId +
+                                                             " does not exists"));
+            return CompletableFuture.completedFuture(Response.ok(streamCreatedInstances(infrastructureId, instance),
+                                                                 APPLICATION_NDJSON)
+                                                             .build());
+        } else if (Optional.ofNullable(async).isPresent() && async) {
+            log.info("Received asynchronous create request for infrastructure " + infrastructureId +
+                     " with parameters " + instance);
+            InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructureId, instance);
+            return CompletableFuture.completedFuture(Response.accepted(job)
+                                                             .location(URI.create("infrastructures/" +
+                                                                                  infrastructureId + "/jobs/" +
+                                                                                  job.getId()))
+                                                             .build());
+        }
+        log.info("Received create request for infrastructure " + infrastructureId + " with parameters " + instance);
+        return instanceService.createInstanceAsync(infrastructureId, instance)
+                              .thenApply(instances -> Response.ok(instances).build());
+    }
+
+    /**
+     * Write each created instance as a JSON line as soon as the provider reports it. A failure occurring once the
+     * response has started is reported as a last line holding an error response, or as one line per failed node
+     * when only part of the instances could be created.
+     *
+     * The response is written once the response filters have cleared the deadline of the request, which is
+     * therefore captured here and restored while the instances are created.
+     */
+    private StreamingOutput streamCreatedInstances(String infrastructureId, Instance instance) {
+        Long expiration = RequestDeadline.getExpiration().orElse(null);
+        return output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            RequestDeadline.set(expiration);
+            try {
+                instanceService.createInstance(infrastructureId,
+                                               instance,
+                                               createdInstance -> writeJsonLine(writer, createdInstance));
+            } catch (PartialInstanceCreationException e) {
+                log.error("While streaming instance creation for infrastructureID " + infrastructureId, e);
+                e.getResult().getFailures().forEach(failure -> writeJsonLine(writer, failure));
+            } catch (OperationCancelledException e) {
+                log.info("Streamed instance creation for infrastructureID " + infrastructureId + " cancelled");
+                writeJsonLine(writer,
+                              new ErrorResponse(String.valueOf(Response.Status.CONFLICT.getStatusCode()),
+                                                e.getMessage()));
+            } catch (DeadlineExceededException e) {
+                log.info("Streamed instance creation for infrastructureID " + infrastructureId +
+                         " abandoned at the request deadline");
+                writeJsonLine(writer,
+                              new ErrorResponse(String.valueOf(Response.Status.GATEWAY_TIMEOUT.getStatusCode()),
+                                                e.getMessage()));
+            } catch (Exception e) {
+                log.error("While streaming instance creation for infrastructureID " + infrastructureId, e);
+                writeJsonLine(writer,
+                              new ErrorResponse(String.valueOf(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()),
+                                                e.getMessage()));
+            } finally {
+                RequestDeadline.set(null);
+            }
+        };
+    }
+
+    private void writeJsonLine(Writer writer, Object object) {
+        synchronized (writer) {
+            try {
+                writer.write(JacksonUtil.convertToJson(object));
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                // the client went away: creation goes on, the instances remain listed in the infrastructure
+                log.warn("Unable to stream " + object + ": " + e.getMessage());
+            }
         }
     }
 
     @GET
     @Path("{infrastructureId}/instances")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getInstances(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("instanceId") String instanceId, @QueryParam("instanceTag") String instanceTag,
-            @QueryParam("allInstances") Boolean allInstances) {
-        try {
-            if (Optional.ofNullable(instanceId).isPresent()) {
-                log.info("Received get request for infrastructure id " + infrastructureId + " and instance id " +
-                         instanceId);
-                return Response.ok(instanceService.getInstanceById(infrastructureId, instanceId)).build();
-            } else if (Optional.ofNullable(instanceTag).isPresent()) {
-                log.info("Received get request for infrastructure " + infrastructureId + " and instance tag " +
-                         instanceTag);
-                return Response.ok(instanceService.getInstanceByTag(infrastructureId, instanceTag)).build();
-            } else if (Optional.ofNullable(allInstances).isPresent() && allInstances) {
-                log.info("Received get all request for infrastructure " + infrastructureId);
-                return Response.ok(instanceService.getAllInstances(infrastructureId)).build();
-            } else {
-                log.info("Received get all created request for infrastructure " + infrastructureId);
-                return Response.ok(instanceService.getCreatedInstances(infrastructureId)).build();
-            }
-        } catch (IllegalArgumentException e) {
-            return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
-                                                       e.getMessage(), e);
-        } catch (NotFoundException e) {
-            return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While retrieving instances for infrastructureID " +
-                                                   infrastructureId + ": " + e.getMessage(), e);
+    public void getInstances(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("instanceId") String instanceId,
+            @QueryParam("instanceTag") String instanceTag, @QueryParam("allInstances") Boolean allInstances,
+            @QueryParam("consistency") String consistency) {
+        String context = "While retrieving instances for infrastructureID " + infrastructureId;
+        asyncRequestHandler.resume(asyncResponse,
+                                   context,
+                                   () -> getInstancesAsync(infrastructureId,
+                                                      instanceId,
+                                                      instanceTag,
+                                                      allInstances,
+                                                      consistency),
+                                   Function.identity(),
+                                   e -> handleError(infrastructureId, context, e));
+    }
+
+    private CompletableFuture<Response> getInstancesAsync(String infrastructureId, String instanceId,
+            String instanceTag, Boolean allInstances, String consistency) {
+        InventoryConsistency inventoryConsistency = Optional.ofNullable(consistency)
+                                                            .map(InventoryConsistency::fromValue)
+                                                            .orElse(null);
+        if (Optional.ofNullable(instanceId).isPresent()) {
+            log.info("Received get request for infrastructure id " + infrastructureId + " and instance id " +
+                     instanceId);
+            return instanceService.getInstanceByIdAsync(infrastructureId, instanceId)
+                                  .thenApply(instance -> Response.ok(instance).build());
+        } else if (Optional.ofNullable(instanceTag).isPresent()) {
+            log.info("Received get request for infrastructure " + infrastructureId + " and instance tag " +
+                     instanceTag);
+            return instanceService.getInstanceByTagAsync(infrastructureId, instanceTag)
+                                  .thenApply(instances -> Response.ok(instances).build());
+        } else if (Optional.ofNullable(allInstances).isPresent() && allInstances) {
+            log.info("Received get all request for infrastructure " + infrastructureId);
+            return instanceService.getAllInstancesAsync(infrastructureId, inventoryConsistency)
+                                  .thenApply(instances -> Response.ok(instances).build());
+        } else {
+            log.info("Received get all created request for infrastructure " + infrastructureId);
+            return instanceService.getCreatedInstancesAsync(infrastructureId, inventoryConsistency)
+                                  .thenApply(instances -> Response.ok(instances).build());
         }
     }
 
     @DELETE
     @Path("{infrastructureId}/instances")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response deleteInstance(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("instanceId") String instanceId, @QueryParam("instanceTag") String instanceTag,
+    public void deleteInstance(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("instanceId") String instanceId,
+            @QueryParam("instanceTag") String instanceTag,
             @QueryParam("allCreatedInstances") Boolean allCreatedInstances) {
-        try {
-            if (Optional.ofNullable(instanceId).isPresent()) {
-                log.info("Received delete request for infrastructure " + infrastructureId + " and instance id " +
-                         instanceId);
-                instanceService.deleteInstance(infrastructureId, instanceId);
-            } else if (Optional.ofNullable(instanceTag).isPresent()) {
-                log.info("Received delete request for infrastructure " + infrastructureId + " and instance tag " +
-                         instanceTag);
-                instanceService.deleteInstanceByTag(infrastructureId, instanceTag);
-            } else if (Optional.ofNullable(allCreatedInstances).isPresent() && allCreatedInstances) {
-                log.info("Received delete all request for infrastructure " + infrastructureId);
-                instanceService.deleteCreatedInstances(infrastructureId);
-            } else {
-                throw new ClientErrorException("The parameters \"instanceId\", \"instanceTag\", or \"allCreatedInstances\" are missing.",
-                                               Response.Status.BAD_REQUEST);
-            }
-            return Response.ok().build();
-        } catch (IllegalArgumentException e) {
-            return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
-                                                       e.getMessage(), e);
-        } catch (NotFoundException e) {
-            return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While deleting instance for infrastructureID " + infrastructureId +
-                                                   ": " + e.getMessage(), e);
+        String context = "While deleting instance for infrastructureID " + infrastructureId;
+        asyncRequestHandler.resume(asyncResponse,
+                                   context,
+                                   () -> deleteInstancesAsync(infrastructureId,
+                                                              instanceId,
+                                                              instanceTag,
+                                                              allCreatedInstances),
+                                   result -> Response.ok().build(),
+                                   e -> handleError(infrastructureId, context, e));
+    }
+
+    private CompletableFuture<Void> deleteInstancesAsync(String infrastructureId, String instanceId, String instanceTag,
+            Boolean allCreatedInstances) {
+        if (Optional.ofNullable(instanceId).isPresent()) {
+            log.info("Received delete request for infrastructure " + infrastructureId + " and instance id " +
+                     instanceId);
+            return instanceService.deleteInstanceAsync(infrastructureId, instanceId);
+        } else if (Optional.ofNullable(instanceTag).isPresent()) {
+            log.info("Received delete request for infrastructure " + infrastructureId + " and instance tag " +
+                     instanceTag);
+            return instanceService.deleteInstanceByTagAsync(infrastructureId, instanceTag);
+        } else if (Optional.ofNullable(allCreatedInstances).isPresent() && allCreatedInstances) {
+            log.info("Received delete all request for infrastructure " + infrastructureId);
+            return instanceService.deleteCreatedInstancesAsync(infrastructureId);
         }
+        throw new ClientErrorException("The parameters \"instanceId\", \"instanceTag\", or \"allCreatedInstances\" are missing.",
+                                       Response.Status.BAD_REQUEST);
     }
 
     @POST
     @Path("{infrastructureId}/instances/publicIp")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response createPublicIp(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("instanceId") String instanceId, @QueryParam("instanceTag") String instanceTag,
-            @QueryParam("desiredIp") String optionalDesiredIp) {
+    public void createPublicIp(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("instanceId") String instanceId,
+            @QueryParam("instanceTag") String instanceTag, @QueryParam("desiredIp") String optionalDesiredIp) {
+        String context = "While creating public IP for infrastructureID " + infrastructureId;
+        asyncRequestHandler.resume(asyncResponse,
+                                   context,
+                                   () -> createPublicIpAsync(infrastructureId,
+                                                             instanceId,
+                                                             instanceTag,
+                                                             optionalDesiredIp),
+                                   response -> Response.ok(response).build(),
+                                   e -> handleError(infrastructureId, context, e));
+    }
+
+    private CompletableFuture<Map<String, String>> createPublicIpAsync(String infrastructureId, String instanceId,
+            String instanceTag, String optionalDesiredIp) {
         Map<String, String> response = new HashMap<>();
-        try {
-            if (Optional.ofNullable(instanceId).isPresent()) {
-                log.info("Received create public IP request for infrastructure " + infrastructureId +
-                         " and instance id " + instanceId);
-                response.put("publicIp",
-                             instanceService.addToInstancePublicIp(infrastructureId, instanceId, optionalDesiredIp));
-            } else if (Optional.ofNullable(instanceTag).isPresent()) {
-                log.info("Received create public IP request for infrastructure " + infrastructureId +
-                         " and instance tag " + instanceTag);
-                instanceService.addInstancePublicIpByTag(infrastructureId, instanceTag, optionalDesiredIp);
-            } else {
-                throw new ClientErrorException("The parameters \"instanceId\" and \"instanceTag\" are missing.",
-                                               Response.Status.BAD_REQUEST);
-            }
-            return Response.ok(response).build();
-        } catch (IllegalArgumentException e) {
-            return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
-                                                       e.getMessage(), e);
-        } catch (NotFoundException e) {
-            return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While creating public IP for infrastructureID " + infrastructureId +
-                                                   ": " + e.getMessage(), e);
+        if (Optional.ofNullable(instanceId).isPresent()) {
+            log.info("Received create public IP request for infrastructure " + infrastructureId +
+                     " and instance id " + instanceId);
+            return instanceService.addToInstancePublicIpAsync(infrastructureId, instanceId, optionalDesiredIp)
+                                  .thenApply(publicIp -> {
+                                      response.put("publicIp", publicIp);
+                                      return response;
+                                  });
+        } else if (Optional.ofNullable(instanceTag).isPresent()) {
+            log.info("Received create public IP request for infrastructure " + infrastructureId +
+                     " and instance tag " + instanceTag);
+            return instanceService.addInstancePublicIpByTagAsync(infrastructureId, instanceTag, optionalDesiredIp)
+                                  .thenApply(result -> response);
         }
+        throw new ClientErrorException("The parameters \"instanceId\" and \"instanceTag\" are missing.",
+                                       Response.Status.BAD_REQUEST);
     }
 
     @DELETE
     @Path("{infrastructureId}/instances/publicIp")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response removePublicIp(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("instanceId") String instanceId, @QueryParam("instanceTag") String instanceTag,
-            @QueryParam("desiredIp") String optionalDesiredIp) {
-        try {
-            if (Optional.ofNullable(instanceId).isPresent()) {
-                log.info("Received delete public IP request for infrastructure " + infrastructureId +
-                         " and instance id " + instanceId);
-                instanceService.removeInstancePublicIp(infrastructureId, instanceId, optionalDesiredIp);
-            } else if (Optional.ofNullable(instanceTag).isPresent()) {
-                log.info("Received delete public IP request for infrastructure " + infrastructureId +
-                         " and instance tag " + instanceTag);
-                instanceService.removeInstancePublicIpByTag(infrastructureId, instanceTag, optionalDesiredIp);
-            } else {
-                throw new ClientErrorException("The parameters \"instanceId\" and \"instanceTag\" are missing.",
-                                               Response.Status.BAD_REQUEST);
-            }
-            return Response.ok().build();
-        } catch (IllegalArgumentException e) {
+    public void removePublicIp(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("instanceId") String instanceId,
+            @QueryParam("instanceTag") String instanceTag, @QueryParam("desiredIp") String optionalDesiredIp) {
+        String context = "While deleting public IP for infrastructureID " + infrastructureId;
+        asyncRequestHandler.resume(asyncResponse,
+                                   context,
+                                   () -> removePublicIpAsync(infrastructureId,
+                                                             instanceId,
+                                                             instanceTag,
+                                                             optionalDesiredIp),
+                                   result -> Response.ok().build(),
+                                   e -> handleError(infrastructureId, context, e));
+    }
+
+    private CompletableFuture<Void> removePublicIpAsync(String infrastructureId, String instanceId, String instanceTag,
+            String optionalDesiredIp) {
+        if (Optional.ofNullable(instanceId).isPresent()) {
+            log.info("Received delete public IP request for infrastructure " + infrastructureId +
+                     " and instance id " + instanceId);
+            return instanceService.removeInstancePublicIpAsync(infrastructureId, instanceId, optionalDesiredIp);
+        } else if (Optional.ofNullable(instanceTag).isPresent()) {
+            log.info("Received delete public IP request for infrastructure " + infrastructureId +
+                     " and instance tag " + instanceTag);
+            return instanceService.removeInstancePublicIpByTagAsync(infrastructureId, instanceTag, optionalDesiredIp);
+        }
+        throw new ClientErrorException("The parameters \"instanceId\" and \"instanceTag\" are missing.",
+                                       Response.Status.BAD_REQUEST);
+    }
+
+    private Response handleError(String infrastructureId, String context, Exception e) {
+        if (e instanceof PartialInstanceCreationException) {
+            log.error("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
+            return Response.status(MULTI_STATUS).entity(((PartialInstanceCreationException) e).getResult()).build();
+        } else if (e instanceof IllegalArgumentException) {
             return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
                                                        e.getMessage(), e);
-        } catch (NotFoundException e) {
+        } else if (e instanceof NotFoundException) {
             return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While deleting public IP for infrastructureID " + infrastructureId +
-                                                   ": " + e.getMessage(), e);
         }
+        return ErrorResponse.handleServerError(context + ": " + e.getMessage(), e);
     }
 
 }
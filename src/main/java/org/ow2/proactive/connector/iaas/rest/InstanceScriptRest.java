@@ -28,6 +28,7 @@ package org.ow2.proactive.connector.iaas.rest;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.NotFoundException;
@@ -36,6 +37,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -60,38 +63,56 @@ public class InstanceScriptRest {
     @Autowired
     private InstanceScriptService instanceScriptService;
 
+    @Autowired
+    private AsyncRequestHandler asyncRequestHandler;
+
     @POST
     @Path("{infrastructureId}/instances/scripts")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response executeScript(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("instanceId") String instanceId, @QueryParam("instanceTag") String instanceTag,
-            final String instanceScriptJson) {
-        try {
-            log.info("Received request to execute script on infrastructure id " + infrastructureId +
-                     " and instance id " + instanceId + " and instance tag " + instanceTag);
-            InstanceScript instanceScript = JacksonUtil.convertFromJson(instanceScriptJson, InstanceScript.class);
-            final List<ScriptResult> scriptResults = Optional.ofNullable(instanceId)
-                                                             .map(i -> Lists.newArrayList(instanceScriptService.executeScriptOnInstance(infrastructureId,
-                                                                                                                                        instanceId,
-                                                                                                                                        instanceScript)))
-                                                             .orElseGet(() -> Lists.newArrayList(instanceScriptService.executeScriptOnInstanceTag(infrastructureId,
-                                                                                                                                                  instanceTag,
-                                                                                                                                                  instanceScript)));
-            log.info("Script results " + Arrays.toString(scriptResults.toArray()));
-            return Response.ok(scriptResults).build();
-        } catch (IllegalArgumentException e) {
+    public void executeScript(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("instanceId") String instanceId,
+            @QueryParam("instanceTag") String instanceTag, final String instanceScriptJson) {
+        log.info("Received request to execute script on infrastructure id " + infrastructureId + " and instance id " +
+                 instanceId + " and instance tag " + instanceTag);
+        asyncRequestHandler.resume(asyncResponse,
+                                   "Executing script for infrastructureID " + infrastructureId + " and instance id " +
+                                                  instanceId + " and instance tag " + instanceTag,
+                                   () -> executeScriptAsync(infrastructureId,
+                                                            instanceId,
+                                                            instanceTag,
+                                                            JacksonUtil.convertFromJson(instanceScriptJson,
+                                                                                        InstanceScript.class)),
+                                   scriptResults -> {
+                                       log.info("Script results " + Arrays.toString(scriptResults.toArray()));
+                                       return Response.ok(Lists.newArrayList(scriptResults)).build();
+                                   },
+                                   e -> handleError(infrastructureId, instanceId, instanceTag, e));
+    }
+
+    private CompletableFuture<List<ScriptResult>> executeScriptAsync(String infrastructureId, String instanceId,
+            String instanceTag, InstanceScript instanceScript) {
+        return Optional.ofNullable(instanceId)
+                       .map(i -> instanceScriptService.executeScriptOnInstanceAsync(infrastructureId,
+                                                                                    instanceId,
+                                                                                    instanceScript))
+                       .orElseGet(() -> instanceScriptService.executeScriptOnInstanceTagAsync(infrastructureId,
+                                                                                              instanceTag,
+                                                                                              instanceScript));
+    }
+
+    private Response handleError(String infrastructureId, String instanceId, String instanceTag, Exception e) {
+        if (e instanceof IllegalArgumentException) {
             return ErrorResponse.handleIllegalArgument("For executing script for infrastructureID " + infrastructureId +
                                                        " and instance id " + instanceId + " and instance tag " +
                                                        instanceTag + ": " + e.getMessage(), e);
-        } catch (NotFoundException e) {
+        } else if (e instanceof NotFoundException) {
             return ErrorResponse.handleNotFound("For executing script for infrastructureID " + infrastructureId +
                                                 " and instance id " + instanceId + " and instance tag " + instanceTag +
                                                 ": " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While executing script for infrastructureID " + infrastructureId +
-                                                   " and instance id " + instanceId + " and instance tag " +
-                                                   instanceTag + " :" + e.getMessage(), e);
         }
+        return ErrorResponse.handleServerError("While executing script for infrastructureID " + infrastructureId +
+                                               " and instance id " + instanceId + " and instance tag " + instanceTag +
+                                               " :" + e.getMessage(), e);
     }
 }
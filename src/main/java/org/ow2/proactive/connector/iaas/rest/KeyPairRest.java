@@ -39,6 +39,7 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
 import org.ow2.proactive.connector.iaas.model.Instance;
 import org.ow2.proactive.connector.iaas.service.KeyPairService;
 import org.ow2.proactive.connector.iaas.util.ErrorResponse;
@@ -81,6 +82,9 @@ public class KeyPairRest {
         } catch (NotFoundException e) {
             return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + " with parameter " +
                                                 instance + ": " + e.getMessage(), e);
+        } catch (DeadlineExceededException e) {
+            return ErrorResponse.handleTimeout("For infrastructureID " + infrastructureId + " with parameter " +
+                                               instance + ": " + e.getMessage());
         } catch (Exception e) {
             return ErrorResponse.handleServerError("While creating key pair for infrastructureID " + infrastructureId +
                                                    " with parameter " + instance + " :" + e.getMessage(), e);
@@ -107,6 +111,9 @@ public class KeyPairRest {
         } catch (NotFoundException e) {
             return ErrorResponse.handleNotFound("For key pair '" + keyPairName + "' under infrastructureID " +
                                                 infrastructureId + " in region '" + region + "': " + e.getMessage(), e);
+        } catch (DeadlineExceededException e) {
+            return ErrorResponse.handleTimeout("For key pair '" + keyPairName + "' under infrastructureID " +
+                                               infrastructureId + " in region '" + region + "': " + e.getMessage());
         } catch (Exception e) {
             return ErrorResponse.handleServerError("While deleting key pair '" + keyPairName +
                                                    "' under infrastructureID " + infrastructureId + " in region '" +
@@ -26,10 +26,11 @@
 package org.ow2.proactive.connector.iaas.rest;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
-import org.ow2.proactive.connector.iaas.model.PagedNodeCandidates;
 import org.ow2.proactive.connector.iaas.service.NodeCandidateService;
 import org.ow2.proactive.connector.iaas.util.ErrorResponse;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,37 +47,45 @@ public class NodeCandidateRest {
     @Autowired
     public NodeCandidateService nodeCandidateService;
 
+    @Autowired
+    private AsyncRequestHandler asyncRequestHandler;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("{infrastructureId}/nodecandidates")
-    public Response getNodeCandidate(@PathParam("infrastructureId") String infrastructureId,
-            @QueryParam("region") String region, @QueryParam("imageReq") String imageReq,
-            @QueryParam("nextToken") String token) {
-        try {
-            log.info("Received getNodeCandidate request for imageReq [{}] under infrastructure [{}] in region [{}] with nextToken [{}]",
-                     imageReq,
-                     infrastructureId,
-                     region,
-                     token);
-
-            PagedNodeCandidates result = nodeCandidateService.getNodeCandidate(infrastructureId,
-                                                                               region,
-                                                                               imageReq,
-                                                                               token);
+    public void getNodeCandidate(@Suspended AsyncResponse asyncResponse,
+            @PathParam("infrastructureId") String infrastructureId, @QueryParam("region") String region,
+            @QueryParam("imageReq") String imageReq, @QueryParam("nextToken") String token) {
+        log.info("Received getNodeCandidate request for imageReq [{}] under infrastructure [{}] in region [{}] with nextToken [{}]",
+                 imageReq,
+                 infrastructureId,
+                 region,
+                 token);
+        asyncRequestHandler.resume(asyncResponse,
+                                   "Retrieving node candidates for imageReq '" + imageReq +
+                                                  "' under infrastructureID " + infrastructureId + " in region '" +
+                                                  region + "'",
+                                   () -> nodeCandidateService.getNodeCandidateAsync(infrastructureId,
+                                                                                    region,
+                                                                                    imageReq,
+                                                                                    token),
+                                   result -> Response.ok(result).build(),
+                                   e -> handleError(infrastructureId, region, imageReq, token, e));
+    }
 
-            return Response.ok(result).build();
-        } catch (IllegalArgumentException e) {
+    private Response handleError(String infrastructureId, String region, String imageReq, String token,
+            Exception e) {
+        if (e instanceof IllegalArgumentException) {
             return ErrorResponse.handleIllegalArgument("For imageReq '" + imageReq + "' under infrastructureID " +
                                                        infrastructureId + " in region '" + region +
                                                        "' with nextToken '" + token + "': " + e.getMessage(), e);
-        } catch (NotFoundException e) {
+        } else if (e instanceof NotFoundException) {
             return ErrorResponse.handleNotFound("For imageReq '" + imageReq + "' under infrastructureID " +
                                                 infrastructureId + " in region '" + region + "' with nextToken '" +
                                                 token + "': " + e.getMessage(), e);
-        } catch (Exception e) {
-            return ErrorResponse.handleServerError("While retrieving getNodeCandidate for imageReq '" + imageReq +
-                                                   "' under infrastructureID " + infrastructureId + " in region '" +
-                                                   region + "' with nextToken '" + token + "':" + e.getMessage(), e);
         }
+        return ErrorResponse.handleServerError("While retrieving getNodeCandidate for imageReq '" + imageReq +
+                                               "' under infrastructureID " + infrastructureId + " in region '" +
+                                               region + "' with nextToken '" + token + "':" + e.getMessage(), e);
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.ext.Provider;
+
+import org.ow2.proactive.connector.iaas.cloud.InFlightOperations;
+
+
+/**
+ * Bind the operation id given by the client in the X-Operation-Id header to the thread of its request, so that the
+ * client can cancel the operation started by the request with DELETE /operations/{operationId}. The id is set, or
+ * removed, on every request so that none inherits the id of a previous request served by the same thread. It is not
+ * removed once the response is sent since the instances created by a streamed creation are written afterwards.
+ */
+@Provider
+public class OperationIdFilter implements ContainerRequestFilter {
+
+    public static final String OPERATION_ID_HEADER = "X-Operation-Id";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String operationId = requestContext.getHeaderString(OPERATION_ID_HEADER);
+        InFlightOperations.setRequestedOperationId(operationId == null || operationId.trim().isEmpty() ? null
+                                                                                                       : operationId.trim());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.ow2.proactive.connector.iaas.cloud.InFlightOperations;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.service.InstanceCreationJobService;
+import org.ow2.proactive.connector.iaas.util.ErrorResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * The instance creations and script executions in flight, which their clients may cancel. The instances already
+ * created by a cancelled creation are deleted in the background. The instance creation jobs are cancelled under their
+ * job id, even while they are still pending.
+ */
+@Path("/operations")
+@Component
+@Log4j2
+public class OperationRest {
+
+    @Autowired
+    private InFlightOperations inFlightOperations;
+
+    @Autowired
+    private InstanceCreationJobService instanceCreationJobService;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getOperations(@QueryParam("infrastructureId") String infrastructureId) {
+        try {
+            log.debug("Received get operations request for infrastructure " + infrastructureId);
+            Set<Operation> operations = inFlightOperations.getOperations()
+                                                          .stream()
+                                                          .filter(operation -> infrastructureId == null ||
+                                                                               infrastructureId.equals(operation.getInfrastructureId()))
+                                                          .collect(Collectors.toSet());
+            return Response.ok(operations).build();
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While retrieving operations: " + e.getMessage(), e);
+        }
+    }
+
+    @GET
+    @Path("{operationId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getOperation(@PathParam("operationId") String operationId) {
+        try {
+            log.debug("Received get request for operation " + operationId);
+            return Response.ok(inFlightOperations.getOperation(operationId)
+                                                 .orElseThrow(() -> new NotFoundException("operation id : " +
+                                                                                          operationId +
+                                                                                          " is not in flight")))
+                           .build();
+        } catch (NotFoundException e) {
+            return ErrorResponse.handleNotFound(e.getMessage(), e);
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While retrieving operation " + operationId + ": " +
+                                                   e.getMessage(), e);
+        }
+    }
+
+    @DELETE
+    @Path("{operationId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelOperation(@PathParam("operationId") String operationId) {
+        try {
+            log.info("Received cancel request for operation " + operationId);
+            Operation operation = inFlightOperations.cancel(operationId)
+                                                    .orElseGet(() -> instanceCreationJobService.cancelPendingJob(operationId)
+                                                                                               .orElseThrow(() -> new NotFoundException("operation id : " +
+                                                                                                                                        operationId +
+                                                                                                                                        " is not in flight")));
+            return Response.ok(operation).build();
+        } catch (NotFoundException e) {
+            return ErrorResponse.handleNotFound(e.getMessage(), e);
+        } catch (Exception e) {
+            return ErrorResponse.handleServerError("While cancelling operation " + operationId + ": " +
+                                                   e.getMessage(), e);
+        }
+    }
+}
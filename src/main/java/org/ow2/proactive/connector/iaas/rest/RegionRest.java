@@ -33,6 +33,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
 import org.ow2.proactive.connector.iaas.service.RegionService;
 import org.ow2.proactive.connector.iaas.util.ErrorResponse;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -61,6 +62,8 @@ public class RegionRest {
                                                        e.getMessage(), e);
         } catch (NotFoundException e) {
             return ErrorResponse.handleNotFound("For infrastructureID " + infrastructureId + ": " + e.getMessage(), e);
+        } catch (DeadlineExceededException e) {
+            return ErrorResponse.handleTimeout("For infrastructureID " + infrastructureId + ": " + e.getMessage());
         } catch (Exception e) {
             return ErrorResponse.handleServerError("While retrieving all regions for infrastructureID " +
                                                    infrastructureId + ": " + e.getMessage(), e);
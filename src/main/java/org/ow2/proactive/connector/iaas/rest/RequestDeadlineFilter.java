@@ -0,0 +1,78 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import java.util.Optional;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+import org.ow2.proactive.connector.iaas.util.ErrorResponse;
+
+
+/**
+ * Bind the deadline of each request to its thread, read from the X-Request-Timeout header or from the timeout query
+ * parameter, both holding the number of seconds after which the client gives up. The deadline is set, or removed,
+ * on every request so that none inherits the deadline of a previous request served by the same thread.
+ */
+@Provider
+public class RequestDeadlineFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    public static final String TIMEOUT_QUERY_PARAMETER = "timeout";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String timeout = Optional.ofNullable(requestContext.getHeaderString(TIMEOUT_HEADER))
+                                 .orElseGet(() -> requestContext.getUriInfo()
+                                                                .getQueryParameters()
+                                                                .getFirst(TIMEOUT_QUERY_PARAMETER));
+        if (timeout == null || timeout.trim().isEmpty()) {
+            RequestDeadline.set(null);
+            return;
+        }
+        try {
+            double timeoutInSeconds = Double.parseDouble(timeout.trim());
+            if (timeoutInSeconds <= 0 || Double.isNaN(timeoutInSeconds) || Double.isInfinite(timeoutInSeconds)) {
+                throw new NumberFormatException("the timeout must be a positive number of seconds");
+            }
+            RequestDeadline.set(System.currentTimeMillis() + (long) (timeoutInSeconds * 1000));
+        } catch (NumberFormatException e) {
+            RequestDeadline.set(null);
+            requestContext.abortWith(ErrorResponse.handleIllegalArgument("request timeout '" + timeout + "'", e));
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        RequestDeadline.set(null);
+    }
+}
@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.service;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.NotFoundException;
 
@@ -51,4 +52,11 @@ public class HardwareService {
                        .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
                                                                 " does not exists"));
     }
+
+    public CompletableFuture<Set<Hardware>> getAllHardwaresAsync(String infrastructureId) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.getAllHardwaresAsync(infrastructure))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
 }
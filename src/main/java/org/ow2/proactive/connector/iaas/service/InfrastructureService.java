@@ -25,12 +25,20 @@
  */
 package org.ow2.proactive.connector.iaas.service;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.ow2.proactive.connector.iaas.cache.InfrastructureCache;
+import org.ow2.proactive.connector.iaas.cache.InstanceInventoryCache;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 
@@ -46,27 +54,102 @@ public class InfrastructureService {
     @Autowired
     private InstanceService instanceService;
 
+    @Autowired
+    private InstanceInventoryCache instanceInventoryCache;
+
+    @Autowired
+    private InfrastructureWarmUpService infrastructureWarmUpService;
+
+    /**
+     * Warm up the infrastructures restored from the persistent registry, and load their instances, as soon as the
+     * connector is started, when the warm-up is enabled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpRestoredInfrastructures() {
+        if (!infrastructureWarmUpService.isEnabled()) {
+            return;
+        }
+        infrastructureCache.getSupportedInfrastructures()
+                           .values()
+                           .forEach(infrastructure -> infrastructureWarmUpService.warmUp(infrastructure, true));
+    }
+
+    public boolean isRegistryPersistent() {
+        return infrastructureCache.isPersistent();
+    }
+
     public Map<String, Infrastructure> getAllSupportedInfrastructure() {
         return infrastructureCache.getSupportedInfrastructures();
     }
 
     public Infrastructure registerInfrastructure(Infrastructure infrastructure) {
+        return registerInfrastructure(infrastructure, infrastructureWarmUpService.isEnabled());
+    }
+
+    /**
+     * @param warmUp Whether the provider client of the infrastructure is built in the background right away
+     */
+    public Infrastructure registerInfrastructure(Infrastructure infrastructure, boolean warmUp) {
         infrastructureCache.registerInfrastructure(infrastructure);
-        return infrastructure;
+        instanceInventoryCache.remove(infrastructure.getId());
+        if (warmUp) {
+            infrastructureWarmUpService.warmUp(infrastructure);
+        } else {
+            infrastructureWarmUpService.remove(infrastructure.getId());
+        }
+        return infrastructure.withReadiness(infrastructureWarmUpService.getReadiness(infrastructure.getId()));
+    }
+
+    public List<Infrastructure> registerInfrastructures(List<Infrastructure> infrastructures) {
+        return registerInfrastructures(infrastructures, infrastructureWarmUpService.isEnabled());
+    }
+
+    public List<Infrastructure> registerInfrastructures(List<Infrastructure> infrastructures, boolean warmUp) {
+        Set<String> infrastructureIds = new HashSet<>();
+        infrastructures.forEach(infrastructure -> {
+            if (infrastructure.getId() == null) {
+                throw new IllegalArgumentException("Infrastructure id is missing for " + infrastructure);
+            }
+            if (!infrastructureIds.add(infrastructure.getId())) {
+                throw new IllegalArgumentException("Infrastructure id " + infrastructure.getId() +
+                                                   " is registered more than once");
+            }
+        });
+
+        infrastructureCache.registerInfrastructures(infrastructures);
+        return infrastructures.stream().map(infrastructure -> {
+            instanceInventoryCache.remove(infrastructure.getId());
+            if (warmUp) {
+                infrastructureWarmUpService.warmUp(infrastructure);
+            } else {
+                infrastructureWarmUpService.remove(infrastructure.getId());
+            }
+            return infrastructure.withReadiness(infrastructureWarmUpService.getReadiness(infrastructure.getId()));
+        }).collect(Collectors.toList());
     }
 
     public void deleteInfrastructure(Infrastructure infrastructure) {
         cloudManager.deleteInfrastructure(infrastructure);
         infrastructureCache.deleteInfrastructure(infrastructure);
+        instanceInventoryCache.remove(infrastructure.getId());
+        infrastructureWarmUpService.remove(infrastructure.getId());
     }
 
     public void deleteInfrastructureWithCreatedInstances(Infrastructure infrastructure) {
         instanceService.deleteCreatedInstances(infrastructure.getId());
         cloudManager.deleteInfrastructure(infrastructure);
         infrastructureCache.deleteInfrastructure(infrastructure);
+        instanceInventoryCache.remove(infrastructure.getId());
+        infrastructureWarmUpService.remove(infrastructure.getId());
     }
 
     public Infrastructure getInfrastructure(String infrastructureId) {
         return infrastructureCache.getSupportedInfrastructures().get(infrastructureId);
     }
+
+    public Infrastructure getInfrastructureWithReadiness(String infrastructureId) {
+        return Optional.ofNullable(getInfrastructure(infrastructureId))
+                       .map(infrastructure -> infrastructure.withReadiness(infrastructureWarmUpService.getReadiness(infrastructureId)))
+                       .orElse(null);
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.cache.InstanceInventoryCache;
+import org.ow2.proactive.connector.iaas.cloud.CloudManager;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureReadiness;
+import org.ow2.proactive.connector.iaas.model.ReadinessStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Connects to the newly registered infrastructures in the background, so that their first request does not pay for
+ * the creation of the provider client (authentication, subscription lookup, vCenter login...). The outcome of each
+ * warm-up is kept as the readiness of its infrastructure.
+ *
+ * The warm-up calls the cloud, so it only runs on the registrations asking for it unless
+ * connector-iaas.warm-up.enabled makes it the default.
+ */
+@Service
+@Log4j2
+public class InfrastructureWarmUpService {
+
+    @Autowired
+    private CloudManager cloudManager;
+
+    @Autowired
+    private InstanceInventoryCache instanceInventoryCache;
+
+    @Value("${connector-iaas.warm-up.enabled:false}")
+    private boolean warmUpEnabled;
+
+    @Value("${connector-iaas.warm-up.threads:4}")
+    private int warmUpThreads;
+
+    private final Map<String, InfrastructureReadiness> readinessPerInfrastructure = new ConcurrentHashMap<>();
+
+    private ExecutorService warmUpExecutor;
+
+    @PostConstruct
+    public void start() {
+        warmUpExecutor = Executors.newFixedThreadPool(Math.max(1, warmUpThreads),
+                                                      new ThreadFactoryBuilder().setNameFormat("infrastructure-warm-up-%d")
+                                                                                .setDaemon(true)
+                                                                                .build());
+    }
+
+    @PreDestroy
+    public void stop() {
+        Optional.ofNullable(warmUpExecutor).ifPresent(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * @return whether the infrastructures are warmed up when their registration does not tell
+     */
+    public boolean isEnabled() {
+        return warmUpEnabled;
+    }
+
+    public void warmUp(Infrastructure infrastructure) {
+        warmUp(infrastructure, false);
+    }
+
+    /**
+     * @param preloadInventory Whether the instance inventory of the infrastructure is loaded once it is warmed up
+     */
+    public void warmUp(Infrastructure infrastructure, boolean preloadInventory) {
+        InfrastructureReadiness pendingReadiness = InfrastructureReadiness.builder()
+                                                                          .status(ReadinessStatus.PENDING)
+                                                                          .startTime(System.currentTimeMillis())
+                                                                          .build();
+        readinessPerInfrastructure.put(infrastructure.getId(), pendingReadiness);
+        warmUpExecutor.execute(() -> runWarmUp(infrastructure, pendingReadiness, preloadInventory));
+    }
+
+    public InfrastructureReadiness getReadiness(String infrastructureId) {
+        return readinessPerInfrastructure.get(infrastructureId);
+    }
+
+    public void remove(String infrastructureId) {
+        readinessPerInfrastructure.remove(infrastructureId);
+    }
+
+    private void runWarmUp(Infrastructure infrastructure, InfrastructureReadiness pendingReadiness,
+            boolean preloadInventory) {
+        InfrastructureReadiness readiness;
+        try {
+            cloudManager.warmUpInfrastructure(infrastructure);
+            readiness = pendingReadiness.withStatus(ReadinessStatus.READY)
+                                        .withLatency(System.currentTimeMillis() - pendingReadiness.getStartTime());
+            log.info("Infrastructure " + infrastructure.getId() + " warmed up in " + readiness.getLatency() + " ms");
+            if (preloadInventory) {
+                instanceInventoryCache.preload(infrastructure);
+            }
+        } catch (Exception e) {
+            log.warn("Warm-up of infrastructure " + infrastructure.getId() + " failed", e);
+            readiness = pendingReadiness.withStatus(ReadinessStatus.FAILED)
+                                        .withLatency(System.currentTimeMillis() - pendingReadiness.getStartTime())
+                                        .withError(e.getMessage());
+        }
+        publishReadiness(infrastructure.getId(), pendingReadiness, readiness);
+    }
+
+    private void publishReadiness(String infrastructureId, InfrastructureReadiness pendingReadiness,
+            InfrastructureReadiness readiness) {
+        // the infrastructure may have been deleted or registered again while it was warming up
+        readinessPerInfrastructure.computeIfPresent(infrastructureId,
+                                                    (id, current) -> current == pendingReadiness ? readiness : current);
+    }
+}
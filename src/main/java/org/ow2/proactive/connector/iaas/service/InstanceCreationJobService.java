@@ -0,0 +1,271 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.NotFoundException;
+
+import org.ow2.proactive.connector.iaas.cloud.InFlightOperations;
+import org.ow2.proactive.connector.iaas.cloud.OperationCancelledException;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationJob;
+import org.ow2.proactive.connector.iaas.model.JobStatus;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.model.OperationType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Runs instance creations in the background so that the REST thread can return as soon as the job is submitted.
+ * Finished jobs are kept for connector-iaas.jobs.retention milliseconds to let clients poll their result, then purged
+ * every connector-iaas.jobs.purge-period milliseconds. A job which failed or succeeded lists the instances it created,
+ * and a
+ * running job lists its instances as soon as each is created. Clients cancel a job with DELETE /operations/{jobId}:
+ * a running job is the in-flight operation of the same id, and a pending job is cancelled before it starts.
+ */
+@Service
+@Log4j2
+public class InstanceCreationJobService {
+
+    @Autowired
+    private InfrastructureService infrastructureService;
+
+    @Autowired
+    private InstanceService instanceService;
+
+    @Value("${connector-iaas.jobs.threads:10}")
+    private int jobThreads;
+
+    @Value("${connector-iaas.jobs.retention:3600000}")
+    private long jobRetention;
+
+    @Value("${connector-iaas.jobs.purge-period:60000}")
+    private long jobPurgePeriod;
+
+    private final Map<String, InstanceCreationJob> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService jobExecutor;
+
+    private ScheduledExecutorService jobPurgeScheduler;
+
+    @PostConstruct
+    public void start() {
+        jobExecutor = Executors.newFixedThreadPool(Math.max(1, jobThreads),
+                                                   new ThreadFactoryBuilder().setNameFormat("instance-creation-job-%d")
+                                                                             .setDaemon(true)
+                                                                             .build());
+        if (jobPurgePeriod > 0) {
+            jobPurgeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("instance-creation-job-purge")
+                                                                                                    .setDaemon(true)
+                                                                                                    .build());
+            jobPurgeScheduler.scheduleWithFixedDelay(this::purgeExpiredJobs,
+                                                     jobPurgePeriod,
+                                                     jobPurgePeriod,
+                                                     TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Optional.ofNullable(jobPurgeScheduler).ifPresent(ExecutorService::shutdownNow);
+        Optional.ofNullable(jobExecutor).ifPresent(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the number of instances requested is not a positive integer
+     */
+    public InstanceCreationJob submitInstanceCreation(String infrastructureId, Instance instance) {
+        Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                .orElseThrow(() -> new NotFoundException("infrastructure id : " + infrastructureId +
+                                                         " does not exists"));
+        int requestedInstances = getRequestedInstances(instance);
+
+        InstanceCreationJob job = InstanceCreationJob.builder()
+                                                     .id(UUID.randomUUID().toString())
+                                                     .infrastructureId(infrastructureId)
+                                                     .status(JobStatus.PENDING)
+                                                     .requestedInstances(requestedInstances)
+                                                     .instances(Collections.emptySet())
+                                                     .failures(Collections.emptyList())
+                                                     .submissionTime(System.currentTimeMillis())
+                                                     .build();
+        jobs.put(job.getId(), job);
+        jobExecutor.execute(() -> runInstanceCreation(job.getId(), instance));
+        return job;
+    }
+
+    /**
+     * Cancel the job if it has not started yet.
+     * @return the operation of the cancelled job, empty if no job with this id is pending
+     */
+    public Optional<Operation> cancelPendingJob(String jobId) {
+        InstanceCreationJob job = jobs.computeIfPresent(jobId, (id, current) -> {
+            if (current.getStatus() != JobStatus.PENDING) {
+                return current;
+            }
+            log.info("Cancelled pending instance creation job " + id);
+            return current.withStatus(JobStatus.CANCELLED)
+                          .withError("Job " + id + " has been cancelled before it started")
+                          .withEndTime(System.currentTimeMillis());
+        });
+        return Optional.ofNullable(job)
+                       .filter(cancelledJob -> cancelledJob.getStatus() == JobStatus.CANCELLED &&
+                                               cancelledJob.getStartTime() == null)
+                       .map(cancelledJob -> Operation.builder()
+                                                     .id(cancelledJob.getId())
+                                                     .infrastructureId(cancelledJob.getInfrastructureId())
+                                                     .type(OperationType.INSTANCE_CREATION)
+                                                     .description("Pending instance creation job " +
+                                                                  cancelledJob.getId())
+                                                     .startTime(cancelledJob.getSubmissionTime())
+                                                     .cancelled(true)
+                                                     .build());
+    }
+
+    public InstanceCreationJob getJob(String infrastructureId, String jobId) {
+        return Optional.ofNullable(jobs.get(jobId))
+                       .filter(job -> job.getInfrastructureId().equals(infrastructureId))
+                       .orElseThrow(() -> new NotFoundException("job id : " + jobId + " does not exists"));
+    }
+
+    public Set<InstanceCreationJob> getJobs(String infrastructureId) {
+        return jobs.values()
+                   .stream()
+                   .filter(job -> job.getInfrastructureId().equals(infrastructureId))
+                   .collect(Collectors.toSet());
+    }
+
+    private void runInstanceCreation(String jobId, Instance instance) {
+        InstanceCreationJob runningJob = jobs.computeIfPresent(jobId, (id, job) -> {
+            if (job.getStatus() != JobStatus.PENDING) {
+                return job;
+            }
+            return job.withStatus(JobStatus.RUNNING).withStartTime(System.currentTimeMillis());
+        });
+        if (runningJob == null || runningJob.getStatus() != JobStatus.RUNNING) {
+            log.info("Instance creation job " + jobId + " cancelled before it started");
+            return;
+        }
+        InFlightOperations.setRequestedOperationId(jobId);
+        try {
+            Set<Instance> instances = instanceService.createInstance(runningJob.getInfrastructureId(),
+                                                                     instance,
+                                                                     createdInstance -> publishInstance(jobId,
+                                                                                                        createdInstance));
+            finishJob(jobId,
+                      job -> job.withStatus(JobStatus.SUCCEEDED)
+                                .withInstances(ImmutableSet.<Instance> builder()
+                                                           .addAll(job.getInstances())
+                                                           .addAll(instances)
+                                                           .build()));
+        } catch (OperationCancelledException e) {
+            log.info("Instance creation job " + jobId + " for infrastructure " + runningJob.getInfrastructureId() +
+                     " cancelled");
+            // the instances already created are deleted by the cancellation
+            finishJob(jobId,
+                      job -> job.withStatus(JobStatus.CANCELLED)
+                                .withInstances(Collections.emptySet())
+                                .withError(e.getMessage()));
+        } catch (PartialInstanceCreationException e) {
+            log.error("Instance creation job " + jobId + " for infrastructure " + runningJob.getInfrastructureId() +
+                      " partially failed", e);
+            finishJob(jobId,
+                      job -> job.withStatus(JobStatus.PARTIALLY_SUCCEEDED)
+                                .withInstances(ImmutableSet.<Instance> builder()
+                                                           .addAll(job.getInstances())
+                                                           .addAll(e.getResult().getInstances())
+                                                           .build())
+                                .withFailures(e.getResult().getFailures())
+                                .withError(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Instance creation job " + jobId + " for infrastructure " + runningJob.getInfrastructureId() +
+                      " failed", e);
+            // the instances created before the failure are kept listed, since they exist in the cloud
+            finishJob(jobId, job -> job.withStatus(JobStatus.FAILED).withError(e.getMessage()));
+        } finally {
+            InFlightOperations.setRequestedOperationId(null);
+        }
+    }
+
+    private void finishJob(String jobId, UnaryOperator<InstanceCreationJob> finish) {
+        jobs.computeIfPresent(jobId, (id, job) -> finish.apply(job).withEndTime(System.currentTimeMillis()));
+    }
+
+    private static int getRequestedInstances(Instance instance) {
+        if (instance.getNumber() == null) {
+            return 1;
+        }
+        try {
+            int requestedInstances = Integer.parseInt(instance.getNumber().trim());
+            if (requestedInstances > 0) {
+                return requestedInstances;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("the number of instances must be a positive integer, got '" +
+                                           instance.getNumber() + "'");
+    }
+
+    private void publishInstance(String jobId, Instance createdInstance) {
+        jobs.computeIfPresent(jobId, (id, job) -> {
+            if (job.getStatus() != JobStatus.RUNNING) {
+                return job;
+            }
+            return job.withInstances(ImmutableSet.<Instance> builder()
+                                                 .addAll(job.getInstances())
+                                                 .add(createdInstance)
+                                                 .build());
+        });
+    }
+
+    private void purgeExpiredJobs() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.getStatus().isDone() && now - job.getEndTime() > jobRetention);
+    }
+}
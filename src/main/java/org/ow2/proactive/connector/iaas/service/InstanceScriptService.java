@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.NotFoundException;
 
@@ -70,4 +71,24 @@ public class InstanceScriptService {
 
     }
 
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceAsync(String infrastructureId,
+            String instanceId, InstanceScript instanceScript) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.executeScriptOnInstanceIdAsync(infrastructure,
+                                                                                          instanceId,
+                                                                                          instanceScript))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
+
+    public CompletableFuture<List<ScriptResult>> executeScriptOnInstanceTagAsync(String infrastructureId,
+            String instanceTag, InstanceScript instanceScript) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.executeScriptOnInstanceTagAsync(infrastructure,
+                                                                                           instanceTag,
+                                                                                           instanceScript))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
+
 }
@@ -27,11 +27,16 @@ package org.ow2.proactive.connector.iaas.service;
 
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.ws.rs.NotFoundException;
 
+import org.ow2.proactive.connector.iaas.cache.InstanceInventoryCache;
+import org.ow2.proactive.connector.iaas.cache.InventoryConsistency;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -47,19 +52,39 @@ public class InstanceService {
     @Autowired
     private CloudManager cloudManager;
 
+    @Autowired
+    private InstanceInventoryCache instanceInventoryCache;
+
     public Set<Instance> createInstance(String infrastructureId, Instance instance) {
 
         return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
-                       .map(infrastructure -> cloudManager.createInstance(infrastructure, instance))
+                       .map(infrastructure -> {
+                           try {
+                               return cloudManager.createInstance(infrastructure, instance);
+                           } finally {
+                               instanceInventoryCache.invalidate(infrastructureId);
+                           }
+                       })
                        .orElseThrow(() -> new NotFoundException("infrastructure id : " + infrastructureId +
                                                                 " does not exists"));
     }
 
+    public Set<Instance> createInstance(String infrastructureId, Instance instance,
+            Consumer<Instance> instanceCreatedListener) {
+        Infrastructure infrastructure = getInfrastructureOrFail(infrastructureId);
+        try {
+            return cloudManager.createInstance(infrastructure, instance, instanceCreatedListener);
+        } finally {
+            instanceInventoryCache.invalidate(infrastructureId);
+        }
+    }
+
     public void deleteCreatedInstances(String infrastructureId) {
         Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId)).ifPresent(infrastructure -> {
             cloudManager.getCreatedInfrastructureInstances(infrastructure).forEach(instance -> {
                 cloudManager.deleteInstance(infrastructure, instance.getId());
             });
+            instanceInventoryCache.invalidate(infrastructureId);
         });
     }
 
@@ -68,57 +93,67 @@ public class InstanceService {
             cloudManager.getAllInfrastructureInstances(infrastructure).forEach(instance -> {
                 cloudManager.deleteInstance(infrastructure, instance.getId());
             });
+            instanceInventoryCache.invalidate(infrastructureId);
         });
     }
 
     public void deleteInstance(String infrastructureId, String instanceId) {
         Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId)).ifPresent(infrastructure -> {
             cloudManager.deleteInstance(infrastructure, instanceId);
+            instanceInventoryCache.invalidate(infrastructureId);
         });
     }
 
     public void deleteInstanceByTag(String infrastructureId, String instanceTag) {
-        getAllInstances(infrastructureId).stream()
-                                         .filter(instance -> instance.getTag().equals(instanceTag))
-                                         .forEach(instance -> {
-                                             Infrastructure infrastructure = infrastructureService.getInfrastructure(infrastructureId);
-                                             cloudManager.deleteInstance(infrastructure, instance.getId());
-                                         });
+        Infrastructure infrastructure = getInfrastructureOrFail(infrastructureId);
+        instanceInventoryCache.getInstancesByTag(infrastructure, instanceTag)
+                              .forEach(instance -> cloudManager.deleteInstance(infrastructure, instance.getId()));
+        instanceInventoryCache.invalidate(infrastructureId);
     }
 
     public Set<Instance> getInstanceByTag(String infrastructureId, String instanceTag) {
-        return getAllInstances(infrastructureId).stream()
-                                                .filter(instance -> instance.getTag().equals(instanceTag))
-                                                .collect(Collectors.toSet());
+        return instanceInventoryCache.getInstancesByTag(getInfrastructureOrFail(infrastructureId), instanceTag);
     }
 
     public Instance getInstanceById(String infrastructureId, String instanceId) {
-        Set<Instance> instances = getAllInstances(infrastructureId);
-        return instances.stream()
-                        .filter(instance -> instance.getId().equals(instanceId))
-                        .findFirst()
-                        .orElseThrow(() -> new RuntimeException("Instance not found"));
+        return instanceInventoryCache.getInstanceById(getInfrastructureOrFail(infrastructureId), instanceId)
+                                     .orElseThrow(() -> new NotFoundException("instance id : " + instanceId +
+                                                                              " does not exists"));
     }
 
     public Set<Instance> getAllInstances(String infrastructureId) {
+        return getAllInstances(infrastructureId, null);
+    }
+
+    public Set<Instance> getAllInstances(String infrastructureId, InventoryConsistency consistency) {
         return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
-                       .map(infrastructure -> cloudManager.getAllInfrastructureInstances(infrastructure))
+                       .map(infrastructure -> instanceInventoryCache.getAllInstances(infrastructure, consistency))
                        .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
                                                                 " does not exists"));
     }
 
     public Set<Instance> getCreatedInstances(String infrastructureId) {
+        return getCreatedInstances(infrastructureId, null);
+    }
+
+    public Set<Instance> getCreatedInstances(String infrastructureId, InventoryConsistency consistency) {
         return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
-                       .map(infrastructure -> cloudManager.getCreatedInfrastructureInstances(infrastructure))
+                       .map(infrastructure -> instanceInventoryCache.getCreatedInstances(infrastructure, consistency))
                        .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
                                                                 " does not exists"));
     }
 
     public String addToInstancePublicIp(String infrastructureId, String instanceId, String optionalDesiredIp) {
         return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
-                       .map(infrastructure -> cloudManager.addToInstancePublicIp(infrastructure,
-                                                                                 instanceId,
-                                                                                 optionalDesiredIp))
+                       .map(infrastructure -> {
+                           try {
+                               return cloudManager.addToInstancePublicIp(infrastructure,
+                                                                         instanceId,
+                                                                         optionalDesiredIp);
+                           } finally {
+                               instanceInventoryCache.invalidate(infrastructureId);
+                           }
+                       })
                        .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
                                                                 "does not exists"));
     }
@@ -135,7 +170,11 @@ public class InstanceService {
                                                 .orElseThrow(() -> new NotFoundException("infrastructure id  : " +
                                                                                          infrastructureId +
                                                                                          "does not exists"));
-        cloudManager.removeInstancePublicIp(infrastructure, instanceId, optionalDesiredIp);
+        try {
+            cloudManager.removeInstancePublicIp(infrastructure, instanceId, optionalDesiredIp);
+        } finally {
+            instanceInventoryCache.invalidate(infrastructureId);
+        }
     }
 
     public void removeInstancePublicIpByTag(String infrastructureId, String instanceTag, String optionalDesiredIp) {
@@ -144,4 +183,100 @@ public class InstanceService {
                                                                                  instance.getId(),
                                                                                  optionalDesiredIp));
     }
+
+    public CompletableFuture<Set<Instance>> createInstanceAsync(String infrastructureId, Instance instance) {
+        Infrastructure infrastructure = getInfrastructureOrFail(infrastructureId);
+        return cloudManager.createInstanceAsync(infrastructure, instance)
+                           .whenComplete((createdInstances, error) -> instanceInventoryCache.invalidate(infrastructureId));
+    }
+
+    public CompletableFuture<Void> deleteInstanceAsync(String infrastructureId, String instanceId) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.deleteInstanceAsync(infrastructure, instanceId)
+                                                          .thenRun(() -> instanceInventoryCache.invalidate(infrastructureId)))
+                       .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    public CompletableFuture<Void> deleteInstanceByTagAsync(String infrastructureId, String instanceTag) {
+        Infrastructure infrastructure = getInfrastructureOrFail(infrastructureId);
+        return CompletableFuture.allOf(instanceInventoryCache.getInstancesByTag(infrastructure, instanceTag)
+                                                             .stream()
+                                                             .map(instance -> cloudManager.deleteInstanceAsync(infrastructure,
+                                                                                                               instance.getId()))
+                                                             .toArray(CompletableFuture[]::new))
+                                .whenComplete((result, error) -> instanceInventoryCache.invalidate(infrastructureId));
+    }
+
+    public CompletableFuture<String> addToInstancePublicIpAsync(String infrastructureId, String instanceId,
+            String optionalDesiredIp) {
+        return cloudManager.addToInstancePublicIpAsync(getInfrastructureOrFail(infrastructureId),
+                                                       instanceId,
+                                                       optionalDesiredIp)
+                           .whenComplete((publicIp, error) -> instanceInventoryCache.invalidate(infrastructureId));
+    }
+
+    public CompletableFuture<Void> removeInstancePublicIpAsync(String infrastructureId, String instanceId,
+            String optionalDesiredIp) {
+        return cloudManager.removeInstancePublicIpAsync(getInfrastructureOrFail(infrastructureId),
+                                                        instanceId,
+                                                        optionalDesiredIp)
+                           .whenComplete((result, error) -> instanceInventoryCache.invalidate(infrastructureId));
+    }
+
+    public CompletableFuture<Instance> getInstanceByIdAsync(String infrastructureId, String instanceId) {
+        return supplyOnCloudProviderThread(() -> getInstanceById(infrastructureId, instanceId));
+    }
+
+    public CompletableFuture<Set<Instance>> getInstanceByTagAsync(String infrastructureId, String instanceTag) {
+        return supplyOnCloudProviderThread(() -> getInstanceByTag(infrastructureId, instanceTag));
+    }
+
+    public CompletableFuture<Set<Instance>> getAllInstancesAsync(String infrastructureId,
+            InventoryConsistency consistency) {
+        return supplyOnCloudProviderThread(() -> getAllInstances(infrastructureId, consistency));
+    }
+
+    public CompletableFuture<Set<Instance>> getCreatedInstancesAsync(String infrastructureId,
+            InventoryConsistency consistency) {
+        return supplyOnCloudProviderThread(() -> getCreatedInstances(infrastructureId, consistency));
+    }
+
+    public CompletableFuture<Void> deleteCreatedInstancesAsync(String infrastructureId) {
+        return supplyOnCloudProviderThread(() -> {
+            deleteCreatedInstances(infrastructureId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> addInstancePublicIpByTagAsync(String infrastructureId, String instanceTag,
+            String optionalDesiredIp) {
+        return supplyOnCloudProviderThread(() -> {
+            addInstancePublicIpByTag(infrastructureId, instanceTag, optionalDesiredIp);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> removeInstancePublicIpByTagAsync(String infrastructureId, String instanceTag,
+            String optionalDesiredIp) {
+        return supplyOnCloudProviderThread(() -> {
+            removeInstancePublicIpByTag(infrastructureId, instanceTag, optionalDesiredIp);
+            return null;
+        });
+    }
+
+    /**
+     * Run an operation going through the instance inventory, which may have to list the instances from the
+     * provider, on the cloud provider thread pool rather than on the calling request thread, keeping the deadline of
+     * the request.
+     */
+    private <T> CompletableFuture<T> supplyOnCloudProviderThread(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(RequestDeadline.propagate(operation),
+                                             cloudManager.getCloudProviderExecutor());
+    }
+
+    private Infrastructure getInfrastructureOrFail(String infrastructureId) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
 }
@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.service;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.NotFoundException;
 
@@ -66,4 +67,20 @@ public class KeyPairService {
         cloudManager.deleteKeyPair(infrastructure, keyPairName, region);
     }
 
+    public CompletableFuture<SimpleImmutableEntry<String, String>> createKeyPairAsync(String infrastructureId,
+            Instance instance) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.createKeyPairAsync(infrastructure, instance))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id : " + infrastructureId +
+                                                                " does not exists"));
+    }
+
+    public CompletableFuture<Void> deleteKeyPairAsync(String infrastructureId, String keyPairName, String region) {
+        Infrastructure infrastructure = Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                                                .orElseThrow(() -> new NotFoundException("infrastructure id : " +
+                                                                                         infrastructureId +
+                                                                                         " does not exists"));
+        return cloudManager.deleteKeyPairAsync(infrastructure, keyPairName, region);
+    }
+
 }
@@ -26,6 +26,7 @@
 package org.ow2.proactive.connector.iaas.service;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.NotFoundException;
 
@@ -51,4 +52,12 @@ public class NodeCandidateService {
                                                                 " does not exists"));
     }
 
+    public CompletableFuture<PagedNodeCandidates> getNodeCandidateAsync(String infrastructureId, String region,
+            String imageReq, String token) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infra -> cloudManager.getNodeCandidateAsync(infra, region, imageReq, token))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
+
 }
@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.service;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.NotFoundException;
 
@@ -52,4 +53,11 @@ public class RegionService {
                                                                 " does not exists"));
     }
 
+    public CompletableFuture<Set<String>> getAllRegionsAsync(String infrastructureId) {
+        return Optional.ofNullable(infrastructureService.getInfrastructure(infrastructureId))
+                       .map(infrastructure -> cloudManager.getAllRegionsOnInfrastructureAsync(infrastructure))
+                       .orElseThrow(() -> new NotFoundException("infrastructure id  : " + infrastructureId +
+                                                                " does not exists"));
+    }
+
 }
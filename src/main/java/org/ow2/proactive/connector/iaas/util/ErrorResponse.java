@@ -90,4 +90,46 @@ public class ErrorResponse {
                                                  message))
                        .build();
     }
+
+    /**
+     * Handle a request refused because the cloud providers are saturated and generate a SERVICE_UNAVAILABLE response.
+     * @param message Error message
+     * @param e Exception object
+     * @return Response object with SERVICE_UNAVAILABLE status and error message
+     */
+    public static Response handleServiceUnavailable(String message, Exception e) {
+        message = "Service unavailable: " + message;
+        log.error(message, e);
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                       .entity(new ErrorResponse(String.valueOf(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()),
+                                                 message))
+                       .build();
+    }
+
+    /**
+     * Handle a request whose operation was cancelled by its client and generate a CONFLICT response.
+     * @param message Error message
+     * @return Response object with CONFLICT status and error message
+     */
+    public static Response handleCancelled(String message) {
+        message = "Operation cancelled: " + message;
+        log.error(message);
+        return Response.status(Response.Status.CONFLICT)
+                       .entity(new ErrorResponse(String.valueOf(Response.Status.CONFLICT.getStatusCode()), message))
+                       .build();
+    }
+
+    /**
+     * Handle a request which did not complete in time and generate a GATEWAY_TIMEOUT response.
+     * @param message Error message
+     * @return Response object with GATEWAY_TIMEOUT status and error message
+     */
+    public static Response handleTimeout(String message) {
+        message = "Request timed out: " + message;
+        log.error(message);
+        return Response.status(Response.Status.GATEWAY_TIMEOUT)
+                       .entity(new ErrorResponse(String.valueOf(Response.Status.GATEWAY_TIMEOUT.getStatusCode()),
+                                                 message))
+                       .build();
+    }
 }
@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.util;
 
 import java.io.IOException;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 
@@ -44,4 +45,13 @@ public class JacksonUtil {
             throw new RuntimeException("Error while parsing json =" + json, e);
         }
     }
+
+    public static String convertToJson(Object object) {
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            return mapper.writeValueAsString(object);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error while serializing object =" + object, e);
+        }
+    }
 }
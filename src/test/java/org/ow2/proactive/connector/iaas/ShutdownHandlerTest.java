@@ -80,4 +80,23 @@ public class ShutdownHandlerTest {
 
     }
 
+    @Test
+    public void testKeepPersistedInfrastructures() {
+        Map<String, Infrastructure> supportedInfrastructureMap = Maps.newHashMap();
+        supportedInfrastructureMap.put(InfrastructureFixture.getSimpleInfrastructure("type1", true).getId(),
+                                       InfrastructureFixture.getSimpleInfrastructure("type1", true));
+        supportedInfrastructureMap.put(InfrastructureFixture.getSimpleInfrastructure("type2", false).getId(),
+                                       InfrastructureFixture.getSimpleInfrastructure("type2", false));
+
+        when(infrastructureService.getAllSupportedInfrastructure()).thenReturn(supportedInfrastructureMap);
+        when(infrastructureService.isRegistryPersistent()).thenReturn(true);
+
+        shutdownHandler.removeAllInfrastructures();
+
+        verify(infrastructureService,
+               times(1)).deleteInfrastructureWithCreatedInstances(InfrastructureFixture.getSimpleInfrastructure("type1"));
+        verify(infrastructureService,
+               times(0)).deleteInfrastructure(InfrastructureFixture.getSimpleInfrastructure("type2"));
+    }
+
 }
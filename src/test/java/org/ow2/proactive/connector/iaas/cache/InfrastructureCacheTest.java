@@ -30,6 +30,7 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.junit.Before;
@@ -116,4 +117,25 @@ public class InfrastructureCacheTest {
         assertThat(infrastructureCache.getSupportedInfrastructures().isEmpty(), is(true));
     }
 
+    @Test
+    public void testRegisterInfrastructures() {
+        Infrastructure openstackInfrastructure = InfrastructureFixture.getSimpleInfrastructure("openstack");
+        Infrastructure awsInfrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        Infrastructure azureInfrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
+        infrastructureCache.registerInfrastructures(Arrays.asList(openstackInfrastructure, awsInfrastructure));
+
+        Infrastructure updatedAwsInfrastructure = InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                          "aws-ec2",
+                                                                                          "otherEndPoint",
+                                                                                          "userName",
+                                                                                          "password");
+        infrastructureCache.registerInfrastructures(Arrays.asList(updatedAwsInfrastructure, azureInfrastructure));
+
+        assertThat(infrastructureCache.getSupportedInfrastructures().size(), is(3));
+        assertThat(infrastructureCache.getSupportedInfrastructures().get("id-openstack"), is(openstackInfrastructure));
+        assertThat(infrastructureCache.getSupportedInfrastructures().get("id-aws-ec2").getEndpoint(),
+                   is("otherEndPoint"));
+        assertThat(infrastructureCache.getSupportedInfrastructures().get("id-azure"), is(azureInfrastructure));
+    }
+
 }
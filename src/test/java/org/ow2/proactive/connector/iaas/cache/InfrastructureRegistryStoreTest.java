@@ -0,0 +1,172 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureScope;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class InfrastructureRegistryStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private InfrastructureRegistryStore registryStore;
+
+    private Infrastructure openstackInfrastructure;
+
+    private Infrastructure awsInfrastructure;
+
+    @Before
+    public void init() throws IOException {
+        registryStore = newRegistryStore(1000);
+        openstackInfrastructure = InfrastructureFixture.getInfrastructure("id-openstack",
+                                                                          "openstack",
+                                                                          "endPoint",
+                                                                          "userName",
+                                                                          "openstack-s3cr3t",
+                                                                          new InfrastructureScope("project",
+                                                                                                  "admin"),
+                                                                          "RegionOne",
+                                                                          "3");
+        awsInfrastructure = InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                    "aws-ec2",
+                                                                    "endPoint",
+                                                                    "accessKey",
+                                                                    "aws-s3cr3t");
+    }
+
+    @After
+    public void close() throws IOException {
+        registryStore.close();
+    }
+
+    @Test
+    public void testRestoreRegisteredInfrastructures() throws IOException {
+        assertThat(registryStore.load().isEmpty(), is(true));
+        Map<String, Infrastructure> registry = new LinkedHashMap<>();
+        registry.put(openstackInfrastructure.getId(), openstackInfrastructure);
+        registry.put(awsInfrastructure.getId(), awsInfrastructure);
+        registryStore.recordRegistrations(Arrays.asList(openstackInfrastructure, awsInfrastructure), registry);
+        registry.remove(awsInfrastructure.getId());
+        registryStore.recordDeletion(awsInfrastructure.getId(), registry);
+        registryStore.close();
+
+        Map<String, Infrastructure> restoredRegistry = newRegistryStore(1000).load();
+
+        assertThat(restoredRegistry.size(), is(1));
+        Infrastructure restoredInfrastructure = restoredRegistry.get(openstackInfrastructure.getId());
+        assertThat(restoredInfrastructure.getCredentials(), is(openstackInfrastructure.getCredentials()));
+        assertThat(restoredInfrastructure.getScope(), is(openstackInfrastructure.getScope()));
+        assertThat(restoredInfrastructure.getRegion(), is("RegionOne"));
+        assertThat(restoredInfrastructure.getIdentityVersion(), is("3"));
+    }
+
+    @Test
+    public void testCredentialsAreEncryptedAtRest() throws IOException {
+        registryStore.load();
+        registryStore.recordRegistrations(Collections.singletonList(awsInfrastructure),
+                                          Collections.singletonMap(awsInfrastructure.getId(), awsInfrastructure));
+
+        String journal = read(InfrastructureRegistryStore.JOURNAL_FILE);
+        assertThat(journal, containsString("id-aws-ec2"));
+        assertThat(journal, not(containsString("aws-s3cr3t")));
+        assertThat(journal, not(containsString("accessKey")));
+    }
+
+    @Test
+    public void testJournalIsCompactedIntoSnapshot() throws IOException {
+        registryStore = newRegistryStore(2);
+        registryStore.load();
+        Map<String, Infrastructure> registry = new LinkedHashMap<>();
+        registry.put(openstackInfrastructure.getId(), openstackInfrastructure);
+        registryStore.recordRegistrations(Collections.singletonList(openstackInfrastructure), registry);
+        assertThat(read(InfrastructureRegistryStore.JOURNAL_FILE).isEmpty(), is(false));
+
+        registry.put(awsInfrastructure.getId(), awsInfrastructure);
+        registryStore.recordRegistrations(Collections.singletonList(awsInfrastructure), registry);
+
+        assertThat(read(InfrastructureRegistryStore.JOURNAL_FILE).isEmpty(), is(true));
+        assertThat(read(InfrastructureRegistryStore.SNAPSHOT_FILE), containsString("id-aws-ec2"));
+        assertThat(read(InfrastructureRegistryStore.SNAPSHOT_FILE), not(containsString("aws-s3cr3t")));
+        registryStore.close();
+        assertThat(newRegistryStore(2).load().keySet(), is(registry.keySet()));
+    }
+
+    @Test
+    public void testTruncatedJournalRecordIsIgnored() throws IOException {
+        registryStore.load();
+        registryStore.recordRegistrations(Collections.singletonList(openstackInfrastructure),
+                                          Collections.singletonMap(openstackInfrastructure.getId(),
+                                                                   openstackInfrastructure));
+        registryStore.close();
+        Files.write(registryFile(InfrastructureRegistryStore.JOURNAL_FILE),
+                    "{\"operation\":\"REGISTER\",\"infrastructure\":{\"id\":\"id-aws".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+        Map<String, Infrastructure> restoredRegistry = newRegistryStore(1000).load();
+
+        assertThat(restoredRegistry.keySet(), is(Collections.singleton(openstackInfrastructure.getId())));
+    }
+
+    private InfrastructureRegistryStore newRegistryStore(int compactionThreshold) {
+        InfrastructureRegistryStore store = new InfrastructureRegistryStore();
+        ReflectionTestUtils.setField(store, "registryDirectory", temporaryFolder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(store, "compactionThreshold", compactionThreshold);
+        registryStore = store;
+        return store;
+    }
+
+    private Path registryFile(String fileName) {
+        return temporaryFolder.getRoot().toPath().resolve(fileName);
+    }
+
+    private String read(String fileName) throws IOException {
+        return new String(Files.readAllBytes(registryFile(fileName)), StandardCharsets.UTF_8);
+    }
+}
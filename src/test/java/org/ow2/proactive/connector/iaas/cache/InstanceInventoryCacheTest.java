@@ -0,0 +1,203 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.CloudManager;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Sets;
+
+
+public class InstanceInventoryCacheTest {
+
+    @InjectMocks
+    private InstanceInventoryCache instanceInventoryCache;
+
+    @Mock
+    private CloudManager cloudManager;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(instanceInventoryCache, "refreshInterval", 3600000L);
+        ReflectionTestUtils.setField(instanceInventoryCache, "refreshThreads", 1);
+        ReflectionTestUtils.setField(instanceInventoryCache, "defaultConsistency", "cached");
+        ReflectionTestUtils.setField(instanceInventoryCache, "unknownInstanceTtl", 3600000L);
+        instanceInventoryCache.start();
+
+        infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                 "aws",
+                                                                 "endPoint",
+                                                                 "userName",
+                                                                 "password",
+                                                                 null,
+                                                                 null,
+                                                                 null);
+        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstanceWithTag("id1",
+                                                                                                                                        "tag1"),
+                                                                                                    InstanceFixture.simpleInstanceWithTag("id2",
+                                                                                                                                        "tag1"),
+                                                                                                    InstanceFixture.simpleInstanceWithTag("id3",
+                                                                                                                                        "tag2")));
+        when(cloudManager.getCreatedInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id1")));
+    }
+
+    @After
+    public void stop() {
+        instanceInventoryCache.stop();
+    }
+
+    @Test
+    public void testCachedReadsAreServedFromSnapshot() {
+        instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.CACHED);
+        Set<Instance> instances = instanceInventoryCache.getAllInstances(infrastructure, null);
+
+        assertThat(instances.size(), is(3));
+        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testCreatedAndAllInstancesAreCachedSeparately() {
+        assertThat(instanceInventoryCache.getAllInstances(infrastructure, null).size(), is(3));
+        assertThat(instanceInventoryCache.getCreatedInstances(infrastructure, null).size(), is(1));
+        assertThat(instanceInventoryCache.getCreatedInstances(infrastructure, null).size(), is(1));
+
+        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+        verify(cloudManager, times(1)).getCreatedInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testFreshReadsQueryTheProvider() {
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+        instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.FRESH);
+
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testFreshReadFallsBackToSnapshotWhenProviderFails() {
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenThrow(new RuntimeException("provider unavailable"));
+
+        Set<Instance> instances = instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.FRESH);
+
+        assertThat(instances.size(), is(3));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFreshReadFailsWithoutSnapshot() {
+        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenThrow(new RuntimeException("provider unavailable"));
+
+        instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.FRESH);
+    }
+
+    @Test
+    public void testInvalidateForcesReload() {
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+        instanceInventoryCache.invalidate(infrastructure.getId());
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testDefaultConsistencyFresh() {
+        ReflectionTestUtils.setField(instanceInventoryCache, "defaultConsistency", "fresh");
+
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysQueriesTheProvider() {
+        ReflectionTestUtils.setField(instanceInventoryCache, "refreshInterval", 0L);
+
+        instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.CACHED);
+        instanceInventoryCache.getAllInstances(infrastructure, InventoryConsistency.CACHED);
+
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testGetInstanceByIdUsesSnapshot() {
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "id2").get().getId(), is("id2"));
+        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testGetInstanceByIdRemembersUnknownIds() {
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "unknown").isPresent(), is(false));
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "unknown").isPresent(), is(false));
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "unknown").isPresent(), is(false));
+
+        // one load for the initial snapshot, one reload for the first miss
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testGetInstanceByIdReloadsOnceForNewInstance() {
+        instanceInventoryCache.getAllInstances(infrastructure, null);
+        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstanceWithTag("id4",
+                                                                                                                                        "tag1")));
+
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "id4").isPresent(), is(true));
+        assertThat(instanceInventoryCache.getInstanceById(infrastructure, "id4").isPresent(), is(true));
+        verify(cloudManager, times(2)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test
+    public void testGetInstancesByTag() {
+        assertThat(instanceInventoryCache.getInstancesByTag(infrastructure, "tag1").size(), is(2));
+        assertThat(instanceInventoryCache.getInstancesByTag(infrastructure, "tag2").size(), is(1));
+        assertThat(instanceInventoryCache.getInstancesByTag(infrastructure, "tag3").isEmpty(), is(true));
+
+        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.cloud.AdaptiveConcurrencyLimiter.AdaptiveLimit;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        adaptiveConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "initialLimit", 4);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "minLimit", 1);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "maxLimit", 8);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "backoffRatio", 0.5);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "latencyTolerance", 2.0);
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+    }
+
+    @Test
+    public void testCallsOverTheLimitWaitForAPlace() {
+        AdaptiveLimit limit = acquire(ApiFamily.DESCRIBE);
+        for (int i = 0; i < 3; i++) {
+            acquire(ApiFamily.DESCRIBE);
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        limit.acquire(() -> started.set(true));
+        assertThat(started.get(), is(false));
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getWaitingCalls(), is(1));
+        assertThat(adaptiveConcurrencyLimiter.getLimit(infrastructure, ApiFamily.MUTATE).tryAcquire(), is(true));
+
+        limit.release();
+        assertThat(started.get(), is(true));
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getInFlightCalls(), is(4));
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getQueuedCalls(), is(1L));
+    }
+
+    @Test
+    public void testLimitIncreasesWhileLatencyIsFlat() {
+        for (int i = 0; i < 20; i++) {
+            acquire(ApiFamily.DESCRIBE).onSuccess(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getLimit(), is(7));
+
+        for (int i = 0; i < 100; i++) {
+            acquire(ApiFamily.DESCRIBE).onSuccess(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getLimit(), is(8));
+    }
+
+    @Test
+    public void testLimitDecreasesOnLatencySpike() {
+        acquire(ApiFamily.DESCRIBE).onSuccess(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(100));
+        acquire(ApiFamily.DESCRIBE).onSuccess(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getLimit(), is(2));
+        assertThat(getStatistics(ApiFamily.DESCRIBE).getDecreases(), is(1L));
+    }
+
+    @Test
+    public void testLimitDecreasesOnThrottling() {
+        AdaptiveLimit limit = acquire(ApiFamily.MUTATE);
+        limit.onFailure(System.nanoTime(), new HttpResponseException("rate limited", null, HttpResponse.builder().statusCode(429).build()));
+        assertThat(getStatistics(ApiFamily.MUTATE).getLimit(), is(2));
+
+        limit = acquire(ApiFamily.MUTATE);
+        limit.onFailure(System.nanoTime(), new IllegalStateException("not a provider overload"));
+        assertThat(getStatistics(ApiFamily.MUTATE).getLimit(), is(2));
+        assertThat(getStatistics(ApiFamily.MUTATE).getInFlightCalls(), is(0));
+    }
+
+    @Test
+    public void testLimitDecreasesOncePerWindow() {
+        AdaptiveLimit limit = acquire(ApiFamily.MUTATE);
+        acquire(ApiFamily.MUTATE);
+        acquire(ApiFamily.MUTATE);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limit.onFailure(start,
+                            new HttpResponseException("rate limited",
+                                                      null,
+                                                      HttpResponse.builder().statusCode(429).build()));
+        }
+        assertThat(getStatistics(ApiFamily.MUTATE).getLimit(), is(2));
+        assertThat(getStatistics(ApiFamily.MUTATE).getDecreases(), is(1L));
+
+        acquire(ApiFamily.MUTATE).onFailure(System.nanoTime(), new SocketTimeoutException("read timed out"));
+        assertThat(getStatistics(ApiFamily.MUTATE).getLimit(), is(1));
+        assertThat(getStatistics(ApiFamily.MUTATE).getDecreases(), is(2L));
+    }
+
+    private AdaptiveLimit acquire(ApiFamily apiFamily) {
+        AdaptiveLimit limit = adaptiveConcurrencyLimiter.getLimit(infrastructure, apiFamily);
+        assertThat(limit.tryAcquire(), is(true));
+        return limit;
+    }
+
+    private AdaptiveLimitStatistics getStatistics(ApiFamily apiFamily) {
+        return adaptiveConcurrencyLimiter.getStatistics().get("id/" + apiFamily.name().toLowerCase());
+    }
+}
@@ -25,29 +25,56 @@
  */
 package org.ow2.proactive.connector.iaas.cloud;
 
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.provider.AsyncCloudProvider;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
+import org.ow2.proactive.connector.iaas.model.Image;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationResult;
 import org.ow2.proactive.connector.iaas.model.InstanceScript;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 
 public class CloudManagerTest {
 
     private CloudManager cloudManager;
 
+    private ProviderBulkheads providerBulkheads;
+
+    private InFlightOperations inFlightOperations;
+
     @Mock
     private CloudProvider defaultCloudProvider;
 
@@ -60,7 +87,23 @@ public class CloudManagerTest {
         when(defaultCloudProvider.getType()).thenReturn("sometype");
         when(anotheroneCloudProvider.getType()).thenReturn("anothertype");
         cloudManager = new CloudManager(Lists.newArrayList(defaultCloudProvider, anotheroneCloudProvider));
+        providerBulkheads = new ProviderBulkheads();
+        ReflectionTestUtils.setField(providerBulkheads, "providerRateLimiter", new ProviderRateLimiter());
+        AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "initialLimit", 10);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "maxLimit", 100);
+        ReflectionTestUtils.setField(providerBulkheads, "adaptiveConcurrencyLimiter", adaptiveConcurrencyLimiter);
+        ReflectionTestUtils.setField(providerBulkheads, "providerCircuitBreakers", new ProviderCircuitBreakers());
+        ReflectionTestUtils.setField(cloudManager, "providerBulkheads", providerBulkheads);
+        inFlightOperations = new InFlightOperations();
+        ReflectionTestUtils.setField(cloudManager, "inFlightOperations", inFlightOperations);
+        cloudManager.start();
+    }
 
+    @After
+    public void stop() {
+        cloudManager.stop();
+        providerBulkheads.stop();
     }
 
     @Test
@@ -118,4 +161,69 @@ public class CloudManagerTest {
         verify(defaultCloudProvider, times(1)).getAllImages(infrastructure);
     }
 
+    @Test
+    public void testCreateInstanceAsyncOnBlockingProvider() throws InterruptedException, ExecutionException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("sometype");
+        Instance instance = InstanceFixture.simpleInstance("id");
+        when(defaultCloudProvider.createInstance(any(Infrastructure.class),
+                                                 any(Instance.class),
+                                                 any())).thenReturn(Sets.newHashSet(instance));
+
+        Set<Instance> createdInstances = cloudManager.createInstanceAsync(infrastructure, instance).get();
+
+        assertThat(createdInstances, is(Sets.newHashSet(instance)));
+        verify(defaultCloudProvider, times(1)).createInstance(any(Infrastructure.class), any(Instance.class), any());
+    }
+
+    @Test
+    public void testCancelledCreationDeletesCreatedInstances() throws InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("sometype");
+        Instance instance = InstanceFixture.simpleInstance("id");
+        CountDownLatch started = new CountDownLatch(1);
+        when(defaultCloudProvider.createInstance(infrastructure, instance)).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(60000);
+                return Sets.newHashSet(instance);
+            } catch (InterruptedException e) {
+                // the provider reports the instances created before the interruption
+                throw new PartialInstanceCreationException(new InstanceCreationResult(2,
+                                                                                      Sets.newHashSet(instance),
+                                                                                      Lists.newArrayList()),
+                                                           e);
+            }
+        });
+        CompletableFuture<Set<Instance>> creation = CompletableFuture.supplyAsync(() -> {
+            InFlightOperations.setRequestedOperationId("operation");
+            return cloudManager.createInstance(infrastructure, instance);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        inFlightOperations.cancel("operation");
+
+        try {
+            creation.join();
+            fail("The cancelled creation should not complete");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(OperationCancelledException.class)));
+        }
+        verify(defaultCloudProvider, timeout(5000)).deleteInstance(infrastructure, "id");
+    }
+
+    @Test
+    public void testGetAllImagesAsyncOnAsyncProvider() throws InterruptedException, ExecutionException {
+        CloudProvider asyncCloudProvider = mock(CloudProvider.class,
+                                                withSettings().extraInterfaces(AsyncCloudProvider.class));
+        when(asyncCloudProvider.getType()).thenReturn("asynctype");
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("asynctype");
+        Set<Image> images = Sets.newHashSet(Image.builder().id("image-id").build());
+        when(((AsyncCloudProvider) asyncCloudProvider).getAllImagesAsync(infrastructure)).thenReturn(CompletableFuture.completedFuture(images));
+        cloudManager.stop();
+        cloudManager = new CloudManager(Lists.newArrayList(asyncCloudProvider));
+        cloudManager.start();
+
+        assertThat(cloudManager.getAllImagesAsync(infrastructure).get(), is(images));
+        verify(asyncCloudProvider, times(0)).getAllImages(infrastructure);
+    }
+
 }
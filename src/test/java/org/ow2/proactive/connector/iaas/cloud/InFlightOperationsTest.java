@@ -0,0 +1,163 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.model.OperationType;
+
+
+public class InFlightOperationsTest {
+
+    private InFlightOperations inFlightOperations;
+
+    private Infrastructure infrastructure;
+
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        inFlightOperations = new InFlightOperations();
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("sometype");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void stop() {
+        InFlightOperations.setRequestedOperationId(null);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOperationRegisteredUnderRequestedIdWhileInFlight() {
+        InFlightOperations.setRequestedOperationId("operation");
+
+        Optional<Operation> operation = inFlightOperations.call(infrastructure,
+                                                                OperationType.SCRIPT_EXECUTION,
+                                                                "Script execution",
+                                                                () -> inFlightOperations.getOperation("operation"));
+
+        assertThat(operation.get().getInfrastructureId(), is(infrastructure.getId()));
+        assertThat(operation.get().getType(), is(OperationType.SCRIPT_EXECUTION));
+        assertThat(operation.get().isCancelled(), is(false));
+        assertThat(inFlightOperations.getOperation("operation"), is(Optional.empty()));
+        assertTrue(inFlightOperations.getOperations().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOperationIdInUseRejected() {
+        InFlightOperations.setRequestedOperationId("operation");
+        inFlightOperations.call(infrastructure, OperationType.SCRIPT_EXECUTION, "Script execution", () -> {
+            InFlightOperations.setRequestedOperationId("operation");
+            return inFlightOperations.call(infrastructure,
+                                           OperationType.SCRIPT_EXECUTION,
+                                           "Other script execution",
+                                           () -> "executed");
+        });
+    }
+
+    @Test
+    public void testCancelInterruptsWorkingThreadsAndRunsCompensation() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean compensated = new AtomicBoolean();
+        CompletableFuture<String> call = CompletableFuture.supplyAsync(() -> {
+            InFlightOperations.setRequestedOperationId("operation");
+            return inFlightOperations.call(infrastructure,
+                                           OperationType.INSTANCE_CREATION,
+                                           "Instance creation",
+                                           () -> CompletableFuture.supplyAsync(InFlightOperation.propagate(() -> {
+                                               started.countDown();
+                                               try {
+                                                   Thread.sleep(60000);
+                                                   return "created";
+                                               } catch (InterruptedException e) {
+                                                   throw new RuntimeException("Interrupted", e);
+                                               }
+                                           }), executor).join(),
+                                           () -> compensated.set(true));
+        }, executor);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThat(inFlightOperations.cancel("operation").get().isCancelled(), is(true));
+
+        try {
+            call.join();
+            fail("The cancelled operation should not complete");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(OperationCancelledException.class)));
+        }
+        assertThat(compensated.get(), is(true));
+        assertThat(inFlightOperations.getOperation("operation"), is(Optional.empty()));
+    }
+
+    @Test
+    public void testCancelledAsyncOperationCompletesWithCancellation() {
+        CompletableFuture<String> creation = new CompletableFuture<>();
+        AtomicBoolean compensated = new AtomicBoolean();
+        InFlightOperations.setRequestedOperationId("operation");
+        CompletableFuture<String> operation = inFlightOperations.callAsync(infrastructure,
+                                                                           OperationType.INSTANCE_CREATION,
+                                                                           "Instance creation",
+                                                                           () -> creation,
+                                                                           () -> compensated.set(true));
+
+        inFlightOperations.cancel("operation");
+        assertThat(operation.isDone(), is(false));
+        creation.complete("created");
+
+        try {
+            operation.join();
+            fail("The cancelled operation should not complete");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(OperationCancelledException.class)));
+        }
+        assertThat(compensated.get(), is(true));
+    }
+
+    @Test
+    public void testCancelUnknownOperation() {
+        assertThat(inFlightOperations.cancel("unknown"), is(Optional.empty()));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class ProviderBulkheadsTest {
+
+    private ProviderBulkheads providerBulkheads;
+
+    private CountDownLatch release;
+
+    @Before
+    public void init() {
+        providerBulkheads = new ProviderBulkheads();
+        ReflectionTestUtils.setField(providerBulkheads, "providerTypeThreads", 2);
+        ReflectionTestUtils.setField(providerBulkheads, "providerTypeScriptThreads", 1);
+        ReflectionTestUtils.setField(providerBulkheads, "providerTypeQueueSize", 1);
+        ReflectionTestUtils.setField(providerBulkheads, "infrastructureMaxCalls", 2);
+        ReflectionTestUtils.setField(providerBulkheads, "providerRateLimiter", new ProviderRateLimiter());
+        AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "initialLimit", 10);
+        ReflectionTestUtils.setField(adaptiveConcurrencyLimiter, "maxLimit", 100);
+        ReflectionTestUtils.setField(providerBulkheads, "adaptiveConcurrencyLimiter", adaptiveConcurrencyLimiter);
+        ReflectionTestUtils.setField(providerBulkheads, "providerCircuitBreakers", new ProviderCircuitBreakers());
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void stop() {
+        RequestDeadline.set(null);
+        release.countDown();
+        providerBulkheads.stop();
+    }
+
+    @Test
+    public void testSaturatedInfrastructureDoesNotBlockOtherInfrastructures() {
+        Infrastructure slowInfrastructure = InfrastructureFixture.getSimpleInfrastructure("slow", "openstack");
+        providerBulkheads.supplyAsync(slowInfrastructure, ApiFamily.DESCRIBE, this::waitForRelease);
+        providerBulkheads.supplyAsync(slowInfrastructure, ApiFamily.DESCRIBE, this::waitForRelease);
+
+        try {
+            providerBulkheads.supplyAsync(slowInfrastructure, ApiFamily.DESCRIBE, this::waitForRelease);
+            fail("the third call on the infrastructure should have been rejected");
+        } catch (RejectedExecutionException e) {
+            assertThat(providerBulkheads.getInfrastructureStatistics().get("slow").getRejectedCalls(), is(1L));
+        }
+
+        Infrastructure otherInfrastructure = InfrastructureFixture.getSimpleInfrastructure("other", "aws-ec2");
+        assertThat(providerBulkheads.call(otherInfrastructure, ApiFamily.DESCRIBE, () -> "answered"),
+                   is("answered"));
+    }
+
+    @Test
+    public void testSaturatedProviderTypeIsRejected() {
+        providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("first", "openstack"),
+                                      ApiFamily.DESCRIBE,
+                                      this::waitForRelease);
+        providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("second", "openstack"),
+                                      ApiFamily.DESCRIBE,
+                                      this::waitForRelease);
+        providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("third", "openstack"),
+                                      ApiFamily.DESCRIBE,
+                                      this::waitForRelease);
+
+        try {
+            providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("fourth", "openstack"),
+                                          ApiFamily.DESCRIBE,
+                                          this::waitForRelease);
+            fail("the provider type should have been saturated");
+        } catch (RejectedExecutionException e) {
+            assertThat(providerBulkheads.getProviderTypeStatistics().get("openstack").getRejectedCalls(), is(1L));
+            assertThat(providerBulkheads.getInfrastructureStatistics().get("fourth").getInFlightCalls(), is(0));
+        }
+    }
+
+    @Test
+    public void testScriptsDoNotHoldTheProviderTypeThreads() {
+        providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("first", "openstack"),
+                                      ApiFamily.SCRIPT,
+                                      this::waitForRelease);
+        providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("second", "openstack"),
+                                      ApiFamily.SCRIPT,
+                                      this::waitForRelease);
+
+        try {
+            providerBulkheads.supplyAsync(InfrastructureFixture.getSimpleInfrastructure("third", "openstack"),
+                                          ApiFamily.SCRIPT,
+                                          this::waitForRelease);
+            fail("the script threads of the provider type should have been saturated");
+        } catch (RejectedExecutionException e) {
+            assertThat(providerBulkheads.getProviderTypeStatistics().get("openstack/script").getRejectedCalls(),
+                       is(1L));
+        }
+        assertThat(providerBulkheads.call(InfrastructureFixture.getSimpleInfrastructure("fourth", "openstack"),
+                                          ApiFamily.DESCRIBE,
+                                          () -> "answered"),
+                   is("answered"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCallRethrowsProviderException() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+        providerBulkheads.call(infrastructure, ApiFamily.DESCRIBE, () -> {
+            throw new IllegalStateException("provider failure");
+        });
+    }
+
+    @Test
+    public void testPermitReleasedOnceCallCompletes() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<String> call = providerBulkheads.supplyAsync(infrastructure,
+                                                                           ApiFamily.DESCRIBE,
+                                                                           () -> "done");
+            assertThat(call.join(), is("done"));
+        }
+        assertThat(providerBulkheads.getInfrastructureStatistics().get("id").getInFlightCalls(), is(0));
+    }
+
+    @Test
+    public void testCallWaitsForItsTokensWithoutHoldingAThread() {
+        ProviderRateLimiter providerRateLimiter = new ProviderRateLimiter();
+        ReflectionTestUtils.setField(providerRateLimiter, "mutatePermitsPerSecond", 2.0);
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 5000L);
+        ReflectionTestUtils.setField(providerBulkheads, "providerRateLimiter", providerRateLimiter);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+
+        providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 2);
+        CompletableFuture<String> next = providerBulkheads.supplyAsync(infrastructure,
+                                                                       ApiFamily.MUTATE,
+                                                                       () -> "deleted");
+
+        assertThat(next.isDone(), is(false));
+        // no thread of the provider type has been taken yet
+        assertThat(providerBulkheads.getProviderTypeStatistics().containsKey("openstack"), is(false));
+        assertThat(next.join(), is("deleted"));
+    }
+
+    @Test
+    public void testExpiredDeadlineAbandonsCallBeforeProvider() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+        AtomicBoolean called = new AtomicBoolean();
+        RequestDeadline.set(System.currentTimeMillis());
+        CompletableFuture<Boolean> call = providerBulkheads.supplyAsync(infrastructure,
+                                                                        ApiFamily.DESCRIBE,
+                                                                        () -> called.getAndSet(true));
+        try {
+            call.join();
+            fail("the call should have been abandoned");
+        } catch (CompletionException e) {
+            assertThat(e.getCause() instanceof DeadlineExceededException, is(true));
+            assertThat(called.get(), is(false));
+        }
+        assertThat(providerBulkheads.getInfrastructureStatistics().get("id").getInFlightCalls(), is(0));
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testCallGivesUpAtDeadline() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+        RequestDeadline.set(System.currentTimeMillis() + 100);
+        providerBulkheads.call(infrastructure, ApiFamily.DESCRIBE, this::waitForRelease);
+    }
+
+    private String waitForRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "released";
+    }
+}
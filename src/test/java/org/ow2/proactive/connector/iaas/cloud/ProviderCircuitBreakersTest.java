@@ -0,0 +1,209 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.cloud.ProviderCircuitBreakers.CircuitBreaker;
+import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import net.schmizz.sshj.common.SSHException;
+
+
+public class ProviderCircuitBreakersTest {
+
+    private ProviderCircuitBreakers providerCircuitBreakers;
+
+    private CloudProvider cloudProvider;
+
+    private ProviderRateLimiter providerRateLimiter;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        cloudProvider = mock(CloudProvider.class);
+        when(cloudProvider.getType()).thenReturn("openstack");
+        providerCircuitBreakers = new ProviderCircuitBreakers();
+        ReflectionTestUtils.setField(providerCircuitBreakers, "failureThreshold", 3);
+        ReflectionTestUtils.setField(providerCircuitBreakers, "openDuration", 60000L);
+        ReflectionTestUtils.setField(providerCircuitBreakers,
+                                     "cloudProviders",
+                                     Collections.singletonList(cloudProvider));
+        providerRateLimiter = new ProviderRateLimiter();
+        ReflectionTestUtils.setField(providerRateLimiter, "describePermitsPerSecond", 100.0);
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 1000L);
+        ReflectionTestUtils.setField(providerRateLimiter, "defaultRetryAfter", 5000L);
+        ReflectionTestUtils.setField(providerCircuitBreakers, "providerRateLimiter", providerRateLimiter);
+        ReflectionTestUtils.setField(providerCircuitBreakers,
+                                     "healthProbeExecutor",
+                                     MoreExecutors.newDirectExecutorService());
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveUnavailabilityFailures() {
+        for (int i = 0; i < 3; i++) {
+            callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        }
+
+        try {
+            providerCircuitBreakers.acquire(infrastructure);
+            fail("the circuit breaker should be open");
+        } catch (RejectedExecutionException e) {
+            CircuitBreakerStatistics statistics = providerCircuitBreakers.getStatistics().get("id");
+            assertThat(statistics.getState(), is("OPEN"));
+            assertThat(statistics.getOpenings(), is(1L));
+            assertThat(statistics.getRejectedCalls(), is(1L));
+        }
+    }
+
+    @Test
+    public void testRequestErrorsDoNotOpen() {
+        callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        callAndFail(new IllegalArgumentException("unknown image"));
+        callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("CLOSED"));
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getConsecutiveFailures(), is(1));
+    }
+
+    @Test
+    public void testSshFailuresDoNotOpen() {
+        for (int i = 0; i < 3; i++) {
+            callAndFail(new RuntimeException(new SSHException(new ConnectException("Connection refused"))));
+        }
+
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("CLOSED"));
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getConsecutiveFailures(), is(0));
+    }
+
+    @Test
+    public void testUnrecordedCallsDoNotOpen() {
+        for (int i = 0; i < 3; i++) {
+            try {
+                providerCircuitBreakers.acquire(infrastructure).callUnrecorded(() -> {
+                    throw new RuntimeException(new SocketTimeoutException("connect timed out"));
+                });
+                fail("the error of the call should be rethrown");
+            } catch (RuntimeException e) {
+                assertThat(e.getCause(), instanceOf(SocketTimeoutException.class));
+            }
+        }
+
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("CLOSED"));
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getConsecutiveFailures(), is(0));
+    }
+
+    @Test
+    public void testHalfOpenLetsASingleTrialThrough() {
+        ReflectionTestUtils.setField(providerCircuitBreakers, "openDuration", 0L);
+        for (int i = 0; i < 3; i++) {
+            callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        }
+
+        CircuitBreaker trial = providerCircuitBreakers.acquire(infrastructure);
+        try {
+            providerCircuitBreakers.acquire(infrastructure);
+            fail("only one trial call should be let through");
+        } catch (RejectedExecutionException e) {
+            assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("HALF_OPEN"));
+        }
+
+        assertThat(trial.call(() -> "answered"), is("answered"));
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("CLOSED"));
+    }
+
+    @Test
+    public void testHealthProbeClosesOnceProviderRecovers() {
+        ReflectionTestUtils.setField(providerCircuitBreakers, "openDuration", 0L);
+        for (int i = 0; i < 3; i++) {
+            callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        }
+
+        doThrow(new RuntimeException(new SocketTimeoutException("connect timed out"))).when(cloudProvider)
+                                                                                     .checkHealth(infrastructure);
+        providerCircuitBreakers.probeOpenCircuitBreakers();
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("OPEN"));
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getOpenings(), is(2L));
+
+        doThrow(new IllegalStateException("reachable")).when(cloudProvider).checkHealth(infrastructure);
+        providerCircuitBreakers.probeOpenCircuitBreakers();
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getState(), is("CLOSED"));
+        verify(cloudProvider, times(2)).checkHealth(infrastructure);
+    }
+
+    @Test
+    public void testHealthProbePostponedOverTheRateLimit() {
+        ReflectionTestUtils.setField(providerCircuitBreakers, "openDuration", 0L);
+        ReflectionTestUtils.setField(providerRateLimiter, "describePermitsPerSecond", 0.01);
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 0L);
+        for (int i = 0; i < 3; i++) {
+            callAndFail(new RuntimeException(new SocketTimeoutException("connect timed out")));
+        }
+        doThrow(new RuntimeException(new SocketTimeoutException("connect timed out"))).when(cloudProvider)
+                                                                                     .checkHealth(infrastructure);
+
+        providerCircuitBreakers.probeOpenCircuitBreakers();
+        providerCircuitBreakers.probeOpenCircuitBreakers();
+
+        verify(cloudProvider, times(1)).checkHealth(infrastructure);
+        assertThat(providerCircuitBreakers.getStatistics().get("id").getOpenings(), is(2L));
+        assertThat(providerRateLimiter.getStatistics().size(), is(1));
+    }
+
+    private void callAndFail(RuntimeException error) {
+        try {
+            providerCircuitBreakers.acquire(infrastructure).call(() -> {
+                throw error;
+            });
+            fail("the call should have failed");
+        } catch (RuntimeException e) {
+            assertThat(e, is(error));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class ProviderRateLimiterTest {
+
+    private ProviderRateLimiter providerRateLimiter;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        providerRateLimiter = new ProviderRateLimiter();
+        ReflectionTestUtils.setField(providerRateLimiter, "describePermitsPerSecond", 100.0);
+        ReflectionTestUtils.setField(providerRateLimiter, "mutatePermitsPerSecond", 1.0);
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 100L);
+        ReflectionTestUtils.setField(providerRateLimiter, "defaultRetryAfter", 5000L);
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("id", "openstack");
+    }
+
+    @Test
+    public void testCallsOverTheRateAreRejected() {
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 0L);
+        assertThat(providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 1), is(0L));
+        try {
+            providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 1);
+            fail("the second call should have exceeded one call per second");
+        } catch (RejectedExecutionException e) {
+            ProviderRateLimiterStatistics statistics = providerRateLimiter.getStatistics()
+                                                                          .values()
+                                                                          .iterator()
+                                                                          .next();
+            assertThat(statistics.getCalls(), is(1L));
+            assertThat(statistics.getRejectedCalls(), is(1L));
+        }
+    }
+
+    @Test
+    public void testTokensChargedPerCreatedInstance() {
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 10000L);
+        assertThat(providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 3), is(0L));
+        assertThat(providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 1), greaterThan(2000L));
+    }
+
+    @Test
+    public void testRegionOfTheImage() {
+        Infrastructure awsInfrastructure = InfrastructureFixture.getSimpleInfrastructure("aws", "aws-ec2");
+        assertThat(ProviderRateLimiter.getRegion(awsInfrastructure,
+                                                 InstanceFixture.simpleInstanceWithTagAndImage("tag",
+                                                                                               "eu-west-1/ami-1")),
+                   is("eu-west-1"));
+
+        ReflectionTestUtils.setField(providerRateLimiter, "maxWait", 0L);
+        assertThat(providerRateLimiter.reserve(awsInfrastructure, ApiFamily.MUTATE, "eu-west-1", 1), is(0L));
+        assertThat(providerRateLimiter.reserve(awsInfrastructure, ApiFamily.MUTATE, "us-east-1", 1), is(0L));
+    }
+
+    @Test
+    public void testThrottledCallPausesItsApiFamily() {
+        try {
+            providerRateLimiter.call(infrastructure, ApiFamily.DESCRIBE, null, () -> {
+                throw throttled("1");
+            });
+            fail("the throttling error should have been rethrown");
+        } catch (HttpResponseException e) {
+            assertThat(e.getResponse().getStatusCode(), is(429));
+        }
+
+        try {
+            providerRateLimiter.reserve(infrastructure, ApiFamily.DESCRIBE, null, 1);
+            fail("the calls should be paused for the Retry-After delay");
+        } catch (RejectedExecutionException e) {
+            assertThat(providerRateLimiter.getStatistics()
+                                          .entrySet()
+                                          .stream()
+                                          .filter(entry -> entry.getKey().endsWith("/describe"))
+                                          .findFirst()
+                                          .get()
+                                          .getValue()
+                                          .getThrottledCalls(),
+                       is(1L));
+        }
+
+        assertThat(providerRateLimiter.reserve(infrastructure, ApiFamily.MUTATE, null, 1), is(0L));
+    }
+
+    @Test
+    public void testRetryAfter() {
+        assertThat(ProviderThrottling.isThrottling(new RuntimeException(throttled("2"))), is(true));
+        assertThat(ProviderThrottling.getRetryAfter(new RuntimeException(throttled("2"))), is(Optional.of(2000L)));
+        assertThat(ProviderThrottling.isThrottling(new IllegalStateException("not throttled")), is(false));
+    }
+
+    private HttpResponseException throttled(String retryAfter) {
+        return new HttpResponseException("rate limited",
+                                         null,
+                                         HttpResponse.builder()
+                                                     .statusCode(429)
+                                                     .addHeader("Retry-After", retryAfter)
+                                                     .build());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+public class RequestDeadlineTest {
+
+    @After
+    public void clearDeadline() {
+        RequestDeadline.set(null);
+    }
+
+    @Test
+    public void testTimeoutShortenedToDeadline() {
+        assertThat(RequestDeadline.getRemainingTime(60000), is(60000L));
+
+        RequestDeadline.set(System.currentTimeMillis() + 1000);
+        long remainingTime = RequestDeadline.getRemainingTime(60000);
+        assertTrue(remainingTime > 0 && remainingTime <= 1000);
+        assertThat(RequestDeadline.getRemainingTime(10), is(10L));
+    }
+
+    @Test
+    public void testDeadlinePropagatedToOtherThreads() {
+        long expiration = System.currentTimeMillis() + 60000;
+        RequestDeadline.set(expiration);
+
+        CompletableFuture<Optional<Long>> propagated = CompletableFuture.supplyAsync(RequestDeadline.propagate(RequestDeadline::getExpiration));
+        CompletableFuture<Optional<Long>> notPropagated = CompletableFuture.supplyAsync(RequestDeadline::getExpiration);
+
+        assertThat(propagated.join(), is(Optional.of(expiration)));
+        assertThat(notPropagated.join(), is(Optional.empty()));
+    }
+
+    @Test
+    public void testPollGivesUpAtDeadline() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+            completionService.submit(() -> {
+                Thread.sleep(60000);
+                return "created";
+            });
+            RequestDeadline.set(System.currentTimeMillis() + 100);
+
+            assertThat(RequestDeadline.poll(completionService), is(nullValue()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testJoinGivesUpAtDeadline() {
+        RequestDeadline.set(System.currentTimeMillis() + 100);
+        RequestDeadline.join(new CompletableFuture<>(), "operation");
+    }
+}
@@ -30,6 +30,7 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -48,11 +49,10 @@ public class TagManagerTest {
 
     @Test
     public void testRetrieveTagsWithoutOptions() {
-        List<Tag> tags = tagManager.retrieveAllTags(null, null);
+        Map<String, String> tags = tagManager.retrieveAllTags("infra-id", null);
         assertTrue(tags.size() == 2);
-        assertThat(tags.get(0).getKey(), is("connector-iaas-tag"));
-        assertThat(tags.get(0).getValue(), is("default-value"));
-        assertThat(tags.get(1).getKey(), is("infrastructure-id-tag"));
+        assertThat(tags.get("connector-iaas-tag"), is("default-value"));
+        assertThat(tags.get("infrastructure-id-tag"), is("infra-id"));
     }
 
     @Test
@@ -63,7 +63,7 @@ public class TagManagerTest {
         optionsTags.add(Tag.builder().key("random-tag2").value("random-value2").build());
         optionsTags.add(Tag.builder().key("random-tag3").value("random-value3").build());
         Options options = Options.builder().tags(optionsTags).build();
-        List<Tag> tags = tagManager.retrieveAllTags(infrastructureId, options);
+        Map<String, String> tags = tagManager.retrieveAllTags(infrastructureId, options);
         assertTrue(tags.size() == 5);
     }
 
@@ -75,12 +75,20 @@ public class TagManagerTest {
         optionsTags.add(Tag.builder().key("random-tag").value("random-value").build());
         optionsTags.add(Tag.builder().key("infrastructure-id-tag").value("new-infra-id-value").build());
         Options options = Options.builder().tags(optionsTags).build();
-        List<Tag> tags = tagManager.retrieveAllTags(infrastructureId, options);
+        Map<String, String> tags = tagManager.retrieveAllTags(infrastructureId, options);
         assertTrue(tags.size() == 3);
-        assertThat(tags.stream().filter(tag -> tag.getKey().equals("connector-iaas-tag")).findAny().get().getValue(),
-                   is("default-value"));
-        assertThat(tags.stream().filter(tag -> tag.getKey().equals("infrastructure-id-tag")).findAny().get().getValue(),
-                   is("infra-id"));
+        assertThat(tags.get("connector-iaas-tag"), is("default-value"));
+        assertThat(tags.get("infrastructure-id-tag"), is("infra-id"));
+    }
+
+    @Test
+    public void testRetrieveTagsOfSeveralInfrastructures() {
+        Map<String, String> firstTags = tagManager.retrieveAllTags("first-infra-id", null);
+        Map<String, String> secondTags = tagManager.retrieveAllTags("second-infra-id", null);
+        assertThat(firstTags.get("infrastructure-id-tag"), is("first-infra-id"));
+        assertThat(secondTags.get("infrastructure-id-tag"), is("second-infra-id"));
+        assertSame(firstTags, tagManager.retrieveAllTags("first-infra-id", null));
+        assertNull(tagManager.getInfrastructureIdTag().getValue());
     }
 
 }
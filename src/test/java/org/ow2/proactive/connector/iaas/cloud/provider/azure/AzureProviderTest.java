@@ -52,6 +52,7 @@ import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.microsoft.azure.Page;
@@ -367,7 +368,7 @@ public class AzureProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         // Tests
         Infrastructure infrastructure;
@@ -522,7 +523,7 @@ public class AzureProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         // Tests
         Infrastructure infrastructure;
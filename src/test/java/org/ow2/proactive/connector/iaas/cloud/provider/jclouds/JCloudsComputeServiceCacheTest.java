@@ -29,20 +29,34 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCacheStatistics;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.InfrastructureScope;
+import org.springframework.test.util.ReflectionTestUtils;
 
 
 public class JCloudsComputeServiceCacheTest {
@@ -201,4 +215,173 @@ public class JCloudsComputeServiceCacheTest {
                                                                                                        null));
     }
 
+    @Test
+    public void testRemoveComputeServiceClosesContext() {
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        when(computeService.getContext()).thenReturn(context);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+
+        computeServiceCache.getComputeService(infrastructure);
+        computeServiceCache.removeComputeService(infrastructure);
+
+        verify(context, times(1)).close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedComputeServiceIsEvicted() {
+        ReflectionTestUtils.setField(computeServiceCache, "maxSize", 1);
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        when(computeService.getContext()).thenReturn(context);
+        Infrastructure firstInfrastructure = InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                     "aws-ec2",
+                                                                                     "endPoint",
+                                                                                     "userName",
+                                                                                     "password",
+                                                                                     null,
+                                                                                     null,
+                                                                                     null);
+        Infrastructure secondInfrastructure = InfrastructureFixture.getInfrastructure("id-openstack",
+                                                                                      "openstack",
+                                                                                      "endPoint",
+                                                                                      "userName",
+                                                                                      "password",
+                                                                                      null,
+                                                                                      null,
+                                                                                      null);
+
+        computeServiceCache.getComputeService(firstInfrastructure);
+        computeServiceCache.getComputeService(secondInfrastructure);
+        computeServiceCache.getComputeService(secondInfrastructure);
+
+        // the evicted compute service is closed in the background
+        verify(context, timeout(1000).times(1)).close();
+        assertThat(computeServiceCache.getStatistics(), is(new ProviderClientCacheStatistics(1, 1, 2, 1)));
+
+        computeServiceCache.getComputeService(firstInfrastructure);
+        verify(computeServiceBuilder, times(2)).buildComputeServiceFromInfrastructure(firstInfrastructure);
+    }
+
+    @Test
+    public void testIdleComputeServiceIsEvicted() throws InterruptedException {
+        ReflectionTestUtils.setField(computeServiceCache, "idleTimeout", 1L);
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        when(computeService.getContext()).thenReturn(context);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+
+        computeServiceCache.getComputeService(infrastructure);
+        Thread.sleep(10);
+        computeServiceCache.evictIdleClients();
+
+        verify(context, timeout(1000).times(1)).close();
+        assertThat(computeServiceCache.getStatistics().getSize(), is(0));
+        assertThat(computeServiceCache.getStatistics().getEvictions(), is(1L));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareTheSameBuild() throws InterruptedException, ExecutionException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure)).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return computeService;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<ComputeService>> computeServices = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            computeServices.add(executor.submit(() -> computeServiceCache.getComputeService(infrastructure)));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+        for (Future<ComputeService> builtComputeService : computeServices) {
+            assertThat(builtComputeService.get(), is(computeService));
+        }
+        verify(computeServiceBuilder, times(1)).buildComputeServiceFromInfrastructure(infrastructure);
+        assertThat(computeServiceCache.getStatistics().getMisses(), is(1L));
+    }
+
+    @Test
+    public void testFailedBuildIsNotCached() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure)).thenThrow(new IllegalStateException("authentication failed"))
+                                                                                         .thenReturn(computeService);
+
+        try {
+            computeServiceCache.getComputeService(infrastructure);
+            fail("The build failure is expected to be thrown");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("authentication failed"));
+        }
+
+        assertThat(computeServiceCache.getComputeService(infrastructure), is(computeService));
+        verify(computeServiceBuilder, times(2)).buildComputeServiceFromInfrastructure(infrastructure);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testBuildTimeout() {
+        ReflectionTestUtils.setField(computeServiceCache, "buildTimeout", 50L);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure)).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return computeService;
+        });
+
+        computeServiceCache.getComputeService(infrastructure);
+    }
+
+    @Test
+    public void testTimedOutBuildIsDiscarded() {
+        ReflectionTestUtils.setField(computeServiceCache, "buildTimeout", 50L);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure)).thenAnswer(invocation -> {
+            Thread.sleep(60000);
+            return computeService;
+        }).thenReturn(computeService);
+
+        try {
+            computeServiceCache.getComputeService(infrastructure);
+            fail("The build timeout is expected to be thrown");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage().startsWith("Timed out"), is(true));
+        }
+
+        // the hung build does not hold the next request
+        assertThat(computeServiceCache.getComputeService(infrastructure), is(computeService));
+        verify(computeServiceBuilder, times(2)).buildComputeServiceFromInfrastructure(infrastructure);
+    }
+
+    @Test
+    public void testRotatedCredentialsSwapComputeService() {
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                "aws-ec2",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+        Infrastructure rotatedInfrastructure = InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                       "aws-ec2",
+                                                                                       "endPoint",
+                                                                                       "userName",
+                                                                                       "rotated-password",
+                                                                                       null,
+                                                                                       null,
+                                                                                       null);
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        when(computeService.getContext()).thenReturn(context);
+        ComputeService rotatedComputeService = mock(ComputeService.class);
+        when(computeServiceBuilder.buildComputeServiceFromInfrastructure(any(Infrastructure.class))).thenReturn(computeService,
+                                                                                                               rotatedComputeService);
+
+        assertThat(computeServiceCache.getComputeService(infrastructure), is(computeService));
+        assertThat(computeServiceCache.getComputeService(rotatedInfrastructure), is(rotatedComputeService));
+        assertThat(computeServiceCache.getComputeService(rotatedInfrastructure), is(rotatedComputeService));
+
+        // the previous compute service is closed in the background
+        verify(context, timeout(1000).times(1)).close();
+        verify(computeServiceBuilder, times(2)).buildComputeServiceFromInfrastructure(any(Infrastructure.class));
+        assertThat(computeServiceCache.getStatistics().getSize(), is(1));
+    }
+
 }
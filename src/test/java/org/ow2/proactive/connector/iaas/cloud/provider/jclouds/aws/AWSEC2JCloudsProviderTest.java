@@ -30,6 +30,7 @@ import static org.jclouds.compute.predicates.NodePredicates.runningInGroup;
 import static org.jclouds.scriptbuilder.domain.Statements.exec;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -64,7 +65,10 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.ow2.proactive.connector.iaas.cache.ResourceOwnershipLedger;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceBuilder;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
@@ -74,11 +78,13 @@ import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
 import org.ow2.proactive.connector.iaas.model.Image;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationFailure;
 import org.ow2.proactive.connector.iaas.model.Options;
 import org.ow2.proactive.connector.iaas.model.ScriptResult;
 import org.ow2.proactive.connector.iaas.model.Tag;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.microsoft.azure.management.compute.VirtualMachineExtension;
@@ -121,6 +127,9 @@ public class AWSEC2JCloudsProviderTest {
     @Mock
     private TagManager tagManager;
 
+    @Spy
+    private ResourceOwnershipLedger resourceOwnershipLedger = new ResourceOwnershipLedger();
+
     private Tag connectorIaasTag = Tag.builder().key("connector-iaas-tag-key").value("default-value").build();
 
     @Before
@@ -190,7 +199,7 @@ public class AWSEC2JCloudsProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         Set<Instance> created = jcloudsProvider.createInstance(infrastructure, instance);
 
@@ -204,6 +213,183 @@ public class AWSEC2JCloudsProviderTest {
 
     }
 
+    @Test
+    public void testCreateInstanceStreaming() throws NumberFormatException, RunNodesException {
+        ReflectionTestUtils.setField(jcloudsProvider, "maxParallelCreations", 2);
+
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+
+        when(computeService.templateBuilder()).thenReturn(templateBuilder);
+
+        Instance instance = InstanceFixture.getInstance("instance-id",
+                                                        "instance-name",
+                                                        IMAGE,
+                                                        "2",
+                                                        "512",
+                                                        "2",
+                                                        "77.154.227.148",
+                                                        "1.0.0.2",
+                                                        "running");
+
+        when(templateBuilder.minRam(Integer.parseInt(instance.getHardware().getMinRam()))).thenReturn(templateBuilder);
+
+        when(templateBuilder.minCores(Double.parseDouble(instance.getHardware()
+                                                                 .getMinCores()))).thenReturn(templateBuilder);
+
+        when(templateBuilder.locationId(REGION)).thenReturn(templateBuilder);
+
+        when(templateBuilder.imageId(instance.getImage())).thenReturn(templateBuilder);
+
+        when(templateBuilder.fromTemplate(template)).thenReturn(templateBuilder);
+
+        when(templateBuilder.build()).thenReturn(template);
+
+        Set firstNodes = Sets.newHashSet(createRunningNode("RegionOne/node-1"));
+        Set secondNodes = Sets.newHashSet(createRunningNode("RegionOne/node-2"));
+        when(computeService.createNodesInGroup(instance.getTag(), 1, template)).thenReturn(firstNodes, secondNodes);
+
+        TemplateOptions templateOptions = mock(TemplateOptions.class);
+        when(template.getOptions()).thenReturn(templateOptions);
+
+        when(templateOptions.runAsRoot(true)).thenReturn(templateOptions);
+        when(templateOptions.as(AWSEC2TemplateOptions.class)).thenReturn(awsEC2TemplateOptions);
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
+
+        List<Instance> notifiedInstances = Collections.synchronizedList(Lists.newArrayList());
+        Set<Instance> created = jcloudsProvider.createInstance(infrastructure, instance, notifiedInstances::add);
+
+        assertThat(created.size(), is(2));
+        assertThat(notifiedInstances.size(), is(2));
+        assertThat(Sets.newHashSet(notifiedInstances), is(created));
+
+        verify(computeService, times(2)).createNodesInGroup(instance.getTag(), 1, template);
+        verify(computeService, times(0)).createNodesInGroup(instance.getTag(),
+                                                            Integer.parseInt(instance.getNumber()),
+                                                            template);
+    }
+
+    @Test
+    public void testCreateInstancePartialFailure() throws NumberFormatException, RunNodesException {
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+        Instance instance = mockInstanceCreationTemplate(infrastructure);
+
+        NodeMetadataImpl startedNode = createRunningNode("RegionOne/node-1");
+        NodeMetadataImpl failedNode = createRunningNode("RegionOne/node-2");
+        RunNodesException runNodesException = mock(RunNodesException.class);
+        when(runNodesException.getSuccessfulNodes()).thenReturn((Set) Sets.newHashSet(startedNode));
+        when(runNodesException.getExecutionErrors()).thenReturn(ImmutableMap.of());
+        when(runNodesException.getNodeErrors()).thenReturn((Map) ImmutableMap.of(failedNode,
+                                                                                 new IllegalStateException("node did not start")));
+        when(computeService.createNodesInGroup(instance.getTag(), 2, template)).thenThrow(runNodesException);
+
+        try {
+            jcloudsProvider.createInstance(infrastructure, instance);
+            fail("A PartialInstanceCreationException is expected");
+        } catch (PartialInstanceCreationException e) {
+            assertThat(e.getResult().getRequestedInstances(), is(2));
+            assertThat(e.getResult().getInstances().size(), is(1));
+            assertThat(e.getResult().getInstances().iterator().next().getId(), is("RegionOne/node-1"));
+            assertThat(e.getResult().getFailures(),
+                       is(Lists.newArrayList(new InstanceCreationFailure("RegionOne/node-2", "node did not start"))));
+        }
+        verify(computeService).destroyNode("RegionOne/node-2");
+        verify(computeService, times(0)).destroyNode("RegionOne/node-1");
+    }
+
+    @Test
+    public void testCreateInstancePartialFailureRetriesMissingNodes() throws NumberFormatException, RunNodesException {
+        ReflectionTestUtils.setField(jcloudsProvider, "missingNodesRetries", 1);
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+        Instance instance = mockInstanceCreationTemplate(infrastructure);
+
+        NodeMetadataImpl startedNode = createRunningNode("RegionOne/node-1");
+        NodeMetadataImpl failedNode = createRunningNode("RegionOne/node-2");
+        Set retriedNodes = Sets.newHashSet(createRunningNode("RegionOne/node-3"));
+        RunNodesException runNodesException = mock(RunNodesException.class);
+        when(runNodesException.getSuccessfulNodes()).thenReturn((Set) Sets.newHashSet(startedNode));
+        when(runNodesException.getExecutionErrors()).thenReturn(ImmutableMap.of());
+        when(runNodesException.getNodeErrors()).thenReturn((Map) ImmutableMap.of(failedNode,
+                                                                                 new IllegalStateException("node did not start")));
+        when(computeService.createNodesInGroup(instance.getTag(), 2, template)).thenThrow(runNodesException);
+        when(computeService.createNodesInGroup(instance.getTag(), 1, template)).thenReturn(retriedNodes);
+
+        Set<Instance> created = jcloudsProvider.createInstance(infrastructure, instance);
+
+        assertThat(created.size(), is(2));
+        verify(computeService, times(1)).createNodesInGroup(instance.getTag(), 2, template);
+        verify(computeService, times(1)).createNodesInGroup(instance.getTag(), 1, template);
+        verify(computeService).destroyNode("RegionOne/node-2");
+    }
+
+    private Instance mockInstanceCreationTemplate(Infrastructure infrastructure) {
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        when(computeService.templateBuilder()).thenReturn(templateBuilder);
+
+        Instance instance = InstanceFixture.getInstance("instance-id",
+                                                        "instance-name",
+                                                        IMAGE,
+                                                        "2",
+                                                        "512",
+                                                        "2",
+                                                        "77.154.227.148",
+                                                        "1.0.0.2",
+                                                        "running");
+
+        when(templateBuilder.minRam(Integer.parseInt(instance.getHardware().getMinRam()))).thenReturn(templateBuilder);
+        when(templateBuilder.minCores(Double.parseDouble(instance.getHardware()
+                                                                 .getMinCores()))).thenReturn(templateBuilder);
+        when(templateBuilder.locationId(REGION)).thenReturn(templateBuilder);
+        when(templateBuilder.imageId(instance.getImage())).thenReturn(templateBuilder);
+        when(templateBuilder.fromTemplate(template)).thenReturn(templateBuilder);
+        when(templateBuilder.build()).thenReturn(template);
+
+        TemplateOptions templateOptions = mock(TemplateOptions.class);
+        when(template.getOptions()).thenReturn(templateOptions);
+        when(templateOptions.runAsRoot(true)).thenReturn(templateOptions);
+        when(templateOptions.as(AWSEC2TemplateOptions.class)).thenReturn(awsEC2TemplateOptions);
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
+        return instance;
+    }
+
+    private NodeMetadataImpl createRunningNode(String id) {
+        NodeMetadataImpl node = mock(NodeMetadataImpl.class);
+        when(node.getId()).thenReturn(id);
+        when(node.getName()).thenReturn("someName");
+        Hardware hardware = mock(Hardware.class);
+        when(hardware.getProcessors()).thenReturn(Lists.newArrayList());
+        when(node.getHardware()).thenReturn(hardware);
+        when(hardware.getType()).thenReturn(ComputeType.HARDWARE);
+        when(node.getStatus()).thenReturn(Status.RUNNING);
+        return node;
+    }
+
     @Test
     public void testCreateInstanceWithSpotPrice() throws NumberFormatException, RunNodesException {
 
@@ -257,7 +443,6 @@ public class AWSEC2JCloudsProviderTest {
         when(node.getStatus()).thenReturn(Status.RUNNING);
         nodes.add(node);
         when(computeService.listNodes()).thenReturn(nodes);
-        jcloudsProvider.autoGeneratedSecurityGroups = new HashMap<>();
 
         when(computeService.createNodesInGroup(instance.getTag(),
                                                Integer.parseInt(instance.getNumber()),
@@ -272,7 +457,7 @@ public class AWSEC2JCloudsProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         Set<Instance> created = jcloudsProvider.createInstance(infrastructure, instance);
 
@@ -494,7 +679,6 @@ public class AWSEC2JCloudsProviderTest {
         when(node.getStatus()).thenReturn(Status.RUNNING);
         nodes.add(node);
         when(computeService.listNodes()).thenReturn(nodes);
-        jcloudsProvider.autoGeneratedSecurityGroups = new HashMap<>();
 
         when(computeService.createNodesInGroup(instance.getTag(),
                                                Integer.parseInt(instance.getNumber()),
@@ -63,6 +63,7 @@ import org.ow2.proactive.connector.iaas.model.Instance;
 import org.ow2.proactive.connector.iaas.model.Options;
 import org.ow2.proactive.connector.iaas.model.Tag;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -163,7 +164,7 @@ public class GCEJCloudsProviderTest {
         when(template.getOptions()).thenReturn(templateOptions);
         when(templateOptions.as(GoogleComputeEngineTemplateOptions.class)).thenReturn(gceTemplateOptions);
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(CONNECTOR_IAAS_TAG));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(CONNECTOR_IAAS_TAG.getKey(), CONNECTOR_IAAS_TAG.getValue()));
 
         Set<Instance> createdInstances = gceJCloudsProvider.createInstance(infrastructure, instance);
 
@@ -198,7 +199,7 @@ public class GCEJCloudsProviderTest {
         when(templateBuilder.build()).thenReturn(template);
         when(template.getOptions()).thenReturn(templateOptions);
         when(templateOptions.as(GoogleComputeEngineTemplateOptions.class)).thenReturn(gceTemplateOptions);
-        when(tagManager.retrieveAllTags(anyString(), any())).thenReturn(Lists.newArrayList(CONNECTOR_IAAS_TAG));
+        when(tagManager.retrieveAllTags(anyString(), any())).thenReturn(ImmutableMap.of(CONNECTOR_IAAS_TAG.getKey(), CONNECTOR_IAAS_TAG.getValue()));
 
         Set<Instance> createdInstances = gceJCloudsProvider.createInstance(infrastructure, instance);
 
@@ -245,7 +246,7 @@ public class GCEJCloudsProviderTest {
         when(templateBuilder.build()).thenReturn(template);
         when(template.getOptions()).thenReturn(templateOptions);
         when(templateOptions.as(GoogleComputeEngineTemplateOptions.class)).thenReturn(gceTemplateOptions);
-        when(tagManager.retrieveAllTags(anyString(), any())).thenReturn(Lists.newArrayList(CONNECTOR_IAAS_TAG));
+        when(tagManager.retrieveAllTags(anyString(), any())).thenReturn(ImmutableMap.of(CONNECTOR_IAAS_TAG.getKey(), CONNECTOR_IAAS_TAG.getValue()));
 
         Set<Instance> createdInstances = gceJCloudsProvider.createInstance(infrastructure, instance);
 
@@ -290,7 +291,7 @@ public class GCEJCloudsProviderTest {
         when(template.getOptions()).thenReturn(templateOptions);
         when(templateOptions.as(GoogleComputeEngineTemplateOptions.class)).thenReturn(gceTemplateOptions);
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(CONNECTOR_IAAS_TAG));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(CONNECTOR_IAAS_TAG.getKey(), CONNECTOR_IAAS_TAG.getValue()));
 
         when(computeService.createNodesInGroup(INSTANCE_GROUP,
                                                INSTANCE_NUM,
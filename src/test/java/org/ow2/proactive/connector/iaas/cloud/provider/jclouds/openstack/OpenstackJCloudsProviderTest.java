@@ -30,6 +30,7 @@ import static org.jclouds.compute.predicates.NodePredicates.runningInGroup;
 import static org.jclouds.scriptbuilder.domain.Statements.exec;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
@@ -39,6 +40,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
@@ -57,8 +59,11 @@ import org.jclouds.domain.LocationScope;
 import org.jclouds.openstack.nova.v2_0.NovaApi;
 import org.jclouds.openstack.nova.v2_0.domain.Server;
 import org.jclouds.openstack.nova.v2_0.domain.ServerCreated;
+import org.jclouds.openstack.nova.v2_0.extensions.KeyPairApi;
 import org.jclouds.openstack.nova.v2_0.features.ServerApi;
+import org.jclouds.openstack.v2_0.domain.PaginatedCollection;
 import org.jclouds.openstack.v2_0.domain.Resource;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
 import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.junit.Before;
@@ -67,14 +72,21 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.ow2.proactive.connector.iaas.cache.OwnedResource;
+import org.ow2.proactive.connector.iaas.cache.OwnedResourceType;
+import org.ow2.proactive.connector.iaas.cache.ResourceOwnershipLedger;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceCache;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.ow2.proactive.connector.iaas.model.Image;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -119,6 +131,9 @@ public class OpenstackJCloudsProviderTest {
     @Mock
     private TagManager tagManager;
 
+    @Spy
+    private ResourceOwnershipLedger resourceOwnershipLedger = new ResourceOwnershipLedger();
+
     private Tag connectorIaasTag = Tag.builder().key("connector-iaas-tag-key").value("default-value").build();
 
     @Before
@@ -167,7 +182,7 @@ public class OpenstackJCloudsProviderTest {
 
         when(serverCreated.getId()).thenReturn("1cde5a56-27a6-46ce-bdb7-8b01b8fe2592");
 
-        when(serverApi.get("1cde5a56-27a6-46ce-bdb7-8b01b8fe2592")).thenReturn(server);
+        when(serverApi.listInDetail(any(PaginationOptions.class))).thenReturn(serverPage(server));
 
         when(server.getId()).thenReturn("1cde5a56-27a6-46ce-bdb7-8b01b8fe2592");
 
@@ -196,7 +211,7 @@ public class OpenstackJCloudsProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         when(computeService.createNodesInGroup(instance.getTag(),
                                                Integer.parseInt(instance.getNumber()),
@@ -215,6 +230,136 @@ public class OpenstackJCloudsProviderTest {
 
     }
 
+    @Test
+    public void testCreateInstanceListsCreatedServersOncePerRound() {
+        ReflectionTestUtils.setField(jcloudsProvider, "maxParallelCreations", 3);
+        ReflectionTestUtils.setField(jcloudsProvider, "creationPollPeriod", 60000L);
+        Infrastructure infrastructure = mockNovaApi();
+        Instance instance = InstanceFixture.getInstanceWithKeyName("instance-id",
+                                                                   "instance-name",
+                                                                   "image",
+                                                                   "3",
+                                                                   "512",
+                                                                   "2",
+                                                                   "network_id_1",
+                                                                   "77.154.227.148",
+                                                                   "1.0.0.2",
+                                                                   "running");
+
+        ServerCreated firstCreated = createdServer("server-1");
+        ServerCreated secondCreated = createdServer("server-2");
+        ServerCreated thirdCreated = createdServer("server-3");
+        when(serverApi.create(anyString(),
+                              anyString(),
+                              anyString(),
+                              anyObject())).thenReturn(firstCreated, secondCreated, thirdCreated);
+        Server firstServer = server("server-1");
+        Server secondServer = server("server-2");
+        Server thirdServer = server("server-3");
+        when(serverApi.listInDetail(any(PaginationOptions.class))).thenReturn(serverPage(firstServer,
+                                                                                         secondServer,
+                                                                                         thirdServer));
+
+        Set<String> notifiedInstanceIds = Sets.newConcurrentHashSet();
+        Set<Instance> created = jcloudsProvider.createInstance(infrastructure,
+                                                               instance,
+                                                               createdInstance -> notifiedInstanceIds.add(createdInstance.getId()));
+
+        assertThat(created.stream().map(Instance::getId).collect(Collectors.toSet()),
+                   is(Sets.newHashSet("RegionOne/server-1", "RegionOne/server-2", "RegionOne/server-3")));
+        assertThat(notifiedInstanceIds,
+                   is(Sets.newHashSet("RegionOne/server-1", "RegionOne/server-2", "RegionOne/server-3")));
+        verify(serverApi, times(3)).create(anyString(), anyString(), anyString(), anyObject());
+        verify(serverApi, times(1)).listInDetail(any(PaginationOptions.class));
+        verify(serverApi, times(0)).get(anyString());
+    }
+
+    @Test
+    public void testServerNotListedIsFetchedOnItsOwn() {
+        Infrastructure infrastructure = mockNovaApi();
+        Instance instance = InstanceFixture.getInstanceWithKeyName("instance-id",
+                                                                   "instance-name",
+                                                                   "image",
+                                                                   "1",
+                                                                   "512",
+                                                                   "2",
+                                                                   "network_id_1",
+                                                                   "77.154.227.148",
+                                                                   "1.0.0.2",
+                                                                   "running");
+        ServerCreated created = createdServer("server-1");
+        when(serverApi.create(anyString(), anyString(), anyString(), anyObject())).thenReturn(created);
+        when(serverApi.listInDetail(any(PaginationOptions.class))).thenReturn(serverPage());
+        Server server = server("server-1");
+        when(serverApi.get("server-1")).thenReturn(server);
+
+        Set<Instance> createdInstances = jcloudsProvider.createInstance(infrastructure, instance);
+
+        assertThat(createdInstances.iterator().next().getId(), is("RegionOne/server-1"));
+        verify(serverApi, times(1)).listInDetail(any(PaginationOptions.class));
+        verify(serverApi, times(0)).delete("server-1");
+    }
+
+    @Test
+    public void testServerWhoseStateCannotBeFetchedIsDeleted() {
+        Infrastructure infrastructure = mockNovaApi();
+        Instance instance = InstanceFixture.getInstanceWithKeyName("instance-id",
+                                                                   "instance-name",
+                                                                   "image",
+                                                                   "1",
+                                                                   "512",
+                                                                   "2",
+                                                                   "network_id_1",
+                                                                   "77.154.227.148",
+                                                                   "1.0.0.2",
+                                                                   "running");
+        ServerCreated created = createdServer("server-1");
+        when(serverApi.create(anyString(), anyString(), anyString(), anyObject())).thenReturn(created);
+        when(serverApi.listInDetail(any(PaginationOptions.class))).thenReturn(serverPage());
+        when(serverApi.get("server-1")).thenThrow(new IllegalStateException("nova unavailable"));
+
+        try {
+            jcloudsProvider.createInstance(infrastructure, instance);
+            fail("A RuntimeException is expected");
+        } catch (RuntimeException e) {
+            verify(serverApi).delete("server-1");
+        }
+    }
+
+    @Test
+    public void testCreateInstancePartialFailure() {
+        Infrastructure infrastructure = mockNovaApi();
+        Instance instance = InstanceFixture.getInstanceWithKeyName("instance-id",
+                                                                   "instance-name",
+                                                                   "image",
+                                                                   "2",
+                                                                   "512",
+                                                                   "2",
+                                                                   "network_id_1",
+                                                                   "77.154.227.148",
+                                                                   "1.0.0.2",
+                                                                   "running");
+
+        ServerCreated firstCreated = createdServer("server-1");
+        when(serverApi.create(anyString(),
+                              anyString(),
+                              anyString(),
+                              anyObject())).thenReturn(firstCreated)
+                                           .thenThrow(new IllegalStateException("quota exceeded"));
+        Server firstServer = server("server-1");
+        when(serverApi.listInDetail(any(PaginationOptions.class))).thenReturn(serverPage(firstServer));
+
+        try {
+            jcloudsProvider.createInstance(infrastructure, instance);
+            fail("A PartialInstanceCreationException is expected");
+        } catch (PartialInstanceCreationException e) {
+            assertThat(e.getResult().getRequestedInstances(), is(2));
+            assertThat(e.getResult().getInstances().iterator().next().getId(), is("RegionOne/server-1"));
+            assertThat(e.getResult().getFailures(),
+                       is(Lists.newArrayList(new InstanceCreationFailure(null, "quota exceeded"))));
+        }
+    }
+
     @Test(expected = RuntimeException.class)
     public void testCreateInstanceWithFailure() throws NumberFormatException, RunNodesException {
 
@@ -249,7 +394,7 @@ public class OpenstackJCloudsProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         Set nodesMetaData = Sets.newHashSet();
         NodeMetadataImpl nodeMetadataImpl = mock(NodeMetadataImpl.class);
@@ -314,6 +459,28 @@ public class OpenstackJCloudsProviderTest {
 
     }
 
+    @Test
+    public void testDeleteInstanceKeepsSharedKeyPairUntilLastInstance() {
+        Infrastructure infrastructure = mockNovaApi();
+        KeyPairApi keyPairApi = mock(KeyPairApi.class);
+        when(novaApi.getKeyPairApi("RegionOne")).thenReturn(com.google.common.base.Optional.of(keyPairApi));
+        OwnedResource sharedKeyPair = OwnedResource.builder()
+                                                   .infrastructureId(infrastructure.getId())
+                                                   .type(OwnedResourceType.KEY_PAIR)
+                                                   .region("RegionOne")
+                                                   .name("openstack-key-pair-shared")
+                                                   .build();
+        resourceOwnershipLedger.record(sharedKeyPair.withInstanceId("RegionOne/server-1"));
+        resourceOwnershipLedger.record(sharedKeyPair.withInstanceId("RegionOne/server-2"));
+
+        jcloudsProvider.deleteInstance(infrastructure, "RegionOne/server-1");
+        verify(keyPairApi, times(0)).delete("openstack-key-pair-shared");
+
+        jcloudsProvider.deleteInstance(infrastructure, "RegionOne/server-2");
+        verify(keyPairApi, times(1)).delete("openstack-key-pair-shared");
+        assertThat(resourceOwnershipLedger.getResources(infrastructure.getId()).isEmpty(), is(true));
+    }
+
     @Test
     public void testGetAllInfrastructureInstances() throws RunNodesException {
 
@@ -468,4 +635,46 @@ public class OpenstackJCloudsProviderTest {
         assertThat(scriptResults.size(), is(0));
 
     }
+    private Infrastructure mockNovaApi() {
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-openstack",
+                                                                                "openstack-nova",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                new InfrastructureScope("project",
+                                                                                                        "admin"),
+                                                                                "RegionOne",
+                                                                                "3");
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        when(computeService.getContext()).thenReturn(contextMock);
+        when(contextMock.unwrapApi(NovaApi.class)).thenReturn(novaApi);
+        when(openstackUtil.getInfrastructureRegion(infrastructure)).thenReturn("RegionOne");
+        when(novaApi.getServerApi("RegionOne")).thenReturn(serverApi);
+        when(novaApi.getSecurityGroupApi("RegionOne")).thenReturn(com.google.common.base.Optional.absent());
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
+        return infrastructure;
+    }
+
+    private ServerCreated createdServer(String id) {
+        ServerCreated created = mock(ServerCreated.class);
+        when(created.getId()).thenReturn(id);
+        return created;
+    }
+
+    private Server server(String id) {
+        Server createdServer = mock(Server.class);
+        when(createdServer.getId()).thenReturn(id);
+        when(createdServer.getName()).thenReturn("instance-name");
+        when(createdServer.getImage()).thenReturn(Resource.builder().id("image").name("image").build());
+        when(createdServer.getFlavor()).thenReturn(Resource.builder().id("id").name("same name").build());
+        when(createdServer.getStatus()).thenReturn(Server.Status.BUILD);
+        return createdServer;
+    }
+
+    private PaginatedCollection<Server> serverPage(Server... servers) {
+        return new PaginatedCollection<Server>(Lists.newArrayList(servers), Lists.newArrayList()) {
+        };
+    }
+
 }
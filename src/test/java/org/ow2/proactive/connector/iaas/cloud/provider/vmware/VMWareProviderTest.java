@@ -29,7 +29,9 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -39,9 +41,13 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -55,7 +61,9 @@ import org.ow2.proactive.connector.iaas.model.InstanceScript;
 import org.ow2.proactive.connector.iaas.model.Options;
 import org.ow2.proactive.connector.iaas.model.ScriptResult;
 import org.ow2.proactive.connector.iaas.model.Tag;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.vmware.vim25.FileFault;
 import com.vmware.vim25.GuestInfo;
@@ -73,6 +81,7 @@ import com.vmware.vim25.VirtualEthernetCard;
 import com.vmware.vim25.VirtualHardware;
 import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachineRelocateDiskMoveOptions;
 import com.vmware.vim25.VirtualMachineSummary;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
@@ -83,6 +92,7 @@ import com.vmware.vim25.mo.ResourcePool;
 import com.vmware.vim25.mo.ServiceInstance;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
+import com.vmware.vim25.mo.VirtualMachineSnapshot;
 
 import jersey.repackaged.com.google.common.collect.Sets;
 
@@ -202,7 +212,7 @@ public class VMWareProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         Set<Instance> createdInstances = vmWareProvider.createInstance(infrastructure, instance);
 
@@ -260,7 +270,7 @@ public class VMWareProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         // Create the new instance and check if the MAC address is set as option
         Set<Instance> createdInstances = vmWareProvider.createInstance(infrastructure, instance);
@@ -308,7 +318,7 @@ public class VMWareProviderTest {
 
         // Tags
         when(tagManager.retrieveAllTags(anyString(),
-                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
 
         Set<Instance> createdInstances = vmWareProvider.createInstance(infrastructure, instance);
 
@@ -361,6 +371,130 @@ public class VMWareProviderTest {
         assertThat(createdInstances.iterator().next().getId(), is("some-generated-virtual-machine-id"));
     }
 
+    @Test
+    public void testCreateInstanceClonesConcurrentlyWithinHostLimit() throws RemoteException, InterruptedException {
+        ReflectionTestUtils.setField(vmWareProvider, "maxParallelClones", 3);
+        ReflectionTestUtils.setField(vmWareProvider, "maxClonesPerHost", 2);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.getInstance("",
+                                                        "marco-tag",
+                                                        "RoboconfAgent180116/destinationHost",
+                                                        "3",
+                                                        "512",
+                                                        "1",
+                                                        "172.168.1.248",
+                                                        "1.0.0.2",
+                                                        "RUNNING");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(vmWareProviderVirtualMachineUtil.searchHostByName("destinationHost",
+                                                               rootFolder)).thenReturn(Optional.of(destinationHost));
+        when(vmWareProviderVirtualMachineUtil.searchResourcePoolByHostname("destinationHost",
+                                                                           rootFolder)).thenReturn(Optional.of(resourcePool));
+        when(vmWareProviderVirtualMachineUtil.searchVMFolderByHostname("destinationHost",
+                                                                       rootFolder)).thenReturn(Optional.of(instanceFolder));
+        when(resourcePool.getMOR()).thenReturn(resourcePoolMOR);
+        when(destinationHost.getMOR()).thenReturn(hostMOR);
+        when(hostMOR.getVal()).thenReturn("host-1");
+
+        for (String tag : Arrays.asList("marco-tag", "marco-tag_2", "marco-tag_3")) {
+            VirtualMachine clonedVirtualMachine = mock(VirtualMachine.class);
+            VirtualMachineConfigInfo clonedConfigInfo = mock(VirtualMachineConfigInfo.class);
+            when(clonedConfigInfo.getUuid()).thenReturn(tag + "-id");
+            when(clonedVirtualMachine.getConfig()).thenReturn(clonedConfigInfo);
+            when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName(tag,
+                                                                             rootFolder)).thenReturn(Optional.of(clonedVirtualMachine));
+        }
+
+        AtomicInteger runningClones = new AtomicInteger();
+        AtomicInteger maxRunningClones = new AtomicInteger();
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenAnswer(invocation -> {
+                                             maxRunningClones.accumulateAndGet(runningClones.incrementAndGet(),
+                                                                               Math::max);
+                                             Thread.sleep(100);
+                                             runningClones.decrementAndGet();
+                                             return task;
+                                         });
+        when(task.waitForTask()).thenReturn(Task.SUCCESS);
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
+
+        List<String> notifiedIds = new CopyOnWriteArrayList<>();
+        Set<Instance> createdInstances = vmWareProvider.createInstance(infrastructure,
+                                                                       instance,
+                                                                       createdInstance -> notifiedIds.add(createdInstance.getId()));
+
+        assertThat(createdInstances.stream().map(Instance::getId).collect(Collectors.toSet()),
+                   is(Sets.newHashSet("marco-tag-id", "marco-tag_2-id", "marco-tag_3-id")));
+        assertThat(notifiedIds.size(), is(3));
+        assertThat(maxRunningClones.get(), is(2));
+        // the VM to clone is only resolved once for the whole request
+        verify(vmWareProviderVirtualMachineUtil, times(1)).searchVirtualMachineByName("RoboconfAgent180116",
+                                                                                      rootFolder);
+    }
+
+    @Test
+    public void testCreateLinkedCloneFromCurrentSnapshot() throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withOptions(Options.builder().cloneMode("linked").build());
+        mockSimpleClone();
+
+        VirtualMachineSnapshot snapshot = mock(VirtualMachineSnapshot.class);
+        ManagedObjectReference snapshotMOR = new ManagedObjectReference();
+        when(snapshot.getMOR()).thenReturn(snapshotMOR);
+        when(virtualMachine.getCurrentSnapShot()).thenReturn(snapshot);
+
+        vmWareProvider.createInstance(infrastructure, instance);
+
+        ArgumentCaptor<VirtualMachineCloneSpec> cloneSpec = ArgumentCaptor.forClass(VirtualMachineCloneSpec.class);
+        verify(virtualMachine).cloneVM_Task(any(Folder.class), anyString(), cloneSpec.capture());
+        assertThat(cloneSpec.getValue().getSnapshot(), is(snapshotMOR));
+        assertThat(cloneSpec.getValue().getLocation().getDiskMoveType(),
+                   is(VirtualMachineRelocateDiskMoveOptions.createNewChildDiskBacking.name()));
+        verify(virtualMachine, times(0)).createSnapshot_Task(anyString(), anyString(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void testCreateLinkedCloneTakesSnapshotWhenNoneExists() throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withOptions(Options.builder().cloneMode("linked").build());
+        mockSimpleClone();
+
+        VirtualMachineSnapshot snapshot = mock(VirtualMachineSnapshot.class);
+        ManagedObjectReference snapshotMOR = new ManagedObjectReference();
+        when(snapshot.getMOR()).thenReturn(snapshotMOR);
+        when(virtualMachine.getCurrentSnapShot()).thenReturn(null, snapshot);
+        Task snapshotTask = mock(Task.class);
+        when(snapshotTask.waitForTask()).thenReturn(Task.SUCCESS);
+        when(virtualMachine.createSnapshot_Task(anyString(),
+                                                anyString(),
+                                                anyBoolean(),
+                                                anyBoolean())).thenReturn(snapshotTask);
+
+        vmWareProvider.createInstance(infrastructure, instance);
+
+        ArgumentCaptor<VirtualMachineCloneSpec> cloneSpec = ArgumentCaptor.forClass(VirtualMachineCloneSpec.class);
+        verify(virtualMachine).cloneVM_Task(any(Folder.class), anyString(), cloneSpec.capture());
+        assertThat(cloneSpec.getValue().getSnapshot(), is(snapshotMOR));
+        verify(virtualMachine, times(1)).createSnapshot_Task(anyString(), anyString(), anyBoolean(), anyBoolean());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateInstanceWithUnknownCloneMode() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withOptions(Options.builder().cloneMode("shallow").build());
+        mockSimpleClone();
+
+        vmWareProvider.createInstance(infrastructure, instance);
+    }
+
     @Test
     public void testCreateInstanceIntoRandomHost() throws RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
@@ -597,4 +731,26 @@ public class VMWareProviderTest {
         verify(vmWareServiceInstanceCache).removeServiceInstance(infrastructure);
 
     }
+    private void mockSimpleClone() {
+        try {
+            when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                             rootFolder)).thenReturn(Optional.of(virtualMachine));
+            when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("marco-tag",
+                                                                             rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+            when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+            when(vmWareProviderVirtualMachineUtil.searchVMFolderFromVMName("RoboconfAgent180116",
+                                                                           rootFolder)).thenReturn(Optional.of(instanceFolder));
+            when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
+            when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+            when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                             anyString(),
+                                             any(VirtualMachineCloneSpec.class))).thenReturn(task);
+            when(task.waitForTask()).thenReturn(Task.SUCCESS);
+            when(tagManager.retrieveAllTags(anyString(),
+                                            any(Options.class))).thenReturn(ImmutableMap.of(connectorIaasTag.getKey(), connectorIaasTag.getValue()));
+        } catch (RemoteException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -63,7 +63,8 @@ public class InfrastructureFixture {
                                   false,
                                   scope,
                                   region,
-                                  identityVersion);
+                                  identityVersion,
+                                  null);
     }
 
     public static Infrastructure getInfrastructure(String name, String type, String endPoint, String username,
@@ -90,6 +91,7 @@ public class InfrastructureFixture {
                                   false,
                                   null,
                                   null,
+                                  null,
                                   null);
     }
 
@@ -109,6 +111,7 @@ public class InfrastructureFixture {
                                   false,
                                   null,
                                   null,
+                                  null,
                                   null);
     }
 
@@ -124,6 +127,7 @@ public class InfrastructureFixture {
                                   false,
                                   null,
                                   null,
+                                  null,
                                   null);
     }
 
@@ -139,6 +143,7 @@ public class InfrastructureFixture {
                                   false,
                                   null,
                                   null,
+                                  null,
                                   null);
     }
 
@@ -154,6 +159,7 @@ public class InfrastructureFixture {
                                   removeOnShutdown,
                                   null,
                                   null,
+                                  null,
                                   null);
     }
 
@@ -185,6 +185,7 @@ public class InstanceFixture {
                                         null,
                                         null,
                                         null,
+                                        null,
                                         null),
                             InstanceScriptFixture.simpleInstanceScriptNoscripts(),
                             customScriptUrl);
@@ -58,6 +58,7 @@ public class InfrastructureTest {
                                                            false,
                                                            null,
                                                            null,
+                                                           null,
                                                            null);
         assertThat(infrastructure.getId(), is("id-openstack"));
     }
@@ -76,6 +77,7 @@ public class InfrastructureTest {
                                                             false,
                                                             null,
                                                             null,
+                                                            null,
                                                             null);
         Infrastructure infrastructure2 = new Infrastructure("id-openstack",
                                                             "openstack",
@@ -89,6 +91,7 @@ public class InfrastructureTest {
                                                             false,
                                                             null,
                                                             null,
+                                                            null,
                                                             null);
 
         Set<Infrastructure> infrastructures = Sets.newHashSet(infrastructure1, infrastructure2);
@@ -0,0 +1,183 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.DeadlineExceededException;
+import org.ow2.proactive.connector.iaas.cloud.InFlightOperations;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.ow2.proactive.connector.iaas.util.ErrorResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class AsyncRequestHandlerTest {
+
+    private AsyncRequestHandler asyncRequestHandler;
+
+    @Mock
+    private AsyncResponse asyncResponse;
+
+    @Mock
+    private InFlightOperations inFlightOperations;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        asyncRequestHandler = new AsyncRequestHandler();
+        ReflectionTestUtils.setField(asyncRequestHandler, "asyncTimeout", 30L);
+        ReflectionTestUtils.setField(asyncRequestHandler, "inFlightOperations", inFlightOperations);
+    }
+
+    @After
+    public void clearDeadline() {
+        RequestDeadline.set(null);
+        InFlightOperations.setRequestedOperationId(null);
+    }
+
+    @Test
+    public void testResumeOnTimeout() {
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   CompletableFuture::new,
+                                   result -> Response.ok(result).build(),
+                                   e -> ErrorResponse.handleServerError("operation", e));
+
+        ArgumentCaptor<TimeoutHandler> timeoutHandler = ArgumentCaptor.forClass(TimeoutHandler.class);
+        verify(asyncResponse).setTimeout(30L, TimeUnit.SECONDS);
+        verify(asyncResponse).setTimeoutHandler(timeoutHandler.capture());
+        verify(asyncResponse, times(0)).resume(any(Object.class));
+
+        timeoutHandler.getValue().handleTimeout(asyncResponse);
+
+        assertThat(resumedResponse().getStatus(), is(Response.Status.GATEWAY_TIMEOUT.getStatusCode()));
+        verify(inFlightOperations, times(0)).cancel(any());
+    }
+
+    @Test
+    public void testNoTimeoutByDefault() {
+        ReflectionTestUtils.setField(asyncRequestHandler, "asyncTimeout", 0L);
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   CompletableFuture::new,
+                                   result -> Response.ok(result).build(),
+                                   e -> ErrorResponse.handleServerError("operation", e));
+
+        verify(asyncResponse, times(0)).setTimeout(anyLong(), any(TimeUnit.class));
+        verify(asyncResponse, times(0)).setTimeoutHandler(any());
+    }
+
+    @Test
+    public void testOperationCancelledOnRequestDeadline() {
+        RequestDeadline.set(System.currentTimeMillis() + 5000);
+        InFlightOperations.setRequestedOperationId("operation-id");
+        when(inFlightOperations.cancel("operation-id")).thenReturn(Optional.of(new Operation()));
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   CompletableFuture::new,
+                                   result -> Response.ok(result).build(),
+                                   e -> ErrorResponse.handleServerError("operation", e));
+
+        ArgumentCaptor<TimeoutHandler> timeoutHandler = ArgumentCaptor.forClass(TimeoutHandler.class);
+        verify(asyncResponse).setTimeoutHandler(timeoutHandler.capture());
+        timeoutHandler.getValue().handleTimeout(asyncResponse);
+
+        verify(inFlightOperations).cancel("operation-id");
+        assertThat(resumedResponse().getStatus(), is(Response.Status.GATEWAY_TIMEOUT.getStatusCode()));
+    }
+
+    @Test
+    public void testResumeWithUnwrappedFailure() {
+        CompletableFuture<String> operation = new CompletableFuture<>();
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   () -> operation,
+                                   result -> Response.ok(result).build(),
+                                   e -> e instanceof NotFoundException ? ErrorResponse.handleNotFound("operation", e)
+                                                                       : ErrorResponse.handleServerError("operation",
+                                                                                                         e));
+        operation.completeExceptionally(new CompletionException(new NotFoundException("missing")));
+
+        assertThat(resumedResponse().getStatus(), is(Response.Status.NOT_FOUND.getStatusCode()));
+    }
+
+    @Test
+    public void testTimeoutShortenedToRequestDeadline() {
+        RequestDeadline.set(System.currentTimeMillis() + 5000);
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   CompletableFuture::new,
+                                   result -> Response.ok(result).build(),
+                                   e -> ErrorResponse.handleServerError("operation", e));
+
+        ArgumentCaptor<Long> timeout = ArgumentCaptor.forClass(Long.class);
+        verify(asyncResponse).setTimeout(timeout.capture(), any(TimeUnit.class));
+        assertTrue(timeout.getValue() > 0 && timeout.getValue() <= 5000);
+    }
+
+    @Test
+    public void testResumeDeadlineExceededAsTimeout() {
+        CompletableFuture<String> operation = new CompletableFuture<>();
+        asyncRequestHandler.resume(asyncResponse,
+                                   "operation",
+                                   () -> operation,
+                                   result -> Response.ok(result).build(),
+                                   e -> ErrorResponse.handleServerError("operation", e));
+        operation.completeExceptionally(new RuntimeException(new DeadlineExceededException("abandoned")));
+
+        assertThat(resumedResponse().getStatus(), is(Response.Status.GATEWAY_TIMEOUT.getStatusCode()));
+    }
+
+    private Response resumedResponse() {
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(response.capture());
+        return response.getValue();
+    }
+}
@@ -31,13 +31,19 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.ow2.proactive.connector.iaas.rest.ImageRest;
 import org.ow2.proactive.connector.iaas.service.ImageService;
 
@@ -51,6 +57,12 @@ public class ImageRestTest {
     @Mock
     private ImageService imageService;
 
+    @Spy
+    private AsyncRequestHandler asyncRequestHandler = new AsyncRequestHandler();
+
+    @Mock
+    private AsyncResponse asyncResponse;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
@@ -58,8 +70,22 @@ public class ImageRestTest {
 
     @Test
     public void testListAllImage() {
-        when(imageService.getAllImages("infrastructureId")).thenReturn(Sets.newHashSet());
-        assertThat(imageRest.listAllImage("infrastructureId").getStatus(), is(Response.Status.OK.getStatusCode()));
-        verify(imageService, times(1)).getAllImages("infrastructureId");
+        when(imageService.getAllImagesAsync("infrastructureId")).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        imageRest.listAllImage(asyncResponse, "infrastructureId");
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(imageService, times(1)).getAllImagesAsync("infrastructureId");
+    }
+
+    @Test
+    public void testListAllImageWhenProvidersAreSaturated() {
+        when(imageService.getAllImagesAsync("infrastructureId")).thenThrow(new RejectedExecutionException());
+        imageRest.listAllImage(asyncResponse, "infrastructureId");
+        assertThat(resumedResponse().getStatus(), is(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()));
+    }
+
+    private Response resumedResponse() {
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(response.capture());
+        return response.getValue();
     }
 }
@@ -31,6 +31,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+
 import javax.ws.rs.core.Response;
 
 import org.junit.Before;
@@ -101,11 +103,18 @@ public class InfrastructureRestTest {
 
     @Test
     public void testRegisterInfrastructure() {
-        assertThat(infrastructureRest.registerInfrastructure(infrastructureStringFixture).getStatus(),
+        assertThat(infrastructureRest.registerInfrastructure(null, infrastructureStringFixture).getStatus(),
                    is(Response.Status.OK.getStatusCode()));
         verify(infrastructureService, times(1)).registerInfrastructure(infrastructureFixture);
     }
 
+    @Test
+    public void testRegisterInfrastructureWithWarmUp() {
+        assertThat(infrastructureRest.registerInfrastructure(true, infrastructureStringFixture).getStatus(),
+                   is(Response.Status.OK.getStatusCode()));
+        verify(infrastructureService, times(1)).registerInfrastructure(infrastructureFixture, true);
+    }
+
     @Test
     public void testDeleteInfrastructureById() {
         when(infrastructureService.getInfrastructure(InfrastructureFixture.getSimpleInfrastructure("sometype")
@@ -151,7 +160,36 @@ public class InfrastructureRestTest {
     public void testGetInfrastructureById() {
         assertThat(infrastructureRest.getInfrastructure("openstack").getStatus(),
                    is(Response.Status.OK.getStatusCode()));
-        verify(infrastructureService, times(1)).getInfrastructure(("openstack"));
+        verify(infrastructureService, times(1)).getInfrastructureWithReadiness("openstack");
+    }
+
+    @Test
+    public void testRegisterInfrastructures() {
+        Infrastructure otherInfrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        String infrastructuresJson = "[" + infrastructureStringFixture + "," +
+                                     InfrastructureFixture.getInfrastructureAsString("id-aws-ec2",
+                                                                                     "aws-ec2",
+                                                                                     "endPoint",
+                                                                                     "userName",
+                                                                                     "password") +
+                                     "]";
+
+        assertThat(infrastructureRest.registerInfrastructures(null, infrastructuresJson).getStatus(),
+                   is(Response.Status.OK.getStatusCode()));
+        verify(infrastructureService, times(1)).registerInfrastructures(Arrays.asList(infrastructureFixture,
+                                                                                      otherInfrastructure));
+    }
+
+    @Test
+    public void testRegisterInfrastructuresWithDuplicateIds() {
+        when(infrastructureService.registerInfrastructures(Mockito.anyList(),
+                                                           Mockito.anyBoolean())).thenThrow(new IllegalArgumentException("duplicate"));
+
+        assertThat(infrastructureRest.registerInfrastructures(false,
+                                                              "[" + infrastructureStringFixture + "," +
+                                                                     infrastructureStringFixture + "]")
+                                     .getStatus(),
+                   is(Response.Status.BAD_REQUEST.getStatusCode()));
     }
 
 }
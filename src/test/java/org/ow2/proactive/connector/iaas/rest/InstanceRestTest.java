@@ -27,21 +27,47 @@ package org.ow2.proactive.connector.iaas.rest;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.ow2.proactive.connector.iaas.cache.InventoryConsistency;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationFailure;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationResult;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationJob;
+import org.ow2.proactive.connector.iaas.model.JobStatus;
+import org.ow2.proactive.connector.iaas.service.InfrastructureService;
+import org.ow2.proactive.connector.iaas.service.InstanceCreationJobService;
 import org.ow2.proactive.connector.iaas.service.InstanceService;
+import org.ow2.proactive.connector.iaas.util.JacksonUtil;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 
@@ -52,6 +78,18 @@ public class InstanceRestTest {
     @Mock
     private InstanceService instanceService;
 
+    @Mock
+    private InstanceCreationJobService instanceCreationJobService;
+
+    @Mock
+    private InfrastructureService infrastructureService;
+
+    @Spy
+    private AsyncRequestHandler asyncRequestHandler = new AsyncRequestHandler();
+
+    @Mock
+    private AsyncResponse asyncResponse;
+
     private String instanceStringFixture;
 
     private Instance instanceFixture;
@@ -81,60 +119,192 @@ public class InstanceRestTest {
 
     @Test
     public void testCreateInstance() {
-        assertThat(instanceRest.createInstance("infrastructureId", instanceStringFixture).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).createInstance("infrastructureId", instanceFixture);
+        when(instanceService.createInstanceAsync("infrastructureId",
+                                                 instanceFixture)).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, null, instanceStringFixture);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).createInstanceAsync("infrastructureId", instanceFixture);
+    }
+
+    @Test
+    public void testCreateInstancePartialFailure() {
+        InstanceCreationResult result = new InstanceCreationResult(2,
+                                                                   Sets.newHashSet(InstanceFixture.simpleInstance("id1")),
+                                                                   Lists.newArrayList(new InstanceCreationFailure(null,
+                                                                                                                  "quota exceeded")));
+        CompletableFuture<Set<Instance>> creation = new CompletableFuture<>();
+        creation.completeExceptionally(new PartialInstanceCreationException(result, null));
+        when(instanceService.createInstanceAsync("infrastructureId", instanceFixture)).thenReturn(creation);
+
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, null, instanceStringFixture);
+        Response response = resumedResponse();
+
+        assertThat(response.getStatus(), is(207));
+        assertThat(response.getEntity(), is(result));
+    }
+
+    @Test
+    public void testCreateInstanceWhenProvidersAreSaturated() {
+        when(instanceService.createInstanceAsync("infrastructureId",
+                                                 instanceFixture)).thenThrow(new RejectedExecutionException());
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, null, instanceStringFixture);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()));
+    }
+
+    @Test
+    public void testCreateInstanceAsynchronously() {
+        when(instanceCreationJobService.submitInstanceCreation("infrastructureId",
+                                                               instanceFixture)).thenReturn(InstanceCreationJob.builder()
+                                                                                                               .id("job-id")
+                                                                                                               .infrastructureId("infrastructureId")
+                                                                                                               .status(JobStatus.PENDING)
+                                                                                                               .build());
+        instanceRest.createInstance(asyncResponse, "infrastructureId", true, null, instanceStringFixture);
+        Response response = resumedResponse();
+
+        assertThat(response.getStatus(), is(Response.Status.ACCEPTED.getStatusCode()));
+        assertThat(((InstanceCreationJob) response.getEntity()).getId(), is("job-id"));
+        verify(instanceCreationJobService, times(1)).submitInstanceCreation("infrastructureId", instanceFixture);
+        verify(instanceService, times(0)).createInstanceAsync("infrastructureId", instanceFixture);
+    }
+
+    @Test
+    public void testCreateInstanceStreaming() throws IOException {
+        when(infrastructureService.getInfrastructure("infrastructureId")).thenReturn(InfrastructureFixture.getSimpleInfrastructure("aws"));
+        when(instanceService.createInstance(eq("infrastructureId"),
+                                            eq(instanceFixture),
+                                            any(Consumer.class))).thenAnswer(invocation -> {
+                                                Consumer<Instance> listener = invocation.getArgument(2);
+                                                listener.accept(InstanceFixture.simpleInstance("id1"));
+                                                listener.accept(InstanceFixture.simpleInstance("id2"));
+                                                return Sets.newHashSet();
+                                            });
+
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, true, instanceStringFixture);
+        Response response = resumedResponse();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
+        assertThat(response.getMediaType().toString(), is(InstanceRest.APPLICATION_NDJSON));
+        String[] lines = output.toString("UTF-8").split("\n");
+        assertThat(lines.length, is(2));
+        assertThat(JacksonUtil.convertFromJson(lines[0], Instance.class).getId(), is("id1"));
+        assertThat(JacksonUtil.convertFromJson(lines[1], Instance.class).getId(), is("id2"));
+    }
+
+    @Test
+    public void testCreateInstanceStreamingKeepsTheRequestDeadline() throws IOException {
+        long expiration = System.currentTimeMillis() + 60000;
+        when(infrastructureService.getInfrastructure("infrastructureId")).thenReturn(InfrastructureFixture.getSimpleInfrastructure("aws"));
+        when(instanceService.createInstance(eq("infrastructureId"),
+                                            eq(instanceFixture),
+                                            any(Consumer.class))).thenAnswer(invocation -> {
+                                                assertThat(RequestDeadline.getExpiration(),
+                                                           is(Optional.of(expiration)));
+                                                return Sets.newHashSet();
+                                            });
+
+        RequestDeadline.set(expiration);
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, true, instanceStringFixture);
+        // cleared by the response filter before the response is written
+        RequestDeadline.set(null);
+        ((StreamingOutput) resumedResponse().getEntity()).write(new ByteArrayOutputStream());
+
+        verify(instanceService).createInstance(eq("infrastructureId"), eq(instanceFixture), any(Consumer.class));
+        assertThat(RequestDeadline.getExpiration().isPresent(), is(false));
+    }
+
+    @Test
+    public void testCreateInstanceStreamingOnUnknownInfrastructure() {
+        instanceRest.createInstance(asyncResponse, "infrastructureId", null, true, instanceStringFixture);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.NOT_FOUND.getStatusCode()));
+        verify(instanceService, times(0)).createInstance(eq("infrastructureId"),
+                                                         eq(instanceFixture),
+                                                         any(Consumer.class));
     }
 
     @Test
     public void testListAllInstances() {
-        when(instanceService.getAllInstances("infrastructureId")).thenReturn(Sets.newHashSet());
-        assertThat(instanceRest.getInstances("infrastructureId", null, null, true).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).getAllInstances("infrastructureId");
+        when(instanceService.getAllInstancesAsync("infrastructureId",
+                                                  null)).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        instanceRest.getInstances(asyncResponse, "infrastructureId", null, null, true, null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).getAllInstancesAsync("infrastructureId", null);
     }
 
     @Test
     public void testListCreatedInstances() {
-        when(instanceService.getAllInstances("infrastructureId")).thenReturn(Sets.newHashSet());
-        assertThat(instanceRest.getInstances("infrastructureId", null, null, null).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).getCreatedInstances("infrastructureId");
+        when(instanceService.getCreatedInstancesAsync("infrastructureId",
+                                                      null)).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        instanceRest.getInstances(asyncResponse, "infrastructureId", null, null, null, null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).getCreatedInstancesAsync("infrastructureId", null);
+    }
+
+    @Test
+    public void testListAllInstancesWithFreshConsistency() {
+        when(instanceService.getAllInstancesAsync("infrastructureId",
+                                                  InventoryConsistency.FRESH)).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        instanceRest.getInstances(asyncResponse, "infrastructureId", null, null, true, "fresh");
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).getAllInstancesAsync("infrastructureId", InventoryConsistency.FRESH);
+    }
+
+    @Test
+    public void testListInstancesWithUnknownConsistency() {
+        instanceRest.getInstances(asyncResponse, "infrastructureId", null, null, true, "eventual");
+        assertThat(resumedResponse().getStatus(), is(Response.Status.BAD_REQUEST.getStatusCode()));
     }
 
     @Test
     public void testGetInstanceById() {
-        assertThat(instanceRest.getInstances("infrastructureId", "instanceID", null, null).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).getInstanceById("infrastructureId", "instanceID");
+        when(instanceService.getInstanceByIdAsync("infrastructureId",
+                                                  "instanceID")).thenReturn(CompletableFuture.completedFuture(instanceFixture));
+        instanceRest.getInstances(asyncResponse, "infrastructureId", "instanceID", null, null, null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).getInstanceByIdAsync("infrastructureId", "instanceID");
     }
 
     @Test
     public void testGetInstanceByTag() {
-        assertThat(instanceRest.getInstances("infrastructureId", null, "instanceTAG", null).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).getInstanceByTag("infrastructureId", "instanceTAG");
+        when(instanceService.getInstanceByTagAsync("infrastructureId",
+                                                   "instanceTAG")).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet()));
+        instanceRest.getInstances(asyncResponse, "infrastructureId", null, "instanceTAG", null, null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).getInstanceByTagAsync("infrastructureId", "instanceTAG");
     }
 
     @Test
     public void testDeleteInstance() {
-        assertThat(instanceRest.deleteInstance("infrastructureId", "instanceID", "instanceTAG", null).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).deleteInstance("infrastructureId", "instanceID");
+        when(instanceService.deleteInstanceAsync("infrastructureId",
+                                                 "instanceID")).thenReturn(CompletableFuture.completedFuture(null));
+        instanceRest.deleteInstance(asyncResponse, "infrastructureId", "instanceID", "instanceTAG", null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).deleteInstanceAsync("infrastructureId", "instanceID");
     }
 
     @Test
     public void testDeleteInstanceByTag() {
-        assertThat(instanceRest.deleteInstance("infrastructureId", null, "instanceTAG", null).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).deleteInstanceByTag("infrastructureId", "instanceTAG");
+        when(instanceService.deleteInstanceByTagAsync("infrastructureId",
+                                                      "instanceTAG")).thenReturn(CompletableFuture.completedFuture(null));
+        instanceRest.deleteInstance(asyncResponse, "infrastructureId", null, "instanceTAG", null);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).deleteInstanceByTagAsync("infrastructureId", "instanceTAG");
     }
 
     @Test
     public void testDeleteCreatedInstances() {
-        assertThat(instanceRest.deleteInstance("infrastructureId", null, null, true).getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceService, times(1)).deleteCreatedInstances("infrastructureId");
+        when(instanceService.deleteCreatedInstancesAsync("infrastructureId")).thenReturn(CompletableFuture.completedFuture(null));
+        instanceRest.deleteInstance(asyncResponse, "infrastructureId", null, null, true);
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceService, times(1)).deleteCreatedInstancesAsync("infrastructureId");
+    }
+
+    private Response resumedResponse() {
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(response.capture());
+        return response.getValue();
     }
 
 }
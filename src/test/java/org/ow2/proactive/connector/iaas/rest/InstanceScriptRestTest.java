@@ -31,14 +31,19 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
 import org.ow2.proactive.connector.iaas.model.InstanceScript;
 import org.ow2.proactive.connector.iaas.model.ScriptResult;
@@ -54,6 +59,12 @@ public class InstanceScriptRestTest {
     @Mock
     private InstanceScriptService instanceScriptService;
 
+    @Spy
+    private AsyncRequestHandler asyncRequestHandler = new AsyncRequestHandler();
+
+    @Mock
+    private AsyncResponse asyncResponse;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
@@ -63,44 +74,50 @@ public class InstanceScriptRestTest {
     public void testExecuteScriptByInstanceId() {
         ScriptResult scriptResult = new ScriptResult("instanceId", "output", "error");
 
-        when(instanceScriptService.executeScriptOnInstance(Mockito.anyString(),
-                                                           Mockito.anyString(),
-                                                           Mockito.any(InstanceScript.class))).thenReturn(Lists.newArrayList(scriptResult));
+        when(instanceScriptService.executeScriptOnInstanceAsync(Mockito.anyString(),
+                                                                Mockito.anyString(),
+                                                                Mockito.any(InstanceScript.class))).thenReturn(CompletableFuture.completedFuture(Lists.newArrayList(scriptResult)));
 
-        assertThat(instanceScriptRest.executeScript("infrastructureId",
-                                                    "instanceId",
-                                                    "tag",
-                                                    InstanceScriptFixture.getInstanceScriptAsaString(new String[] {}))
-                                     .getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
+        instanceScriptRest.executeScript(asyncResponse,
+                                         "infrastructureId",
+                                         "instanceId",
+                                         "tag",
+                                         InstanceScriptFixture.getInstanceScriptAsaString(new String[] {}));
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
 
-        verify(instanceScriptService, times(1)).executeScriptOnInstance(Mockito.anyString(),
-                                                                        Mockito.anyString(),
-                                                                        Mockito.any(InstanceScript.class));
+        verify(instanceScriptService, times(1)).executeScriptOnInstanceAsync(Mockito.anyString(),
+                                                                             Mockito.anyString(),
+                                                                             Mockito.any(InstanceScript.class));
 
-        verify(instanceScriptService, times(0)).executeScriptOnInstanceTag(Mockito.anyString(),
-                                                                           Mockito.anyString(),
-                                                                           Mockito.any(InstanceScript.class));
+        verify(instanceScriptService, times(0)).executeScriptOnInstanceTagAsync(Mockito.anyString(),
+                                                                                Mockito.anyString(),
+                                                                                Mockito.any(InstanceScript.class));
     }
 
     @Test
     public void testExecuteScriptByInstanceTag() {
         ScriptResult scriptResult = new ScriptResult("instanceId", "output", "error");
-        when(instanceScriptService.executeScriptOnInstanceTag(Mockito.anyString(),
-                                                              Mockito.anyString(),
-                                                              Mockito.any(InstanceScript.class))).thenReturn(Lists.newArrayList(scriptResult));
-        assertThat(instanceScriptRest.executeScript("infrastructureId",
-                                                    null,
-                                                    "instanceTag",
-                                                    InstanceScriptFixture.getInstanceScriptAsaString(new String[] {}))
-                                     .getStatus(),
-                   is(Response.Status.OK.getStatusCode()));
-        verify(instanceScriptService, times(1)).executeScriptOnInstanceTag(Mockito.anyString(),
-                                                                           Mockito.anyString(),
-                                                                           Mockito.any(InstanceScript.class));
-
-        verify(instanceScriptService, times(0)).executeScriptOnInstance(Mockito.anyString(),
-                                                                        Mockito.anyString(),
-                                                                        Mockito.any(InstanceScript.class));
+        when(instanceScriptService.executeScriptOnInstanceTagAsync(Mockito.anyString(),
+                                                                   Mockito.anyString(),
+                                                                   Mockito.any(InstanceScript.class))).thenReturn(CompletableFuture.completedFuture(Lists.newArrayList(scriptResult)));
+        instanceScriptRest.executeScript(asyncResponse,
+                                         "infrastructureId",
+                                         null,
+                                         "instanceTag",
+                                         InstanceScriptFixture.getInstanceScriptAsaString(new String[] {}));
+        assertThat(resumedResponse().getStatus(), is(Response.Status.OK.getStatusCode()));
+        verify(instanceScriptService, times(1)).executeScriptOnInstanceTagAsync(Mockito.anyString(),
+                                                                                Mockito.anyString(),
+                                                                                Mockito.any(InstanceScript.class));
+
+        verify(instanceScriptService, times(0)).executeScriptOnInstanceAsync(Mockito.anyString(),
+                                                                             Mockito.anyString(),
+                                                                             Mockito.any(InstanceScript.class));
+    }
+
+    private Response resumedResponse() {
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(response.capture());
+        return response.getValue();
     }
 }
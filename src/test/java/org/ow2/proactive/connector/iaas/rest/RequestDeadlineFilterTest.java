@@ -0,0 +1,111 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.rest;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.RequestDeadline;
+
+
+public class RequestDeadlineFilterTest {
+
+    private RequestDeadlineFilter requestDeadlineFilter;
+
+    @Mock
+    private ContainerRequestContext requestContext;
+
+    @Mock
+    private UriInfo uriInfo;
+
+    private MultivaluedHashMap<String, String> queryParameters;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        requestDeadlineFilter = new RequestDeadlineFilter();
+        queryParameters = new MultivaluedHashMap<>();
+        when(requestContext.getUriInfo()).thenReturn(uriInfo);
+        when(uriInfo.getQueryParameters()).thenReturn(queryParameters);
+    }
+
+    @After
+    public void clearDeadline() {
+        RequestDeadline.set(null);
+    }
+
+    @Test
+    public void testDeadlineFromHeader() {
+        when(requestContext.getHeaderString(RequestDeadlineFilter.TIMEOUT_HEADER)).thenReturn("30");
+        requestDeadlineFilter.filter(requestContext);
+
+        long remainingTime = RequestDeadline.getRemainingTime().get();
+        assertTrue(remainingTime > 29000 && remainingTime <= 30000);
+    }
+
+    @Test
+    public void testDeadlineFromQueryParameter() {
+        queryParameters.putSingle(RequestDeadlineFilter.TIMEOUT_QUERY_PARAMETER, "0.5");
+        requestDeadlineFilter.filter(requestContext);
+
+        assertTrue(RequestDeadline.getRemainingTime().get() <= 500);
+    }
+
+    @Test
+    public void testNoDeadlineClearsPreviousOne() {
+        RequestDeadline.set(System.currentTimeMillis() + 1000);
+        requestDeadlineFilter.filter(requestContext);
+
+        assertThat(RequestDeadline.getExpiration(), is(Optional.empty()));
+    }
+
+    @Test
+    public void testInvalidTimeoutRejected() {
+        when(requestContext.getHeaderString(RequestDeadlineFilter.TIMEOUT_HEADER)).thenReturn("-1");
+        requestDeadlineFilter.filter(requestContext);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(requestContext).abortWith(response.capture());
+        assertThat(response.getValue().getStatus(), is(Response.Status.BAD_REQUEST.getStatusCode()));
+        assertThat(RequestDeadline.getExpiration(), is(Optional.empty()));
+    }
+}
@@ -32,13 +32,18 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.cache.InfrastructureCache;
+import org.ow2.proactive.connector.iaas.cache.InstanceInventoryCache;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
@@ -60,6 +65,12 @@ public class InfrastructureServiceTest {
     @Mock
     private CloudManager cloudManager;
 
+    @Mock
+    private InstanceInventoryCache instanceInventoryCache;
+
+    @Mock
+    private InfrastructureWarmUpService infrastructureWarmUpService;
+
     private ImmutableMap<String, Infrastructure> mockSupportedInfrastructures;
 
     @Before
@@ -77,8 +88,33 @@ public class InfrastructureServiceTest {
                                                                                 null,
                                                                                 null,
                                                                                 null);
+        when(infrastructureWarmUpService.isEnabled()).thenReturn(true);
         infrastructureService.registerInfrastructure(infrastructure);
         verify(infrastructureCache, times(1)).registerInfrastructure(infrastructure);
+        verify(instanceInventoryCache, times(1)).remove(infrastructure.getId());
+        verify(infrastructureWarmUpService, times(1)).warmUp(infrastructure);
+    }
+
+    @Test
+    public void testRegisterInfrastructureWarmsUpOnlyOnDemand() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(infrastructureWarmUpService.isEnabled()).thenReturn(false);
+
+        infrastructureService.registerInfrastructure(infrastructure);
+        verify(infrastructureWarmUpService, times(0)).warmUp(infrastructure);
+
+        infrastructureService.registerInfrastructure(infrastructure, true);
+        verify(infrastructureWarmUpService, times(1)).warmUp(infrastructure);
+    }
+
+    @Test
+    public void testRestoredInfrastructuresNotWarmedUpWhenDisabled() {
+        when(infrastructureWarmUpService.isEnabled()).thenReturn(false);
+
+        infrastructureService.warmUpRestoredInfrastructures();
+
+        verify(infrastructureCache, times(0)).getSupportedInfrastructures();
+        verify(infrastructureWarmUpService, times(0)).warmUp(Mockito.any(Infrastructure.class), Mockito.anyBoolean());
     }
 
     @Test
@@ -114,6 +150,7 @@ public class InfrastructureServiceTest {
         InOrder inOrder = inOrder(cloudManager, infrastructureCache);
         inOrder.verify(cloudManager, times(1)).deleteInfrastructure(infrastructure);
         inOrder.verify(infrastructureCache, times(1)).deleteInfrastructure(infrastructure);
+        verify(instanceInventoryCache, times(1)).remove(infrastructure.getId());
     }
 
     @Test
@@ -152,4 +189,28 @@ public class InfrastructureServiceTest {
         assertThat(infrastructureService.getAllSupportedInfrastructure().get("aws"), is(infrastructure));
         assertThat(infrastructureService.getAllSupportedInfrastructure().size(), is(1));
     }
+
+    @Test
+    public void testRegisterInfrastructures() {
+        List<Infrastructure> infrastructures = Arrays.asList(InfrastructureFixture.getSimpleInfrastructure("aws-ec2"),
+                                                             InfrastructureFixture.getSimpleInfrastructure("openstack"));
+
+        assertThat(infrastructureService.registerInfrastructures(infrastructures, false), is(infrastructures));
+        verify(infrastructureCache, times(1)).registerInfrastructures(infrastructures);
+        verify(instanceInventoryCache, times(1)).remove("id-aws-ec2");
+        verify(instanceInventoryCache, times(1)).remove("id-openstack");
+        verify(infrastructureWarmUpService, times(0)).warmUp(Mockito.any(Infrastructure.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterInfrastructuresWithDuplicateIds() {
+        try {
+            infrastructureService.registerInfrastructures(Arrays.asList(InfrastructureFixture.getSimpleInfrastructure("aws-ec2"),
+                                                                        InfrastructureFixture.getSimpleInfrastructure("aws-ec2")),
+                                                          true);
+        } finally {
+            verify(infrastructureCache, times(0)).registerInfrastructures(Mockito.anyList());
+        }
+    }
+
 }
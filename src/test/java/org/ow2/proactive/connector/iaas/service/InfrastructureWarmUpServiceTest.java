@@ -0,0 +1,139 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.CloudManager;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureReadiness;
+import org.ow2.proactive.connector.iaas.model.ReadinessStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class InfrastructureWarmUpServiceTest {
+
+    @InjectMocks
+    private InfrastructureWarmUpService infrastructureWarmUpService;
+
+    @Mock
+    private CloudManager cloudManager;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(infrastructureWarmUpService, "warmUpThreads", 1);
+        infrastructureWarmUpService.start();
+
+        infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                 "aws",
+                                                                 "endPoint",
+                                                                 "userName",
+                                                                 "password",
+                                                                 null,
+                                                                 null,
+                                                                 null);
+    }
+
+    @After
+    public void stop() {
+        infrastructureWarmUpService.stop();
+    }
+
+    @Test
+    public void testWarmUpSucceeds() {
+        infrastructureWarmUpService.warmUp(infrastructure);
+
+        verify(cloudManager, timeout(5000)).warmUpInfrastructure(infrastructure);
+        InfrastructureReadiness readiness = waitForWarmUp(infrastructure.getId());
+        assertThat(readiness.getStatus(), is(ReadinessStatus.READY));
+        assertThat(readiness.getLatency() >= 0, is(true));
+        assertThat(readiness.getError(), is(nullValue()));
+    }
+
+    @Test
+    public void testWarmUpFails() {
+        doThrow(new RuntimeException("invalid credentials")).when(cloudManager).warmUpInfrastructure(infrastructure);
+
+        infrastructureWarmUpService.warmUp(infrastructure);
+
+        InfrastructureReadiness readiness = waitForWarmUp(infrastructure.getId());
+        assertThat(readiness.getStatus(), is(ReadinessStatus.FAILED));
+        assertThat(readiness.getError(), is("invalid credentials"));
+    }
+
+    @Test
+    public void testWarmUpOfDeletedInfrastructureIsDiscarded() throws InterruptedException {
+        CountDownLatch warmUpStarted = new CountDownLatch(1);
+        CountDownLatch infrastructureDeleted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            warmUpStarted.countDown();
+            infrastructureDeleted.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(cloudManager).warmUpInfrastructure(infrastructure);
+
+        infrastructureWarmUpService.warmUp(infrastructure);
+        assertThat(infrastructureWarmUpService.getReadiness(infrastructure.getId()).getStatus(),
+                   is(ReadinessStatus.PENDING));
+        warmUpStarted.await(5, TimeUnit.SECONDS);
+        infrastructureWarmUpService.remove(infrastructure.getId());
+        infrastructureDeleted.countDown();
+
+        // the single warm-up thread runs the next warm-up once the first one is over
+        Infrastructure otherInfrastructure = InfrastructureFixture.getSimpleInfrastructure("id-other", "aws");
+        infrastructureWarmUpService.warmUp(otherInfrastructure);
+        assertThat(waitForWarmUp(otherInfrastructure.getId()).getStatus(), is(ReadinessStatus.READY));
+        assertThat(infrastructureWarmUpService.getReadiness(infrastructure.getId()), is(nullValue()));
+    }
+
+    private InfrastructureReadiness waitForWarmUp(String infrastructureId) {
+        long deadline = System.currentTimeMillis() + 5000;
+        InfrastructureReadiness readiness = infrastructureWarmUpService.getReadiness(infrastructureId);
+        while (readiness.getStatus() == ReadinessStatus.PENDING && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+            readiness = infrastructureWarmUpService.getReadiness(infrastructureId);
+        }
+        return readiness;
+    }
+}
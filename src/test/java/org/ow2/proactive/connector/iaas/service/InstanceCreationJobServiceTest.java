@@ -0,0 +1,281 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.ws.rs.NotFoundException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cloud.provider.PartialInstanceCreationException;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationFailure;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationJob;
+import org.ow2.proactive.connector.iaas.model.InstanceCreationResult;
+import org.ow2.proactive.connector.iaas.model.JobStatus;
+import org.ow2.proactive.connector.iaas.model.Operation;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+
+public class InstanceCreationJobServiceTest {
+
+    @InjectMocks
+    private InstanceCreationJobService instanceCreationJobService;
+
+    @Mock
+    private InfrastructureService infrastructureService;
+
+    @Mock
+    private InstanceService instanceService;
+
+    private Infrastructure infrastructure;
+
+    private Instance instance;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(instanceCreationJobService, "jobThreads", 1);
+        ReflectionTestUtils.setField(instanceCreationJobService, "jobRetention", 3600000L);
+        instanceCreationJobService.start();
+
+        infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                 "aws",
+                                                                 "endPoint",
+                                                                 "userName",
+                                                                 "password",
+                                                                 null,
+                                                                 null,
+                                                                 null);
+        instance = InstanceFixture.getInstance("instance-id",
+                                               "instance-name",
+                                               "image",
+                                               "2",
+                                               "512",
+                                               "cpu",
+                                               "publicIP",
+                                               "privateIP",
+                                               "running");
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+    }
+
+    @After
+    public void stop() {
+        instanceCreationJobService.stop();
+    }
+
+    @Test
+    public void testSubmittedJobSucceeds() {
+        when(instanceService.createInstance(eq(infrastructure.getId()), eq(instance), any())).thenReturn(Sets.newHashSet(instance));
+
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        assertThat(job.getRequestedInstances(), is(2));
+        verify(instanceService, timeout(5000)).createInstance(eq(infrastructure.getId()), eq(instance), any());
+        InstanceCreationJob finishedJob = waitForJob(job.getId());
+        assertThat(finishedJob.getStatus(), is(JobStatus.SUCCEEDED));
+        assertThat(finishedJob.getInstances().size(), is(1));
+    }
+
+    @Test
+    public void testSubmittedJobFails() {
+        when(instanceService.createInstance(eq(infrastructure.getId()),
+                                            eq(instance),
+                                            any())).thenThrow(new RuntimeException("quota exceeded"));
+
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        InstanceCreationJob finishedJob = waitForJob(job.getId());
+        assertThat(finishedJob.getStatus(), is(JobStatus.FAILED));
+        assertThat(finishedJob.getError(), is("quota exceeded"));
+    }
+
+    @Test
+    public void testSubmittedJobPartiallySucceeds() {
+        InstanceCreationResult result = new InstanceCreationResult(2,
+                                                                   Sets.newHashSet(instance),
+                                                                   Lists.newArrayList(new InstanceCreationFailure("id2",
+                                                                                                                  "node did not start")));
+        when(instanceService.createInstance(eq(infrastructure.getId()),
+                                            eq(instance),
+                                            any())).thenThrow(new PartialInstanceCreationException(result, null));
+
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        InstanceCreationJob finishedJob = waitForJob(job.getId());
+        assertThat(finishedJob.getStatus(), is(JobStatus.PARTIALLY_SUCCEEDED));
+        assertThat(finishedJob.getInstances().size(), is(1));
+        assertThat(finishedJob.getFailures(), is(result.getFailures()));
+    }
+
+    @Test
+    public void testJobIsPendingUntilStarted() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        when(instanceService.createInstance(eq(infrastructure.getId()), eq(instance), any())).thenAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return Sets.newHashSet(instance);
+        });
+
+        InstanceCreationJob runningJob = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(),
+                                                                                           instance);
+        InstanceCreationJob pendingJob = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(),
+                                                                                           instance);
+
+        assertThat(instanceCreationJobService.getJob(infrastructure.getId(), pendingJob.getId()).getStatus(),
+                   is(JobStatus.PENDING));
+        assertThat(instanceCreationJobService.getJobs(infrastructure.getId()).size(), is(2));
+        latch.countDown();
+        assertThat(waitForJob(runningJob.getId()).getStatus(), is(JobStatus.SUCCEEDED));
+    }
+
+    @Test
+    public void testRunningJobListsEachCreatedInstance() {
+        CountDownLatch latch = new CountDownLatch(1);
+        when(instanceService.createInstance(eq(infrastructure.getId()), eq(instance), any())).thenAnswer(invocation -> {
+            Consumer<Instance> listener = invocation.getArgument(2);
+            listener.accept(instance);
+            latch.await(5, TimeUnit.SECONDS);
+            return Sets.newHashSet(instance);
+        });
+
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        InstanceCreationJob runningJob = instanceCreationJobService.getJob(infrastructure.getId(), job.getId());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runningJob.getInstances().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+            runningJob = instanceCreationJobService.getJob(infrastructure.getId(), job.getId());
+        }
+        assertThat(runningJob.getStatus(), is(JobStatus.RUNNING));
+        assertThat(runningJob.getInstances(), is(Sets.newHashSet(instance)));
+        latch.countDown();
+        assertThat(waitForJob(job.getId()).getStatus(), is(JobStatus.SUCCEEDED));
+    }
+
+    @Test
+    public void testPendingJobCancelledBeforeItStarts() {
+        CountDownLatch latch = new CountDownLatch(1);
+        when(instanceService.createInstance(eq(infrastructure.getId()), eq(instance), any())).thenAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return Sets.newHashSet(instance);
+        });
+        InstanceCreationJob runningJob = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(),
+                                                                                           instance);
+        InstanceCreationJob pendingJob = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(),
+                                                                                           instance);
+
+        Optional<Operation> operation = instanceCreationJobService.cancelPendingJob(pendingJob.getId());
+        latch.countDown();
+
+        assertThat(operation.get().getId(), is(pendingJob.getId()));
+        assertThat(operation.get().isCancelled(), is(true));
+        assertThat(waitForJob(pendingJob.getId()).getStatus(), is(JobStatus.CANCELLED));
+        assertThat(waitForJob(runningJob.getId()).getStatus(), is(JobStatus.SUCCEEDED));
+        verify(instanceService, timeout(5000)).createInstance(eq(infrastructure.getId()), eq(instance), any());
+        assertThat(instanceCreationJobService.cancelPendingJob(runningJob.getId()).isPresent(), is(false));
+    }
+
+    @Test
+    public void testFailedJobListsTheInstancesAlreadyCreated() {
+        when(instanceService.createInstance(eq(infrastructure.getId()), eq(instance), any())).thenAnswer(invocation -> {
+            Consumer<Instance> listener = invocation.getArgument(2);
+            listener.accept(instance);
+            throw new RuntimeException("quota exceeded");
+        });
+
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        InstanceCreationJob finishedJob = waitForJob(job.getId());
+        assertThat(finishedJob.getStatus(), is(JobStatus.FAILED));
+        assertThat(finishedJob.getInstances(), is(Sets.newHashSet(instance)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubmitWithInvalidNumberOfInstances() {
+        instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance.withNumber("two"));
+    }
+
+    @Test
+    public void testFinishedJobsPurgedAfterRetention() {
+        ReflectionTestUtils.setField(instanceCreationJobService, "jobRetention", 0L);
+        when(instanceService.createInstance(eq(infrastructure.getId()),
+                                            eq(instance),
+                                            any())).thenReturn(Sets.newHashSet(instance));
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+        long endTime = waitForJob(job.getId()).getEndTime();
+        while (System.currentTimeMillis() == endTime) {
+            Thread.yield();
+        }
+
+        ReflectionTestUtils.invokeMethod(instanceCreationJobService, "purgeExpiredJobs");
+
+        assertThat(instanceCreationJobService.getJobs(infrastructure.getId()).isEmpty(), is(true));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testSubmitOnUnknownInfrastructure() {
+        instanceCreationJobService.submitInstanceCreation("unknown", instance);
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testGetJobOfAnotherInfrastructure() {
+        InstanceCreationJob job = instanceCreationJobService.submitInstanceCreation(infrastructure.getId(), instance);
+
+        instanceCreationJobService.getJob("another-infrastructure", job.getId());
+    }
+
+    private InstanceCreationJob waitForJob(String jobId) {
+        long deadline = System.currentTimeMillis() + 5000;
+        InstanceCreationJob job = instanceCreationJobService.getJob(infrastructure.getId(), jobId);
+        while (!job.getStatus().isDone() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+            job = instanceCreationJobService.getJob(infrastructure.getId(), jobId);
+        }
+        return job;
+    }
+}
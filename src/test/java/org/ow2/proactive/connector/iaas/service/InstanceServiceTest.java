@@ -31,7 +31,9 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.jclouds.compute.RunNodesException;
 import org.junit.Before;
@@ -39,6 +41,8 @@ import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.ow2.proactive.connector.iaas.cache.InstanceInventoryCache;
+import org.ow2.proactive.connector.iaas.cache.InventoryConsistency;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
@@ -59,6 +63,9 @@ public class InstanceServiceTest {
     @Mock
     private CloudManager cloudManager;
 
+    @Mock
+    private InstanceInventoryCache instanceInventoryCache;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
@@ -93,6 +100,63 @@ public class InstanceServiceTest {
 
         assertThat(created.size(), is(1));
         verify(cloudManager, times(1)).createInstance(infrastructure, instance);
+        verify(instanceInventoryCache, times(1)).invalidate("id-aws");
+    }
+
+    @Test
+    public void testCreateInstanceAsync() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws");
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+        Instance instance = InstanceFixture.simpleInstance("instance-id");
+        CompletableFuture<Set<Instance>> creation = new CompletableFuture<>();
+        when(cloudManager.createInstanceAsync(infrastructure, instance)).thenReturn(creation);
+
+        CompletableFuture<Set<Instance>> created = instanceService.createInstanceAsync(infrastructure.getId(),
+                                                                                     instance);
+
+        verify(instanceInventoryCache, times(0)).invalidate(infrastructure.getId());
+        creation.complete(Sets.newHashSet(instance));
+        assertThat(created.join().size(), is(1));
+        verify(instanceInventoryCache, times(1)).invalidate(infrastructure.getId());
+    }
+
+    @Test
+    public void testAddAndRemoveInstancePublicIpInvalidateInventory() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws");
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+        when(cloudManager.addToInstancePublicIp(infrastructure, "instance-id", null)).thenReturn("1.2.3.4");
+
+        assertThat(instanceService.addToInstancePublicIp(infrastructure.getId(), "instance-id", null), is("1.2.3.4"));
+        verify(instanceInventoryCache, times(1)).invalidate(infrastructure.getId());
+
+        instanceService.removeInstancePublicIp(infrastructure.getId(), "instance-id", "1.2.3.4");
+        verify(cloudManager, times(1)).removeInstancePublicIp(infrastructure, "instance-id", "1.2.3.4");
+        verify(instanceInventoryCache, times(2)).invalidate(infrastructure.getId());
+    }
+
+    @Test
+    public void testAddAndRemoveInstancePublicIpAsyncInvalidateInventory() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws");
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+        CompletableFuture<String> addition = new CompletableFuture<>();
+        CompletableFuture<Void> removal = new CompletableFuture<>();
+        when(cloudManager.addToInstancePublicIpAsync(infrastructure, "instance-id", null)).thenReturn(addition);
+        when(cloudManager.removeInstancePublicIpAsync(infrastructure, "instance-id", "1.2.3.4")).thenReturn(removal);
+
+        CompletableFuture<String> added = instanceService.addToInstancePublicIpAsync(infrastructure.getId(),
+                                                                                     "instance-id",
+                                                                                     null);
+        verify(instanceInventoryCache, times(0)).invalidate(infrastructure.getId());
+        addition.complete("1.2.3.4");
+        assertThat(added.join(), is("1.2.3.4"));
+        verify(instanceInventoryCache, times(1)).invalidate(infrastructure.getId());
+
+        CompletableFuture<Void> removed = instanceService.removeInstancePublicIpAsync(infrastructure.getId(),
+                                                                                      "instance-id",
+                                                                                      "1.2.3.4");
+        removal.completeExceptionally(new IllegalStateException("failed"));
+        assertThat(removed.isCompletedExceptionally(), is(true));
+        verify(instanceInventoryCache, times(2)).invalidate(infrastructure.getId());
     }
 
     @Test(expected = javax.ws.rs.NotFoundException.class)
@@ -142,6 +206,7 @@ public class InstanceServiceTest {
         instanceService.deleteInstance(infrastructure.getId(), instance.getId());
 
         verify(cloudManager, times(1)).deleteInstance(infrastructure, instance.getId());
+        verify(instanceInventoryCache, times(1)).invalidate(infrastructure.getId());
     }
 
     @Test
@@ -176,15 +241,14 @@ public class InstanceServiceTest {
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
 
         Instance instance1 = InstanceFixture.simpleInstanceWithTag("id1", "tag1");
-        Instance instance2 = InstanceFixture.simpleInstanceWithTag("id2", "tag2");
 
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
-        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(instance1,
-                                                                                                    instance2));
+        when(instanceInventoryCache.getInstancesByTag(infrastructure, "tag1")).thenReturn(Sets.newHashSet(instance1));
 
         instanceService.deleteInstanceByTag(infrastructure.getId(), "tag1");
 
-        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+        verify(instanceInventoryCache, times(1)).getInstancesByTag(infrastructure, "tag1");
+        verify(cloudManager, times(0)).getAllInfrastructureInstances(infrastructure);
         verify(cloudManager, times(1)).deleteInstance(infrastructure, "id1");
         verify(cloudManager, times(0)).deleteInstance(infrastructure, "id2");
     }
@@ -284,13 +348,13 @@ public class InstanceServiceTest {
                                                                                 null);
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
 
-        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id")));
+        when(instanceInventoryCache.getAllInstances(infrastructure, null)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id")));
 
         Set<Instance> created = instanceService.getAllInstances(infrastructure.getId());
 
         assertThat(created.size(), is(1));
 
-        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+        verify(instanceInventoryCache, times(1)).getAllInstances(infrastructure, null);
 
     }
 
@@ -312,13 +376,13 @@ public class InstanceServiceTest {
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
         when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(instance1,
                                                                                                     instance2));
-        when(cloudManager.getCreatedInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(instance1));
+        when(instanceInventoryCache.getCreatedInstances(infrastructure, null)).thenReturn(Sets.newHashSet(instance1));
 
         Set<Instance> created = instanceService.getCreatedInstances(infrastructure.getId());
 
         assertThat(created.size(), is(1));
         verify(cloudManager, times(0)).getAllInfrastructureInstances(infrastructure);
-        verify(cloudManager, times(1)).getCreatedInfrastructureInstances(infrastructure);
+        verify(instanceInventoryCache, times(1)).getCreatedInstances(infrastructure, null);
     }
 
     @Test(expected = javax.ws.rs.NotFoundException.class)
@@ -353,11 +417,13 @@ public class InstanceServiceTest {
                                                                                 null);
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
 
-        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id")));
+        when(instanceInventoryCache.getInstancesByTag(infrastructure,
+                                                      "instanceTAG")).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstanceWithTag("id",
+                                                                                                                                      "instanceTAG")));
 
-        instanceService.getInstanceByTag(infrastructure.getId(), "instanceTAG");
+        assertThat(instanceService.getInstanceByTag(infrastructure.getId(), "instanceTAG").size(), is(1));
 
-        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+        verify(instanceInventoryCache, times(1)).getInstancesByTag(infrastructure, "instanceTAG");
 
     }
 
@@ -374,11 +440,51 @@ public class InstanceServiceTest {
                                                                                 null);
         when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
 
-        when(cloudManager.getAllInfrastructureInstances(infrastructure)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id")));
+        when(instanceInventoryCache.getInstanceById(infrastructure,
+                                                    "id")).thenReturn(Optional.of(InstanceFixture.simpleInstance("id")));
 
-        instanceService.getInstanceById(infrastructure.getId(), "id");
+        assertThat(instanceService.getInstanceById(infrastructure.getId(), "id").getId(), is("id"));
 
-        verify(cloudManager, times(1)).getAllInfrastructureInstances(infrastructure);
+        verify(instanceInventoryCache, times(1)).getInstanceById(infrastructure, "id");
+        verify(cloudManager, times(0)).getAllInfrastructureInstances(infrastructure);
+    }
+
+    @Test(expected = javax.ws.rs.NotFoundException.class)
+    public void testGetInstanceByIdNotFound() throws NumberFormatException, RunNodesException {
+
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+        when(instanceInventoryCache.getInstanceById(infrastructure, "unknown")).thenReturn(Optional.empty());
+
+        instanceService.getInstanceById(infrastructure.getId(), "unknown");
+    }
+
+    @Test
+    public void testGetAllInstancesWithConsistency() throws NumberFormatException, RunNodesException {
+
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                null,
+                                                                                null);
+        when(infrastructureService.getInfrastructure(infrastructure.getId())).thenReturn(infrastructure);
+
+        when(instanceInventoryCache.getAllInstances(infrastructure,
+                                                    InventoryConsistency.FRESH)).thenReturn(Sets.newHashSet(InstanceFixture.simpleInstance("id")));
+
+        Set<Instance> instances = instanceService.getAllInstances(infrastructure.getId(), InventoryConsistency.FRESH);
 
+        assertThat(instances.size(), is(1));
+        verify(instanceInventoryCache, times(1)).getAllInstances(infrastructure, InventoryConsistency.FRESH);
     }
 }